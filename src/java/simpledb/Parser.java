@@ -19,6 +19,7 @@ import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.VarcharField;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionId;
 
@@ -361,13 +362,14 @@ public class Parser {
                     IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (!td.getFieldType(i).isString()) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
                                 + " is a string, expected an integer.");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
+                    StringField f = td.getFieldType(i) == Type.VARCHAR_TYPE
+                            ? new VarcharField(zc.getValue())
+                            : new StringField(zc.getValue(), Type.STRING_LEN);
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
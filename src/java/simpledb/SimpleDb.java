@@ -2,11 +2,15 @@ package simpledb;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.index.BTreeBulkLoader;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class SimpleDb {
     public static void main (String[] args)
@@ -15,6 +19,14 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
+                    // a trailing "slotted", "pax", "dict" or "compressed" writes pages in that format
+                    String format = args.length > 3 ? args[args.length - 1].toLowerCase() : "";
+                    boolean slotted = format.equals("slotted");
+                    boolean pax = format.equals("pax");
+                    boolean dict = format.equals("dict");
+                    boolean compressed = format.equals("compressed");
+                    if (slotted || pax || dict || compressed)
+                        args = Arrays.copyOf(args, args.length - 1);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
@@ -29,34 +41,84 @@ public class SimpleDb {
                         for (int i = 0; i < numOfAttributes; i++)
                             ts[i] = Type.INT_TYPE;
                     else {
-                        String typeString = args[3];
-                        String[] typeStringAr = typeString.split(",");
-                        if (typeStringAr.length != numOfAttributes) {
-                            System.err.println("The number of types does not agree with the number of columns");
+                        ts = parseTypes(args[3], numOfAttributes);
+                        if (ts == null)
                             return;
-                        }
-                        int index = 0;
-                        for (String s : typeStringAr) {
-                            if (s.equalsIgnoreCase("int"))
-                                ts[index++] = Type.INT_TYPE;
-                            else if (s.equalsIgnoreCase("string"))
-                                ts[index++] = Type.STRING_TYPE;
-                            else {
-                                System.err.println("Unknown type " + s);
-                                return;
-                            }
-                        }
                         if (args.length == 5)
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (slotted)
+                        HeapFileEncoder.convertSlotted(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else if (pax)
+                        HeapFileEncoder.convertPax(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else if (dict)
+                        HeapFileEncoder.convertDictionary(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else if (compressed)
+                        HeapFileEncoder.convertCompressed(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    else
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
                 break;
+            case "load":
+                // like convert, but parses on several threads, and with
+                // -btree writes a B+ tree keyed on the given field
+                try {
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    int keyField = -1;
+                    double fill = BTreeBulkLoader.DEFAULT_FILL_FACTOR;
+                    List<String> rest = new ArrayList<>();
+                    for (int i = 1; i < args.length; i++) {
+                        if (args[i].equals("-threads") && i + 1 < args.length)
+                            threads = Integer.parseInt(args[++i]);
+                        else if (args[i].equals("-btree") && i + 1 < args.length)
+                            keyField = Integer.parseInt(args[++i]);
+                        else if (args[i].equals("-fill") && i + 1 < args.length)
+                            fill = Double.parseDouble(args[++i]);
+                        else
+                            rest.add(args[i]);
+                    }
+                    if (rest.size() < 2 || rest.size() > 4) {
+                        System.err.println("Usage: load <file.txt> <numFields> [types [separator]]"
+                                + " [-threads n] [-btree keyField [-fill f]]");
+                        return;
+                    }
+                    File sourceTxtFile = new File(rest.get(0));
+                    File targetDatFile = new File(rest.get(0).replaceAll(".txt", ".dat"));
+                    int numOfAttributes = Integer.parseInt(rest.get(1));
+                    Type[] ts = new Type[numOfAttributes];
+                    Arrays.fill(ts, Type.INT_TYPE);
+                    if (rest.size() > 2) {
+                        ts = parseTypes(rest.get(2), numOfAttributes);
+                        if (ts == null)
+                            return;
+                    }
+                    char fieldSeparator = rest.size() > 3 ? rest.get(3).charAt(0) : ',';
+
+                    long begin = System.currentTimeMillis();
+                    long count;
+                    if (keyField >= 0) {
+                        BTreeBulkLoader loader = new BTreeBulkLoader(ts, fieldSeparator, keyField, threads);
+                        loader.setFillFactor(fill);
+                        count = loader.load(sourceTxtFile, targetDatFile, BufferPool.getPageSize());
+                    } else {
+                        count = new BulkLoader(ts, fieldSeparator, threads)
+                                .loadHeap(sourceTxtFile, targetDatFile, BufferPool.getPageSize());
+                    }
+                    System.out.println("Loaded " + count + " tuples into " + targetDatFile + " in "
+                            + (System.currentTimeMillis() - begin) + " ms");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                break;
             case "print":
                 File tableFile = new File(args[1]);
                 int columns = Integer.parseInt(args[2]);
@@ -101,4 +163,32 @@ public class SimpleDb {
         }
     }
 
+    /**
+     * Parse a comma separated list of the given number of types.
+     *
+     * @return the types, or null if the list is not valid
+     */
+    private static Type[] parseTypes(String typeString, int numOfAttributes) {
+        String[] typeStringAr = typeString.split(",");
+        if (typeStringAr.length != numOfAttributes) {
+            System.err.println("The number of types does not agree with the number of columns");
+            return null;
+        }
+        Type[] ts = new Type[numOfAttributes];
+        int index = 0;
+        for (String s : typeStringAr) {
+            if (s.equalsIgnoreCase("int"))
+                ts[index++] = Type.INT_TYPE;
+            else if (s.equalsIgnoreCase("string"))
+                ts[index++] = Type.STRING_TYPE;
+            else if (s.equalsIgnoreCase("varchar"))
+                ts[index++] = Type.VARCHAR_TYPE;
+            else {
+                System.err.println("Unknown type " + s);
+                return null;
+            }
+        }
+        return ts;
+    }
+
 }
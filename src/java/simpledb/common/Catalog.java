@@ -1,8 +1,13 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
+import simpledb.storage.DictionaryHeapFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.MappedHeapFile;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -62,8 +67,11 @@ public class Catalog {
         }
         nameToTableId.put(name, file.getId());
         tableIdToName.put(file.getId(), name);
-        tableIdToDbFile.put(file.getId(), file);
+        DbFile replaced = tableIdToDbFile.put(file.getId(), file);
         tableIdToPrimaryKey.put(file.getId(), pkeyField);
+        if (replaced != null && replaced != file) {
+            closeFile(replaced);
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -130,15 +138,30 @@ public class Catalog {
         return tableIdToName.get(id);
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, releasing the files backing them */
     public void clear() {
         // some code goes here
+        for (DbFile file : tableIdToDbFile.values()) {
+            closeFile(file);
+        }
         nameToTableId.clear();
         tableIdToName.clear();
         tableIdToDbFile.clear();
         tableIdToPrimaryKey.clear();
     }
 
+    /**
+     * Release the open file handles of a table that is no longer registered.
+     * The DbFile stays usable and reopens its file on demand.
+     */
+    private void closeFile(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
@@ -165,6 +188,10 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("text"))
+                        types.add(Type.TEXT_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -181,7 +208,27 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // an optional page format follows the field list
+                String format = line.substring(line.indexOf(")") + 1).trim();
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (format.isEmpty())
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("pax"))
+                    tabHf = new PaxHeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("dict"))
+                    tabHf = new DictionaryHeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("compressed"))
+                    tabHf = new CompressedHeapFile(dataFile, t);
+                else if (format.equalsIgnoreCase("mapped"))
+                    tabHf = new MappedHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown page format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
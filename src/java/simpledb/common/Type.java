@@ -3,7 +3,11 @@ package simpledb.common;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.TextField;
+import simpledb.storage.VarcharField;
 
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.io.*;
 
@@ -28,6 +32,24 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new IntField(buf.getInt(offset));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +68,92 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+    }, VARCHAR_TYPE() {
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return new VarcharField(((StringField) STRING_TYPE.parse(dis)).getValue());
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            return new VarcharField(((StringField) STRING_TYPE.parse(buf)).getValue());
+        }
+
+        @Override
+        public int getCompactLen(Field f) {
+            return 4 + ((StringField) f).getValue().length();
+        }
+
+        @Override
+        public void writeCompact(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            dos.writeInt(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field parseCompact(ByteBuffer buf) throws ParseException {
+            try {
+                int strLen = buf.getInt();
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                return new VarcharField(new String(bs));
+            } catch (BufferUnderflowException | NegativeArraySizeException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+    }, TEXT_TYPE() {
+        // a pointer to the value in overflow pages: the first page and the length
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new TextField(dis.readInt(), dis.readInt());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new TextField(buf.getInt(), buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            try {
+                return new TextField(buf.getInt(offset), buf.getInt(offset + 4));
+            } catch (IndexOutOfBoundsException e) {
+                throw new ParseException("couldn't parse", offset);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -64,4 +172,73 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer. On return the
+   *   buffer is positioned just past the field, i.e. getLen() bytes further.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified offset of the buffer. Unlike
+   *   {@link #parse(ByteBuffer)} this does not move the position of the
+   *   buffer, so several threads may parse from the same buffer at once.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field in the buffer
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   */
+    public Field parse(ByteBuffer buf, int offset) throws ParseException {
+        ByteBuffer field = buf.duplicate();
+        try {
+            field.position(offset);
+        } catch (IllegalArgumentException e) {
+            throw new ParseException("couldn't parse", offset);
+        }
+        return parse(field);
+    }
+
+  /**
+   * @return the number of bytes the compact form of the field takes, which
+   *   is getLen() for all but variable-length types
+   * @see #writeCompact
+   */
+    public int getCompactLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Write the field in its compact form, used by pages that store tuples at
+   * their actual size. Variable-length types write only the bytes in use;
+   * all others write the same bytes as {@link Field#serialize}.
+   * @param f The field to write, of this type
+   * @param dos The stream to write to
+   */
+    public void writeCompact(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
+  /**
+   * @return a Field of this type read from the compact form at the current
+   *   position of the buffer, which is left just past the field
+   * @param buf The buffer to read from
+   * @throws ParseException if the data read from the buffer is not
+   *   of the appropriate type.
+   * @see #writeCompact
+   */
+    public Field parseCompact(ByteBuffer buf) throws ParseException {
+        return parse(buf);
+    }
+
+  /**
+   * @return true if fields of this type hold strings
+   */
+    public boolean isString() {
+        return this == STRING_TYPE || this == VARCHAR_TYPE;
+    }
+
 }
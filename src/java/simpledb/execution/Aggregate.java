@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
@@ -114,9 +115,10 @@ public class Aggregate extends Operator {
         super.open();
         child.open();
         this.aggregator = aggregatorFactory(child.getTupleDesc().getFieldType(gfield));
-        while(child.hasNext()) {
-            Tuple tuple = child.next();
-            aggregator.mergeTupleIntoGroup(tuple);
+        // the child is read a batch at a time
+        TupleBatch batch = new TupleBatch(child.getTupleDesc());
+        while (child.nextBatch(batch)) {
+            aggregator.mergeBatch(batch);
         }
         aggregatorOpIterator = aggregator.iterator();
         aggregatorOpIterator.open();
@@ -182,7 +184,7 @@ public class Aggregate extends Operator {
     private Aggregator aggregatorFactory (Type fieldType) {
         if(fieldType.equals(Type.INT_TYPE)) {
             return new IntegerAggregator(gfield, fieldType, afield, aop);
-        } else if(fieldType.equals(Type.STRING_TYPE)) {
+        } else if(fieldType.isString()) {
             return new StringAggregator(gfield, fieldType, afield, aop);
         } else {
             throw new RuntimeException("unknown field type : " + fieldType);
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -79,6 +80,19 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge the selected rows of a batch into the aggregate. This
+     * implementation merges them one tuple at a time.
+     *
+     * @param batch rows holding an aggregate field and a group-by field
+     */
+    default void mergeBatch(TupleBatch batch) {
+        int[] sel = batch.selection();
+        for (int k = 0; k < batch.selectedCount(); k++) {
+            mergeTupleIntoGroup(batch.getTuple(sel[k]));
+        }
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -66,6 +66,7 @@ public class Delete extends Operator {
         }
         tuple = new Tuple(tupleDesc);
         tuple.setField(0, new IntField(cnt));
+        hasFetchNext = false;
         super.open();
     }
 
@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -82,6 +83,21 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Filters whole batches of the child, dropping the rows that do not
+     * pass the predicate from the selection vector of the batch.
+     */
+    @Override
+    public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        while (child.nextBatch(batch)) {
+            p.filter(batch);
+            if (batch.selectedCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -2,13 +2,31 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.storage.Field;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join. The tuples of child1 are put in an
+ * in-memory hash table; if there are more of them than the memory budget
+ * allows, they are split by hash of the join field into
+ * {@link #PARTITIONS} partitions. Partition 0 stays in memory, and the
+ * others are written to temporary files. The tuples of child2 of
+ * partition 0 are joined as they are read, and the others are written to
+ * the files of their partition. Afterwards each pair of partitions is
+ * joined in memory, so each child is read once, and every spilled tuple is
+ * written and read back once.
+ * <p>
+ * If partition 0 grows beyond the budget as well, it is spilled like the
+ * others. A spilled partition of child1 that is still larger than the
+ * budget is joined a budget at a time, reading the matching partition of
+ * child2 once for each.
  */
 public class HashEquiJoin extends Operator {
 
@@ -22,7 +40,7 @@ public class HashEquiJoin extends Operator {
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
-     * 
+     *
      * @param p
      *            The predicate to use to join the children
      * @param child1
@@ -44,7 +62,7 @@ public class HashEquiJoin extends Operator {
     public TupleDesc getTupleDesc() {
         return comboTD;
     }
-    
+
     public String getJoinField1Name()
     {
 	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
@@ -54,49 +72,287 @@ public class HashEquiJoin extends Operator {
     {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
-    
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
+    /** The default number of tuples of child1 kept in memory */
     public final static int MAP_SIZE = 20000;
+    /** The number of partitions the children are split into once child1 does not fit in memory */
+    public final static int PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
+    private int memoryBudget = MAP_SIZE;
+
+    /** The spilled tuples of each partition of child1 and child2, or null while child1 fits in memory */
+    transient private SpillFile[] buildParts, probeParts;
+    /** True while the tuples of partition 0 of child1 are in memory */
+    transient private boolean residentZero;
+    /** True once child2 has been read to the end */
+    transient private boolean child2Done;
+    /** The spilled partition being joined, and the readers of its tuples */
+    transient private int part;
+    transient private SpillFile.Reader buildReader, probeReader;
+
+    /**
+     * Set the number of tuples of child1 kept in memory at once. Must be
+     * called before the join is opened.
+     */
+    public void setMemoryBudget(int tuples) {
+        if (tuples < 1) {
+            throw new IllegalArgumentException("memory budget must be positive");
+        }
+        this.memoryBudget = tuples;
+    }
+
+    /**
+     * @return true if child1 did not fit in memory, so that the children
+     *   were partitioned into temporary files
+     */
+    public boolean isSpilled() {
+        return buildParts != null;
+    }
+
+    /**
+     * @return the partition of a value of the join field. It depends on the
+     *   high bits of the hash code, so the keys of one partition still
+     *   spread over the buckets of the hash table.
+     */
+    private static int partition(Field f) {
+        return (f.hashCode() * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    private static void put(Map<Object, List<Tuple>> map, Field key, Tuple t) {
+        map.computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+    }
+
+    /**
+     * Read all of child1 into the hash table, partitioning it once it does
+     * not fit.
+     */
+    private void build() throws DbException, TransactionAbortedException, IOException {
+        int inMemory = 0;
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            Tuple t = child1.next();
+            Field key = t.getField(pred.getField1());
+            if (buildParts != null && !(residentZero && partition(key) == 0)) {
+                buildParts[partition(key)].add(t);
+                continue;
+            }
+            put(map, key, t);
+            if (++inMemory <= memoryBudget) {
+                continue;
+            }
+            if (buildParts == null) {
+                inMemory = partitionMap();
+            } else {
+                // partition 0 does not fit either
+                spillMap(buildParts[0]);
+                residentZero = false;
+                inMemory = 0;
+            }
+        }
+    }
+
+    /**
+     * Start partitioning the children, moving the tuples of the hash table
+     * that are not in partition 0 to their files.
+     *
+     * @return the number of tuples left in the hash table
+     */
+    private int partitionMap() throws IOException {
+        buildParts = new SpillFile[PARTITIONS];
+        probeParts = new SpillFile[PARTITIONS];
+        for (int p = 0; p < PARTITIONS; p++) {
+            buildParts[p] = new SpillFile(child1.getTupleDesc());
+            probeParts[p] = new SpillFile(child2.getTupleDesc());
+        }
+        residentZero = true;
+        int left = 0;
+        Iterator<Map.Entry<Object, List<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, List<Tuple>> e = it.next();
+            int p = partition((Field) e.getKey());
+            if (p == 0) {
+                left += e.getValue().size();
+                continue;
+            }
+            for (Tuple t : e.getValue()) {
+                buildParts[p].add(t);
+            }
+            it.remove();
+        }
+        return left;
+    }
+
+    private void spillMap(SpillFile f) throws IOException {
+        for (List<Tuple> l : map.values()) {
+            for (Tuple t : l) {
+                f.add(t);
+            }
+        }
+        map.clear();
+    }
+
+    /**
+     * @return the next tuple of child2 to probe the hash table with, or null
+     *   if there are no more. Tuples of child2 in spilled partitions are
+     *   written to their files on the way, and the spilled partitions are
+     *   joined once child2 is done.
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException, IOException {
+        for (;;) {
+            if (probeReader != null) {
+                Tuple t = probeReader.next();
+                if (t != null) {
+                    return t;
+                }
+                if (!nextSpilledChunk()) {
+                    return null;
+                }
+            } else if (!child2Done && child2.hasNext()) {
+                Tuple t = child2.next();
+                if (buildParts == null) {
+                    return t;
+                }
+                int p = partition(t.getField(pred.getField2()));
+                if (p == 0 && residentZero) {
+                    return t;
+                }
+                probeParts[p].add(t);
+            } else {
+                child2Done = true;
+                if (buildParts == null || !nextSpilledChunk()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the next budget of tuples of the spilled partitions of child1
+     * into the hash table, and start reading the matching partition of
+     * child2 again.
+     *
+     * @return false if all spilled partitions have been joined
+     */
+    private boolean nextSpilledChunk() throws IOException {
+        map.clear();
+        if (probeReader != null) {
+            probeReader.close();
+            probeReader = null;
+        }
+        for (;;) {
+            if (buildReader == null) {
+                // move on to the next partition with tuples on both sides
+                while (part < PARTITIONS && (part == 0 && residentZero
+                        || buildParts[part].size() == 0 || probeParts[part].size() == 0)) {
+                    deletePartition(part++);
+                }
+                if (part == PARTITIONS) {
+                    return false;
+                }
+                buildReader = buildParts[part].read();
+            }
+            int loaded = 0;
+            Tuple t;
+            while (loaded < memoryBudget && (t = buildReader.next()) != null) {
+                put(map, t.getField(pred.getField1()), t);
+                loaded++;
+            }
+            if (loaded > 0) {
+                probeReader = probeParts[part].read();
                 return true;
+            }
+            buildReader.close();
+            buildReader = null;
+            deletePartition(part++);
         }
-        return cnt > 0;
+    }
+
+    private void deletePartition(int p) {
+        buildParts[p].delete();
+        probeParts[p].delete();
+    }
+
+    /** Delete the files of the partitions, and forget the join state */
+    private void resetJoin() {
+        try {
+            if (buildReader != null) {
+                buildReader.close();
+            }
+            if (probeReader != null) {
+                probeReader.close();
+            }
+        } catch (IOException e) {
+            // the files are deleted anyway
+        }
+        if (buildParts != null) {
+            for (int p = 0; p < PARTITIONS; p++) {
+                deletePartition(p);
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+        buildReader = null;
+        probeReader = null;
+        residentZero = false;
+        child2Done = false;
+        part = 0;
+        map.clear();
+        this.t1 = null;
+        this.t2 = null;
+        this.listIt = null;
+        resetProbe();
+    }
 
+    private void startJoin() throws DbException, TransactionAbortedException {
+        resetJoin();
+        try {
+            build();
+        } catch (IOException e) {
+            resetJoin();
+            throw new DbException("cannot spill join input: " + e.getMessage());
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        startJoin();
         super.open();
     }
 
     public void close() {
         super.close();
+        resetJoin();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        startJoin();
+    }
+
+    private void resetProbe() {
+        probe = null;
+        probePos = 0;
+        matches = null;
+        probeDone = false;
     }
 
     transient Iterator<Tuple> listIt = null;
 
+    /** The batch of child2 nextBatch is probing the map with */
+    transient private TupleBatch probe;
+    /** The index in the selection vector of probe of the next row to probe with */
+    transient private int probePos;
+    /** The tuples of child1 matching the last row probed with, and the next one to join */
+    transient private List<Tuple> matches;
+    transient private int matchPos;
+    transient private boolean probeDone;
+
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
@@ -111,7 +367,7 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
@@ -132,32 +388,59 @@ public class HashEquiJoin extends Operator {
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        try {
+            for (;;) {
+                if (listIt != null && listIt.hasNext()) {
+                    return processList();
+                }
+                t2 = nextProbe();
+                if (t2 == null) {
+                    return null;
+                }
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                listIt = l == null ? null : l.iterator();
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot spill join input: " + e.getMessage());
         }
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    /**
+     * Probes the map with whole batches of child2, and writes the joined
+     * rows straight into the columns of the batch, without creating a Tuple
+     * for them. Once the children are partitioned, the batch is filled a
+     * tuple at a time instead.
+     */
+    @Override
+    public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        if (isSpilled()) {
+            return super.nextBatch(batch);
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        if (probe == null || probe.capacity() != batch.capacity()) {
+            probe = new TupleBatch(child2.getTupleDesc(), batch.capacity());
+            probePos = 0;
+            matches = null;
         }
-
-        return null;
+        batch.clear();
+        int td1n = child1.getTupleDesc().numFields();
+        while (!batch.isFull() && !probeDone) {
+            if (matches != null && matchPos < matches.size()) {
+                int row = batch.addRow();
+                batch.copy(matches.get(matchPos++), row, 0);
+                batch.copy(probe, probe.selection()[probePos - 1], row, td1n);
+            } else if (probePos < probe.selectedCount()) {
+                matches = map.get(probe.getField(probe.selection()[probePos++], pred.getField2()));
+                matchPos = 0;
+            } else if (child2.nextBatch(probe)) {
+                probePos = 0;
+                matches = null;
+            } else {
+                probeDone = true;
+            }
+        }
+        return batch.selectedCount() > 0;
     }
 
     @Override
@@ -170,5 +453,5 @@ public class HashEquiJoin extends Operator {
         this.child1 = children[0];
         this.child2 = children[1];
     }
-    
+
 }
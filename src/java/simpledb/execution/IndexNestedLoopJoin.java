@@ -0,0 +1,290 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins an outer child with a table that has a B+ tree on
+ * the join field. Instead of scanning the table for every outer tuple, it
+ * looks up the matching tuples with {@link BTreeFile#indexIterator}.
+ * <p>
+ * The outer tuples are read a batch at a time and sorted on the join field,
+ * so consecutive lookups go to the same or neighbouring leaf pages, which
+ * are still in the buffer pool, and outer tuples with the same key share one
+ * lookup. The result is therefore in the order of the outer keys within each
+ * batch, not in the order of the outer child.
+ * <p>
+ * The inner child is the scan of the table, possibly under filters, as built
+ * by the planner; it is not read, but its table, its transaction and the
+ * predicates of the scan and the filters are used for the lookups.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of outer tuples that are sorted and looked up together */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final JoinPredicate joinPredicate;
+    private OpIterator child1;
+    private OpIterator child2;
+    private TupleDesc td;
+    private SeqScan scan;
+    private transient BTreeFile file;
+    private final Predicate.Op probeOp;
+    private final List<Predicate> innerPredicates = new ArrayList<>();
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private transient List<Tuple> batch;
+    /** The outer tuples of the batch from groupStart to groupEnd have the same key */
+    private transient int groupStart;
+    private transient int groupEnd;
+    private transient DbFileIterator probe;
+    private transient Tuple inner;
+    private transient int outerPos;
+
+    /**
+     * @param p the predicate to join the children on
+     * @param child1 the outer relation
+     * @param child2 a SeqScan, possibly under Filters, of a table that is a
+     *   BTreeFile keyed on field2 of p
+     * @throws IllegalArgumentException if the inner child cannot be probed
+     *   on p
+     * @see #canProbe
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this.joinPredicate = p;
+        this.probeOp = reverse(p.getOperator());
+        setChildren(new OpIterator[] {child1, child2});
+    }
+
+    /**
+     * Find the scan under the inner child, the file it reads and the
+     * predicates the tuples looked up in the file must pass.
+     *
+     * @throws IllegalArgumentException if the inner child cannot be probed
+     */
+    private void setInner(OpIterator child2) {
+        if (!canProbe(joinPredicate, child2)) {
+            throw new IllegalArgumentException("cannot look up " + joinPredicate.getOperator()
+                    + " on field " + joinPredicate.getField2() + " of the inner child in a B+ tree");
+        }
+        innerPredicates.clear();
+        OpIterator plan = child2;
+        while (plan instanceof Filter) {
+            innerPredicates.add(((Filter) plan).getPredicate());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        scan = (SeqScan) plan;
+        innerPredicates.addAll(scan.getPredicates());
+        file = (BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+    }
+
+    /**
+     * @return true if the inner child is a SeqScan, possibly under Filters,
+     *   of a BTreeFile keyed on the inner join field, and the predicate can
+     *   be looked up in the B+ tree
+     */
+    public static boolean canProbe(JoinPredicate p, OpIterator child2) {
+        if (p.getOperator() == Predicate.Op.NOT_EQUALS || p.getOperator() == Predicate.Op.LIKE) {
+            return false;
+        }
+        while (child2 instanceof Filter) {
+            child2 = ((Filter) child2).getChildren()[0];
+        }
+        if (!(child2 instanceof SeqScan)) {
+            return false;
+        }
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) child2).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == p.getField2();
+    }
+
+    /**
+     * @return the operator op' with t2 op' t1 exactly when t1 op t2
+     */
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * Set the number of outer tuples that are sorted and looked up together.
+     * Must be called before the join is opened.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        batch = new ArrayList<>();
+        resetJoin();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        closeProbe();
+        child1.close();
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeProbe();
+        child1.rewind();
+        resetJoin();
+    }
+
+    private void resetJoin() {
+        batch.clear();
+        groupStart = 0;
+        groupEnd = 0;
+        outerPos = 0;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        inner = null;
+    }
+
+    /**
+     * Read the next batch of outer tuples, sorted on the join field.
+     *
+     * @return false if the outer child has no more tuples
+     */
+    private boolean readBatch() throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (batch.size() < batchSize && child1.hasNext()) {
+            batch.add(child1.next());
+        }
+        batch.sort(new TupleComparator(joinPredicate.getField1(), true));
+        groupStart = 0;
+        groupEnd = 0;
+        return !batch.isEmpty();
+    }
+
+    /**
+     * @return the next tuple of the table that matches the current key and
+     *   the predicates of the inner child, or null
+     */
+    private Tuple nextInner() throws DbException, TransactionAbortedException {
+        outer:
+        while (probe.hasNext()) {
+            Tuple t = probe.next();
+            for (Predicate p : innerPredicates) {
+                if (!p.filter(t)) {
+                    continue outer;
+                }
+            }
+            return t;
+        }
+        return null;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (inner != null && outerPos < groupEnd) {
+                return merge(batch.get(outerPos++), inner);
+            }
+            if (probe != null) {
+                inner = nextInner();
+                if (inner != null) {
+                    outerPos = groupStart;
+                    continue;
+                }
+                closeProbe();
+                groupStart = groupEnd;
+            }
+            if (groupStart == batch.size() && !readBatch()) {
+                return null;
+            }
+            // look up the next key of the batch once for all its outer tuples
+            Field key = batch.get(groupStart).getField(joinPredicate.getField1());
+            groupEnd = groupStart + 1;
+            while (groupEnd < batch.size() && batch.get(groupEnd).getField(joinPredicate.getField1()).equals(key)) {
+                groupEnd++;
+            }
+            probe = file.indexIterator(scan.getTransactionId(), new IndexPredicate(probeOp, key));
+            probe.open();
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] {child1, child2};
+    }
+
+    /**
+     * @throws IllegalArgumentException if the new inner child cannot be
+     *   probed
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        setInner(children[1]);
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -30,6 +30,8 @@ public class Insert extends Operator {
 
     private Tuple tuple;
 
+    private boolean hasFetchNext;
+
     /**
      * Constructor.
      *
@@ -75,6 +77,7 @@ public class Insert extends Operator {
         }
         tuple = new Tuple(tupleDesc);
         tuple.setField(0, new IntField(cnt));
+        hasFetchNext = false;
         super.open();
     }
 
@@ -105,7 +108,9 @@ public class Insert extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return tuple;
+        Tuple t = hasFetchNext ? null : tuple;
+        hasFetchNext = true;
+        return t;
     }
 
     @Override
@@ -3,22 +3,24 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 
 /**
- * Knows how to compute some aggregate over a set of IntFields.
+ * Knows how to compute some aggregate over a set of IntFields. The running
+ * aggregate of each group is kept in int arrays, and the values are read
+ * with {@link Tuple#getInt}, so merging a tuple creates no fields.
  */
-
-//TODO NO_GROUPING
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
@@ -31,10 +33,33 @@ public class IntegerAggregator implements Aggregator {
 
     private Op operator;
 
-    private Map<Field, Tuple> aggregateFieldToTuple;
+    /** The schema of the results, set by the first tuple merged */
+    private TupleDesc resultDesc;
+
+    /** The number of groups */
+    private int ngroups;
+
+    /** The number of tuples merged into each group */
+    private int[] counts = new int[16];
+
+    /** The running MIN, MAX or SUM of each group; the SUM for AVG */
+    private int[] values = new int[16];
 
-    //Used when calculate AVG
-    private Map<Field, int[]> aggregateFieldToFieldCountAndSum;
+    /** The group-by value of each group of an integer group-by field */
+    private int[] intKeys = new int[16];
+
+    /**
+     * Open-addressing table from an integer group-by value to its group
+     * index + 1, with 0 marking empty buckets. Grouping on an integer field
+     * creates no objects per tuple.
+     */
+    private int[] intTable = new int[32];
+
+    /** The group-by value of each group of another group-by field type */
+    private Field[] keys = new Field[16];
+
+    /** The group of each group-by value of another group-by field type */
+    private Map<Field, Integer> groupOf;
 
     /**
      * Aggregate constructor
@@ -57,8 +82,7 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.operator = what;
-        this.aggregateFieldToTuple = new LinkedHashMap<>();
-        this.aggregateFieldToFieldCountAndSum = new HashMap<>();
+        this.groupOf = new HashMap<>();
     }
 
     /**
@@ -71,51 +95,160 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         // MIN, MAX, SUM, AVG, COUNT,
-        Field groupField = tup.getField(gbfield);
-        Tuple tuple = aggregateFieldToTuple.computeIfAbsent(groupField, key -> {
-            TupleDesc tupleDesc = new TupleDesc(
-                    new Type[]{gbfieldtype, Type.INT_TYPE},
-                    new String[]{tup.getTupleDesc().getFieldName(gbfield), operator.name()}
-            );
-            return new Tuple(tupleDesc);
-        });
-        tuple.setField(0, tup.getField(gbfield));
-        if (operator.equals(Op.MIN)) {
-            int fieldValue = ((IntField)tup.getField(afield)).getValue();
-            IntField field = (IntField)tuple.getField(1);
-            if(field != null) {
-                fieldValue = Math.min(fieldValue, field.getValue());
+        describeResults(tup.getTupleDesc());
+        int group;
+        if (gbfield == NO_GROUPING) {
+            group = ngroups == 0 ? newGroup() : 0;
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            group = group(tup.getInt(gbfield));
+        } else {
+            group = group(tup.getField(gbfield));
+        }
+        merge(group, operator == Op.COUNT ? 0 : tup.getInt(afield));
+    }
+
+    /**
+     * Merge the selected rows of the batch, reading the aggregate and
+     * integer group-by values straight from the int columns of the batch.
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) {
+        describeResults(batch.getTupleDesc());
+        int[] sel = batch.selection();
+        int n = batch.selectedCount();
+        int[] aggregated = operator == Op.COUNT ? null : batch.getIntColumn(afield);
+        int[] groupValues = gbfield != NO_GROUPING && gbfieldtype == Type.INT_TYPE
+                ? batch.getIntColumn(gbfield) : null;
+        for (int k = 0; k < n; k++) {
+            int row = sel[k];
+            int group;
+            if (gbfield == NO_GROUPING) {
+                group = ngroups == 0 ? newGroup() : 0;
+            } else if (groupValues != null) {
+                group = group(groupValues[row]);
+            } else {
+                group = group(batch.getField(row, gbfield));
             }
-            tuple.setField(1, new IntField(fieldValue));
-        } else if (operator.equals(Op.MAX)) {
-            int fieldValue = ((IntField)tup.getField(afield)).getValue();
-            IntField field = (IntField)tuple.getField(1);
-            if(field != null) {
-                fieldValue = Math.max(fieldValue, field.getValue());
+            merge(group, aggregated == null ? 0 : aggregated[row]);
+        }
+    }
+
+    private void describeResults(TupleDesc childDesc) {
+        if (resultDesc == null) {
+            resultDesc = gbfield == NO_GROUPING
+                    ? new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{operator.name()})
+                    : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
+                            new String[]{childDesc.getFieldName(gbfield), operator.name()});
+        }
+    }
+
+    /**
+     * Merge a value into the running aggregate of a group.
+     */
+    private void merge(int group, int value) {
+        if (operator != Op.COUNT) {
+            if (counts[group] == 0) {
+                values[group] = value;
+            } else if (operator == Op.MIN) {
+                values[group] = Math.min(values[group], value);
+            } else if (operator == Op.MAX) {
+                values[group] = Math.max(values[group], value);
+            } else if (operator == Op.SUM || operator == Op.AVG) {
+                values[group] += value;
             }
-            tuple.setField(1, new IntField(fieldValue));
-        } else if (operator.equals(Op.SUM)) {
-            IntField field = (IntField)tuple.getField(1);
-            int value = ((IntField)tup.getField(afield)).getValue();
-            if(field != null) {
-                value += field.getValue();
+        }
+        counts[group]++;
+    }
+
+    /**
+     * @return the index of the group of a group-by value of another type
+     *   than INT_TYPE, adding a group if it is the first of its group
+     */
+    private int group(Field key) {
+        Integer group = groupOf.get(key);
+        if (group == null) {
+            group = newGroup();
+            keys[group] = key;
+            groupOf.put(key, group);
+        }
+        return group;
+    }
+
+    /**
+     * @return the index of the group of an integer group-by value, adding
+     *   a group if it is the first of its group
+     */
+    private int group(int key) {
+        int mask = intTable.length - 1;
+        for (int b = bucket(key, mask); ; b = (b + 1) & mask) {
+            int group = intTable[b] - 1;
+            if (group < 0) {
+                group = newGroup();
+                intKeys[group] = key;
+                intTable[b] = group + 1;
+                if (2 * ngroups > intTable.length) {
+                    rehash();
+                }
+                return group;
+            }
+            if (intKeys[group] == key) {
+                return group;
+            }
+        }
+    }
+
+    private static int bucket(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void rehash() {
+        intTable = new int[2 * intTable.length];
+        int mask = intTable.length - 1;
+        for (int group = 0; group < ngroups; group++) {
+            int b = bucket(intKeys[group], mask);
+            while (intTable[b] != 0) {
+                b = (b + 1) & mask;
             }
-            tuple.setField(1, new IntField(value));
-        } else if (operator.equals(Op.AVG)) {
-            int[] countAndSum = aggregateFieldToFieldCountAndSum.computeIfAbsent(groupField,
-                    k -> new int[]{0, 0}
-            );
-            ++countAndSum[0];
-            countAndSum[1] += ((IntField)tup.getField(afield)).getValue();
-            tuple.setField(1, new IntField(countAndSum[1] / countAndSum[0]));
-        } else if (operator.equals(Op.COUNT)) {
-            IntField field = (IntField)tuple.getField(1);
-            if(field == null) {
-                tuple.setField(1, new IntField(1));
+            intTable[b] = group + 1;
+        }
+    }
+
+    private int newGroup() {
+        if (ngroups == counts.length) {
+            int length = 2 * ngroups;
+            counts = Arrays.copyOf(counts, length);
+            values = Arrays.copyOf(values, length);
+            intKeys = Arrays.copyOf(intKeys, length);
+            keys = Arrays.copyOf(keys, length);
+        }
+        return ngroups++;
+    }
+
+    /**
+     * @return the result tuple of the group
+     */
+    private Tuple result(int group) {
+        int value;
+        if (operator == Op.COUNT) {
+            value = counts[group];
+        } else if (operator == Op.AVG) {
+            value = values[group] / counts[group];
+        } else {
+            value = values[group];
+        }
+        Tuple t = new Tuple(resultDesc);
+        if (gbfield == NO_GROUPING) {
+            t.setInt(0, value);
+        } else {
+            if (gbfieldtype == Type.INT_TYPE) {
+                t.setInt(0, intKeys[group]);
             } else {
-                tuple.setField(1, new IntField(field.getValue() + 1));
+                t.setField(0, keys[group]);
             }
+            t.setInt(1, value);
         }
+        return t;
     }
 
     /**
@@ -137,7 +270,11 @@ public class IntegerAggregator implements Aggregator {
             @Override
             public void open() throws DbException, TransactionAbortedException {
                 open = true;
-                tuples = aggregateFieldToTuple.values().iterator();
+                List<Tuple> results = new ArrayList<>(ngroups);
+                for (int group = 0; group < ngroups; group++) {
+                    results.add(result(group));
+                }
+                tuples = results.iterator();
             }
 
             @Override
@@ -158,7 +295,7 @@ public class IntegerAggregator implements Aggregator {
 
             @Override
             public TupleDesc getTupleDesc() {
-                return tuples.next().getTupleDesc();
+                return resultDesc;
             }
 
             @Override
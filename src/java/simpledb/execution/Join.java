@@ -1,5 +1,7 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
@@ -10,6 +12,12 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loop join: it reads a block of outer tuples, then
+ * scans the inner child once for the whole block, so the inner child is
+ * read once per block rather than once per outer tuple. Unless a block size
+ * is set, a block holds as many outer tuples as fit in the free frames of
+ * the buffer pool when the join is opened (see {@link #defaultBlockSize}).
  */
 public class Join extends Operator {
 
@@ -21,7 +29,18 @@ public class Join extends Operator {
 
     private OpIterator child2;
 
-    private Tuple tuple1;
+    /** The number of outer tuples per block, or 0 to size blocks from the buffer pool */
+    private int blockSize;
+
+    private transient int blockTuples;
+
+    private transient List<Tuple> block;
+
+    /** The inner tuple being joined with the block */
+    private transient Tuple tuple2;
+
+    /** The position in the block of the next outer tuple to join with tuple2 */
+    private transient int blockPos;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -41,6 +60,39 @@ public class Join extends Operator {
         this.child2 = child2;
     }
 
+    /**
+     * @return the number of tuples with the given TupleDesc that fit in the
+     *         free frames of the buffer pool, keeping one frame for the
+     *         pages of the inner child
+     * @see BufferPool#getNumFreeFrames()
+     */
+    public static int defaultBlockSize(TupleDesc td) {
+        return blockSize(td.getSize(), Database.getBufferPool().getNumFreeFrames());
+    }
+
+    /**
+     * @return the number of tuples of the given size that fit in the given
+     *         number of frames, keeping one frame for the pages of the inner
+     *         child
+     */
+    public static int blockSize(int tupleSize, int frames) {
+        return Math.max(1, frames - 1) * Math.max(1, BufferPool.getPageSize() / tupleSize);
+    }
+
+    /**
+     * Set the number of outer tuples joined per scan of the inner child.
+     * Must be called before the join is opened.
+     *
+     * @param blockSize the number of tuples, or 0 to size blocks from the
+     *            free frames of the buffer pool
+     */
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 0) {
+            throw new IllegalArgumentException("block size must not be negative");
+        }
+        this.blockSize = blockSize;
+    }
+
     public JoinPredicate getJoinPredicate() {
         // some code goes here
         return joinPredicate;
@@ -81,6 +133,10 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        blockTuples = blockSize > 0 ? blockSize : defaultBlockSize(child1.getTupleDesc());
+        block = new ArrayList<>();
+        tuple2 = null;
+        blockPos = 0;
     }
 
     public void close() {
@@ -88,6 +144,8 @@ public class Join extends Operator {
         super.close();
         child1.close();
         child2.close();
+        block = null;
+        tuple2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -116,28 +174,52 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while(child1.hasNext() || tuple1 != null) {
-            while (tuple1 == null && child1.hasNext()) {
-                tuple1 = child1.next();
-            }
-            while (child2.hasNext() && tuple1 != null) {
-                Tuple tuple2 = child2.next();
-                if (joinPredicate.filter(tuple1, tuple2)) {
-                    Tuple tuple = new Tuple(getTupleDesc());
-                    int index = 0;
-                    for (Iterator<Field> it = tuple1.fields(); it.hasNext(); ) {
-                        tuple.setField(index++, it.next());
+        while (true) {
+            if (tuple2 != null) {
+                while (blockPos < block.size()) {
+                    Tuple tuple1 = block.get(blockPos++);
+                    if (joinPredicate.filter(tuple1, tuple2)) {
+                        Tuple tuple = new Tuple(getTupleDesc());
+                        int index = 0;
+                        for (Iterator<Field> it = tuple1.fields(); it.hasNext(); ) {
+                            tuple.setField(index++, it.next());
+                        }
+                        for (Iterator<Field> it = tuple2.fields(); it.hasNext(); ) {
+                            tuple.setField(index++, it.next());
+                        }
+                        return tuple;
                     }
-                    for (Iterator<Field> it = tuple2.fields(); it.hasNext(); ) {
-                        tuple.setField(index++, it.next());
-                    }
-                    return tuple;
                 }
+                tuple2 = null;
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                tuple2 = child2.next();
+                blockPos = 0;
+            } else if (!readBlock()) {
+                return null;
             }
-            tuple1 = null;
+        }
+    }
+
+    /**
+     * Read the next block of outer tuples, and rewind the inner child if it
+     * was scanned for the previous block.
+     *
+     * @return false if the outer child has no more tuples
+     */
+    private boolean readBlock() throws TransactionAbortedException, DbException {
+        if (!child1.hasNext()) {
+            block.clear();
+            return false;
+        }
+        if (!block.isEmpty()) {
             child2.rewind();
+            block.clear();
+        }
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
         }
-        return null;
+        return true;
     }
 
     @Override
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
-import simpledb.storage.Field;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -42,12 +43,17 @@ public class JoinPredicate implements Serializable {
 
     /**
      * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * made through Field's compare method; two integer fields are compared
+     * as ints, without creating an IntField for either.
      * 
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(field2) == Type.INT_TYPE) {
+            return IntField.compare(t1.getInt(field1), op, t2.getInt(field2));
+        }
         return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
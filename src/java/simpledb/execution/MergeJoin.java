@@ -0,0 +1,198 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * MergeJoin joins two children that both return their tuples in ascending
+ * order of the join field, such as a {@link simpledb.index.BTreeScan} on the
+ * key field or an ascending {@link OrderBy}. Each child is read once.
+ * <p>
+ * For every outer tuple, the matching inner tuples are the run of inner
+ * tuples with the same key. Since the outer keys ascend, the start of the run
+ * only moves forward. The inner side is marked at the start of the run and
+ * restored to the mark for the next outer tuple; the inner tuples read since
+ * the mark, the duplicates of one key, are kept in memory.
+ * <p>
+ * The result is in the order of the outer child, so it is sorted on the
+ * outer join field too. Only EQUALS is merged: the run of a range predicate
+ * may be most of the inner relation, which would all be kept in memory, so
+ * the other predicates are rejected.
+ */
+public class MergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate joinPredicate;
+    private OpIterator child1;
+    private OpIterator child2;
+    private TupleDesc td;
+
+    /** The inner tuples read since the mark */
+    private transient List<Tuple> marked;
+    /** The position of the inner side in marked */
+    private transient int position;
+    /** The outer tuple being joined, or null to read the next one */
+    private transient Tuple outer;
+
+    /**
+     * @param p the predicate to join the children on
+     * @param child1 the outer relation, in ascending order of field1 of p
+     * @param child2 the inner relation, in ascending order of field2 of p
+     * @throws IllegalArgumentException if the predicate cannot be merged
+     */
+    public MergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("a merge join cannot join on " + p.getOperator());
+        }
+        this.joinPredicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if inputs sorted on the join fields can be merged on op
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return joinPredicate;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(joinPredicate.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(joinPredicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        marked = new ArrayList<>();
+        position = 0;
+        outer = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        marked = null;
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        marked.clear();
+        position = 0;
+        outer = null;
+    }
+
+    /**
+     * @return the inner tuple at the current position, or null at the end
+     *   of the inner relation
+     */
+    private Tuple peekInner() throws DbException, TransactionAbortedException {
+        if (position == marked.size()) {
+            if (!child2.hasNext()) {
+                return null;
+            }
+            marked.add(child2.next());
+        }
+        return marked.get(position);
+    }
+
+    /** Forget the inner tuples before the current position */
+    private void mark() {
+        marked.subList(0, position).clear();
+        position = 0;
+    }
+
+    /**
+     * Restore the inner side to the mark, and move the mark past the inner
+     * tuples with keys below the outer key, which match no later outer tuple
+     * either.
+     */
+    private void startRun(Field key) throws DbException, TransactionAbortedException {
+        position = 0;
+        Tuple t;
+        while ((t = peekInner()) != null
+                && t.getField(joinPredicate.getField2()).compare(Predicate.Op.LESS_THAN, key)) {
+            position++;
+        }
+        mark();
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                outer = child1.next();
+                startRun(outer.getField(joinPredicate.getField1()));
+            }
+            Tuple inner = peekInner();
+            if (inner != null && inner.getField(joinPredicate.getField2()).equals(
+                    outer.getField(joinPredicate.getField1()))) {
+                position++;
+                return merge(outer, inner);
+            }
+            if (inner == null && position == 0) {
+                // the inner relation is exhausted before the run of this key,
+                // so no larger key has a run either
+                return null;
+            }
+            outer = null;
+        }
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < t2.getTupleDesc().numFields(); i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] {child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
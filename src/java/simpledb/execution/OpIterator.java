@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,28 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Replaces the contents of the batch with the next tuples from the
+   * operator, as many as fit or as are left. A caller reads an open
+   * iterator either with next() or with nextBatch(), not with both.
+   * <p>
+   * This implementation fills the batch from hasNext() and next(), so that
+   * every operator can feed one that works on batches; operators that can
+   * produce whole batches at once override it.
+   *
+   * @param batch a batch with the TupleDesc of this OpIterator
+   * @return false if there are no more tuples; otherwise at least one row
+   *   of the batch is selected
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+    batch.clear();
+    while (!batch.isFull() && hasNext()) {
+      batch.add(next());
+    }
+    return batch.selectedCount() > 0;
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -1,7 +1,13 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
+import simpledb.storage.DictionaryField;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 
 import java.io.Serializable;
 
@@ -18,6 +24,25 @@ public class Predicate implements Serializable {
 
     private Field operand;
 
+    /** The operand as a field of the dictionary of the last dictionary-encoded field compared */
+    private transient volatile CodedOperand coded;
+
+    /**
+     * The field of a dictionary holding the operand, or null if no value of
+     * the dictionary equals it when the dictionary had size values.
+     */
+    private static final class CodedOperand {
+        final StringDictionary dictionary;
+        final int size;
+        final DictionaryField field;
+
+        CodedOperand(StringDictionary dictionary, int size, DictionaryField field) {
+            this.dictionary = dictionary;
+            this.size = size;
+            this.field = field;
+        }
+    }
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -101,7 +126,8 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method; an integer field compared to an IntField is compared as an
+     * int, without creating an IntField for it.
      * 
      * @param t
      *            The tuple to compare against
@@ -109,7 +135,118 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(field).compare(op, operand);
+        if (operand instanceof IntField && t.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            return IntField.compare(t.getInt(field), op, ((IntField) operand).getValue());
+        }
+        return filter(t.getField(field));
+    }
+
+    private boolean filter(Field f) {
+        if (f instanceof DictionaryField && operand instanceof StringField
+                && (op == Op.EQUALS || op == Op.NOT_EQUALS)) {
+            return filterCoded((DictionaryField) f);
+        }
+        return f.compare(op, operand);
+    }
+
+    /**
+     * Drop the selected rows of the batch that do not satisfy the predicate
+     * from its selection vector. An integer column compared to an IntField
+     * is filtered in one loop over the int column of the batch, without
+     * creating any fields.
+     *
+     * @param batch the rows to filter
+     */
+    public void filter(TupleBatch batch) {
+        int[] sel = batch.selection();
+        int n = batch.selectedCount();
+        int kept = 0;
+        if (operand instanceof IntField && batch.getTupleDesc().getFieldType(field) == Type.INT_TYPE) {
+            kept = filterInts(batch.getIntColumn(field), sel, n, ((IntField) operand).getValue());
+        } else {
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                if (filter(batch.getField(row, field))) {
+                    sel[kept++] = row;
+                }
+            }
+        }
+        batch.setSelectedCount(kept);
+    }
+
+    /**
+     * Compact the first n entries of sel to the rows whose value in column
+     * satisfies the predicate with operand v.
+     *
+     * @return the number of rows kept
+     */
+    private int filterInts(int[] column, int[] sel, int n, int v) {
+        int kept = 0;
+        if (op == Op.NOT_EQUALS) {
+            for (int k = 0; k < n; k++) {
+                int row = sel[k];
+                if (column[row] != v) {
+                    sel[kept++] = row;
+                }
+            }
+            return kept;
+        }
+        // every other comparison selects the values in a range [lo, hi]
+        long lo = Integer.MIN_VALUE;
+        long hi = Integer.MAX_VALUE;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                lo = v;
+                hi = v;
+                break;
+            case GREATER_THAN:
+                lo = (long) v + 1;
+                break;
+            case GREATER_THAN_OR_EQ:
+                lo = v;
+                break;
+            case LESS_THAN:
+                hi = (long) v - 1;
+                break;
+            case LESS_THAN_OR_EQ:
+                hi = v;
+                break;
+        }
+        if (lo > hi) {
+            return 0;
+        }
+        int min = (int) lo;
+        int max = (int) hi;
+        for (int k = 0; k < n; k++) {
+            int row = sel[k];
+            int x = column[row];
+            if (x >= min && x <= max) {
+                sel[kept++] = row;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Compare a dictionary-encoded field to the operand by code, looking up
+     * the code of the operand once per dictionary instead of comparing the
+     * strings of every tuple.
+     */
+    private boolean filterCoded(DictionaryField f) {
+        StringDictionary dictionary = f.getDictionary();
+        CodedOperand c = coded;
+        // a value missing from the dictionary may have been added since
+        if (c == null || c.dictionary != dictionary || c.field == null && c.size != dictionary.size()) {
+            int size = dictionary.size();
+            c = new CodedOperand(dictionary, size, dictionary.lookup(((StringField) operand).getValue()));
+            coded = c;
+        }
+        if (c.field == null) {
+            // no tuple can hold a value the dictionary does not have
+            return op == Op.NOT_EQUALS;
+        }
+        return f.compare(op, c.field);
     }
 
     /**
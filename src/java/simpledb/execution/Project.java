@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -17,6 +18,8 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private transient TupleBatch childBatch;
+    private transient int[] columns;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -81,6 +84,27 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Projects whole batches of the child. The batch shares the projected
+     * columns of the batch of the child instead of copying their values.
+     */
+    @Override
+    public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        if (childBatch == null || childBatch.capacity() != batch.capacity()) {
+            childBatch = new TupleBatch(child.getTupleDesc(), batch.capacity());
+            columns = new int[outFieldIds.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = outFieldIds.get(i);
+            }
+        }
+        if (!child.nextBatch(childBatch)) {
+            batch.clear();
+            return false;
+        }
+        batch.project(childBatch, columns);
+        return true;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
@@ -90,6 +114,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            this.childBatch = null;
         }
     }
 
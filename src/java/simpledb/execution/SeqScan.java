@@ -9,6 +9,7 @@ import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -32,6 +33,8 @@ public class SeqScan implements OpIterator {
 
     private TupleDesc tupleDesc;
 
+    private final List<Predicate> predicates = new ArrayList<>();
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -65,6 +68,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -89,7 +106,7 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.tableAlias = tableAlias;
-        this.it = (Database.getCatalog().getDatabaseFile(tableid)).iterator(tid);
+        this.it = (Database.getCatalog().getDatabaseFile(tableid)).iterator(tid, predicates);
         this.tupleDesc = Database.getCatalog().getTupleDesc(tableid);
         String[] newNames = new String[tupleDesc.numFields()];
         Type[] newTypes = new Type[tupleDesc.numFields()];
@@ -106,6 +123,27 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Push a filter down into this scan: only the tuples that satisfy the
+     * predicate are returned, and tables that keep per-page bounds of their
+     * columns do not read the pages that cannot hold such a tuple. Must be
+     * called before the scan is opened.
+     *
+     * @param p
+     *            a predicate on the fields of this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+        this.it = (Database.getCatalog().getDatabaseFile(tableId)).iterator(tid, predicates);
+    }
+
+    /**
+     * @return the predicates pushed down into this scan
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         it.open();
@@ -137,6 +175,15 @@ public class SeqScan implements OpIterator {
         return it.next();
     }
 
+    /**
+     * Fills the batch straight from the pages of the table, applying the
+     * predicates pushed down into this scan to whole batches.
+     */
+    @Override
+    public boolean nextBatch(TupleBatch batch) throws TransactionAbortedException, DbException {
+        return it.nextBatch(batch);
+    }
+
     public void close() {
         // some code goes here
         it.close();
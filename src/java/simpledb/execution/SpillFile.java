@@ -0,0 +1,142 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.TextField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+
+/**
+ * SpillFile keeps tuples that do not fit in memory in a temporary file, for
+ * operators that work on inputs larger than memory. Tuples are appended,
+ * then read back in the order they were written, as often as needed.
+ * <p>
+ * Fields are written in the format of {@link Field#serialize}, but for
+ * {@link Type#TEXT_TYPE} fields, whose value is written itself, since a
+ * pointer into overflow pages would lose the table it points into.
+ */
+class SpillFile {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+    }
+
+    /**
+     * @return the number of tuples written
+     */
+    int size() {
+        return size;
+    }
+
+    void add(Tuple t) throws IOException {
+        if (out == null) {
+            throw new IllegalStateException("tuples cannot be added to a spill file once it is read");
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            if (type == Type.INT_TYPE) {
+                out.writeInt(t.getInt(i));
+            } else if (type == Type.TEXT_TYPE) {
+                byte[] value = ((TextField) t.getField(i)).getValue().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(value.length);
+                out.write(value);
+            } else {
+                t.getField(i).serialize(out);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Finish writing, and read the tuples from the first one.
+     */
+    Reader read() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader();
+    }
+
+    /**
+     * Delete the file; the spill file cannot be used afterwards.
+     */
+    void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of the file in order */
+    class Reader implements AutoCloseable {
+        private final DataInputStream in;
+        private int left = size;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * @return the next tuple, or null if all have been read
+         */
+        Tuple next() throws IOException {
+            if (left == 0) {
+                return null;
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    Type type = td.getFieldType(i);
+                    if (type == Type.INT_TYPE) {
+                        t.setInt(i, in.readInt());
+                    } else if (type == Type.TEXT_TYPE) {
+                        byte[] value = new byte[in.readInt()];
+                        in.readFully(value);
+                        t.setField(i, new TextField(new String(value, StandardCharsets.UTF_8)));
+                    } else {
+                        t.setField(i, type.parse(in));
+                    }
+                }
+            } catch (ParseException e) {
+                throw new IOException("spill file " + file + " is corrupt", e);
+            } catch (EOFException e) {
+                throw new IOException("spill file " + file + " is cut short", e);
+            }
+            left--;
+            return t;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
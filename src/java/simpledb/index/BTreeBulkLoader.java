@@ -0,0 +1,432 @@
+package simpledb.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.*;
+
+import simpledb.common.Type;
+import simpledb.storage.BulkLoader;
+import simpledb.storage.Field;
+
+/**
+ * BTreeBulkLoader builds a B+ tree file from a delimited text file without
+ * going through the buffer pool. The input is parsed in parallel by a
+ * {@link BulkLoader}, sorted on the key field with an external merge sort
+ * (runs of a bounded size are sorted in memory and written to temporary
+ * files, then merged), and the sorted tuples are written out bottom-up:
+ * first the leaf pages, in key order and linked to their siblings, then
+ * each level of internal pages up to the root. Every page is written once,
+ * sequentially, and is filled to the fill factor, so that later inserts
+ * into a tree loaded with a fill factor below 1 do not split pages at once.
+ * <p>
+ * The file has the same format as one written by {@link BTreeFileEncoder}:
+ * the root pointer page, then the leaf pages, then the internal pages, with
+ * the root last. No header pages are written.
+ */
+public class BTreeBulkLoader {
+
+	/** The default number of bytes of tuples sorted in memory at a time */
+	public static final int DEFAULT_RUN_SIZE = 64 << 20;
+
+	/** The default fraction of each page filled */
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final BulkLoader parser;
+	private final Type[] types;
+	private final int keyField;
+	private final int keyOffset;
+	private final int recordSize;
+	private double fillFactor = DEFAULT_FILL_FACTOR;
+	private int runSize = DEFAULT_RUN_SIZE;
+
+	/**
+	 * @param types the types of the fields of each tuple
+	 * @param separator the character between fields
+	 * @param keyField the index of the field the tree is keyed on
+	 * @param threads the number of threads parsing the input
+	 */
+	public BTreeBulkLoader(Type[] types, char separator, int keyField, int threads) {
+		if (keyField < 0 || keyField >= types.length) {
+			throw new IllegalArgumentException("no field " + keyField + " to key the tree on");
+		}
+		this.parser = new BulkLoader(types, separator, threads);
+		this.types = parser.getTypes();
+		this.keyField = keyField;
+		int offset = 0;
+		for (int i = 0; i < keyField; i++) {
+			offset += types[i].getLen();
+		}
+		this.keyOffset = offset;
+		this.recordSize = parser.getRecordSize();
+	}
+
+	/**
+	 * Set the fraction of the tuples or entries a page can hold that each
+	 * page is given. Pages of a tree hold at least half of what they can,
+	 * so the fraction must be between 0.5 and 1.
+	 */
+	public void setFillFactor(double fillFactor) {
+		if (!(fillFactor >= 0.5 && fillFactor <= 1.0)) {
+			throw new IllegalArgumentException("fill factor must be between 0.5 and 1, not " + fillFactor);
+		}
+		this.fillFactor = fillFactor;
+	}
+
+	/**
+	 * Set the number of bytes of tuples sorted in memory before they are
+	 * written to a temporary file.
+	 */
+	public void setRunSize(int runSize) {
+		if (runSize < recordSize) {
+			throw new IllegalArgumentException("a run must hold at least one tuple");
+		}
+		this.runSize = runSize;
+	}
+
+	/**
+	 * @see BulkLoader#setChunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		parser.setChunkSize(chunkSize);
+	}
+
+	/**
+	 * Load the input file into a new B+ tree file.
+	 *
+	 * @param inFile the input file
+	 * @param outFile the file to write the B+ tree to
+	 * @param npagebytes the number of bytes per page
+	 * @return the number of tuples loaded
+	 * @throws IOException if the files can't be read or written
+	 */
+	public long load(File inFile, File outFile, int npagebytes) throws IOException {
+		File dir = outFile.getAbsoluteFile().getParentFile();
+		RunWriter runs = new RunWriter(dir);
+		try {
+			long n = parser.parse(inFile, runs);
+			TreeWriter tree = new TreeWriter(n, npagebytes);
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), BUFFER_SIZE)) {
+				tree.begin(os);
+				runs.merge(tree);
+				tree.finish(os);
+			}
+			return n;
+		} finally {
+			runs.delete();
+		}
+	}
+
+	/** @return the key of the record at the given offset */
+	private Comparable<?> key(byte[] records, int offset) {
+		ByteBuffer buf = ByteBuffer.wrap(records);
+		if (types[keyField] == Type.INT_TYPE) {
+			return buf.getInt(offset + keyOffset);
+		}
+		int len = buf.getInt(offset + keyOffset);
+		return new String(records, offset + keyOffset + 4, len);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static int compareKeys(Comparable<?> k1, Comparable<?> k2) {
+		return ((Comparable<Object>) k1).compareTo(k2);
+	}
+
+	/**
+	 * @return the order of the count records in buf sorted on the key;
+	 *   records with equal keys stay in input order
+	 */
+	private int[] sort(byte[] buf, int count) {
+		int[] order = new int[count];
+		if (types[keyField] == Type.INT_TYPE) {
+			// sort the key and the index packed into a long
+			ByteBuffer bb = ByteBuffer.wrap(buf);
+			long[] packed = new long[count];
+			for (int i = 0; i < count; i++) {
+				packed[i] = ((long) bb.getInt(i * recordSize + keyOffset) << 32) | i;
+			}
+			Arrays.sort(packed);
+			for (int i = 0; i < count; i++) {
+				order[i] = (int) packed[i];
+			}
+		} else {
+			Comparable<?>[] keys = new Comparable<?>[count];
+			Integer[] index = new Integer[count];
+			for (int i = 0; i < count; i++) {
+				keys[i] = key(buf, i * recordSize);
+				index[i] = i;
+			}
+			Arrays.sort(index, (i1, i2) -> compareKeys(keys[i1], keys[i2]));
+			for (int i = 0; i < count; i++) {
+				order[i] = index[i];
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Collects the parsed records into runs, sorting each run and writing it
+	 * to a temporary file once it is full. The last run stays in memory.
+	 */
+	private class RunWriter implements BulkLoader.RecordConsumer {
+		private final File dir;
+		private final List<File> files = new ArrayList<>();
+		private final byte[] run;
+		private int count;
+
+		RunWriter(File dir) {
+			this.dir = dir;
+			this.run = new byte[runSize / recordSize * recordSize];
+		}
+
+		@Override
+		public void accept(byte[] records, int n) throws IOException {
+			int capacity = run.length / recordSize;
+			int i = 0;
+			while (i < n) {
+				if (count == capacity) {
+					spill();
+				}
+				int k = Math.min(n - i, capacity - count);
+				System.arraycopy(records, i * recordSize, run, count * recordSize, k * recordSize);
+				count += k;
+				i += k;
+			}
+		}
+
+		private void spill() throws IOException {
+			File f = File.createTempFile("btree_run", ".tmp", dir);
+			files.add(f);
+			try (OutputStream os = new BufferedOutputStream(new FileOutputStream(f), BUFFER_SIZE)) {
+				for (int i : sort(run, count)) {
+					os.write(run, i * recordSize, recordSize);
+				}
+			}
+			count = 0;
+		}
+
+		/** Hand all records to the tree in key order */
+		void merge(TreeWriter tree) throws IOException {
+			if (files.isEmpty()) {
+				for (int i : sort(run, count)) {
+					tree.add(run, i * recordSize);
+				}
+				return;
+			}
+			if (count > 0) {
+				spill();
+			}
+			PriorityQueue<RunReader> queue = new PriorityQueue<>((r1, r2) -> {
+				int cmp = compareKeys(r1.key, r2.key);
+				return cmp != 0 ? cmp : Integer.compare(r1.run, r2.run);
+			});
+			List<RunReader> readers = new ArrayList<>();
+			try {
+				int bufferSize = Math.max(recordSize, Math.min(BUFFER_SIZE, runSize / files.size()));
+				for (int i = 0; i < files.size(); i++) {
+					RunReader r = new RunReader(files.get(i), i, bufferSize);
+					readers.add(r);
+					if (r.advance()) {
+						queue.add(r);
+					}
+				}
+				while (!queue.isEmpty()) {
+					RunReader r = queue.poll();
+					tree.add(r.record, 0);
+					if (r.advance()) {
+						queue.add(r);
+					}
+				}
+			} finally {
+				for (RunReader r : readers) {
+					r.in.close();
+				}
+			}
+		}
+
+		void delete() {
+			for (File f : files) {
+				f.delete();
+			}
+		}
+	}
+
+	/** Reads the records of a sorted run one at a time */
+	private class RunReader {
+		final DataInputStream in;
+		final int run;
+		final byte[] record = new byte[recordSize];
+		Comparable<?> key;
+
+		RunReader(File f, int run, int bufferSize) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), bufferSize));
+			this.run = run;
+		}
+
+		boolean advance() throws IOException {
+			try {
+				in.readFully(record);
+			} catch (EOFException e) {
+				return false;
+			}
+			key = key(record, 0);
+			return true;
+		}
+	}
+
+	/**
+	 * Writes the pages of a tree of a known number of tuples, given the
+	 * tuples in key order. The shape of the tree is decided up front: the
+	 * tuples are spread evenly over the fewest leaves that hold them at the
+	 * fill factor, and likewise the pages of each level over the fewest
+	 * internal pages, so the page numbers of every page and of its parent
+	 * are known before it is written.
+	 */
+	private class TreeWriter {
+		private final int npagebytes;
+		private final int nrecords;
+		private final int nheaderbytes;
+
+		/** The number of tuples or children of each page of each level */
+		private final List<int[]> levels = new ArrayList<>();
+		/** The page number of the first page of each level */
+		private final List<Integer> firstPage = new ArrayList<>();
+		/** The parent of each page of each level but the root */
+		private final List<int[]> parents = new ArrayList<>();
+
+		/** The smallest key of each leaf */
+		private final Field[] leafKeys;
+		private final byte[] page;
+		private OutputStream os;
+		private int leaf;
+		private int used;
+
+		TreeWriter(long n, int npagebytes) {
+			this.npagebytes = npagebytes;
+			int pointerbytes = 3 * BTreeLeafPage.INDEX_SIZE;
+			this.nrecords = (npagebytes * 8 - pointerbytes * 8) / (recordSize * 8 + 1);
+			this.nheaderbytes = (nrecords + 7) / 8;
+			this.page = new byte[npagebytes];
+
+			int perLeaf = Math.max(1, (int) (nrecords * fillFactor));
+			long leaves = Math.max(1, (n + perLeaf - 1) / perLeaf);
+			if (leaves > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("too many tuples for one file: " + n);
+			}
+			levels.add(spread(n, (int) leaves));
+			firstPage.add(1);
+
+			int nentrybytes = types[keyField].getLen() + BTreeInternalPage.INDEX_SIZE;
+			int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+			int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) / (nentrybytes * 8 + 1);
+			int perNode = Math.max(2, (int) ((nentries + 1) * fillFactor));
+			int children = (int) leaves;
+			while (children > 1) {
+				int nodes = (children + perNode - 1) / perNode;
+				if (children / nodes < 2) {
+					// every internal page needs at least two children
+					nodes = children / 2;
+				}
+				levels.add(spread(children, nodes));
+				firstPage.add(firstPage.get(firstPage.size() - 1) + children);
+				children = nodes;
+			}
+			for (int l = 0; l + 1 < levels.size(); l++) {
+				int[] parent = new int[levels.get(l).length];
+				int[] sizes = levels.get(l + 1);
+				int child = 0;
+				for (int p = 0; p < sizes.length; p++) {
+					for (int c = 0; c < sizes[p]; c++) {
+						parent[child++] = firstPage.get(l + 1) + p;
+					}
+				}
+				parents.add(parent);
+			}
+			this.leafKeys = new Field[(int) leaves];
+		}
+
+		/** @return count items spread evenly over the given number of pages */
+		private int[] spread(long count, int pages) {
+			int[] sizes = new int[pages];
+			for (int i = 0; i < pages; i++) {
+				sizes[i] = (int) (count / pages + (i < count % pages ? 1 : 0));
+			}
+			return sizes;
+		}
+
+		private int rootPage() {
+			return firstPage.get(firstPage.size() - 1);
+		}
+
+		void begin(OutputStream os) throws IOException {
+			this.os = os;
+			int rootCategory = levels.size() == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+			os.write(BTreeFileEncoder.convertToRootPtrPage(rootPage(), rootCategory, 0));
+		}
+
+		/** Add the next record in key order */
+		void add(byte[] records, int offset) throws IOException {
+			if (used == 0) {
+				try {
+					leafKeys[leaf] = types[keyField].parse(ByteBuffer.wrap(records), offset + keyOffset);
+				} catch (ParseException e) {
+					throw new IOException("cannot read key: " + e.getMessage());
+				}
+			}
+			System.arraycopy(records, offset, page, 3 * BTreeLeafPage.INDEX_SIZE + nheaderbytes + used * recordSize,
+					recordSize);
+			used++;
+			if (used == levels.get(0)[leaf]) {
+				writeLeaf();
+			}
+		}
+
+		private void writeLeaf() throws IOException {
+			int pgNo = firstPage.get(0) + leaf;
+			int leaves = levels.get(0).length;
+			ByteBuffer buf = ByteBuffer.wrap(page);
+			buf.putInt(parents.isEmpty() ? 0 : parents.get(0)[leaf]);
+			buf.putInt(leaf > 0 ? pgNo - 1 : 0);
+			buf.putInt(leaf + 1 < leaves ? pgNo + 1 : 0);
+			for (int slot = 0; slot < used; slot++) {
+				page[3 * BTreeLeafPage.INDEX_SIZE + slot / 8] |= (byte) (1 << (slot % 8));
+			}
+			os.write(page);
+			Arrays.fill(page, (byte) 0);
+			used = 0;
+			leaf++;
+		}
+
+		void finish(OutputStream os) throws IOException {
+			if (leaf == 0) {
+				// an empty tree is a single empty leaf
+				writeLeaf();
+			}
+			Field[] childKeys = leafKeys;
+			for (int l = 1; l < levels.size(); l++) {
+				int childCategory = l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+				int[] sizes = levels.get(l);
+				Field[] keys = new Field[sizes.length];
+				int child = 0;
+				for (int p = 0; p < sizes.length; p++) {
+					List<BTreeEntry> entries = new ArrayList<>();
+					keys[p] = childKeys[child];
+					for (int c = 1; c < sizes[p]; c++) {
+						int left = firstPage.get(l - 1) + child + c - 1;
+						entries.add(new BTreeEntry(childKeys[child + c],
+								new BTreePageId(0, left, childCategory),
+								new BTreePageId(0, left + 1, childCategory)));
+					}
+					child += sizes[p];
+					byte[] bytes = BTreeFileEncoder.convertToInternalPage(entries, npagebytes,
+							types[keyField], childCategory);
+					ByteBuffer.wrap(bytes).putInt(0, l + 1 < levels.size() ? parents.get(l)[p] : 0);
+					os.write(bytes);
+				}
+				childKeys = keys;
+			}
+		}
+	}
+}
@@ -5,6 +5,7 @@ import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.IndexPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -28,6 +29,7 @@ public class BTreeScan implements OpIterator {
 	private transient DbFileIterator it;
 	private String tablename;
 	private String alias;
+	private int keyField;
 
 	/**
 	 * Creates a B+ tree scan over the specified table as a part of the
@@ -71,6 +73,15 @@ public class BTreeScan implements OpIterator {
 		return this.alias;
 	}
 
+	/**
+	 * @return the index of the key field, which the tuples are returned in
+	 *         ascending order of, or -1 if the table is not a B+ tree
+	 */
+	public int getKeyField()
+	{
+		return this.keyField;
+	}
+
 	/**
 	 * Reset the tableid, and tableAlias of this operator.
 	 * @param tableid
@@ -93,6 +104,8 @@ public class BTreeScan implements OpIterator {
 		else {
 			this.it = ((BTreeFile) Database.getCatalog().getDatabaseFile(tableid)).indexIterator(tid, ipred);
 		}
+		DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+		keyField = file instanceof BTreeFile ? ((BTreeFile) file).keyField() : -1;
 		myTd = Database.getCatalog().getTupleDesc(tableid);
 		String[] newNames = new String[myTd.numFields()];
 		Type[] newTypes = new Type[myTd.numFields()];
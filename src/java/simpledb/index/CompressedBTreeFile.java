@@ -0,0 +1,41 @@
+package simpledb.index;
+
+import java.io.File;
+import java.io.IOException;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedPageChannel;
+import simpledb.storage.TupleDesc;
+
+/**
+ * CompressedBTreeFile is a BTreeFile whose pages are stored compressed by a
+ * {@link CompressedPageChannel}, and decompressed when they are read into
+ * the BufferPool. It suits indexes of large tables that are rarely changed.
+ *
+ * @see simpledb.storage.CompressedHeapFile
+ */
+public class CompressedBTreeFile extends BTreeFile {
+
+	/**
+	 * Constructs a compressed B+ tree file backed by the specified file.
+	 * 
+	 * @param f - the file that stores the compressed pages; the index of the
+	 *            pages is stored next to it, in the file name with ".idx" appended
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public CompressedBTreeFile(File f, int key, TupleDesc td) {
+		super(f, key, td, new CompressedPageChannel(f));
+	}
+
+	/**
+	 * Write a compressed copy of the pages of a BTreeFile, for a
+	 * CompressedBTreeFile over dst to read.
+	 * 
+	 * @param src - the file of the BTreeFile
+	 * @param dst - the file to write the compressed pages to
+	 */
+	public static void compress(File src, File dst) throws IOException {
+		CompressedPageChannel.compress(src, dst, BTreeRootPtrPage.getPageSize(), BufferPool.getPageSize());
+	}
+}
@@ -1,8 +1,13 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.Field;
 import simpledb.storage.TupleDesc;
 
@@ -18,6 +23,9 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /** The fraction of the pairs of tuples that a range join predicate matches */
+    private static final double RANGE_SELECTIVITY = 0.3;
+
     private static TupleDesc tupleDesc;
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
@@ -76,7 +84,16 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
+        if (lj.mergeInputs && MergeJoin.supports(lj.p) && isSortedOn(plan1, t1id)
+                && isSortedOn(plan2, t2id)) {
+            // orderJoins found merging the inputs, which already arrive in
+            // order of the join key, cheaper than the other joins
+            j = new MergeJoin(p, plan1, plan2);
+        } else if (lj.probeIndex && IndexNestedLoopJoin.canProbe(p, plan2)) {
+            // orderJoins found looking up each outer tuple in the B+ tree on
+            // the inner table cheaper than scanning it
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
@@ -96,6 +113,35 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * @return true if the plan is known to return its tuples in ascending
+     *         order of the given field: a B+ tree scan on its key field, a
+     *         sequential scan of a B+ tree file keyed on the field, an
+     *         ascending OrderBy on the field, or a filter or merge join that
+     *         keeps such an order
+     */
+    static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof BTreeScan) {
+            return ((BTreeScan) plan).getKeyField() == field;
+        } else if (plan instanceof SeqScan) {
+            // a B+ tree file is scanned leaf by leaf, in order of its key
+            DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field);
+        } else if (plan instanceof MergeJoin) {
+            // the result is in the order of the outer child
+            MergeJoin m = (MergeJoin) plan;
+            OpIterator outer = m.getChildren()[0];
+            return field < outer.getTupleDesc().numFields()
+                    && isSortedOn(outer, field);
+        }
+        return false;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -124,6 +170,27 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, true, true, tupleSize(j.t1Alias));
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}.
+     *
+     * @param outerIsTable
+     *            true if the left-hand side is the base table t1 of j, so
+     *            that it may be scanned in order of its B+ tree key; false
+     *            if it is the result of other joins
+     * @param innerIsTable
+     *            true if the right-hand side is the base table t2 of j, so
+     *            that a B+ tree on it can be probed; false if it is the
+     *            result of other joins
+     * @param tupleSize1
+     *            the size in bytes of the left-hand side tuples, which are
+     *            wider than those of t1 if it is the result of other joins,
+     *            or 0 if it is not known
+     */
+    private double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean outerIsTable, boolean innerIsTable, int tupleSize1) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
@@ -133,10 +200,148 @@ public class JoinOptimizer {
             // HINT: You may need to use the variable "j" if you implemented
             // a join algorithm that's more complicated than a basic
             // nested-loops join.
-//            scancost(t1) + ntups(t1) x scancost(t2) //IO cost
+//            scancost(t1) + nblocks(t1) x scancost(t2) //IO cost
 //                    + ntups(t1) x ntups(t2)  //CPU cost
-            return cost1 + card1 * cost2 + card1 * card2;
+            // Join scans t2 once per block of t1 tuples
+            double blocks = Math.ceil(card1 / (double) estimateBlockSize(tupleSize1));
+            double cost = cost1 + blocks * cost2 + card1 * card2;
+            if (innerIsTable) {
+                cost = Math.min(cost, estimateIndexJoinCost(j, card1, card2, cost1, cost2));
+            }
+            if (outerIsTable && innerIsTable) {
+                cost = Math.min(cost, estimateMergeJoinCost(j, card1, card2, cost1, cost2));
+            }
+            return cost;
+        }
+    }
+
+    /**
+     * @return the number of left-hand side tuples of the given size that
+     *         Join reads per scan of the right-hand side, or 1 if the size
+     *         is not known. Blocks are sized from all frames of the buffer
+     *         pool rather than from those free right now, so the plan does
+     *         not depend on what happens to be cached.
+     * @see Join#blockSize(int, int)
+     */
+    private static int estimateBlockSize(int tupleSize) {
+        if (tupleSize <= 0) {
+            return 1;
+        }
+        return Join.blockSize(tupleSize, Database.getBufferPool().getNumFrames());
+    }
+
+    /**
+     * @return the size in bytes of the tuples of the table, or 0 if it is
+     *         not a known table
+     */
+    private int tupleSize(String alias) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        if (tableId == null) {
+            return 0;
+        }
+        try {
+            return Database.getCatalog().getTupleDesc(tableId).getSize();
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the size in bytes of the tuples of the join of the tables of
+     *         the joins, which hold the fields of all of them
+     */
+    private int tupleSize(List<LogicalJoinNode> joins) {
+        Set<String> aliases = new HashSet<>();
+        int size = 0;
+        for (LogicalJoinNode j : joins) {
+            for (String alias : new String[]{j.t1Alias, j.t2Alias}) {
+                if (alias != null && aliases.add(alias)) {
+                    size += tupleSize(alias);
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the cost of an index nested-loop join, which looks up each
+     * tuple of the left-hand side in a B+ tree on the join field of t2. A
+     * lookup reads one page per level of the tree; a range lookup also reads
+     * the leaf pages of the matching tuples, RANGE_SELECTIVITY of the table
+     * as for the cardinality of range joins.
+     *
+     * @param cost2
+     *            Estimated cost of one full scan of t2, which gives the cost
+     *            of reading one of its pages
+     * @return the cost, or Double.POSITIVE_INFINITY if t2 is not a B+ tree
+     *         keyed on the join field or the predicate cannot be looked up
+     */
+    private double estimateIndexJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.t2Alias == null
+                || j.p == Predicate.Op.NOT_EQUALS || j.p == Predicate.Op.LIKE) {
+            return Double.POSITIVE_INFINITY;
+        }
+        BTreeFile f = bTreeKeyedOn(j.t2Alias, j.f2PureName);
+        if (f == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int keyField = f.keyField();
+        int pages = Math.max(1, f.numPages());
+        double pageCost = cost2 / pages;
+        // an internal page holds about one key and one child page number per
+        // entry
+        int fanout = Math.max(2, BufferPool.getPageSize()
+                / (f.getTupleDesc().getFieldType(keyField).getLen() + Type.INT_TYPE.getLen()));
+        double height = Math.ceil(Math.log(pages) / Math.log(fanout)) + 1;
+        double lookup;
+        if (j.p == Predicate.Op.EQUALS) {
+            lookup = height * pageCost + 1;
+        } else {
+            lookup = (height + RANGE_SELECTIVITY * pages) * pageCost
+                    + RANGE_SELECTIVITY * card2;
+        }
+        return cost1 + card1 * lookup;
+    }
+
+    /**
+     * Estimate the cost of a merge join, which scans t1 and t2 once each
+     * and compares each tuple with the run of tuples of its key on the other
+     * side. Only a B+ tree file keyed on the join field is known to be
+     * scanned in order of it.
+     *
+     * @return the cost, or Double.POSITIVE_INFINITY if the predicate cannot
+     *         be merged or t1 or t2 is not a B+ tree keyed on its join field
+     */
+    private double estimateMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || !MergeJoin.supports(j.p)
+                || bTreeKeyedOn(j.t1Alias, j.f1PureName) == null
+                || bTreeKeyedOn(j.t2Alias, j.f2PureName) == null) {
+            return Double.POSITIVE_INFINITY;
         }
+        return cost1 + cost2 + card1 + card2;
+    }
+
+    /**
+     * @return the file of the table if it is a B+ tree keyed on the field,
+     *         or null
+     */
+    private BTreeFile bTreeKeyedOn(String alias, String field) {
+        Integer tableId = alias == null ? null : p.getTableId(alias);
+        if (tableId == null) {
+            return null;
+        }
+        try {
+            DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+            if (f instanceof BTreeFile
+                    && ((BTreeFile) f).keyField() == f.getTupleDesc().fieldNameToIndex(field)) {
+                return (BTreeFile) f;
+            }
+        } catch (NoSuchElementException e) {
+            // not a known table or field
+        }
+        return null;
     }
 
     /**
@@ -206,7 +411,7 @@ public class JoinOptimizer {
 
             int tableSize1 = stats.get(table1PureName).totalTuples();
             int tableSize2 = stats.get(table2PureName).totalTuples();;
-            card = (int)(tableSize1*tableSize2*0.3);
+            card = (int)(tableSize1*tableSize2*RANGE_SELECTIVITY);
         }
         return card <= 0 ? 1 : card;
     }
@@ -357,6 +562,11 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether t1 and t2 are base tables, which an index join can probe
+        boolean t1IsTable = true, t2IsTable = true;
+        // the sizes of the tuples of both sides, which are wider for the
+        // result of other joins
+        int t1size = tupleSize(table1Alias), t2size = tupleSize(table2Alias);
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -392,6 +602,8 @@ public class JoinOptimizer {
                 // subtree is
                 t1card = bestCard;
                 leftPkey = hasPkey(prevBest);
+                t1IsTable = false;
+                t1size = tupleSize(prevBest);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
                         .estimateScanCost();
@@ -408,6 +620,8 @@ public class JoinOptimizer {
                 // subtree is
                 t2card = bestCard;
                 rightPkey = hasPkey(prevBest);
+                t2IsTable = false;
+                t2size = tupleSize(prevBest);
                 t1cost = stats.get(table1Name).estimateScanCost();
                 t1card = stats.get(table1Name).estimateTableCardinality(
                         filterSelectivities.get(j.t1Alias));
@@ -421,10 +635,14 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1IsTable, t2IsTable, t1size);
+        boolean merge = t1IsTable && t2IsTable
+                && estimateMergeJoinCost(j, t1card, t2card, t1cost, t2cost) == cost1;
+        boolean probe = !merge && t2IsTable
+                && estimateIndexJoinCost(j, t1card, t2card, t1cost, t2cost) == cost1;
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2IsTable, t1IsTable, t2size);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -432,6 +650,15 @@ public class JoinOptimizer {
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
+            merge = t1IsTable && t2IsTable
+                    && estimateMergeJoinCost(j2, t2card, t1card, t2cost, t1cost) == cost2;
+            probe = !merge && t1IsTable
+                    && estimateIndexJoinCost(j2, t2card, t1card, t2cost, t1cost) == cost2;
+        }
+        if (merge) {
+            j = j.mergingInputs();
+        } else if (probe) {
+            j = j.probingIndex();
         }
         if (cost1 >= bestCostSoFar)
             return null;
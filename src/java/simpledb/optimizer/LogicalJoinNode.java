@@ -25,6 +25,14 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** True if the optimizer found that looking up each t1 tuple in a B+ tree
+     * on f2 of t2 is the cheapest way to join */
+    public boolean probeIndex;
+
+    /** True if the optimizer found that merging t1 and t2, both scanned in
+     * order of their join fields, is the cheapest way to join */
+    public boolean mergeInputs;
+
     public LogicalJoinNode() {
     }
 
@@ -64,6 +72,22 @@ public class LogicalJoinNode {
         return new LogicalJoinNode(t2Alias,t1Alias,f2PureName,f1PureName, newp);
     }
     
+    /** Return a copy of this LogicalJoinNode that probes the B+ tree on f2
+     * of t2. */
+    public LogicalJoinNode probingIndex() {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j.probeIndex = true;
+        return j;
+    }
+
+    /** Return a copy of this LogicalJoinNode that merges t1 and t2 in order
+     * of f1 and f2. */
+    public LogicalJoinNode mergingInputs() {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j.mergeInputs = true;
+        return j;
+    }
+
     @Override public boolean equals(Object o) {
         if (!(o instanceof LogicalJoinNode)) return false;
         LogicalJoinNode j2 =(LogicalJoinNode)o;
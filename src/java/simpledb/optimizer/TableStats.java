@@ -7,6 +7,7 @@ import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
@@ -127,8 +128,10 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        HeapFile file = (HeapFile)Database.getCatalog().getDatabaseFile(tableid);
-        return file.numPages() * iocostperpage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        int pages = file instanceof BTreeFile ? ((BTreeFile) file).numPages()
+                : ((HeapFile) file).numPages();
+        return pages * iocostperpage;
     }
 
     /**
@@ -178,7 +181,11 @@ public class TableStats {
         // some code goes here
         if(constant.getType().equals(Type.INT_TYPE)) {
             return intHistogramMap.get(field).estimateSelectivity(op, ((IntField)constant).getValue());
-        } else if (constant.getType().equals(Type.STRING_TYPE)) {
+        } else if (constant.getType().isString()) {
+            if (!stringHistogramMap.containsKey(field)) {
+                // TEXT columns keep no histogram
+                return 1.0;
+            }
             return stringHistogramMap.get(field).estimateSelectivity(op, ((StringField)constant).getValue());
         } else {
             throw new RuntimeException("unknown type");
@@ -223,7 +230,7 @@ public class TableStats {
         for(int i = 0; i < fieldsNum; ++i) {
             if(tupleDesc.getFieldType(i).equals(Type.INT_TYPE)) {
                 intHistogramMap.put(i, new IntHistogram(NUM_HIST_BINS, minMap.get(i), maxMap.get(i)));
-            } else {
+            } else if (tupleDesc.getFieldType(i).isString()) {
                 stringHistogramMap.put(i, new StringHistogram(NUM_HIST_BINS));
             }
         }
@@ -231,11 +238,10 @@ public class TableStats {
         while (seqScan.hasNext()) {
             Tuple tuple = seqScan.next();
             for(int i = 0; i < fieldsNum; ++i) {
-                Field field = tuple.getField(i);
-                if(field.getType().equals(Type.INT_TYPE)) {
-                    intHistogramMap.get(i).addValue(((IntField)field).getValue());
-                } else {
-                    stringHistogramMap.get(i).addValue(((StringField)field).getValue());
+                if(intHistogramMap.containsKey(i)) {
+                    intHistogramMap.get(i).addValue(((IntField)tuple.getField(i)).getValue());
+                } else if (stringHistogramMap.containsKey(i)) {
+                    stringHistogramMap.get(i).addValue(((StringField)tuple.getField(i)).getValue());
                 }
             }
         }
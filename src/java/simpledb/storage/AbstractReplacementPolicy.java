@@ -0,0 +1,49 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Helper for implementing ReplacementPolicies. Handles the hit/miss counters. */
+public abstract class AbstractReplacementPolicy implements ReplacementPolicy {
+
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    protected AbstractReplacementPolicy(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void pageAdded(int frame, PageId pid) {
+        misses.increment();
+        onAdd(frame, pid);
+    }
+
+    public void pageAccessed(int frame, PageId pid) {
+        hits.increment();
+        onAccess(frame, pid);
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** Called by pageAdded after the miss has been counted */
+    protected abstract void onAdd(int frame, PageId pid);
+
+    /** Called by pageAccessed after the hit has been counted */
+    protected abstract void onAccess(int frame, PageId pid);
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(capacity=" + capacity + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount() + ")";
+    }
+}
@@ -8,12 +8,16 @@ import simpledb.transaction.TransactionId;
 
 import java.io.*;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -23,21 +27,85 @@ import java.util.concurrent.locks.ReentrantLock;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
- * 
- * @Threadsafe, all fields are final
+ * <p>
+ * Pages live in a fixed table of numPages frames. When a page has to be
+ * brought in and no frame is free, the pool's {@link ReplacementPolicy}
+ * (CLOCK unless another policy is given) chooses the victim. Dirty frames
+ * are never evicted (NO STEAL), and frames pinned via {@link #pinPage} stay
+ * resident until unpinned. A page discarded while its frame is pinned
+ * leaves the page table at once, but its frame is only freed by the last
+ * unpin.
+ * <p>
+ * There is no pool-wide lock. The page table is a concurrent map, so hits
+ * never block; misses, discards and flushes serialize only on one of
+ * {@link #STRIPES} locks chosen by the hash of the page id, so work on pages
+ * in different stripes proceeds in parallel. Frames are claimed for
+ * eviction with a compare-and-set on their pin count.
+ * <p>
+ * Page locks are taken from a {@link LockManager} before a page is looked up
+ * and held until the transaction completes (strict two-phase locking).
+ * In record locking mode (see {@link #setRecordLocking}) heap files lock
+ * individual records under intention locks on their page and table, so
+ * transactions changing different records of a page do not block each
+ * other; their changes are tracked in a {@link RecordLog} and committed or
+ * undone record by record. Multi-version mode (see {@link #setMultiVersion})
+ * adds snapshot reads on top of record locking: scans see the data as of the
+ * start of their transaction, kept in a {@link VersionStore}, and take no
+ * record locks, so readers never wait for writers.
+ *
+ * @Threadsafe; the frame table, the page table and the other structures are
+ * created once, and the mode flags are volatile. The page of a frame only
+ * changes under the stripe lock of the page or once the frame is claimed by
+ * a compare-and-set on its pin count, which pins and unpins also update.
  */
 public class BufferPool {
     /** Bytes per page, including header. */
     private static final int DEFAULT_PAGE_SIZE = 4096;
 
     private static int pageSize = DEFAULT_PAGE_SIZE;
-    
+
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
-    private LRUCache<PageId, Page> PAGE_CACHE;
+    /** Number of locks the page table is striped over; a power of two */
+    private static final int STRIPES = 64;
+
+    /** The frame table; its size is the capacity of the pool */
+    private final Frame[] frames;
+
+    /** Maps the id of every resident page to the frame holding it */
+    private final Map<PageId, Frame> pageTable;
+
+    /** Frames not holding any page */
+    private final ConcurrentLinkedQueue<Frame> freeFrames;
+
+    /**
+     * The frames pinned by each transaction, released when the transaction
+     * completes. A pinned frame keeps its page until it is unpinned, even if
+     * the page is discarded, so the frame rather than the page id is kept.
+     */
+    private final Map<TransactionId, List<Frame>> pins;
+
+    /** Chooses the frames to evict */
+    private final ReplacementPolicy policy;
+
+    /** Serialize loading, replacing, discarding and flushing a given page */
+    private final Object[] stripes;
+
+    /** Table, page and record locks held by transactions */
+    private final LockManager lockManager;
+
+    /** Uncommitted record-level changes, used in record locking mode */
+    private final RecordLog recordLog;
+
+    private volatile boolean recordLocking;
+
+    /** Old versions and commit timestamps, used in multi-version mode */
+    private final VersionStore versions;
+
+    private volatile boolean multiVersion;
 
     /**
      * Creates a BufferPool that caches up to numPages pages.
@@ -46,18 +114,138 @@ public class BufferPool {
      */
     public BufferPool(int numPages) {
         // some code goes here
-        PAGE_CACHE = new LRUCache<>(numPages);
+        this(new ClockPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to policy.getCapacity() pages and
+     * uses the specified policy to choose pages to evict.
+     *
+     * @param policy the replacement policy of this buffer pool
+     */
+    public BufferPool(ReplacementPolicy policy) {
+        int numPages = policy.getCapacity();
+        this.policy = policy;
+        frames = new Frame[numPages];
+        pageTable = new ConcurrentHashMap<>();
+        freeFrames = new ConcurrentLinkedQueue<>();
+        pins = new ConcurrentHashMap<>();
+        lockManager = new LockManager();
+        recordLog = new RecordLog();
+        versions = new VersionStore();
+        stripes = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+        for (int i = 0; i < numPages; i++) {
+            frames[i] = new Frame(i);
+            freeFrames.add(frames[i]);
+        }
+    }
+
+    /**
+     * @return the replacement policy of this buffer pool, which also keeps
+     *   its hit and miss counts
+     */
+    public ReplacementPolicy getReplacementPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the number of frames of this buffer pool, the most pages it
+     *   caches at once
+     */
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    /**
+     * @return the number of frames that can take a new page without a
+     *   dirty or pinned page being evicted: the empty frames, and those
+     *   holding a clean page that is not pinned
+     */
+    public int getNumFreeFrames() {
+        int free = 0;
+        for (Frame frame : frames) {
+            Page page = frame.page;
+            if (page == null || (frame.pinCount.get() == 0 && page.isDirty() == null)) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Switch between page-level locking (the default) and record-level
+     * locking for heap file updates. Must not be changed while transactions
+     * are running.
+     *
+     * @param recordLocking true to lock individual records
+     */
+    public void setRecordLocking(boolean recordLocking) {
+        this.recordLocking = recordLocking;
+    }
+
+    /**
+     * @return true if heap files lock individual records
+     */
+    public boolean isRecordLocking() {
+        return recordLocking;
+    }
+
+    /**
+     * Switch multi-version concurrency control on or off. Turning it on also
+     * turns on record locking, which writers keep using. Must not be changed
+     * while transactions are running.
+     *
+     * @param multiVersion true to give readers snapshots
+     */
+    public void setMultiVersion(boolean multiVersion) {
+        this.multiVersion = multiVersion;
+        if (multiVersion) {
+            recordLocking = true;
+        }
     }
-    
+
+    /**
+     * @return true if scans read snapshots
+     */
+    public boolean isMultiVersion() {
+        return multiVersion;
+    }
+
+    RecordLog getRecordLog() {
+        return recordLog;
+    }
+
+    /**
+     * @return the version store used in multi-version mode
+     */
+    public VersionStore getVersionStore() {
+        return versions;
+    }
+
+    /**
+     * Called when a transaction starts. In multi-version mode this takes the
+     * snapshot it reads; otherwise it does nothing.
+     *
+     * @param tid the ID of the starting transaction
+     */
+    public void transactionStarted(TransactionId tid) {
+        if (multiVersion) {
+            versions.snapshot(tid);
+        }
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
-    
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void setPageSize(int pageSize) {
     	BufferPool.pageSize = pageSize;
     }
-    
+
     // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
     public static void resetPageSize() {
     	BufferPool.pageSize = DEFAULT_PAGE_SIZE;
@@ -78,19 +266,175 @@ public class BufferPool {
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    /**
-     * Todo lab2
-     * 优化cache,LRU/LFU或者其他cache
-     */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        Page page = PAGE_CACHE.get(pid);
-        if (page == null) {
-            page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-            PAGE_CACHE.put(pid, page);
+        return getPage(tid, pid, modeOf(perm));
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+     * locking it in the given mode. In record locking mode an intention lock
+     * is taken on the page's table as well.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param mode the mode to lock the page in
+     */
+    public Page getPage(TransactionId tid, PageId pid, LockMode mode)
+        throws TransactionAbortedException, DbException {
+        lock(tid, pid, mode);
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Retrieve the specified page like {@link #getPage}, and pin it in the
+     * buffer pool so it cannot be evicted until {@link #unpinPage} is called
+     * or the transaction completes. Operators that hold on to a page across
+     * calls (e.g. a scan positioned on a page) should pin it. Without a
+     * transaction (tid is null) nothing could release the pin, so the page
+     * is neither locked nor pinned.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, modeOf(perm));
+    }
+
+    /**
+     * Retrieve and pin the specified page like {@link #pinPage(TransactionId, PageId, Permissions)},
+     * locking it in the given mode.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, LockMode mode)
+        throws TransactionAbortedException, DbException {
+        lock(tid, pid, mode);
+        if (tid == null) {
+            return fetchPage(pid, null);
+        }
+        return fetchPage(pid, pins.computeIfAbsent(tid, k -> new ArrayList<>()));
+    }
+
+    /**
+     * Release one pin taken on the specified page by {@link #pinPage}.
+     *
+     * @param tid the ID of the transaction that pinned the page
+     * @param pid the ID of the page to unpin
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        if (tid == null) {
+            return;
+        }
+        List<Frame> held = pins.get(tid);
+        if (held == null) {
+            return;
+        }
+        Frame pinned = null;
+        synchronized (held) {
+            for (Frame frame : held) {
+                if (frame.page.getId().equals(pid)) {
+                    pinned = frame;
+                    break;
+                }
+            }
+            if (pinned == null) {
+                return;
+            }
+            held.remove(pinned);
+        }
+        unpin(pinned);
+    }
+
+    /**
+     * Lock a record, taking the matching intention locks on its page and
+     * table first. Used in record locking mode; callers must check that the
+     * record still holds the tuple they expect once the lock is granted.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the record to lock
+     * @param perm READ_ONLY for a shared lock, READ_WRITE for an exclusive one
+     */
+    public void lockRecord(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        LockMode mode = modeOf(perm);
+        lock(tid, rid.getPageId(), mode.intention());
+        lockManager.acquire(tid, rid, mode);
+    }
+
+    /**
+     * Lock a record exclusively if no other transaction has a lock on it.
+     * The caller must already hold an intention lock on its page.
+     *
+     * @return true if the lock was granted
+     */
+    boolean tryLockRecord(TransactionId tid, RecordId rid) {
+        return lockManager.tryAcquire(tid, rid, LockMode.X);
+    }
+
+    private void lock(TransactionId tid, PageId pid, LockMode mode)
+        throws TransactionAbortedException {
+        if (tid == null) {
+            return;
+        }
+        if (recordLocking) {
+            // tables are locked by their id
+            lockManager.acquire(tid, pid.getTableId(), mode.intention());
+        }
+        lockManager.acquire(tid, pid, mode);
+    }
+
+    private static LockMode modeOf(Permissions perm) {
+        return perm == Permissions.READ_WRITE ? LockMode.X : LockMode.S;
+    }
+
+    /**
+     * Look up the page in the frame table, reading it from disk into a frame
+     * if it is not resident.
+     *
+     * @param pinned if not null, the frame is pinned and added to this list
+     */
+    private Page fetchPage(PageId pid, List<Frame> pinned) throws DbException {
+        boolean pin = pinned != null;
+        for (;;) {
+            Frame frame = pageTable.get(pid);
+            if (frame == null) {
+                synchronized (stripeFor(pid)) {
+                    if (pageTable.containsKey(pid)) {
+                        continue;
+                    }
+                    Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    frame = allocateFrame();
+                    frame.install(page, pin);
+                    pageTable.put(pid, frame);
+                    policy.pageAdded(frame.index, pid);
+                    if (pin) {
+                        synchronized (pinned) {
+                            pinned.add(frame);
+                        }
+                    }
+                    return page;
+                }
+            }
+            if (pin && !frame.pin()) {
+                // the frame is being evicted; look it up again
+                continue;
+            }
+            Page page = frame.page;
+            if (page != null && page.getId().equals(pid) && !frame.discarded) {
+                policy.pageAccessed(frame.index, pid);
+                if (pin) {
+                    synchronized (pinned) {
+                        pinned.add(frame);
+                    }
+                }
+                return page;
+            }
+            if (pin) {
+                unpin(frame);
+            }
         }
-        return page;
     }
 
     /**
@@ -105,6 +449,7 @@ public class BufferPool {
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -115,13 +460,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -134,18 +480,135 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        try {
+            completeRecordChanges(tid, commit);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (commit) {
+            try {
+                flushPages(tid);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            // NO STEAL: the transaction's changes never reached disk, so
+            // dropping its dirty pages is enough to roll it back
+            for (Frame frame : frames) {
+                Page page = frame.page;
+                if (page != null && tid.equals(page.isDirty())) {
+                    discardPage(page.getId());
+                    if (page instanceof HeapPage) {
+                        // the free-space map saw the dropped changes
+                        ((HeapPage) page.getBeforeImage()).updateFreeSpaceMap();
+                    } else if (page instanceof OverflowPage) {
+                        // the page of an aborted insert was never written
+                        OverflowPageId pid = ((OverflowPage) page).getId();
+                        ((HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).reclaimOverflowPage(pid);
+                    }
+                }
+            }
+        }
+        List<Frame> held = pins.remove(tid);
+        if (held != null) {
+            synchronized (held) {
+                for (Frame frame : held) {
+                    unpin(frame);
+                }
+            }
+        }
+        lockManager.releaseAll(tid);
+        versions.release(tid);
+    }
+
+    /**
+     * Commit or undo the record-level changes of a transaction. On commit its
+     * deletes are applied and each page it changed is written without the
+     * inserts of transactions still running; on abort its inserts are
+     * removed. A page stays dirty while other transactions have changes on it.
+     */
+    private void completeRecordChanges(TransactionId tid, boolean commit) throws IOException {
+        if (recordLog.get(tid) == null) {
+            return;
+        }
+        if (commit && multiVersion) {
+            versions.commit(ts -> applyRecordChanges(tid, true, ts));
+        } else {
+            applyRecordChanges(tid, commit, 0);
+        }
+    }
+
+    /**
+     * @param ts the commit timestamp in multi-version mode, 0 otherwise
+     */
+    private void applyRecordChanges(TransactionId tid, boolean commit, long ts) throws IOException {
+        if (ts > 0) {
+            // stamp the inserts while they are still hidden as uncommitted
+            for (Tuple t : recordLog.get(tid).inserted()) {
+                versions.inserted(t.getRecordId(), ts);
+            }
+        }
+        RecordLog.Changes changes = recordLog.remove(tid);
+        List<HeapFile> files = heapFiles(commit ? changes.pages() : Collections.<PageId>emptyList());
+        for (HeapFile file : files) {
+            file.flushZoneMap();
+        }
+        for (PageId pid : changes.pages()) {
+            Frame frame = pageTable.get(pid);
+            HeapPage page = frame == null ? null : (HeapPage) frame.page;
+            if (page == null) {
+                // pages with uncommitted changes are dirty and never evicted
+                throw new IllegalStateException("page " + pid + " changed by " + tid.getId() + " is not cached");
+            }
+            synchronized (page) {
+                try {
+                    if (commit) {
+                        for (Tuple t : changes.deleted(pid)) {
+                            if (ts > 0) {
+                                versions.deleted(t, ts);
+                            }
+                            page.deleteTuple(t);
+                        }
+                        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                        HeapPage image = file.createPage(page.getId(), page.getPageData());
+                        for (Tuple t : recordLog.uncommittedInserts(pid)) {
+                            image.deleteTuple(t);
+                        }
+                        file.writePage(image);
+                    } else {
+                        for (Tuple t : changes.inserted(pid)) {
+                            page.deleteTuple(t);
+                        }
+                    }
+                } catch (DbException e) {
+                    throw new IOException(e);
+                }
+                TransactionId other = recordLog.modifierOf(pid);
+                if (other != null) {
+                    page.markDirty(true, other);
+                } else {
+                    page.markDirty(false, null);
+                    if (commit) {
+                        page.setBeforeImage();
+                    }
+                }
+            }
+        }
+        for (HeapFile file : files) {
+            file.stampSidecars();
+        }
     }
 
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
-     * acquire a write lock on the page the tuple is added to and any other 
-     * pages that are updated (Lock acquisition is not needed for lab2). 
+     * acquire a write lock on the page the tuple is added to and any other
+     * pages that are updated (Lock acquisition is not needed for lab2).
      * May block if the lock(s) cannot be acquired.
-     * 
+     *
      * Marks any pages that were dirtied by the operation as dirty by calling
-     * their markDirty bit, and adds versions of any pages that have 
-     * been dirtied to the cache (replacing any existing versions of those pages) so 
-     * that future requests see up-to-date pages. 
+     * their markDirty bit, and adds versions of any pages that have
+     * been dirtied to the cache (replacing any existing versions of those pages) so
+     * that future requests see up-to-date pages.
      *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -154,8 +617,8 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        List<Page> pageList = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
-        PAGE_CACHE.put(pageList.get(0).getId(), pageList.get(0));
+        List<Page> dirtied = Database.getCatalog().getDatabaseFile(tableId).insertTuple(tid, t);
+        cacheDirtyPages(tid, dirtied);
     }
 
     /**
@@ -164,9 +627,9 @@ public class BufferPool {
      * other pages that are updated. May block if the lock(s) cannot be acquired.
      *
      * Marks any pages that were dirtied by the operation as dirty by calling
-     * their markDirty bit, and adds versions of any pages that have 
-     * been dirtied to the cache (replacing any existing versions of those pages) so 
-     * that future requests see up-to-date pages. 
+     * their markDirty bit, and adds versions of any pages that have
+     * been dirtied to the cache (replacing any existing versions of those pages) so
+     * that future requests see up-to-date pages.
      *
      * @param tid the transaction deleting the tuple.
      * @param t the tuple to delete
@@ -174,9 +637,41 @@ public class BufferPool {
     public void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        PageId pageId = t.getRecordId().getPageId();
-        Database.getCatalog().getDatabaseFile(pageId.getTableId()).deleteTuple(tid, t);
-        PAGE_CACHE.remove(pageId);
+        int tableId = t.getRecordId().getPageId().getTableId();
+        List<Page> dirtied = Database.getCatalog().getDatabaseFile(tableId).deleteTuple(tid, t);
+        cacheDirtyPages(tid, dirtied);
+    }
+
+    /**
+     * Mark the pages as dirtied by tid and make them the resident version of
+     * those pages, replacing whatever copy the frame table held.
+     */
+    private void cacheDirtyPages(TransactionId tid, List<? extends Page> dirtied) throws DbException {
+        for (Page page : dirtied) {
+            page.markDirty(true, tid);
+            PageId pid = page.getId();
+            synchronized (stripeFor(pid)) {
+                for (;;) {
+                    Frame frame = pageTable.get(pid);
+                    if (frame == null) {
+                        frame = allocateFrame();
+                        frame.install(page, false);
+                        pageTable.put(pid, frame);
+                        policy.pageAdded(frame.index, pid);
+                        break;
+                    }
+                    // pin the frame so it cannot be evicted while its page is swapped
+                    if (frame.pin()) {
+                        frame.page = page;
+                        unpin(frame);
+                        policy.pageAccessed(frame.index, pid);
+                        break;
+                    }
+                    // the frame is being evicted; wait for it to leave the page table
+                    Thread.yield();
+                }
+            }
+        }
     }
 
     /**
@@ -184,12 +679,25 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
-        Iterator<Node<PageId,Page>> it = PAGE_CACHE.iterator();
-        while(it.hasNext()) {
-            flushPage(it.next().key);
+        List<PageId> dirty = new ArrayList<>();
+        for (Frame frame : frames) {
+            Page page = frame.page;
+            if (page != null && page.isDirty() != null) {
+                dirty.add(page.getId());
+            }
+        }
+        List<HeapFile> files = heapFiles(dirty);
+        for (HeapFile file : files) {
+            file.flushZoneMap();
+        }
+        for (PageId pid : pageTable.keySet()) {
+            flushPage(pid);
+        }
+        for (HeapFile file : files) {
+            file.stampSidecars();
         }
     }
 
@@ -197,165 +705,237 @@ public class BufferPool {
         Needed by the recovery manager to ensure that the
         buffer pool doesn't keep a rolled back page in its
         cache.
-        
+
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
+        synchronized (stripeFor(pid)) {
+            Frame frame = pageTable.get(pid);
+            if (frame == null) {
+                return;
+            }
+            // marked in the same step as the mapping is removed, so an evictor
+            // that claimed the frame and finds the mapping gone knows to free
+            // it; a pinned frame is freed by its last unpin instead
+            pageTable.computeIfPresent(pid, (k, f) -> {
+                f.discarded = true;
+                policy.pageRemoved(f.index, pid);
+                return null;
+            });
+            releaseIfDiscarded(frame);
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page page = dbFile.readPage(pid);
-        dbFile.writePage(page);
-        page.markDirty(false, null);
+        synchronized (stripeFor(pid)) {
+            Frame frame = pageTable.get(pid);
+            Page page = frame == null ? null : frame.page;
+            if (page == null || page.isDirty() == null) {
+                return;
+            }
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            page.markDirty(false, null);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        List<PageId> dirty = new ArrayList<>();
+        for (Frame frame : frames) {
+            Page page = frame.page;
+            if (page != null && tid.equals(page.isDirty())) {
+                dirty.add(page.getId());
+                if (!recordLocking && page instanceof HeapPage) {
+                    // the transaction locks the whole page, so all of its
+                    // tuples are committed once it is written
+                    ((HeapFile) Database.getCatalog().getDatabaseFile(page.getId().getTableId()))
+                            .learnBounds((HeapPage) page);
+                }
+            }
+        }
+        List<HeapFile> files = heapFiles(dirty);
+        for (HeapFile file : files) {
+            file.flushZoneMap();
+        }
+        for (Frame frame : frames) {
+            Page page = frame.page;
+            if (page != null && tid.equals(page.isDirty())) {
+                flushPage(page.getId());
+                page.setBeforeImage();
+            }
+        }
+        for (HeapFile file : files) {
+            file.stampSidecars();
+        }
+    }
+
+    /**
+     * Returns the heap files the pages belong to, once each. Their zone maps
+     * are written once before the pages are written, rather than page by
+     * page, and their sidecar files are stamped once after.
+     */
+    private List<HeapFile> heapFiles(Collection<PageId> pids) {
+        Set<Integer> tables = new HashSet<>();
+        List<HeapFile> files = new ArrayList<>();
+        for (PageId pid : pids) {
+            if (tables.add(pid.getTableId())) {
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                if (file instanceof HeapFile) {
+                    files.add((HeapFile) file);
+                }
+            }
+        }
+        return files;
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * The victim is picked by the replacement policy. Pinned and dirty
+     * frames cannot be claimed, so nothing ever needs to be flushed here.
+     *
+     * @throws DbException if every page in the buffer pool is pinned or dirty
      */
-    private synchronized void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-
+        int victim = policy.evict(this::claimForEviction);
+        if (victim < 0) {
+            throw new DbException("all " + frames.length + " pages in the buffer pool are pinned or dirty");
+        }
+        Frame frame = frames[victim];
+        // the claim makes the frame ours; a concurrent discardPage may have
+        // removed its mapping already, and then leaves the frame to us
+        pageTable.remove(frame.page.getId(), frame);
+        free(frame);
     }
 
-}
-
-class LRUCache<K, V> {
-    /**
-     Algorithm :
-     1. Everytime when we add the node check if it exists .
-     1.1 if exists then update the value .
-     1.2 move this node to head.
-     1.3 if the capaicity reaches then remove node from tail .
-     1.4 move the current node to head.
-
-     2. Everytime when we get
-     2.1 then we need to move this node to head.
-     3. Remove the node from tail thats it.
-     }
-     **/
-
-    private int  capacity;
-    private AtomicInteger curSize;
-    private ConcurrentHashMap<K,Node<K,V>> map = new ConcurrentHashMap<>();
-    private Node<K,V> head = new Node<>();
-    private Node<K,V> tail = new Node<>();
-    private Lock readWriteLock = new ReentrantLock();
-
-    public LRUCache(int capacity) {
-        this.capacity = capacity;
-        head.next = tail;
-        tail.prev = head;
-        curSize = new AtomicInteger(0);
-    }
-
-    public V get(K key) {
-        if(!map.containsKey(key))
-            return null;
-        Node<K,V> node = map.get(key);
-        // move this current Node to front
-        moveToHead(node);
-        return node.val;
-    }
-
-    public void put(K key, V value) {
-        // The key is already present
-        Node<K,V> curNode = map.get(key);
-        if(curNode != null) {
-            // if value exist update
-            curNode.val=value;
-            // moveTo head , so now its used recently
-            moveToHead(curNode);
-            return;
+    /**
+     * Try to take the frame for eviction; fails if it is empty, pinned or dirty.
+     */
+    private boolean claimForEviction(int index) {
+        Frame frame = frames[index];
+        Page page = frame.page;
+        if (page == null || page.isDirty() != null || !frame.claim()) {
+            return false;
         }
-        Node<K,V> newNode = new Node<>(value,key);
-        map.put(key,newNode);
-        addToHead(newNode);
-        if (curSize.incrementAndGet() > capacity) {
-            Node<K,V> nodeToRemove = tail.prev;
-            removeNode(nodeToRemove);
-            map.remove(nodeToRemove.key);
-            curSize.decrementAndGet();
+        if (frame.page != page || page.isDirty() != null) {
+            // replaced or dirtied between the check and the claim
+            frame.pinCount.set(0);
+            releaseIfDiscarded(frame);
+            return false;
         }
+        return true;
     }
 
-    public void remove(K key) {
-        Node<K,V> node = map.get(key);
-        removeNode(node);
+    /**
+     * @return a frame holding no page, evicting a page if none is free
+     */
+    private Frame allocateFrame() throws DbException {
+        Frame frame = freeFrames.poll();
+        while (frame == null) {
+            evictPage();
+            frame = freeFrames.poll();
+        }
+        return frame;
     }
 
-    public Iterator<Node<K,V>> iterator() {
-        return map.values().iterator();
+    /**
+     * @return the lock guarding the stripe of the page table pid belongs to
+     */
+    private Object stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
     }
 
-    private void moveToHead(Node<K,V> node) {
-        // remove
-        removeNode(node);
-        addToHead(node);
+    private void unpin(Frame frame) {
+        frame.unpin();
+        releaseIfDiscarded(frame);
     }
 
-    private void removeNode(Node<K,V> node) {
-        try {
-            readWriteLock.lock();
-            Node<K,V> prev = node.prev;
-            Node<K,V> next = node.next;
-            prev.next = next;
-            next.prev = prev;
-        } finally {
-            readWriteLock.unlock();
+    /**
+     * Free the frame if its page was discarded and nobody pins or claims it.
+     */
+    private void releaseIfDiscarded(Frame frame) {
+        if (frame.discarded && frame.claim()) {
+            free(frame);
         }
     }
 
-    private void addToHead(Node<K,V> node) {
-        try {
-            readWriteLock.lock();
-            node.next = head.next;
-            node.prev = head;
-            head.next.prev = node;
-            head.next = node;
-        } finally {
-            readWriteLock.unlock();
-        }
+    /**
+     * Put a claimed frame that is no longer in the page table on the free list.
+     */
+    private void free(Frame frame) {
+        frame.clear();
+        freeFrames.add(frame);
     }
-}
 
-class Node<K,V> {
-    V val;
-    K key;
-    Node<K,V> next ;
-    Node<K,V> prev;
+    /**
+     * A slot of the frame table. The pin count is -1 while the frame is free
+     * or claimed for eviction, which keeps it from being pinned concurrently.
+     */
+    private static class Frame {
+        final int index;
+        volatile Page page;
+        final AtomicInteger pinCount = new AtomicInteger(-1);
+        /** Set when the page was discarded while the frame may be pinned */
+        volatile boolean discarded;
+
+        Frame(int index) {
+            this.index = index;
+        }
 
-    public Node(V val, K key) {
-        this.val = val;
-        this.key = key;
-    }
+        void install(Page p, boolean pin) {
+            page = p;
+            pinCount.set(pin ? 1 : 0);
+        }
+
+        /** Empty a claimed frame; it stays claimed until it is installed */
+        void clear() {
+            page = null;
+            discarded = false;
+        }
+
+        /** @return false if the frame is being evicted */
+        boolean pin() {
+            for (;;) {
+                int c = pinCount.get();
+                if (c < 0) {
+                    return false;
+                }
+                if (pinCount.compareAndSet(c, c + 1)) {
+                    return true;
+                }
+            }
+        }
 
-    public Node() {
+        void unpin() {
+            for (;;) {
+                int c = pinCount.get();
+                if (c <= 0 || pinCount.compareAndSet(c, c - 1)) {
+                    return;
+                }
+            }
+        }
 
+        /** Claim an unpinned frame for eviction */
+        boolean claim() {
+            return pinCount.compareAndSet(0, -1);
+        }
     }
-}
 
-/**
- * Your LRUCache object will be instantiated and called as such:
- * LRUCache obj = new LRUCache(capacity);
- * int param_1 = obj.get(key);
- * obj.put(key,value);
- */
+}
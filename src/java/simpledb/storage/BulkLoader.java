@@ -0,0 +1,380 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BulkLoader converts large delimited text files into tables. The input is
+ * read sequentially in chunks that end at a line break; the chunks are
+ * parsed on a pool of threads into records in the slot format of
+ * {@link HeapPage}, and handed on in input order, so the output is the same
+ * as if the file had been parsed by one thread. At most two chunks per
+ * thread are in memory at once, whatever the size of the input.
+ * <p>
+ * {@link #loadHeap} packs the records into full HeapPages, written with
+ * large sequential writes; {@link simpledb.index.BTreeBulkLoader} sorts
+ * them into a B+ tree. The input has one tuple per line, with fields in the
+ * format accepted by {@link HeapFileEncoder}: integers and strings separated
+ * by a separator character, with surrounding spaces trimmed. Empty lines
+ * are skipped; missing fields are stored as 0 or as the empty string, and a
+ * malformed integer is reported and stored as 0.
+ */
+public class BulkLoader {
+
+    /** The default number of bytes of input parsed by one task */
+    public static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    /** The size of the output buffer */
+    static final int WRITE_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Receives the records of the input in order.
+     */
+    public interface RecordConsumer {
+        /**
+         * @param records count records of {@link #getRecordSize()} bytes each
+         * @param count the number of records
+         */
+        void accept(byte[] records, int count) throws IOException;
+    }
+
+    private final Type[] types;
+    private final char separator;
+    private final int threads;
+    private final int recordSize;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @param types the types of the fields of each tuple
+     * @param separator the character between fields
+     * @param threads the number of threads parsing the input
+     */
+    public BulkLoader(Type[] types, char separator, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("at least one thread is needed, not " + threads);
+        }
+        for (Type t : types) {
+            if (t == Type.TEXT_TYPE) {
+                throw new IllegalArgumentException("TEXT values are stored by inserting them, not by bulk loading");
+            }
+        }
+        this.types = types.clone();
+        this.separator = separator;
+        this.threads = threads;
+        int size = 0;
+        for (Type t : types) {
+            size += t.getLen();
+        }
+        this.recordSize = size;
+    }
+
+    /**
+     * Set the number of bytes of input each parsing task handles; lines
+     * longer than that are handled by one task.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the number of bytes of each record
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * @return the types of the fields of each record
+     */
+    public Type[] getTypes() {
+        return types.clone();
+    }
+
+    /**
+     * Parse the input file, handing its records to the consumer in input
+     * order. The consumer is called on the calling thread.
+     *
+     * @return the number of records
+     */
+    public long parse(File inFile, RecordConsumer consumer) throws IOException {
+        ExecutorService pool = inFile.length() > chunkSize
+                ? Executors.newFixedThreadPool(threads, r -> {
+                    Thread t = new Thread(r, "bulk-load");
+                    t.setDaemon(true);
+                    return t;
+                })
+                : null;
+        Deque<Future<Parsed>> pending = new ArrayDeque<>();
+        long total = 0;
+        try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ)) {
+            byte[] carry = new byte[0];
+            boolean eof = false;
+            while (!eof) {
+                // read a chunk after the part of a line left from the last one
+                byte[] buf = Arrays.copyOf(carry, Math.max(chunkSize, 2 * carry.length));
+                ByteBuffer bb = ByteBuffer.wrap(buf, carry.length, buf.length - carry.length);
+                while (bb.hasRemaining()) {
+                    if (in.read(bb) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                int len = bb.position();
+                int end = len;
+                if (!eof) {
+                    while (end > 0 && buf[end - 1] != '\n') {
+                        end--;
+                    }
+                    if (end == 0) {
+                        // a line longer than the buffer; read more of it
+                        carry = Arrays.copyOf(buf, len);
+                        continue;
+                    }
+                }
+                carry = Arrays.copyOfRange(buf, end, len);
+
+                if (pool == null) {
+                    Parsed p = parseChunk(buf, end);
+                    consumer.accept(p.records, p.count);
+                    total += p.count;
+                    continue;
+                }
+                final int chunkEnd = end;
+                pending.add(pool.submit(() -> parseChunk(buf, chunkEnd)));
+                while (pending.size() >= 2 * threads || eof && !pending.isEmpty()) {
+                    Parsed p = next(pending);
+                    consumer.accept(p.records, p.count);
+                    total += p.count;
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return total;
+    }
+
+    private static Parsed next(Deque<Future<Parsed>> pending) throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            throw new IOException("cannot parse input", e.getCause());
+        }
+    }
+
+    /** The records of one chunk of input */
+    private static final class Parsed {
+        final byte[] records;
+        final int count;
+
+        Parsed(byte[] records, int count) {
+            this.records = records;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Parse the lines in buf[0, len) into records.
+     */
+    private Parsed parseChunk(byte[] buf, int len) {
+        int lines = 1;
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == '\n') {
+                lines++;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(lines * recordSize);
+        int count = 0;
+        int start = 0;
+        while (start < len) {
+            int end = start;
+            while (end < len && buf[end] != '\n') {
+                end++;
+            }
+            int lineEnd = end;
+            while (lineEnd > start && buf[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                parseLine(buf, start, lineEnd, out);
+                count++;
+            }
+            start = end + 1;
+        }
+        return new Parsed(out.array(), count);
+    }
+
+    private void parseLine(byte[] buf, int start, int end, ByteBuffer out) {
+        int pos = start;
+        for (Type type : types) {
+            int fieldEnd = pos;
+            while (fieldEnd < end && buf[fieldEnd] != separator) {
+                fieldEnd++;
+            }
+            int from = pos;
+            int to = fieldEnd;
+            while (from < to && buf[from] <= ' ') {
+                from++;
+            }
+            while (to > from && buf[to - 1] <= ' ') {
+                to--;
+            }
+            if (type == Type.INT_TYPE) {
+                out.putInt(parseInt(buf, from, to, start, end));
+            } else {
+                int n = Math.min(to - from, Type.STRING_LEN);
+                out.putInt(n);
+                out.put(buf, from, n);
+                out.position(out.position() + Type.STRING_LEN - n);
+            }
+            pos = fieldEnd < end ? fieldEnd + 1 : end;
+        }
+    }
+
+    private static int parseInt(byte[] buf, int from, int to, int lineStart, int lineEnd) {
+        if (from == to) {
+            return 0;
+        }
+        boolean negative = buf[from] == '-';
+        int i = negative || buf[from] == '+' ? from + 1 : from;
+        long value = 0;
+        boolean valid = i < to && to - i <= 10;
+        for (; valid && i < to; i++) {
+            int digit = buf[i] - '0';
+            valid = digit >= 0 && digit <= 9;
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (!valid || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            System.out.println("BAD LINE : " + new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1));
+            return 0;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Convert the input file into a HeapFile whose pages are all full, but
+     * for the last one, in the format written by
+     * {@link HeapFileEncoder#convert(File, File, int, int, Type[], char)}.
+     * An empty input gives one empty page. The bounds of the values of each
+     * page are written to its {@link ZoneMap} as the pages are.
+     *
+     * @param inFile the input file
+     * @param outFile the file to write the pages to
+     * @param npagebytes the number of bytes per page
+     * @return the number of tuples written
+     */
+    public long loadHeap(File inFile, File outFile, int npagebytes) throws IOException {
+        int nrecords = (npagebytes * 8) / (recordSize * 8 + 1);
+        int nheaderbytes = (nrecords + 7) / 8;
+        HeapFileEncoder.dropSidecarFiles(outFile);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), WRITE_BUFFER_SIZE);
+             ZoneMap.Builder bounds = new ZoneMap.Builder(outFile, new TupleDesc(types))) {
+            PageWriter writer = new PageWriter(os, bounds, npagebytes, nrecords, nheaderbytes);
+            long count = parse(inFile, writer);
+            writer.finish();
+            // the zone map is complete before the trailer that it matches
+            bounds.close();
+            os.write(TableGeneration.trailer(bounds.generation()).array());
+            return count;
+        }
+    }
+
+    /** Packs records into HeapPages as they arrive, and bounds their values */
+    private final class PageWriter implements RecordConsumer {
+        private final OutputStream os;
+        private final ZoneMap.Builder bounds;
+        private final byte[] page;
+        private final int nrecords;
+        private final int nheaderbytes;
+        private int used;
+        private int npages;
+
+        PageWriter(OutputStream os, ZoneMap.Builder bounds, int npagebytes, int nrecords, int nheaderbytes) {
+            this.os = os;
+            this.bounds = bounds;
+            this.page = new byte[npagebytes];
+            this.nrecords = nrecords;
+            this.nheaderbytes = nheaderbytes;
+        }
+
+        @Override
+        public void accept(byte[] records, int count) throws IOException {
+            int i = 0;
+            while (i < count) {
+                int n = Math.min(count - i, nrecords - used);
+                System.arraycopy(records, i * recordSize, page, nheaderbytes + used * recordSize, n * recordSize);
+                bound(records, i, n);
+                for (int slot = used; slot < used + n; slot++) {
+                    page[slot / 8] |= (byte) (1 << (slot % 8));
+                }
+                used += n;
+                i += n;
+                if (used == nrecords) {
+                    flushPage();
+                }
+            }
+        }
+
+        /**
+         * Widen the bounds of the page to cover count records from the first.
+         */
+        private void bound(byte[] records, int first, int count) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(records);
+            for (int r = first; r < first + count; r++) {
+                int pos = r * recordSize;
+                for (int f = 0; f < types.length; f++) {
+                    if (types[f] == Type.INT_TYPE) {
+                        bounds.add(f, buf.getInt(pos));
+                    } else {
+                        try {
+                            bounds.add(f, types[f].parse(buf, pos));
+                        } catch (ParseException e) {
+                            throw new IOException("cannot bound record " + r, e);
+                        }
+                    }
+                    pos += types[f].getLen();
+                }
+            }
+        }
+
+        private void flushPage() throws IOException {
+            os.write(page);
+            bounds.endPage();
+            Arrays.fill(page, (byte) 0);
+            used = 0;
+            npages++;
+        }
+
+        void finish() throws IOException {
+            // as with HeapFileEncoder, an empty file still gets one empty page
+            if (used > 0 || npages == 0) {
+                flushPage();
+            }
+        }
+    }
+}
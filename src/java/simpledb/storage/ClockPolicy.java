@@ -0,0 +1,59 @@
+package simpledb.storage;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
+
+/**
+ * CLOCK (second-chance) replacement. Every frame has a reference bit that is
+ * set when its page is added or accessed; the clock hand sweeps the frames,
+ * clearing set bits and evicting the first claimable frame whose bit is
+ * already clear. Hits only set a bit, so they never take a lock.
+ */
+public class ClockPolicy extends AbstractReplacementPolicy {
+
+    private final AtomicIntegerArray referenced;
+    private int hand;
+
+    /**
+     * @param capacity the number of frames in the buffer pool
+     */
+    public ClockPolicy(int capacity) {
+        super(capacity);
+        referenced = new AtomicIntegerArray(capacity);
+    }
+
+    protected void onAdd(int frame, PageId pid) {
+        referenced.lazySet(frame, 1);
+    }
+
+    protected void onAccess(int frame, PageId pid) {
+        if (referenced.get(frame) == 0) {
+            referenced.lazySet(frame, 1);
+        }
+    }
+
+    public void pageRemoved(int frame, PageId pid) {
+        referenced.set(frame, 0);
+    }
+
+    /**
+     * Sweeps at most twice around the clock: the first pass may only clear
+     * reference bits, the second is then guaranteed to find every unpinned,
+     * clean frame.
+     */
+    public synchronized int evict(IntPredicate claim) {
+        int capacity = getCapacity();
+        for (int step = 0; step < 2 * capacity; step++) {
+            int frame = hand;
+            hand = (hand + 1) % capacity;
+            if (referenced.get(frame) != 0) {
+                referenced.set(frame, 0);
+                continue;
+            }
+            if (claim.test(frame)) {
+                return frame;
+            }
+        }
+        return -1;
+    }
+}
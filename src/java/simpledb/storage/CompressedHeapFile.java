@@ -0,0 +1,40 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored compressed by a
+ * {@link CompressedPageChannel}, and decompressed when they are read into
+ * the BufferPool. It suits large tables that are rarely read or written,
+ * such as historical data: the pages take less disk space, at the price of
+ * decompressing every page read and of leaving the old copy of every page
+ * written in the file.
+ *
+ * @see #compress
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param f the file that stores the compressed pages; the index of the
+     *   pages is stored next to it, in the file name with ".idx" appended
+     * @param td the schema of the tuples in the file
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        super(f, td, new CompressedPageChannel(f));
+    }
+
+    /**
+     * Write a compressed copy of the pages of a HeapFile, for a
+     * CompressedHeapFile over dst to read. The pages keep their format, so
+     * this also works for the pages of the HeapFile subclasses.
+     *
+     * @param src the file of the HeapFile
+     * @param dst the file to write the compressed pages to
+     */
+    public static void compress(File src, File dst) throws IOException {
+        CompressedPageChannel.compress(src, dst, 0, BufferPool.getPageSize());
+    }
+}
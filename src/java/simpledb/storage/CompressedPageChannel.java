@@ -0,0 +1,282 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedPageChannel is a PageChannel that stores every block written to
+ * it compressed with {@link Deflater#BEST_SPEED}, for tables that are read
+ * rarely but take a lot of disk space. Readers and writers see the same
+ * offsets as with an uncompressed file, so a DbFile only has to read each
+ * block at the offset it was written at, with the same length, as HeapFile
+ * and BTreeFile do with their pages.
+ * <p>
+ * The compressed blocks are appended to the file in the order they are
+ * written. An index in a sidecar file next to it (the file name with ".idx"
+ * appended) records, for every write, the offset of the block as seen by
+ * the reader and the offset and length of its compressed bytes; a later
+ * record for the same block replaces an earlier one. A block that does not
+ * get smaller is stored as it is. Rewriting a block leaves its old bytes in
+ * the file, so the format suits tables that are loaded once with
+ * {@link #compress} and then mostly read.
+ *
+ * @Threadsafe
+ */
+public class CompressedPageChannel extends PageChannel {
+
+    /** Length of an index record: block offset, stored offset, stored length, length */
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 4;
+
+    /** Where a block is stored; a block whose stored length equals its length is not compressed */
+    private static final class Block {
+        final long offset;
+        final int stored;
+        final int length;
+
+        Block(long offset, int stored, int length) {
+            this.offset = offset;
+            this.stored = stored;
+            this.length = length;
+        }
+    }
+
+    private final PageChannel index;
+
+    /** The stored location of each block by its offset, or null until the index is read */
+    private volatile Map<Long, Block> blocks;
+
+    /** The size of the file as seen by readers; guarded by this for writes */
+    private volatile long size;
+
+    /** The end of the stored blocks and of the index records; guarded by this */
+    private long storedEnd;
+    private long indexEnd;
+
+    /**
+     * Creates a CompressedPageChannel for the specified file. As for a
+     * PageChannel, nothing is opened until the first access.
+     *
+     * @param f the file storing the compressed blocks
+     */
+    public CompressedPageChannel(File f) {
+        super(f);
+        this.index = new PageChannel(new File(f.getPath() + ".idx"));
+    }
+
+    private Map<Long, Block> blocks() throws IOException {
+        Map<Long, Block> m = blocks;
+        if (m != null) {
+            return m;
+        }
+        synchronized (this) {
+            if (blocks == null) {
+                m = new ConcurrentHashMap<>();
+                File f = index.getFile();
+                ByteBuffer buf = ByteBuffer.allocate((int) (f.length() / RECORD_SIZE * RECORD_SIZE));
+                if (buf.capacity() > 0) {
+                    index.read(buf, 0);
+                    buf.flip();
+                }
+                long end = 0;
+                long stored = 0;
+                // a record cut short by a crash is ignored, and overwritten
+                // by the next write
+                while (buf.remaining() >= RECORD_SIZE) {
+                    long position = buf.getLong();
+                    Block b = new Block(buf.getLong(), buf.getInt(), buf.getInt());
+                    m.put(position, b);
+                    end = Math.max(end, position + b.length);
+                    stored = Math.max(stored, b.offset + b.stored);
+                }
+                indexEnd = buf.position();
+                storedEnd = stored;
+                size = end;
+                blocks = m;
+            }
+            return blocks;
+        }
+    }
+
+    /**
+     * Reads the blocks starting at the given position until dst is full or
+     * the end of the file is reached.
+     *
+     * @throws IOException if no block starts where dst needs the next byte
+     *   from
+     */
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+        Map<Long, Block> m = blocks();
+        if (position >= size) {
+            return -1;
+        }
+        int total = 0;
+        while (dst.hasRemaining() && position + total < size) {
+            Block b = m.get(position + total);
+            if (b == null) {
+                throw new IOException("no block of " + getFile() + " starts at " + (position + total));
+            }
+            byte[] block = readBlock(b);
+            int n = Math.min(dst.remaining(), block.length);
+            dst.put(block, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    private byte[] readBlock(Block b) throws IOException {
+        byte[] stored = new byte[b.stored];
+        if (super.read(ByteBuffer.wrap(stored), b.offset) < stored.length) {
+            throw new IOException(getFile() + " ends inside the block at " + b.offset);
+        }
+        if (b.stored == b.length) {
+            return stored;
+        }
+        byte[] block = new byte[b.length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            if (inflater.inflate(block) != block.length) {
+                throw new IOException("block at " + b.offset + " of " + getFile() + " is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("block at " + b.offset + " of " + getFile() + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return block;
+    }
+
+    /**
+     * Writes all remaining bytes of src as one block starting at the given
+     * position, replacing the block that started there, if any.
+     */
+    @Override
+    public synchronized void write(ByteBuffer src, long position) throws IOException {
+        blocks();
+        byte[] block = new byte[src.remaining()];
+        src.get(block);
+        byte[] stored = deflate(block);
+
+        // the block goes to disk before the index record pointing to it
+        Block b = new Block(storedEnd, stored.length, block.length);
+        super.write(ByteBuffer.wrap(stored), b.offset);
+        storedEnd += stored.length;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.putLong(position).putLong(b.offset).putInt(b.stored).putInt(b.length).flip();
+        index.write(record, indexEnd);
+        indexEnd += RECORD_SIZE;
+
+        blocks.put(position, b);
+        size = Math.max(size, position + block.length);
+    }
+
+    /**
+     * @return the block compressed, or the block itself if that is not smaller
+     */
+    private static byte[] deflate(byte[] block) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(block);
+            deflater.finish();
+            byte[] out = new byte[block.length];
+            int n = deflater.deflate(out);
+            if (!deflater.finished() || n >= block.length) {
+                return block;
+            }
+            byte[] stored = new byte[n];
+            System.arraycopy(out, 0, stored, 0, n);
+            return stored;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public synchronized long append(ByteBuffer src) throws IOException {
+        long position = size();
+        write(src, position);
+        return position;
+    }
+
+    /**
+     * @return the size of the file as seen by readers, which is the end of
+     *   the last block
+     */
+    @Override
+    public long size() throws IOException {
+        blocks();
+        return size;
+    }
+
+    @Override
+    public long length() {
+        try {
+            return size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Compressed blocks cannot be mapped.
+     *
+     * @throws IOException always
+     */
+    @Override
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        throw new IOException(getFile() + " is compressed and cannot be mapped");
+    }
+
+    @Override
+    public void force() throws IOException {
+        super.force();
+        index.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        super.close();
+        index.close();
+    }
+
+    /**
+     * Write a compressed copy of an uncompressed file, for a
+     * CompressedPageChannel over dst to read. Any earlier file at dst is
+     * replaced.
+     *
+     * @param src the uncompressed file
+     * @param dst the file to write the compressed blocks to
+     * @param firstBlock the length of the first block, which differs from the
+     *   others in files that start with a smaller page; 0 if it does not
+     * @param blockSize the length of every other block
+     */
+    public static void compress(File src, File dst, int firstBlock, int blockSize) throws IOException {
+        dst.delete();
+        new File(dst.getPath() + ".idx").delete();
+        PageChannel in = new PageChannel(src);
+        CompressedPageChannel out = new CompressedPageChannel(dst);
+        try {
+            long length = src.length();
+            long position = 0;
+            while (position < length) {
+                int n = (int) Math.min(position == 0 && firstBlock > 0 ? firstBlock : blockSize, length - position);
+                ByteBuffer block = ByteBuffer.allocate(n);
+                in.read(block, position);
+                block.flip();
+                out.write(block, position);
+                position += n;
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -33,6 +34,17 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Releases any operating system resources (such as open file channels)
+     * held by this file. The file remains usable; resources are reacquired
+     * on the next read or write. Called by the Catalog when the table is
+     * removed.
+     *
+     * @throws IOException if the underlying resources cannot be released
+     */
+    default void close() throws IOException {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -73,6 +85,22 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * all of the specified predicates. Files that know which pages cannot
+     * hold such a tuple skip those pages; by default every tuple is read and
+     * tested.
+     *
+     * @param predicates predicates on the fields of this file's TupleDesc
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        if (predicates.isEmpty()) {
+            return iterator(tid);
+        }
+        return new FilteredDbFileIterator(iterator(tid), predicates);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
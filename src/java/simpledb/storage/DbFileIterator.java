@@ -30,6 +30,24 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Replaces the contents of the batch with the next tuples, as many as
+     * fit or as are left. A caller reads an open iterator either with
+     * next() or with nextBatch(), not with both.
+     *
+     * @param batch a batch with the TupleDesc of the file
+     * @return false if there are no more tuples; otherwise at least one row
+     *   of the batch is selected
+     * @see simpledb.execution.OpIterator#nextBatch
+     */
+    default boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && hasNext()) {
+            batch.add(next());
+        }
+        return batch.selectedCount() > 0;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
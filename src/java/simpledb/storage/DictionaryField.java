@@ -0,0 +1,80 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * DictionaryField is a StringField read from a {@link DictionaryHeapFile},
+ * which also knows the code its {@link StringDictionary} gave the value.
+ * Fields of the same dictionary are equal exactly when their codes are, so
+ * equality tests and hash lookups on them compare two ints instead of two
+ * Strings. The hash code is still that of the value, so a DictionaryField
+ * and a StringField holding the same value are interchangeable as keys.
+ */
+public class DictionaryField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final StringDictionary dictionary;
+    private final int code;
+
+    DictionaryField(StringDictionary dictionary, int code, String value) {
+        super(value, Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the dictionary that gave the value its code
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the code of the value in its dictionary
+     */
+    public int getCode() {
+        return code;
+    }
+
+    private boolean sameDictionary(Object field) {
+        return field instanceof DictionaryField && ((DictionaryField) field).dictionary == dictionary;
+    }
+
+    public boolean equals(Object field) {
+        if (sameDictionary(field)) {
+            return ((DictionaryField) field).code == code;
+        }
+        return super.equals(field);
+    }
+
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * Compare the specified field to the value of this Field, by code if both
+     * are of the same dictionary and op only tests for equality.
+     *
+     * @see StringField#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS) {
+                return ((DictionaryField) val).code == code;
+            }
+            if (op == Predicate.Op.NOT_EQUALS) {
+                return ((DictionaryField) val).code != code;
+            }
+        }
+        return super.compare(op, val);
+    }
+
+    /**
+     * Serialize a plain StringField, as the dictionary is not serializable.
+     */
+    private Object writeReplace() {
+        return new StringField(getValue(), Type.STRING_LEN);
+    }
+}
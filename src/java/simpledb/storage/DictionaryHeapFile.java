@@ -0,0 +1,56 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * DictionaryHeapFile is a HeapFile whose pages are
+ * {@link DictionaryHeapPage}s, which store the values of its
+ * {@link simpledb.common.Type#STRING_TYPE} columns as codes of a
+ * {@link StringDictionary}. It suits tables whose string columns hold few
+ * distinct values, such as status or category columns.
+ *
+ * @see HeapFileEncoder#convertDictionary
+ */
+public class DictionaryHeapFile extends HeapFile {
+
+    private final StringDictionary dictionary;
+
+    /**
+     * Constructs a dictionary-encoded heap file backed by the specified file.
+     * The dictionary is stored next to it, in the file name with ".dict"
+     * appended.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     */
+    public DictionaryHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.dictionary = new StringDictionary(new File(f.getPath() + ".dict"));
+    }
+
+    /**
+     * Returns the dictionary of the string columns of this file.
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new DictionaryHeapPage(pid, data, dictionary);
+    }
+
+    @Override
+    public void writePage(Page page) throws IOException {
+        // the values of the codes on the page must reach the disk first
+        dictionary.force();
+        super.writePage(page);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        dictionary.close();
+    }
+}
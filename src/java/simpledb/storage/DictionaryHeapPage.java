@@ -0,0 +1,42 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * DictionaryHeapPage is a HeapPage of a {@link DictionaryHeapFile}. It has
+ * the same layout as a HeapPage, except that the fields of its
+ * {@link simpledb.common.Type#STRING_TYPE} columns take 4 bytes, holding the
+ * code the table's {@link StringDictionary} gave the value, so a page holds
+ * many more tuples of a table with string columns. Its tuples decode those
+ * fields to the {@link DictionaryField} of the code.
+ *
+ * @see DictionaryHeapFile
+ */
+public class DictionaryHeapPage extends HeapPage {
+
+    private final StringDictionary dictionary;
+
+    /**
+     * Create a DictionaryHeapPage from a set of bytes of data read from disk,
+     * in the format described above. As for
+     * {@link HeapPage#HeapPage(HeapPageId, byte[])}, the array must not be
+     * modified afterwards.
+     *
+     * @param dictionary the dictionary of the table
+     */
+    public DictionaryHeapPage(HeapPageId id, byte[] data, StringDictionary dictionary) throws IOException {
+        super(id, ByteBuffer.wrap(data), false, dictionary);
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    public HeapPage getBeforeImage() {
+        try {
+            return new DictionaryHeapPage(getId(), getBeforeImageData(), dictionary);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * FieldCodec decides how the fields of the tuples of a {@link HeapPage} are
+ * stored in its fixed-size slots. This codec stores each field as
+ * {@link Field#serialize} writes it, taking {@link Type#getLen()} bytes;
+ * subclasses store some types in another way.
+ *
+ * @see StringDictionary
+ */
+class FieldCodec {
+
+    /** The codec of the tables that store every field as it is serialized */
+    static final FieldCodec PLAIN = new FieldCodec();
+
+    /**
+     * @return the number of bytes a field of the given type takes in a slot
+     */
+    int getLen(Type type) {
+        return type.getLen();
+    }
+
+    /**
+     * @return the number of bytes a tuple of the given schema takes in a slot
+     */
+    final int getSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            size += getLen(td.getFieldType(i));
+        }
+        return size;
+    }
+
+    /**
+     * Decode the field of the given type stored at the given index of data,
+     * without changing the position of data.
+     */
+    Field decode(Type type, ByteBuffer data, int pos) throws ParseException {
+        return type.parse(data, pos);
+    }
+
+    /**
+     * Decode the {@link Type#INT_TYPE} field stored at the given index of
+     * data, without creating a Field.
+     */
+    int decodeInt(ByteBuffer data, int pos) {
+        return data.getInt(pos);
+    }
+
+    /**
+     * Write exactly {@link #getLen} bytes for the field to dos.
+     */
+    void encode(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+}
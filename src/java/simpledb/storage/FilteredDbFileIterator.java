@@ -0,0 +1,62 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * A DbFileIterator returning the tuples of another one that satisfy all of a
+ * list of predicates.
+ *
+ * @see DbFile#iterator(simpledb.transaction.TransactionId, List)
+ */
+class FilteredDbFileIterator extends AbstractDbFileIterator {
+
+    private final DbFileIterator child;
+    private final List<Predicate> predicates;
+
+    FilteredDbFileIterator(DbFileIterator child, List<Predicate> predicates) {
+        this.child = child;
+        this.predicates = predicates;
+    }
+
+    /**
+     * @return true if the tuple satisfies all of the predicates
+     */
+    static boolean matches(Tuple t, List<Predicate> predicates) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (matches(t, predicates)) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        child.rewind();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records which pages of a {@link HeapFile} are full, so that
+ * inserts can go straight to a page with room instead of reading pages
+ * through the BufferPool until they find one.
+ * <p>
+ * The map keeps one bit per page, set when the page has no empty slot. It
+ * is updated whenever a HeapPage gains or loses its last empty slot, and,
+ * once an insert or delete has loaded the map, whenever a page is read from
+ * disk. It is stored in a sidecar file next to the table file (the table
+ * file name with ".fsm" appended). Changed bytes are written back when the
+ * table file itself is written, so tables that are only read never touch
+ * the map file. The table file format is unchanged; a
+ * table without a map file, or with one stamped for another version of the
+ * table file (see {@link SidecarFile}), starts with every page marked as
+ * having room.
+ * <p>
+ * The map is only a hint: an insert that finds a page marked as having room
+ * full marks it full and moves on. When an aborted transaction's pages are
+ * dropped from the BufferPool, their bits are reset from the pages as they
+ * are on disk.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    private final SidecarFile file;
+
+    /** Bit i is set if page i is known to be full; guarded by this */
+    private BitSet full;
+
+    /** The range of bytes changed since the map was last written; guarded by this */
+    private int dirtyFrom = Integer.MAX_VALUE;
+    private int dirtyTo = -1;
+
+    /**
+     * @param tableFile the table file the map describes
+     * @param generation the generation of the table file
+     */
+    FreeSpaceMap(File tableFile, TableGeneration generation) {
+        this.file = new SidecarFile(tableFile, generation, ".fsm");
+    }
+
+    private BitSet full() throws IOException {
+        if (full == null) {
+            full = BitSet.valueOf(file.read());
+        }
+        return full;
+    }
+
+    /**
+     * @return the number of the first page at or after from and before
+     *   numPages that may have an empty slot, or -1 if there is none
+     */
+    synchronized int nextFree(int from, int numPages) {
+        try {
+            int pgNo = full().nextClearBit(from);
+            return pgNo < numPages ? pgNo : -1;
+        } catch (IOException e) {
+            // without the map every page may have room
+            return from < numPages ? from : -1;
+        }
+    }
+
+    /**
+     * Record whether the page has an empty slot.
+     */
+    synchronized void update(int pgNo, boolean hasRoom) {
+        try {
+            BitSet bits = full();
+            if (bits.get(pgNo) == !hasRoom) {
+                return;
+            }
+            bits.set(pgNo, !hasRoom);
+        } catch (IOException e) {
+            return;
+        }
+        dirtyFrom = Math.min(dirtyFrom, pgNo / 8);
+        dirtyTo = Math.max(dirtyTo, pgNo / 8);
+    }
+
+    /**
+     * Record whether a page just read from disk has an empty slot, unless
+     * the map was not loaded yet; scans alone never load it.
+     */
+    synchronized void pageRead(int pgNo, boolean hasRoom) {
+        if (full != null) {
+            update(pgNo, hasRoom);
+        }
+    }
+
+    /**
+     * @return true if the page is known to be full
+     */
+    synchronized boolean isFull(int pgNo) {
+        try {
+            return full().get(pgNo);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the bytes of the map changed since the last call.
+     */
+    synchronized void flush() throws IOException {
+        if (dirtyTo < 0) {
+            return;
+        }
+        // toByteArray drops trailing zero bytes, which copyOf puts back
+        byte[] changed = Arrays.copyOf(full.get(dirtyFrom * 8, (dirtyTo + 1) * 8).toByteArray(),
+                dirtyTo - dirtyFrom + 1);
+        file.write(ByteBuffer.wrap(changed), dirtyFrom);
+        dirtyFrom = Integer.MAX_VALUE;
+        dirtyTo = -1;
+    }
+
+    /**
+     * Record that the map on disk covers the table file as it is now.
+     */
+    synchronized void stamp() throws IOException {
+        file.stamp();
+    }
+
+    synchronized void close() throws IOException {
+        flush();
+        file.close();
+    }
+}
@@ -4,11 +4,14 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.index.BTreeLeafPage;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -16,7 +19,18 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. A trailer shorter than a page follows the last page; it holds
+ * the generation of the file, which tells whether the sidecar files next to
+ * it describe its pages (see {@link TableGeneration}).
+ *
+ * <p>
+ * Values of {@link Type#TEXT_TYPE} columns are stored out of line in
+ * {@link OverflowPage}s, which are numbered separately from the HeapPages and
+ * kept in a sidecar file next to the table file (the table file name with
+ * ".ovf" appended), so scans never read them. New overflow pages are only
+ * reserved in memory, and written when the inserting transaction commits;
+ * the pages of an aborted insert are reused by later ones, those of deleted
+ * values are not.
  *
  * @see HeapPage#HeapPage
  * @author Sam Madden
@@ -29,9 +43,42 @@ public class HeapFile implements DbFile {
      */
     private File file;
 
+    private final PageChannel channel;
+
+    private final TableGeneration generation;
+
     private TupleDesc td;
 
-    private int pageNo;
+    private final FreeSpaceMap freeSpace;
+
+    private final ZoneMap zoneMap;
+
+    private final PageChannel overflow;
+
+    /** The number of overflow pages reserved so far, -1 until one is needed */
+    private int overflowEnd = -1;
+
+    /** Reserved overflow pages whose inserting transaction aborted */
+    private final Deque<Integer> freeOverflowPages = new ArrayDeque<>();
+
+    /**
+     * The suffixes of the sidecar files that may be stored next to a table
+     * file, appended to its name
+     */
+    static final String[] SIDECAR_SUFFIXES = {".fsm", ".zm", ".ovf", ".dict", ".idx"};
+
+    /**
+     * Requests that a temporary table file and its sidecar files be deleted
+     * when the virtual machine terminates.
+     *
+     * @param f the table file
+     */
+    public static void deleteOnExit(File f) {
+        f.deleteOnExit();
+        for (String suffix : SIDECAR_SUFFIXES) {
+            new File(f.getPath() + suffix).deleteOnExit();
+        }
+    }
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -42,8 +89,26 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, new PageChannel(f));
+    }
+
+    /**
+     * Constructs a heap file whose pages are read and written through the
+     * specified channel, for subclasses that store them in another way.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     * @param channel the channel over f
+     * @see CompressedHeapFile
+     */
+    protected HeapFile(File f, TupleDesc td, PageChannel channel) {
         this.file = f;
+        this.channel = channel;
         this.td = td;
+        this.generation = new TableGeneration(channel);
+        this.freeSpace = new FreeSpaceMap(f, generation);
+        this.zoneMap = new ZoneMap(f, generation, td);
+        this.overflow = new PageChannel(new File(f.getPath() + ".ovf"));
     }
 
     /**
@@ -56,6 +121,28 @@ public class HeapFile implements DbFile {
         return file;
     }
 
+    /**
+     * Returns the channel used to read and write the pages of this HeapFile.
+     */
+    PageChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * Returns the map of the pages of this HeapFile that have no empty slot.
+     */
+    FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * Returns the bounds of the values of each column on the pages of this
+     * HeapFile.
+     */
+    ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
     /**
      * Returns an ID uniquely identifying this HeapFile. Implementation note:
      * you will need to generate this tableid somewhere to ensure that each
@@ -84,29 +171,90 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
-        Page heapPage;
+        if (pid instanceof OverflowPageId) {
+            return readOverflowPage((OverflowPageId) pid);
+        }
+        try {
+            long pos = (long) pid.getPageNumber() * BufferPool.getPageSize();
+            byte[] data = new byte[BufferPool.getPageSize()];
+            channel.read(ByteBuffer.wrap(data), pos);
+            HeapPage page = createPage((HeapPageId) pid, data);
+            freeSpace.pageRead(pid.getPageNumber(), page.getNumEmptySlots() > 0);
+            return page;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private OverflowPage readOverflowPage(OverflowPageId pid) {
         try {
-            RandomAccessFile raf = new RandomAccessFile(file, "r");
-            int pos = pid.getPageNumber() * BufferPool.getPageSize();
-            raf.seek(pos);
             byte[] data = new byte[BufferPool.getPageSize()];
-            raf.read(data);
-            heapPage = new HeapPage((HeapPageId) pid, data);
-            raf.close();
+            overflow.read(ByteBuffer.wrap(data), (long) pid.getPageNumber() * BufferPool.getPageSize());
+            return new OverflowPage(pid, data);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return heapPage;
+    }
+
+    /**
+     * Creates the page object for the specified page data. Subclasses storing
+     * pages in another format override this.
+     */
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile raf = new RandomAccessFile(file, "rw");
-        PageId pid = page.getId();
-        int pos = pid.getPageNumber() * BufferPool.getPageSize();
-        raf.seek(pos);
-        raf.write(page.getPageData());
-        raf.close();
+        long pos = (long) page.getId().getPageNumber() * BufferPool.getPageSize();
+        if (page instanceof OverflowPage) {
+            overflow.write(ByteBuffer.wrap(page.getPageData()), pos);
+            return;
+        }
+        // the bounds on disk must cover the page before it is written; the
+        // BufferPool has usually written them already, see flushZoneMap
+        zoneMap.flushFor(page.getId().getPageNumber());
+        generation.write(page.getId().getPageNumber(), ByteBuffer.wrap(page.getPageData()));
+        freeSpace.flush();
+    }
+
+    /**
+     * Learn the bounds of a page that the zone map does not know yet, from
+     * the tuples it is about to be written with. The BufferPool calls this
+     * before flushZoneMap for the pages of a committing transaction, when it
+     * locks whole pages, so the page holds no uncommitted tuples.
+     */
+    void learnBounds(HeapPage page) {
+        zoneMap.learnAll(page.getId().getPageNumber(), page.iterator());
+    }
+
+    /**
+     * Write the bounds of the pages of this file that changed since they
+     * were last written. The BufferPool calls this once before it writes the
+     * pages of a transaction, rather than writing them page by page.
+     */
+    void flushZoneMap() throws IOException {
+        zoneMap.flush();
+    }
+
+    /**
+     * Record that the free-space map and the zone map on disk describe the
+     * table file as it is now. The BufferPool calls this once after it
+     * writes the pages of a transaction; maps left unstamped after the table
+     * file was written are dropped when it is next opened.
+     */
+    void stampSidecars() throws IOException {
+        freeSpace.stamp();
+        zoneMap.stamp();
+        generation.stamped();
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+        freeSpace.close();
+        zoneMap.close();
+        overflow.close();
     }
 
     /**
@@ -114,45 +262,209 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int)(file.length() / BufferPool.getPageSize());
+        return (int)(channel.length() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-
-        HeapPageId pageId = new HeapPageId(getId(), pageNo);
-        HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-        if(page.getNumEmptySlots() == 0) {
-            pageNo++;
-            page = new HeapPage(new HeapPageId(getId(), pageNo), new byte[BufferPool.getPageSize()]);
+        BufferPool bufferPool = Database.getBufferPool();
+        List<Page> overflowPages = storeOverflowValues(t);
+        if (bufferPool.isRecordLocking()) {
+            return insertRecord(bufferPool, tid, t, overflowPages);
+        }
+        HeapPage page = null;
+        // only visit the pages the free-space map does not know to be full
+        for (int no = freeSpace.nextFree(0, numPages()); no >= 0; no = freeSpace.nextFree(no + 1, numPages())) {
+            HeapPageId pageId = new HeapPageId(getId(), no);
+            // look for free space under a shared lock so that full pages
+            // other transactions are reading do not block the insert
+            boolean locked = bufferPool.holdsLock(tid, pageId);
+            HeapPage p = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_ONLY);
+            if (p.hasRoomFor(t)) {
+                p = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
+                if (p.hasRoomFor(t)) {
+                    page = p;
+                    break;
+                }
+            } else {
+                // a page without room for this tuple may fit a smaller one
+                freeSpace.update(no, p.getNumEmptySlots() > 0);
+                if (!locked) {
+                    // nothing was read from the page, so 2PL is not violated
+                    bufferPool.unsafeReleasePage(tid, pageId);
+                }
+            }
+        }
+        if (page == null) {
+            HeapPageId pageId = new HeapPageId(getId(), appendEmptyPage());
+            page = (HeapPage) bufferPool.getPage(tid, pageId, Permissions.READ_WRITE);
         }
 
-        //TODO 是否需要mark dirty
-        //page.markDirty(true, tid);
         page.insertTuple(t);
-        writePage(page);
         List<Page> writePages = new ArrayList<>();
         writePages.add(page);
+        writePages.addAll(overflowPages);
         return writePages;
     }
 
+    /**
+     * Write the values of the TEXT_TYPE fields of the tuple that are not
+     * stored in this file yet to new overflow pages, and point the fields
+     * of the tuple to them. The pages are only written to disk when the
+     * inserting transaction commits.
+     *
+     * @return the new overflow pages
+     */
+    private List<Page> storeOverflowValues(Tuple t) {
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.TEXT_TYPE) {
+                continue;
+            }
+            TextField f = (TextField) t.getField(i);
+            if (f.isStoredIn(getId())) {
+                continue;
+            }
+            byte[] value = f.getBytes();
+            int capacity = OverflowPage.capacity();
+            int n = (value.length + capacity - 1) / capacity;
+            int[] pgNos = new int[n];
+            for (int k = 0; k < n; k++) {
+                pgNos[k] = reserveOverflowPage();
+            }
+            for (int k = 0; k < n; k++) {
+                int offset = k * capacity;
+                pages.add(new OverflowPage(new OverflowPageId(getId(), pgNos[k]), k + 1 < n ? pgNos[k + 1] : -1,
+                        value, offset, Math.min(capacity, value.length - offset)));
+            }
+            t.setField(i, f.storedAt(getId(), n == 0 ? -1 : pgNos[0]));
+        }
+        return pages;
+    }
+
+    /**
+     * Reserve a number for a new overflow page. Nothing is written: the page
+     * reaches the overflow file when the inserting transaction commits, and
+     * its number is given back by {@link #reclaimOverflowPage} if it aborts.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int reserveOverflowPage() {
+        Integer pgNo = freeOverflowPages.poll();
+        if (pgNo != null) {
+            return pgNo;
+        }
+        if (overflowEnd < 0) {
+            overflowEnd = (int) (overflow.length() / BufferPool.getPageSize());
+        }
+        return overflowEnd++;
+    }
+
+    /**
+     * Give back the number of an overflow page whose inserting transaction
+     * aborted, so that the next value stored in this file reuses it. Called
+     * by the buffer pool when it drops the page.
+     */
+    synchronized void reclaimOverflowPage(OverflowPageId pid) {
+        freeOverflowPages.push(pid.getPageNumber());
+    }
+
+    /**
+     * Insert under record locking: the page is only intention locked, and the
+     * tuple goes into a free slot whose record lock no other transaction
+     * holds. The insert is undone by the buffer pool if tid aborts.
+     */
+    private List<Page> insertRecord(BufferPool bufferPool, TransactionId tid, Tuple t, List<Page> overflowPages)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordLog log = bufferPool.getRecordLog();
+        for (int no = freeSpace.nextFree(0, numPages()); ; no = freeSpace.nextFree(no + 1, numPages())) {
+            if (no < 0) {
+                no = appendEmptyPage();
+            }
+            HeapPageId pageId = new HeapPageId(getId(), no);
+            boolean locked = bufferPool.holdsLock(tid, pageId);
+            HeapPage page = (HeapPage) bufferPool.getPage(tid, pageId, LockMode.IX);
+            synchronized (page) {
+                if (!page.hasRoomFor(t)) {
+                    freeSpace.update(no, page.getNumEmptySlots() > 0);
+                }
+                for (int slot = 0; slot < page.getNumSlots() && page.hasRoomFor(t); slot++) {
+                    if (!page.isSlotUsed(slot) && bufferPool.tryLockRecord(tid, new RecordId(pageId, slot))) {
+                        page.insertTuple(t, slot);
+                        page.markDirty(true, tid);
+                        log.inserted(tid, t);
+                        List<Page> writePages = new ArrayList<>();
+                        writePages.add(page);
+                        writePages.addAll(overflowPages);
+                        return writePages;
+                    }
+                }
+            }
+            if (!locked) {
+                bufferPool.unsafeReleasePage(tid, pageId);
+            }
+        }
+    }
+
+    /**
+     * Extend the file with an empty page. Tuples are added to the buffer
+     * pool's copy of it, which is only written back on commit.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int no = numPages();
+        zoneMap.setEmpty(no);
+        writePage(createPage(new HeapPageId(getId(), no), HeapPage.createEmptyPageData()));
+        freeSpace.update(no, true);
+        return no;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
-        //TODO 是否需要mark dirty
-//        page.markDirty(true, tid);
+        BufferPool bufferPool = Database.getBufferPool();
+        if (bufferPool.isRecordLocking()) {
+            return deleteRecord(bufferPool, tid, t);
+        }
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
-        //TODO 需要再写入磁盘
-        try {
-            writePage(page);
-        } catch (IOException e) {
-            e.printStackTrace();
+        ArrayList<Page> removedPages = new ArrayList<>();
+        removedPages.add(page);
+        return removedPages;
+    }
+
+    /**
+     * Delete under record locking: the record is locked exclusively and the
+     * delete is only recorded; the buffer pool removes the tuple from the
+     * page when tid commits.
+     */
+    private ArrayList<Page> deleteRecord(BufferPool bufferPool, TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not stored in table " + getId());
+        }
+        bufferPool.lockRecord(tid, rid, Permissions.READ_WRITE);
+        HeapPage page = (HeapPage) bufferPool.getPage(tid, rid.getPageId(), LockMode.IX);
+        RecordLog log = bufferPool.getRecordLog();
+        synchronized (page) {
+            Tuple stored = page.getTuple(rid.getTupleNumber());
+            if (bufferPool.isMultiVersion()
+                    && (stored == null || bufferPool.getVersionStore().isNewerThanSnapshot(tid, rid))) {
+                // deleted or replaced by a commit our snapshot does not see;
+                // the first committer wins
+                throw new TransactionAbortedException();
+            }
+            if (stored == null || log.isDeletedBy(tid, rid)) {
+                throw new DbException("no tuple in record " + rid);
+            }
+            page.markDirty(true, tid);
+            log.deleted(tid, stored);
         }
-//        page.markDirty(false, tid);
         ArrayList<Page> removedPages = new ArrayList<>();
         removedPages.add(page);
         return removedPages;
@@ -161,7 +473,21 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, Collections.emptyList());
+    }
+
+    /**
+     * Returns an iterator over the tuples of this HeapFile that satisfy all
+     * of the specified predicates. Pages whose zone map shows that none of
+     * their tuples can match are skipped without being read through the
+     * BufferPool, except in multi-version mode, where a snapshot may see
+     * tuples the zone map does not know about.
+     *
+     * @see ZoneMap
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return new HeapFileIterator(tid, predicates);
     }
 
     private class HeapFileIterator extends AbstractDbFileIterator {
@@ -173,17 +499,39 @@ public class HeapFile implements DbFile {
 
         private boolean open;
 
-        public HeapFileIterator (TransactionId tid) {
+        /** The page the iterator is positioned on, pinned in the buffer pool */
+        private PageId pinned;
+
+        private HeapPage page;
+
+        private final List<Predicate> predicates;
+
+        /** The next slot of the page nextBatch looks at */
+        private int slot;
+
+        /** Collects the bounds of the filtered columns of the page, or null */
+        private ZoneMap.Learner learner;
+
+        public HeapFileIterator (TransactionId tid, List<Predicate> predicates) {
             this.tid = tid;
             this.pageNo = 0;
+            this.predicates = predicates;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             HeapPageId pageId = new HeapPageId(getId(), pageNo);
-            HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
             open = true;
-            iterator = page.iterator();
+            iterator = mayMatch(pageNo) ? tuples(pin(pageId)) : null;
+        }
+
+        /**
+         * @return false if the zone map shows that no tuple of the page
+         *   satisfies the predicates
+         */
+        private boolean mayMatch(int pageNo) {
+            return predicates.isEmpty() || Database.getBufferPool().isMultiVersion()
+                    || zoneMap.mayMatch(pageNo, predicates);
         }
 
         @Override
@@ -191,20 +539,164 @@ public class HeapFile implements DbFile {
             if (!open) {
                 return null;
             }
-            if (iterator != null && !iterator.hasNext()) {
-                iterator = null;
-            }
-            while(iterator == null && (++pageNo) * BufferPool.getPageSize() < file.length()) {
-                HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, new HeapPageId(getId(), pageNo), Permissions.READ_ONLY);
-                iterator = page.iterator();
-                if (!iterator.hasNext()) {
+            for (;;) {
+                if (iterator != null && !iterator.hasNext()) {
                     iterator = null;
+                    finishPage();
+                }
+                while(iterator == null && ++pageNo < numPages()) {
+                    if (!mayMatch(pageNo)) {
+                        continue;
+                    }
+                    iterator = tuples(pin(new HeapPageId(getId(), pageNo)));
+                    if (!iterator.hasNext()) {
+                        iterator = null;
+                        finishPage();
+                    }
+                }
+                if(iterator == null) {
+                    unpin();
+                    return null;
+                }
+                Tuple t = iterator.next();
+                if (learner != null) {
+                    learner.add(t);
+                }
+                BufferPool bufferPool = Database.getBufferPool();
+                if (bufferPool.isRecordLocking() && !bufferPool.isMultiVersion()) {
+                    if (t == null) {
+                        // the slot was emptied by another transaction's rollback
+                        continue;
+                    }
+                    t = lockRecord(t);
+                }
+                if (t != null && FilteredDbFileIterator.matches(t, predicates)) {
+                    return t;
                 }
             }
-            if(iterator == null) {
+        }
+
+        /**
+         * Fill the batch straight from the pages, when tuples are neither
+         * locked one by one nor read from snapshots.
+         */
+        @Override
+        public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            BufferPool bufferPool = Database.getBufferPool();
+            if (bufferPool.isRecordLocking() || bufferPool.isMultiVersion()) {
+                return super.nextBatch(batch);
+            }
+            boolean more = open;
+            batch.clear();
+            while (more && batch.selectedCount() == 0) {
+                batch.clear();
+                while (!batch.isFull()) {
+                    if (iterator != null) {
+                        int first = batch.size();
+                        slot = page.fillBatch(batch, slot);
+                        if (learner != null) {
+                            learner.add(batch, first);
+                        }
+                        if (slot < page.getNumSlots()) {
+                            break;
+                        }
+                        iterator = null;
+                        finishPage();
+                    }
+                    while (iterator == null && ++pageNo < numPages()) {
+                        if (mayMatch(pageNo)) {
+                            iterator = tuples(pin(new HeapPageId(getId(), pageNo)));
+                        }
+                    }
+                    slot = 0;
+                    if (iterator == null) {
+                        unpin();
+                        more = false;
+                        break;
+                    }
+                }
+                for (Predicate p : predicates) {
+                    p.filter(batch);
+                }
+            }
+            return batch.selectedCount() > 0;
+        }
+
+        /**
+         * Record the bounds of the filtered columns of the page just read to
+         * its end.
+         */
+        private void finishPage() {
+            if (learner != null && page.isDirty() == null) {
+                learner.finish();
+            }
+            learner = null;
+        }
+
+        /**
+         * @return the tuples of the page this transaction sees: in multi-version
+         *   mode those in its snapshot, otherwise all of them
+         */
+        private Iterator<Tuple> tuples(HeapPage page) {
+            BufferPool bufferPool = Database.getBufferPool();
+            if (!bufferPool.isMultiVersion()) {
+                return page.iterator();
+            }
+            synchronized (page) {
+                return bufferPool.getVersionStore().read(tid, page, bufferPool.getRecordLog()).iterator();
+            }
+        }
+
+        /**
+         * Take a shared lock on the tuple's record, then read the record again:
+         * the tuple seen before may have been an uncommitted insert that was
+         * rolled back since.
+         *
+         * @return the committed tuple in the record, or null if it is empty or
+         *   deleted by this transaction
+         */
+        private Tuple lockRecord(Tuple t) throws TransactionAbortedException {
+            BufferPool bufferPool = Database.getBufferPool();
+            RecordId rid = t.getRecordId();
+            bufferPool.lockRecord(tid, rid, Permissions.READ_ONLY);
+            Tuple current;
+            synchronized (page) {
+                current = page.getTuple(rid.getTupleNumber());
+            }
+            if (current == null || bufferPool.getRecordLog().isDeletedBy(tid, rid)) {
                 return null;
             }
-            return iterator.next();
+            return current;
+        }
+
+        /**
+         * Move the pin from the current page to the specified one
+         */
+        private HeapPage pin(PageId pid) throws DbException, TransactionAbortedException {
+            unpin();
+            BufferPool bufferPool = Database.getBufferPool();
+            // under record locking, records are locked one by one as they are
+            // read; snapshot reads lock nothing below the page
+            page = (HeapPage) (bufferPool.isRecordLocking()
+                    ? bufferPool.pinPage(tid, pid, LockMode.IS)
+                    : bufferPool.pinPage(tid, pid, Permissions.READ_ONLY));
+            pinned = pid;
+            // learn the bounds of a page only where it is the same as on disk
+            // and the shared lock keeps it that way while it is read
+            if (!predicates.isEmpty() && !bufferPool.isRecordLocking() && !bufferPool.isMultiVersion()
+                    && page.isDirty() == null) {
+                learner = zoneMap.learn(pid.getPageNumber(), predicates);
+            }
+            return page;
+        }
+
+        private void unpin() {
+            learner = null;
+            if (pinned != null) {
+                Database.getBufferPool().unpinPage(tid, pinned);
+                pinned = null;
+                page = null;
+            }
         }
 
         @Override
@@ -216,11 +708,12 @@ public class HeapFile implements DbFile {
         @Override
         public void close() {
             super.close();
+            unpin();
             open = false;
             iterator = null;
             pageNo = 0;
+            slot = 0;
         }
     }
 
 }
-
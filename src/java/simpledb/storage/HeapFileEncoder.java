@@ -4,15 +4,21 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. The bounds of the values on each page are written to the
+ * {@link ZoneMap} next to it.
  */
 
 public class HeapFileEncoder {
@@ -86,142 +92,281 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
-    * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
+    * @param typeAr the types of the fields
+    * @param fieldSeparator the character between fields
+    * @throws IOException if the input/output file can't be opened
+    * @see BulkLoader
     */
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      new BulkLoader(Arrays.copyOf(typeAr, numFields), fieldSeparator,
+              Runtime.getRuntime().availableProcessors()).loadHeap(inFile, outFile, npagebytes);
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * PAX pages, in the format read by {@link PaxHeapPage}. The input is in the
+   * same format as for {@link #convert(File, File, int, int, Type[], char)},
+   * and the pages hold the same tuples as the HeapPages it writes.
+   *
+   * @see PaxHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      File rowFile = File.createTempFile("tempTable", ".dat");
+      rowFile.deleteOnExit();
+      convert(inFile, rowFile, npagebytes, numFields, typeAr, fieldSeparator);
+
+      int[] fieldLens = new int[numFields];
+      for (int i = 0; i < numFields; i++) {
+          fieldLens[i] = typeAr[i].getLen();
+      }
+      byte[] rowPage = new byte[npagebytes];
+      dropSidecarFiles(outFile);
+      try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(rowFile)));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+          for (long n = rowFile.length() / npagebytes; n > 0; n--) {
+              is.readFully(rowPage);
+              os.write(PaxHeapPage.fromRows(rowPage, fieldLens));
+          }
+          // the pages hold the same tuples, so the zone map and the trailer
+          // it is stamped for carry over
+          byte[] trailer = new byte[(int) (rowFile.length() % npagebytes)];
+          is.readFully(trailer);
+          os.write(trailer);
+      }
+      moveZoneMap(rowFile, outFile);
+      rowFile.delete();
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * compressed HeapPages, in the format read by {@link CompressedHeapFile}.
+   * The input is in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}, and the pages hold
+   * the same tuples as the HeapPages it writes.
+   *
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to; the index of the pages
+   *   is written next to it, in the file name with ".idx" appended
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertCompressed(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      File rowFile = File.createTempFile("tempTable", ".dat");
+      rowFile.deleteOnExit();
+      convert(inFile, rowFile, npagebytes, numFields, typeAr, fieldSeparator);
+      dropSidecarFiles(outFile);
+      // the trailer is compressed with the pages, so the zone map carries over
+      CompressedPageChannel.compress(rowFile, outFile, 0, npagebytes);
+      moveZoneMap(rowFile, outFile);
+      rowFile.delete();
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * slotted pages, in the format read by {@link SlottedHeapPage}, where
+   * every tuple takes only the bytes it needs. The input is in the same
+   * format as for {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @see SlottedHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      int maxRecords = SlottedHeapPage.maxSlots(new TupleDesc(Arrays.copyOf(typeAr, numFields)), npagebytes);
+      Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+      dropSidecarFiles(outFile);
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+           ZoneMap.Builder bounds = new ZoneMap.Builder(outFile, new TupleDesc(Arrays.copyOf(typeAr, numFields)))) {
+          List<byte[]> records = new ArrayList<>();
+          Field[] fields = new Field[numFields];
+          int used = SlottedHeapPage.HEADER_SIZE;
+          int npages = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] values = separator.split(line, -1);
+              ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream();
+              DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+              for (int i = 0; i < numFields; i++) {
+                  fields[i] = parseField(i < values.length ? values[i].trim() : "", typeAr[i], line);
+                  typeAr[i].writeCompact(fields[i], recordStream);
+              }
+              recordStream.flush();
+              byte[] record = recordBAOS.toByteArray();
+
+              // start a new page once this record does not fit
+              if (records.size() == maxRecords
+                  || used + SlottedHeapPage.SLOT_SIZE + record.length > npagebytes) {
+                  writeSlottedPage(records, npagebytes, os);
+                  bounds.endPage();
+                  records.clear();
+                  used = SlottedHeapPage.HEADER_SIZE;
+                  npages++;
+              }
+              records.add(record);
+              used += SlottedHeapPage.SLOT_SIZE + record.length;
+              for (int i = 0; i < numFields; i++) {
+                  bounds.add(i, fields[i]);
+              }
+          }
+          // as for heap pages, an empty file still gets one empty page
+          if (!records.isEmpty() || npages == 0) {
+              writeSlottedPage(records, npagebytes, os);
+              bounds.endPage();
+          }
+          writeTrailer(bounds, os);
+      }
+  }
+
+  /** Convert the specified input text file into a binary page file of
+   * dictionary-encoded pages, in the format read by
+   * {@link DictionaryHeapPage}, and the dictionary of their string columns.
+   * The input is in the same format as for
+   * {@link #convert(File, File, int, int, Type[], char)}.
+   *
+   * @see DictionaryHeapFile
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to; the dictionary is
+   *   written next to it, in the file name with ".dict" appended
+   * @param npagebytes The number of bytes per page in the output file
+   * @param numFields the number of fields in each input line/output tuple
+   * @param typeAr the types of the fields
+   * @param fieldSeparator the character between fields
+   * @throws IOException if the input/output file can't be opened
+   */
+  public static void convertDictionary(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      dropSidecarFiles(outFile);
+      StringDictionary dictionary = new StringDictionary(new File(outFile.getPath() + ".dict"));
+      TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+      int nrecbytes = dictionary.getSize(td);
+      int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+      int nheaderbytes = (nrecords + 7) / 8;
+      Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile));
+           ZoneMap.Builder bounds = new ZoneMap.Builder(outFile, td)) {
+          byte[] page = new byte[npagebytes];
+          ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream(nrecbytes);
+          DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+          int recordcount = 0;
+          int npages = 0;
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.trim().isEmpty())
+                  continue;
+              String[] values = separator.split(line, -1);
+              recordBAOS.reset();
+              for (int i = 0; i < numFields; i++) {
+                  Field f = parseField(i < values.length ? values[i].trim() : "", typeAr[i], line);
+                  dictionary.encode(f, recordStream);
+                  bounds.add(i, f);
+              }
+              recordStream.flush();
+              System.arraycopy(recordBAOS.toByteArray(), 0, page, nheaderbytes + recordcount * nrecbytes, nrecbytes);
+              page[recordcount / 8] |= (byte) (1 << (recordcount % 8));
+              if (++recordcount == nrecords) {
+                  os.write(page);
+                  bounds.endPage();
+                  Arrays.fill(page, (byte) 0);
+                  recordcount = 0;
+                  npages++;
+              }
+          }
+          // as for heap pages, an empty file still gets one empty page
+          if (recordcount > 0 || npages == 0) {
+              os.write(page);
+              bounds.endPage();
+          }
+          writeTrailer(bounds, os);
+      } finally {
+          dictionary.close();
+      }
+  }
+
+  /** Parse a field of an input line, reporting and storing 0 for a bad integer */
+  private static Field parseField(String s, Type type, String line) {
+      if (type == Type.INT_TYPE) {
+          try {
+              return new IntField(Integer.parseInt(s));
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              return new IntField(0);
+          }
+      } else if (type == Type.VARCHAR_TYPE) {
+          return new VarcharField(s);
+      } else {
+          return new StringField(s, Type.STRING_LEN);
+      }
+  }
+
+  /** Delete the free-space map, zone map, overflow pages, dictionary and
+   * page index of an earlier table stored in the output file, which do not
+   * describe the new pages.
+   * @see HeapFile#SIDECAR_SUFFIXES
+   */
+  static void dropSidecarFiles(File outFile) {
+      for (String suffix : HeapFile.SIDECAR_SUFFIXES) {
+          new File(outFile.getPath() + suffix).delete();
+      }
+  }
+
+  /** Close the zone map of the pages written, then write the trailer of
+   * the table file that it matches.
+   * @see TableGeneration
+   */
+  private static void writeTrailer(ZoneMap.Builder bounds, OutputStream os) throws IOException {
+      bounds.close();
+      os.write(TableGeneration.trailer(bounds.generation()).array());
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+  /** Move the zone map of a table file written with the same tuples on each
+   * page, and the same trailer, to the output file.
+   */
+  private static void moveZoneMap(File from, File outFile) throws IOException {
+      Files.move(new File(from.getPath() + ".zm").toPath(), new File(outFile.getPath() + ".zm").toPath(),
+              StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** Write one slotted page holding the records in slots 0, 1, ... */
+  private static void writeSlottedPage(List<byte[]> records, int npagebytes, OutputStream os)
+      throws IOException {
+      byte[] page = new byte[npagebytes];
+      ByteBuffer buf = ByteBuffer.wrap(page);
+      buf.putInt(0, records.size());
+      int pos = npagebytes;
+      for (int i = 0; i < records.size(); i++) {
+          byte[] record = records.get(i);
+          pos -= record.length;
+          System.arraycopy(record, 0, page, pos, record.length);
+          buf.putShort(SlottedHeapPage.HEADER_SIZE + i * SlottedHeapPage.SLOT_SIZE, (short) pos);
+          buf.putShort(SlottedHeapPage.HEADER_SIZE + i * SlottedHeapPage.SLOT_SIZE + 2, (short) record.length);
       }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char[] buf = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    s  = s.substring(0,Type.STRING_LEN);
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+      os.write(page);
   }
 }
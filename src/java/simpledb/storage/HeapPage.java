@@ -4,8 +4,10 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.io.*;
 
@@ -20,13 +22,29 @@ import java.io.*;
 public class HeapPage implements Page {
 
     private final HeapPageId pid;
-    private final TupleDesc td;
+    protected final TupleDesc td;
+    /** The file of the table, whose maps inserts update; null if it is not a HeapFile */
+    private final HeapFile file;
     private final byte[] header;
-    private final Tuple[] tuples;
+    /**
+     * The tuple in each slot. A used slot whose entry is null holds a tuple
+     * of the page bytes that has not been asked for yet.
+     */
+    protected final Tuple[] tuples;
     private final int numSlots;
 
+    /** How the fields are stored in the slots */
+    private final FieldCodec codec;
+    /** Unmodifiable bytes the page was read from, or null for subclasses that decode their own */
+    private final ByteBuffer source;
+    /** Field i of the tuple in slot s starts at fieldBase[i] + s * fieldStride[i] */
+    private final int[] fieldBase;
+    private final int[] fieldStride;
+
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    /** Unmodifiable page bytes the before image is lazily copied from, if oldData has not been set */
+    private ByteBuffer oldDataSource;
+    private final Object oldDataLock = new Object();
 
     private TransactionId dirtyTransactionId;
 
@@ -42,33 +60,103 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * Only the header is decoded up front. The tuples are views of the
+     * array that decode their fields when asked for them, so the array must
+     * not be modified afterwards; it also serves as the before image of the
+     * page until {@link #setBeforeImage()} is called.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage that decodes its contents directly from the specified
+     * buffer, e.g. a slice of a memory-mapped file, without first copying it
+     * into a page-sized array. The buffer must hold the page starting at its
+     * current position, and its contents must not change while this page or
+     * any of its tuples is in use: they serve as the before image of the page
+     * until {@link #setBeforeImage()} is called.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, false);
+    }
+
+    /**
+     * Create a HeapPage over the specified buffer, like
+     * {@link #HeapPage(HeapPageId, ByteBuffer)}, for subclasses that store
+     * the same slots in another order. If columnar is set, the header is
+     * followed by one minipage per column, holding the field of that column
+     * of every slot, instead of by one tuple per slot.
+     *
+     * @see PaxHeapPage
+     */
+    protected HeapPage(HeapPageId id, ByteBuffer data, boolean columnar) throws IOException {
+        this(id, data, columnar, FieldCodec.PLAIN);
+    }
+
+    /**
+     * Create a HeapPage over the specified buffer, like
+     * {@link #HeapPage(HeapPageId, ByteBuffer, boolean)}, for subclasses
+     * that store some fields in the slots in another format.
+     *
+     * @see DictionaryHeapPage
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, boolean columnar, FieldCodec codec) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = dbFile.getTupleDesc();
+        this.file = dbFile instanceof HeapFile ? (HeapFile) dbFile : null;
+        this.codec = codec;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        ByteBuffer buf = data.duplicate();
+        source = buf.slice().asReadOnlyBuffer();
+        oldDataSource = source;
 
         // allocate and read the header slots of this page
         // header使用的为bitmap
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
 
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        fieldBase = new int[td.numFields()];
+        fieldStride = new int[td.numFields()];
+        int pos = header.length;
+        for (int j = 0; j < fieldBase.length; j++) {
+            int len = codec.getLen(td.getFieldType(j));
+            fieldBase[j] = pos;
+            fieldStride[j] = columnar ? len : codec.getSize(td);
+            pos += columnar ? len * numSlots : len;
+        }
+        if (source.remaining() < header.length + numSlots * codec.getSize(td)) {
+            throw new IOException("page " + id + " holds only " + source.remaining() + " bytes");
         }
-        dis.close();
+        buf.get(header);
 
-        setBeforeImage();
+        tuples = new Tuple[numSlots];
+    }
+
+    /**
+     * Create a page with the given number of empty slots, for subclasses that
+     * store their tuples in another format. The subclass fills the slots,
+     * calls {@link #setBeforeImage()} and overrides {@link #getPageData()}
+     * and {@link #getBeforeImage()}.
+     */
+    protected HeapPage(HeapPageId id, int numSlots) {
+        this.pid = id;
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(id.getTableId());
+        this.td = dbFile.getTupleDesc();
+        this.file = dbFile instanceof HeapFile ? (HeapFile) dbFile : null;
+        this.numSlots = numSlots;
+        this.codec = FieldCodec.PLAIN;
+        header = new byte[getHeaderSize()];
+        tuples = new Tuple[numSlots];
+        source = null;
+        fieldBase = null;
+        fieldStride = null;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -84,7 +172,7 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
-        return ((BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1));
+        return ((BufferPool.getPageSize()*8) / (codec.getSize(td) * 8 + 1));
     }
 
     /**
@@ -100,9 +188,14 @@ public class HeapPage implements Page {
     public HeapPage getBeforeImage(){
         try {
             byte[] oldDataRef = null;
+            ByteBuffer oldDataSourceRef = null;
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                oldDataSourceRef = oldDataSource;
+            }
+            if (oldDataRef == null) {
+                return new HeapPage(pid, oldDataSourceRef);
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -113,10 +206,26 @@ public class HeapPage implements Page {
         return null;
     }
 
+    /**
+     * @return the bytes of the before image of this page
+     */
+    protected byte[] getBeforeImageData() {
+        synchronized(oldDataLock)
+        {
+            if (oldData != null) {
+                return oldData;
+            }
+            byte[] data = new byte[oldDataSource.remaining()];
+            oldDataSource.duplicate().get(data);
+            return data;
+        }
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
+        oldDataSource = null;
         }
     }
 
@@ -129,36 +238,15 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in the given used slot, creating a view of the page
+     *   bytes for it if it has not been asked for before
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private synchronized Tuple tuple(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && source != null) {
+            t = new LazyTuple(td, new RecordId(pid, slotId), source, slotId, fieldBase, fieldStride, codec);
+            tuples[slotId] = t;
         }
-
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
-
         return t;
     }
 
@@ -175,64 +263,66 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[len];
 
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        // start from the bytes the page was read from, which are still right
+        // for every slot that has not been changed since; the padding after
+        // the last slot stays zero
+        if (source != null) {
+            source.duplicate().get(data, 0, header.length + codec.getSize(td) * numSlots);
         }
 
+        // create the header of the page
+        System.arraycopy(header, 0, data, 0, header.length);
+
         // create the tuples
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Type.STRING_LEN + 4);
+        DataOutputStream dos = new DataOutputStream(baos);
         for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        //if it is 0, the tuple is invalid
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+            Tuple t = tuples[i];
+            boolean used = isSlotUsed(i);
+            if (used && (t == null || t instanceof LazyTuple && ((LazyTuple) t).isViewOf(source, i))) {
+                continue;
+            }
+            // empty slot: zero out the tuple that was stored there, if any
+            if (!used && (source == null || !usedInSource(i))) {
                 continue;
             }
 
-            // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
+                int pos = fieldBase[j] + i * fieldStride[j];
+                int flen = codec.getLen(td.getFieldType(j));
+                if (!used) {
+                    //if it is 0, the tuple is invalid
+                    Arrays.fill(data, pos, pos + flen, (byte) 0);
+                    continue;
+                }
+                if (t instanceof LazyTuple && ((LazyTuple) t).copyField(j, data, pos, codec)) {
+                    continue;
+                }
 
+                // non-empty slot
+                baos.reset();
+                try {
+                    codec.encode(t.getField(j), dos);
+                    dos.flush();
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    // only a dictionary that cannot store a new value gets
+                    // here; never write a page with a value missing
+                    throw new RuntimeException(e);
                 }
+                System.arraycopy(baos.toByteArray(), 0, data, pos, flen);
             }
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return data;
+    }
 
-        return baos.toByteArray();
+    /**
+     * @return true if the slot was used in the bytes the page was read from
+     */
+    private boolean usedInSource(int i) {
+        return ((source.get(i/8) >> (i%8)) & 1) == 1;
     }
 
     /**
@@ -269,6 +359,7 @@ public class HeapPage implements Page {
         }
         tuples[slotId] = null;
         markSlotUsed(slotId, false);
+        updateFreeSpaceMap(true);
     }
 
     /**
@@ -291,12 +382,83 @@ public class HeapPage implements Page {
                 RecordId recordId = new RecordId(pid, i);
                 t.setRecordId(recordId);
                 tuples[i] = t;
+                updateZoneMap(t);
                 break;
             }
         }
         if(i == numSlots) {
             throw new DbException(String.format("table %d page %d is full", pid.getTableId(), pid.getPageNumber()));
         }
+        if (getNumEmptySlots() == 0) {
+            updateFreeSpaceMap(false);
+        }
+    }
+
+    /**
+     * Adds the specified tuple to the page in the given slot; the tuple is
+     * updated to reflect that it is now stored there.
+     * @throws DbException if the slot is in use or tupledesc is mismatch.
+     * @param t The tuple to add.
+     * @param slotId The empty slot to store it in.
+     */
+    public void insertTuple(Tuple t, int slotId) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple desc does not match table " + pid.getTableId());
+        }
+        if (isSlotUsed(slotId)) {
+            throw new DbException(String.format("slot %d of page %s is in use", slotId, pid));
+        }
+        markSlotUsed(slotId, true);
+        t.setRecordId(new RecordId(pid, slotId));
+        tuples[slotId] = t;
+        updateZoneMap(t);
+        if (getNumEmptySlots() == 0) {
+            updateFreeSpaceMap(false);
+        }
+    }
+
+    /**
+     * @return true if the tuple can be inserted into this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
+    /**
+     * Tell the free-space map of the table whether this page has an empty slot.
+     */
+    void updateFreeSpaceMap() {
+        updateFreeSpaceMap(getNumEmptySlots() > 0);
+    }
+
+    protected void updateFreeSpaceMap(boolean hasRoom) {
+        if (file != null) {
+            file.getFreeSpaceMap().update(pid.getPageNumber(), hasRoom);
+        }
+    }
+
+    /**
+     * Widen the bounds the zone map of the table keeps for this page to
+     * cover the tuple.
+     */
+    private void updateZoneMap(Tuple t) {
+        if (file != null) {
+            file.getZoneMap().add(pid.getPageNumber(), t);
+        }
+    }
+
+    /**
+     * @return the tuple stored in the given slot, or null if the slot is empty
+     */
+    public Tuple getTuple(int slotId) {
+        return isSlotUsed(slotId) ? tuple(slotId) : null;
+    }
+
+    /**
+     * @return the number of tuple slots on this page
+     */
+    public int getNumSlots() {
+        return numSlots;
     }
 
     /**
@@ -349,7 +511,7 @@ public class HeapPage implements Page {
     /**
      * Abstraction to fill or clear a slot on this page.
      */
-    private void markSlotUsed(int i, boolean value) {
+    protected void markSlotUsed(int i, boolean value) {
         // some code goes here
         // not necessary for lab1
         if(value) {
@@ -359,6 +521,38 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Append the tuples in the used slots from fromSlot on to the batch,
+     * until the batch is full. The integer fields of tuples that have not
+     * been asked for are decoded straight from the page bytes into the
+     * batch, without creating a Tuple for them.
+     *
+     * @return the slot after the last one looked at
+     */
+    synchronized int fillBatch(TupleBatch batch, int fromSlot) {
+        int n = td.numFields();
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            if (tuples[slot] != null || source == null) {
+                batch.add(tuple(slot));
+                continue;
+            }
+            int row = batch.addRow();
+            batch.setRecordId(row, new RecordId(pid, slot));
+            for (int i = 0; i < n; i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    batch.setInt(row, i, codec.decodeInt(source, fieldBase[i] + slot * fieldStride[i]));
+                } else {
+                    batch.setField(row, i, tuple(slot).getField(i));
+                }
+            }
+        }
+        return slot;
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -378,7 +572,7 @@ public class HeapPage implements Page {
 
             @Override
             public Tuple next() {
-                return tuples[cursor++];
+                return tuple(cursor++);
             }
         };
     }
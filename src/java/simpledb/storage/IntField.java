@@ -55,20 +55,30 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(value, op, iVal.value);
+    }
+
+    /**
+     * Compare two int values as the IntFields holding them compare.
+     *
+     * @return true if v1 op v2 holds
+     * @see #compare(Predicate.Op, Field)
+     */
+    public static boolean compare(int v1, Predicate.Op op, int v2) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return v1 == v2;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return v1 != v2;
             case GREATER_THAN:
-                return value > iVal.value;
+                return v1 > v2;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return v1 >= v2;
             case LESS_THAN:
-                return value < iVal.value;
+                return v1 < v2;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return v1 <= v2;
         }
 
         return false;
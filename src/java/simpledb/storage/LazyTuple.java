@@ -0,0 +1,142 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * LazyTuple is a view of a tuple stored in the bytes of a page. A field is
+ * only decoded the first time {@link #getField} asks for it, and then kept,
+ * so operators that look at few of the columns, or reject the tuple after
+ * looking at one, do not pay for building the others. Integer fields read
+ * with {@link #getInt} are not built at all.
+ * <p>
+ * The page bytes must not change while the tuple is in use; HeapPage only
+ * hands out views of the bytes the page was read from, which it never
+ * modifies.
+ *
+ * @see HeapPage
+ */
+final class LazyTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The schema the bytes were written with, even if the TupleDesc is reset */
+    private final TupleDesc layout;
+    private final ByteBuffer data;
+    private final int slot;
+    /** Field i of the tuple in slot s starts at fieldBase[i] + s * fieldStride[i] */
+    private final int[] fieldBase;
+    private final int[] fieldStride;
+    /** How the fields are stored in the bytes */
+    private final FieldCodec codec;
+    /** Set once a field is set from outside, after which the bytes are stale */
+    private boolean modified;
+
+    /**
+     * @param td the schema of the tuple
+     * @param rid the location of the tuple
+     * @param data the page bytes; only absolute reads are made, so the
+     *   buffer may be shared
+     * @param slot the slot of the tuple in data
+     * @param fieldBase the index in data of each field of slot 0
+     * @param fieldStride the distance between each field of two
+     *   consecutive slots
+     * @param codec how the fields are stored in data
+     */
+    LazyTuple(TupleDesc td, RecordId rid, ByteBuffer data, int slot, int[] fieldBase, int[] fieldStride,
+              FieldCodec codec) {
+        super(td, td.numFields());
+        this.layout = td;
+        this.data = data;
+        this.slot = slot;
+        this.fieldBase = fieldBase;
+        this.fieldStride = fieldStride;
+        this.codec = codec;
+        setRecordId(rid);
+    }
+
+    private int position(int i) {
+        return fieldBase[i] + slot * fieldStride[i];
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = super.getField(i);
+        if (f == null && i < fieldBase.length) {
+            try {
+                f = codec.decode(layout.getFieldType(i), data, position(i));
+            } catch (ParseException e) {
+                throw new NoSuchElementException("parsing error in field " + i + " of " + getRecordId());
+            }
+            if (f instanceof TextField) {
+                // the pointer is into the overflow pages of the table the page is in
+                f = ((TextField) f).inTable(getRecordId().getPageId().getTableId());
+            }
+            super.setField(i, f);
+        }
+        return f;
+    }
+
+    /**
+     * Read an unmodified integer field straight from the page bytes, so
+     * that operators reading ints create no IntField.
+     */
+    @Override
+    public int getInt(int i) {
+        if (!modified && i < fieldBase.length && layout.getFieldType(i) == Type.INT_TYPE) {
+            return codec.decodeInt(data, position(i));
+        }
+        return super.getInt(i);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        modified = true;
+        super.setField(i, f);
+    }
+
+    @Override
+    public void setInt(int i, int value) {
+        modified = true;
+        super.setInt(i, value);
+    }
+
+    /**
+     * @return true if this is the unmodified tuple in the given slot of the
+     *   given page bytes
+     */
+    boolean isViewOf(ByteBuffer data, int slot) {
+        return !modified && this.data == data && this.slot == slot;
+    }
+
+    /**
+     * Copy the bytes of field i into dst, unless a field has been set since
+     * the tuple was read, or dst stores fields with another codec.
+     *
+     * @return true if the bytes were copied
+     */
+    boolean copyField(int i, byte[] dst, int pos, FieldCodec dstCodec) {
+        if (modified || dstCodec != codec) {
+            return false;
+        }
+        ByteBuffer src = data.duplicate();
+        src.position(position(i));
+        src.get(dst, pos, codec.getLen(layout.getFieldType(i)));
+        return true;
+    }
+
+    /**
+     * Serialize a fully decoded copy, as the page bytes are not serializable.
+     */
+    private Object writeReplace() {
+        Tuple t = new Tuple(getTupleDesc());
+        for (int i = 0; i < fieldBase.length; i++) {
+            t.setField(i, getField(i));
+        }
+        t.setRecordId(getRecordId());
+        return t;
+    }
+}
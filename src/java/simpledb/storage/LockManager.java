@@ -0,0 +1,434 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * LockManager grants locks to transactions under strict two-phase locking:
+ * locks are only given up when the transaction completes (or through
+ * {@link #release}, which callers use at their own risk).
+ * <p>
+ * A lock is held on a resource, which is any object with value semantics:
+ * the BufferPool locks tables by their id, pages by their {@link PageId}
+ * and records by their {@link RecordId}. Each lock is held in one of the
+ * {@link LockMode}s; asking for another mode on a resource a transaction
+ * already holds upgrades the lock to the join of both modes. Requests that
+ * conflict block on the monitor of the resource's lock until it is released.
+ * <p>
+ * Deadlocks are found by a background detector rather than by timeouts. While
+ * any transaction is blocked, the detector periodically builds the wait-for
+ * graph from the blocked requests and the holders they conflict with; for
+ * each cycle, the youngest transaction on it (the one with the largest id)
+ * is chosen as the victim and its blocked request fails with
+ * {@link TransactionAbortedException}. The detector thread is started when
+ * the first request blocks and exits once nothing is waiting.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Milliseconds between two searches of the wait-for graph */
+    public static final long DETECTION_INTERVAL = 20;
+
+    /** Lock state of every resource some transaction has a lock on */
+    private final Map<Object, Lock> locks = new ConcurrentHashMap<>();
+
+    /** Resources each transaction holds a lock on */
+    private final Map<TransactionId, Set<Object>> held = new ConcurrentHashMap<>();
+
+    /**
+     * Resources each blocked transaction is waiting to lock, and the mode it
+     * asked for; the inner maps are replaced, never modified
+     */
+    private final Map<TransactionId, Map<Object, LockMode>> waiting = new ConcurrentHashMap<>();
+
+    /** Transactions chosen as deadlock victims that have not completed yet */
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean detecting = new AtomicBoolean();
+
+    private final long interval;
+
+    public LockManager() {
+        this(DETECTION_INTERVAL);
+    }
+
+    /**
+     * @param interval milliseconds between two searches of the wait-for graph
+     */
+    public LockManager(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Acquire a shared or exclusive lock on the specified page, blocking until
+     * it is granted. Asking for an exclusive lock while holding a shared one
+     * upgrades it.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param exclusive true for an exclusive (write) lock, false for a shared
+     *   (read) lock
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *   break a deadlock
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        acquire(tid, pid, exclusive ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Acquire a lock on the specified resource, blocking until it is granted.
+     *
+     * @param tid the transaction requesting the lock
+     * @param resource the table id, page id or record id to lock
+     * @param mode the mode to lock the resource in
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *   break a deadlock
+     */
+    public void acquire(TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        lock(tid, resource, mode, true);
+    }
+
+    /**
+     * Acquire a lock on the specified resource if that can be done without
+     * waiting.
+     *
+     * @return true if the lock was granted
+     */
+    public boolean tryAcquire(TransactionId tid, Object resource, LockMode mode) {
+        try {
+            return lock(tid, resource, mode, false);
+        } catch (TransactionAbortedException e) {
+            // only thrown while waiting
+            return false;
+        }
+    }
+
+    private boolean lock(TransactionId tid, Object resource, LockMode mode, boolean wait)
+            throws TransactionAbortedException {
+        for (;;) {
+            Lock lock = locks.computeIfAbsent(resource, k -> new Lock());
+            synchronized (lock) {
+                if (lock.retired) {
+                    // released and dropped from the map after we looked it up
+                    continue;
+                }
+                if (!lock.isGrantable(tid, mode)) {
+                    if (!wait) {
+                        retireIfUnused(resource, lock);
+                        return false;
+                    }
+                    await(lock, tid, resource, mode);
+                }
+                lock.grant(tid, mode);
+            }
+            held.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(resource);
+            return true;
+        }
+    }
+
+    /**
+     * Wait on the lock's monitor until the request can be granted.
+     */
+    private void await(Lock lock, TransactionId tid, Object resource, LockMode mode)
+            throws TransactionAbortedException {
+        waiting.compute(tid, (k, requests) -> {
+            Map<Object, LockMode> m = requests == null ? new HashMap<>() : new HashMap<>(requests);
+            m.put(resource, mode);
+            return m;
+        });
+        lock.waiters++;
+        startDetector();
+        try {
+            while (!lock.isGrantable(tid, mode)) {
+                if (victims.contains(tid)) {
+                    throw new TransactionAbortedException();
+                }
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            }
+        } finally {
+            lock.waiters--;
+            waiting.computeIfPresent(tid, (k, requests) -> {
+                Map<Object, LockMode> m = new HashMap<>(requests);
+                m.remove(resource);
+                return m.isEmpty() ? null : m;
+            });
+        }
+    }
+
+    /**
+     * Release the lock the transaction holds on the specified resource, if
+     * any, and wake up the requests waiting for it.
+     */
+    public void release(TransactionId tid, Object resource) {
+        Set<Object> resources = held.get(tid);
+        if (resources != null) {
+            resources.remove(resource);
+        }
+        unlock(tid, resource);
+    }
+
+    /**
+     * Release every lock held by the transaction. Called when it completes.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<Object> resources = held.remove(tid);
+        if (resources != null) {
+            for (Object resource : resources) {
+                unlock(tid, resource);
+            }
+        }
+        victims.remove(tid);
+    }
+
+    private void unlock(TransactionId tid, Object resource) {
+        Lock lock = locks.get(resource);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            if (lock.holders.remove(tid) == null) {
+                return;
+            }
+            if (!retireIfUnused(resource, lock)) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Drop the lock from the lock table if nobody holds or waits for it.
+     * Must be called with the lock's monitor held.
+     */
+    private boolean retireIfUnused(Object resource, Lock lock) {
+        if (!lock.holders.isEmpty() || lock.waiters > 0) {
+            return false;
+        }
+        lock.retired = true;
+        locks.remove(resource, lock);
+        return true;
+    }
+
+    /**
+     * @return true if the transaction holds a lock in any mode on the resource
+     */
+    public boolean holdsLock(TransactionId tid, Object resource) {
+        return getLockMode(tid, resource) != null;
+    }
+
+    /**
+     * @return true if the transaction holds an exclusive lock on the resource
+     */
+    public boolean holdsExclusiveLock(TransactionId tid, Object resource) {
+        return getLockMode(tid, resource) == LockMode.X;
+    }
+
+    /**
+     * @return the mode the transaction holds the resource's lock in, or null
+     *   if it does not hold it
+     */
+    public LockMode getLockMode(TransactionId tid, Object resource) {
+        Lock lock = locks.get(resource);
+        if (lock == null) {
+            return null;
+        }
+        synchronized (lock) {
+            return lock.holders.get(tid);
+        }
+    }
+
+    /**
+     * Start the deadlock detector unless it is already running.
+     */
+    private void startDetector() {
+        if (detecting.compareAndSet(false, true)) {
+            Thread t = new Thread(this::detect, "deadlock-detector");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Body of the detector thread; runs while some transaction is blocked.
+     */
+    private void detect() {
+        for (;;) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                detecting.set(false);
+                return;
+            }
+            if (waiting.isEmpty()) {
+                detecting.set(false);
+                // a request may have started waiting after the check above
+                // but before the flag was cleared
+                if (waiting.isEmpty() || !detecting.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+            breakDeadlocks();
+        }
+    }
+
+    /**
+     * Search the wait-for graph for cycles and abort the youngest
+     * transaction on each one.
+     */
+    void breakDeadlocks() {
+        Map<TransactionId, Set<TransactionId>> graph = waitsFor();
+        Set<TransactionId> done = new HashSet<>();
+        for (TransactionId tid : new ArrayList<>(graph.keySet())) {
+            if (done.contains(tid) || !graph.containsKey(tid)) {
+                continue;
+            }
+            List<TransactionId> cycle = findCycle(tid, graph, new ArrayList<>(), new HashSet<>(), done);
+            if (cycle != null) {
+                TransactionId victim = cycle.get(0);
+                for (TransactionId t : cycle) {
+                    if (t.getId() > victim.getId()) {
+                        victim = t;
+                    }
+                }
+                abort(victim);
+                // the victim's edges are gone once it is woken up
+                graph.remove(victim);
+                done.clear();
+            }
+        }
+    }
+
+    /**
+     * Depth-first search from tid; returns the transactions on the first
+     * cycle found, or null. Transactions proven not to reach a cycle are
+     * added to done.
+     */
+    private static List<TransactionId> findCycle(TransactionId tid, Map<TransactionId, Set<TransactionId>> graph,
+                                                 List<TransactionId> path, Set<TransactionId> onPath,
+                                                 Set<TransactionId> done) {
+        path.add(tid);
+        onPath.add(tid);
+        for (TransactionId next : graph.getOrDefault(tid, Collections.emptySet())) {
+            if (onPath.contains(next)) {
+                return new ArrayList<>(path.subList(path.indexOf(next), path.size()));
+            }
+            if (!done.contains(next) && graph.containsKey(next)) {
+                List<TransactionId> cycle = findCycle(next, graph, path, onPath, done);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        onPath.remove(tid);
+        done.add(tid);
+        return null;
+    }
+
+    /**
+     * @return for every blocked transaction, the transactions holding locks
+     *   that conflict with one of its requests
+     */
+    private Map<TransactionId, Set<TransactionId>> waitsFor() {
+        Map<TransactionId, Set<TransactionId>> graph = new HashMap<>();
+        for (Map.Entry<TransactionId, Map<Object, LockMode>> e : waiting.entrySet()) {
+            TransactionId tid = e.getKey();
+            if (victims.contains(tid)) {
+                continue;
+            }
+            Set<TransactionId> holders = new HashSet<>();
+            for (Map.Entry<Object, LockMode> r : e.getValue().entrySet()) {
+                Lock lock = locks.get(r.getKey());
+                if (lock != null) {
+                    synchronized (lock) {
+                        lock.addConflicts(tid, r.getValue(), holders);
+                    }
+                }
+            }
+            if (!holders.isEmpty()) {
+                graph.put(tid, holders);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Mark the transaction as a deadlock victim and wake up its blocked
+     * requests so they fail.
+     */
+    private void abort(TransactionId victim) {
+        victims.add(victim);
+        Map<Object, LockMode> requests = waiting.get(victim);
+        if (requests == null) {
+            return;
+        }
+        for (Object resource : requests.keySet()) {
+            Lock lock = locks.get(resource);
+            if (lock != null) {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The lock on one resource: the modes it is held in, which are pairwise
+     * compatible. Guarded by its own monitor.
+     */
+    private static class Lock {
+        final Map<TransactionId, LockMode> holders = new HashMap<>();
+        int waiters;
+        /** Set once the lock is dropped from the lock table */
+        boolean retired;
+
+        /**
+         * @return true if the transaction can hold the lock in the join of the
+         *   requested mode and the mode it already holds
+         */
+        boolean isGrantable(TransactionId tid, LockMode mode) {
+            LockMode wanted = upgrade(tid, mode);
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getKey().equals(tid) && !h.getValue().isCompatibleWith(wanted)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void grant(TransactionId tid, LockMode mode) {
+            holders.put(tid, upgrade(tid, mode));
+        }
+
+        private LockMode upgrade(TransactionId tid, LockMode mode) {
+            LockMode current = holders.get(tid);
+            return current == null ? mode : current.join(mode);
+        }
+
+        void addConflicts(TransactionId tid, LockMode mode, Set<TransactionId> out) {
+            LockMode wanted = upgrade(tid, mode);
+            for (Map.Entry<TransactionId, LockMode> h : holders.entrySet()) {
+                if (!h.getKey().equals(tid) && !h.getValue().isCompatibleWith(wanted)) {
+                    out.add(h.getKey());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.storage;
+
+/**
+ * Modes of the locks handed out by the {@link LockManager}.
+ * <p>
+ * S and X are the usual shared and exclusive locks. The intention modes are
+ * taken on a table or page before locking something inside it: IS before
+ * shared locks on its records, IX before exclusive ones, and SIX by a
+ * transaction that reads the whole container but only updates some of its
+ * records.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+            //        IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /**
+     * @return true if one transaction may hold this mode while another holds
+     *   the other mode on the same resource
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return true if holding this mode grants everything the other mode does
+     */
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+
+    /**
+     * @return the weakest mode that grants everything both this mode and the
+     *   other one do; this is what a lock is upgraded to
+     */
+    public LockMode join(LockMode other) {
+        if (this == other) {
+            return this;
+        }
+        if (this == X || other == X) {
+            return X;
+        }
+        if (this == IS) {
+            return other;
+        }
+        if (other == IS) {
+            return this;
+        }
+        // the remaining pairs are IX, S and SIX, which all join to SIX
+        return SIX;
+    }
+
+    /**
+     * @return the intention mode to hold on the container of a resource
+     *   locked in this mode
+     */
+    public LockMode intention() {
+        return this == IS || this == S ? IS : IX;
+    }
+}
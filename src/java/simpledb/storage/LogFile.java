@@ -6,6 +6,8 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -43,11 +45,18 @@ must not be declared synchronized and must begin with a block like:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file itself holds a single long integer: the offset of
+the last written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are stored in fixed-size, preallocated segment
+files next to the log file (see {@link LogSegments}).  Offsets are
+positions in the sequence of segments and never change, so truncating
+the log simply deletes old segments.  A record never spans two
+segments; the unused end of a segment is zero padding.
+
+<li> Log records are variable length.  They are appended to an
+in-memory buffer that is written out in large sequential writes, when
+it fills up and whenever the log is forced or read.
 
 <li> Each log record begins with an integer type and a long integer
 transaction id.
@@ -76,7 +85,7 @@ for each active transaction.
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    private final LogSegments segments;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -95,6 +104,20 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    // a log record is serialized here before it is appended //protected by this
+    private final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBytes);
+
+    /** Default longest time a commit waits for others to share its force */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 0;
+    /** Default number of pending commits that triggers a force right away */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+
+    private volatile boolean groupCommit = true;
+    private final LogFlusher flusher = new LogFlusher(this, DEFAULT_GROUP_COMMIT_DELAY_MICROS,
+            DEFAULT_GROUP_COMMIT_BATCH);
+    long appendedCommits = 0; // sequence number of the last commit record //protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -107,8 +130,17 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, LogSegments.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor.
+        @param f The log file's name
+        @param segmentSize The size in bytes of the segment files
+        holding the log records
+    */
+    public LogFile(File f, int segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -129,12 +161,67 @@ public class LogFile {
         totalRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.reset();
+            currentOffset = segments.end();
+        }
+    }
+
+    // start serializing a new log record of the given type
+    private DataOutputStream beginRecord(int type, long tid) throws IOException {
+        recordBytes.reset();
+        record.writeInt(type);
+        record.writeLong(tid);
+        return record;
+    }
+
+    // append the record serialized since beginRecord, followed by its
+    // start offset, and return that offset
+    private long appendRecord() throws IOException {
+        record.flush();
+        long start = segments.reserve(recordBytes.size() + LONG_SIZE);
+        segments.write(recordBytes.toByteArray(), 0, recordBytes.size());
+        segments.writeLong(start);
+        currentOffset = segments.end();
+        return start;
+    }
+
+    // make sure the end of an existing log is known before reading it
+    private void findEnd() throws IOException {
+        if (segments.end() >= 0) {
+            return;
+        }
+        long end = segments.first();
+        try (LogSegments.LogInput in = segments.scan()) {
+            while (true) {
+                int type = in.readRecordType();
+                in.readLong();
+                switch (type) {
+                case ABORT_RECORD:
+                case COMMIT_RECORD:
+                case BEGIN_RECORD:
+                    break;
+                case UPDATE_RECORD:
+                    readPageData(in);
+                    readPageData(in);
+                    break;
+                case CHECKPOINT_RECORD:
+                    int numXactions = in.readInt();
+                    if (numXactions < 0) {
+                        throw new EOFException();
+                    }
+                    in.skipBytes(numXactions * 2 * LONG_SIZE);
+                    break;
+                default:
+                    throw new EOFException();
+                }
+                in.readLong();
+                end = in.position();
+            }
+        } catch (IOException | RuntimeException e) {
+            // end of the log, or a record torn by a crash
         }
+        segments.setEnd(end);
+        currentOffset = end;
     }
 
     public synchronized int getTotalRecords() {
@@ -160,10 +247,8 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                beginRecord(ABORT_RECORD, tid.getId());
+                appendRecord();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -173,19 +258,79 @@ public class LogFile {
     /** Write a commit record to disk for the specified tid,
         and force the log to disk.
 
+        With group commit on (the default), the record is appended
+        under the log's lock, but the force is left to the flusher
+        thread, which shares one force among all transactions
+        committing at about the same time; this method returns once
+        that force completes.
+
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long seq;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            beginRecord(COMMIT_RECORD, tid.getId());
+            appendRecord();
+            tidToFirstLogRecord.remove(tid.getId());
+            if (!groupCommit) {
+                force();
+                return;
+            }
+            seq = ++appendedCommits;
+        }
+        flusher.awaitDurable(seq);
+    }
+
+    /** Turn group commit on or off. When off, every commit forces
+        the log itself.
+    */
+    public void setGroupCommit(boolean enabled) {
+        groupCommit = enabled;
+    }
+
+    /** Set the longest time the flusher waits for more commits to
+        join a batch before forcing the log.
+
+        @param micros the delay in microseconds; 0 forces as soon as
+        a commit is pending
+    */
+    public void setGroupCommitMaxDelay(long micros) {
+        flusher.setMaxDelay(micros);
+    }
+
+    /** Set the number of pending commits at which the flusher
+        forces the log without waiting out the delay.
+    */
+    public void setGroupCommitMaxBatch(int maxBatch) {
+        flusher.setMaxBatch(maxBatch);
+    }
+
+    /** Force the log for the flusher thread.  The buffered records
+        are written out under the log's lock, but the force itself
+        runs without it, so transactions can keep appending
+        meanwhile.
+
+        @return the sequence number of the last commit record made
+        durable
+    */
+    long forceCommits() throws IOException {
+        long target;
+        FileChannel channel;
+        synchronized (this) {
+            target = appendedCommits;
+            channel = segments.flushForForce();
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // the log moved on to the next segment meanwhile, forcing
+            // this one when it was closed
+        }
+        return target;
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
@@ -199,8 +344,8 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        Debug.log("WRITE, offset = " + currentOffset);
         /* update record conists of
 
            record type
@@ -209,18 +354,16 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        DataOutputStream out = beginRecord(UPDATE_RECORD, tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out,before);
+        writePageData(out,after);
+        appendRecord();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput out, Page p) throws IOException{
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -235,52 +378,52 @@ public class LogFile {
         String pageClassName = p.getClass().getName();
         String idClassName = pid.getClass().getName();
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+        out.writeUTF(pageClassName);
+        out.writeUTF(idClassName);
 
-        raf.writeInt(pageInfo.length);
+        out.writeInt(pageInfo.length);
         for (int j : pageInfo) {
-            raf.writeInt(j);
+            out.writeInt(j);
         }
         byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        out.writeInt(pageData.length);
+        out.write(pageData);
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
+    Page readPageData(DataInput in) throws IOException {
         PageId pid;
         Page newPage = null;
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+        String pageClassName = in.readUTF();
+        String idClassName = in.readUTF();
 
         try {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
             Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
+            int numIdArgs = in.readInt();
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
+                idArgs[i] = in.readInt();
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+            Constructor<?> pageConst = pageClass.getConstructor(idClass, byte[].class);
+            int pageSize = in.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            in.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
+        } catch (ClassNotFoundException | NoSuchMethodException | InvocationTargetException | IllegalAccessException | InstantiationException e){
             e.printStackTrace();
             throw new IOException();
         }
@@ -300,11 +443,8 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        beginRecord(BEGIN_RECORD, tid.getId());
+        tidToFirstLogRecord.put(tid.getId(), appendRecord());
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -316,33 +456,29 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                //no tid , but leave space for convenience
+                DataOutputStream out = beginRecord(CHECKPOINT_RECORD, -1);
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                out.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    out.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    out.writeLong(tidToFirstLogRecord.get(key));
                 }
+                startCpOffset = appendRecord();
 
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                //once the CP is on disk, make sure the CP location in
+                // the log file is updated
+                force();
+                segments.writeCheckpoint(startCpOffset);
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -351,98 +487,40 @@ public class LogFile {
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Offsets never change, so this only deletes the
+        segments that end before the first record still needed. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        long cpLoc = segments.readCheckpoint();
 
         long minLogRecord = cpLoc;
 
         if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
-
-            if (cpType != CHECKPOINT_RECORD) {
-                throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
-            }
-
-            int numOutstanding = raf.readInt();
-
-            for (int i = 0; i < numOutstanding; i++) {
+            try (LogSegments.LogInput in = segments.read(cpLoc)) {
+                int cpType = in.readInt();
                 @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
-                }
-            }
-        }
-
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
-
-        raf.seek(minLogRecord);
-
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
-            try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+                long cpTid = in.readLong();
 
-                Debug.log("NEW START = " + newStart);
-
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+                if (cpType != CHECKPOINT_RECORD) {
+                    throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+                }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+                int numOutstanding = in.readInt();
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
+                for (int i = 0; i < numOutstanding; i++) {
+                    @SuppressWarnings("unused")
+                    long tid = in.readLong();
+                    long firstLogRecord = in.readLong();
+                    if (firstLogRecord < minLogRecord) {
+                        minLogRecord = firstLogRecord;
                     }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
                 }
-
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
-
-            } catch (EOFException e) {
-                break;
             }
         }
 
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
+        // we can truncate everything before minLogRecord
+        Debug.log("TRUNCATING LOG BEFORE " + minLogRecord + "; LOG ENDS AT " + currentOffset);
+        segments.dropBefore(minLogRecord);
         //print();
     }
 
@@ -471,7 +549,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            segments.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -486,89 +564,87 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                findEnd();
                 // some code goes here
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
-
-        raf.seek(0);
-
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
-
-        while (true) {
-            try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
-
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
-
-                switch (cpType) {
-                case BEGIN_RECORD:
-                    System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    break;
-                case ABORT_RECORD:
-                    System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    break;
-                case COMMIT_RECORD:
-                    System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-                    break;
-
-                case CHECKPOINT_RECORD:
-                    System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
-
-                    while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+    public synchronized void print() throws IOException {
+        findEnd();
+
+        System.out.println("checkpoint record at offset " + segments.readCheckpoint());
+
+        try (LogSegments.LogInput in = segments.read(segments.first())) {
+            while (true) {
+                try {
+                    int cpType = in.readRecordType();
+                    long cpTid = in.readLong();
+
+                    System.out.println((in.position() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                    System.out.println((in.position() - LONG_SIZE) + ": TID " + cpTid);
+
+                    switch (cpType) {
+                    case BEGIN_RECORD:
+                        System.out.println(" (BEGIN)");
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+                        break;
+                    case ABORT_RECORD:
+                        System.out.println(" (ABORT)");
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+                        break;
+                    case COMMIT_RECORD:
+                        System.out.println(" (COMMIT)");
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+                        break;
+
+                    case CHECKPOINT_RECORD:
+                        System.out.println(" (CHECKPOINT)");
+                        int numTransactions = in.readInt();
+                        System.out.println((in.position() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+
+                        while (numTransactions-- > 0) {
+                            long tid = in.readLong();
+                            long firstRecord = in.readLong();
+                            System.out.println((in.position() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
+                            System.out.println((in.position() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        }
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
+                    case UPDATE_RECORD:
+                        System.out.println(" (UPDATE)");
+
+                        long start = in.position();
+                        Page before = readPageData(in);
+
+                        long middle = in.position();
+                        Page after = readPageData(in);
+
+                        System.out.println(start + ": before image table id " + before.getId().getTableId());
+                        System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
+                        System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+
+                        System.out.println(middle + ": after image table id " + after.getId().getTableId());
+                        System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
+                        System.out.println((middle + INT_SIZE) + " TO " + (in.position()) + ": page data");
+
+                        System.out.println(in.position() + ": RECORD START OFFSET: " + in.readLong());
+
+                        break;
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
-
-                    break;
-                case UPDATE_RECORD:
-                    System.out.println(" (UPDATE)");
-
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
-
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
-
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
-
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
-
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                } catch (EOFException e) {
+                    //e.printStackTrace();
                     break;
                 }
-
-            } catch (EOFException e) {
-                //e.printStackTrace();
-                break;
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        segments.force();
     }
 
 }
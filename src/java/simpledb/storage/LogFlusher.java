@@ -0,0 +1,147 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogFlusher implements group commit for the {@link LogFile}.
+ * <p>
+ * Committing transactions append their commit record, take a sequence
+ * number and wait in {@link #awaitDurable} instead of forcing the log
+ * themselves. A single flusher thread collects the pending commits, waiting
+ * at most maxDelay for more to arrive unless maxBatch are already pending,
+ * then forces the log once and wakes every transaction whose record that
+ * force made durable. Commits that arrive while a force is in progress make
+ * up the next batch, so even with no delay one fsync is shared by all
+ * transactions that committed during the previous one.
+ * <p>
+ * The thread is started by the first commit and exits after being idle for
+ * a while.
+ *
+ * @Threadsafe
+ */
+class LogFlusher implements Runnable {
+
+    /** Milliseconds the flusher thread waits for work before exiting */
+    private static final long IDLE_TIMEOUT = 1000;
+
+    private final LogFile log;
+
+    private volatile long maxDelayNanos;
+    private volatile int maxBatch;
+
+    /** Highest commit sequence number waited for; guarded by this */
+    private long requested;
+    /** Highest commit sequence number known to be on disk; guarded by this */
+    private long durable;
+    /** Commits up to this sequence number failed to be forced; guarded by this */
+    private long failedUpTo;
+    private IOException failure;
+
+    private Thread thread;
+
+    LogFlusher(LogFile log, long maxDelayMicros, int maxBatch) {
+        this.log = log;
+        setMaxDelay(maxDelayMicros);
+        setMaxBatch(maxBatch);
+    }
+
+    void setMaxDelay(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("negative delay " + micros);
+        }
+        maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    void setMaxBatch(int maxBatch) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("batch size must be positive: " + maxBatch);
+        }
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Block until the commit with the given sequence number is durable.
+     *
+     * @throws IOException if the force covering it failed
+     */
+    synchronized void awaitDurable(long seq) throws IOException {
+        if (seq > requested) {
+            requested = seq;
+        }
+        if (thread == null) {
+            thread = new Thread(this, "log-flusher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notifyAll();
+        while (durable < seq) {
+            if (seq <= failedUpTo) {
+                throw failure;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for commit " + seq);
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            try {
+                if (!awaitBatch()) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    thread = null;
+                }
+                return;
+            }
+            try {
+                long target = log.forceCommits();
+                synchronized (this) {
+                    durable = Math.max(durable, target);
+                    notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    failedUpTo = requested;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for pending commits, then give later ones up to maxDelay to join
+     * the batch.
+     *
+     * @return false if the thread has been idle too long and should exit
+     */
+    private synchronized boolean awaitBatch() throws InterruptedException {
+        long idleUntil = System.currentTimeMillis() + IDLE_TIMEOUT;
+        while (requested <= Math.max(durable, failedUpTo)) {
+            long idle = idleUntil - System.currentTimeMillis();
+            if (idle <= 0) {
+                thread = null;
+                return false;
+            }
+            wait(idle);
+        }
+        long deadline = System.nanoTime() + maxDelayNanos;
+        for (;;) {
+            long pending = requested - Math.max(durable, failedUpTo);
+            long remaining = deadline - System.nanoTime();
+            if (pending >= maxBatch || remaining <= 0) {
+                return true;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+    }
+}
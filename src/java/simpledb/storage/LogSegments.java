@@ -0,0 +1,470 @@
+package simpledb.storage;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * LogSegments stores the write-ahead log of a {@link LogFile} as a sequence
+ * of fixed-size segment files, and buffers appends in memory.
+ * <p>
+ * Positions in the log (log sequence numbers, or LSNs) are byte offsets in
+ * one ever-growing address space; segment i holds the LSNs from
+ * i * segmentSize up to (i + 1) * segmentSize and is stored in the file
+ * named after the log file with the suffix ".i" (8 digits). A record never
+ * spans two segments: if it does not fit in the rest of the current
+ * segment, the rest is left as padding (zeros) and the record starts the
+ * next one. Segments are preallocated with zeros when they are created, so
+ * appends never change the file size and forcing them only syncs data.
+ * Because LSNs never change, truncating the log deletes whole segments
+ * instead of copying the tail of the log.
+ * <p>
+ * The log file itself is a small control file holding the LSN of the last
+ * checkpoint.
+ * <p>
+ * Appended bytes collect in a direct buffer, which is written to the
+ * current segment in one sequential write when it fills up, before the log
+ * is forced, and before the log is read.
+ * <p>
+ * Not thread-safe; the LogFile serializes access under its own lock.
+ */
+class LogSegments {
+
+    /** Default size of a log segment in bytes */
+    static final int DEFAULT_SEGMENT_SIZE = 4 << 20;
+
+    /** Size of the in-memory log buffer in bytes */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Bytes in the smallest record: a type, a transaction id and a start offset */
+    static final int MIN_RECORD_SIZE = 4 + 8 + 8;
+
+    private final File control;
+    private final int segmentSize;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** LSN of the first byte in the buffer */
+    private long bufferStart;
+    /** LSN following the last appended byte, or -1 until it is known */
+    private long end = -1;
+
+    /** The segment the next byte is appended to, opened lazily */
+    private FileChannel channel;
+    private long channelIndex = -1;
+
+    LogSegments(File control, int segmentSize) {
+        if (segmentSize < BUFFER_SIZE) {
+            throw new IllegalArgumentException("segments must hold at least " + BUFFER_SIZE + " bytes");
+        }
+        this.control = control;
+        this.segmentSize = segmentSize;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return the LSN the next record will be appended at (unless it has to
+     *   go to the next segment), or -1 if the end of an existing log has not
+     *   been found yet
+     */
+    long end() {
+        return end;
+    }
+
+    /**
+     * Set the end of an existing log, found by scanning it.
+     */
+    void setEnd(long lsn) {
+        end = lsn;
+        bufferStart = lsn;
+    }
+
+    /**
+     * @return the LSN of the start of the oldest segment, or 0 if there is none
+     */
+    long first() {
+        List<Long> indexes = segmentIndexes();
+        return indexes.isEmpty() ? 0 : indexes.get(0) * segmentSize;
+    }
+
+    /**
+     * @return the LSN past the last byte of the last segment file
+     */
+    long extent() {
+        List<Long> indexes = segmentIndexes();
+        return indexes.isEmpty() ? 0 : (indexes.get(indexes.size() - 1) + 1) * segmentSize;
+    }
+
+    /**
+     * Throw away the whole log and start an empty one at LSN 0.
+     */
+    void reset() throws IOException {
+        closeChannel();
+        for (long index : segmentIndexes()) {
+            if (!segmentFile(index).delete()) {
+                throw new IOException("could not delete log segment " + segmentFile(index));
+            }
+        }
+        writeCheckpoint(LogFile.NO_CHECKPOINT_ID);
+        buffer.clear();
+        setEnd(0);
+        openSegment(0);
+    }
+
+    /**
+     * Make room for a record of the given size, moving to the next segment
+     * if it does not fit in the current one.
+     *
+     * @return the LSN the record starts at
+     */
+    long reserve(int size) throws IOException {
+        if (size > segmentSize) {
+            throw new IOException("log record of " + size + " bytes does not fit in a segment");
+        }
+        if (segmentSize - offsetInSegment(end) < size) {
+            rollOver();
+        }
+        return end;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+            end += n;
+        }
+    }
+
+    void writeLong(long v) throws IOException {
+        if (buffer.remaining() < Long.BYTES) {
+            flush();
+        }
+        buffer.putLong(v);
+        end += Long.BYTES;
+    }
+
+    /**
+     * Write the buffered bytes to the current segment.
+     */
+    void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        FileChannel ch = channel();
+        long position = offsetInSegment(bufferStart);
+        while (buffer.hasRemaining()) {
+            position += ch.write(buffer, position);
+        }
+        buffer.clear();
+        bufferStart = end;
+    }
+
+    /**
+     * Write the buffered bytes and force them to disk.
+     */
+    void force() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Write the buffered bytes and return the channel that must be forced to
+     * make them durable. Earlier segments are forced when they are left.
+     */
+    FileChannel flushForForce() throws IOException {
+        flush();
+        return channel();
+    }
+
+    /**
+     * Delete the segments holding only LSNs before lsn; the current segment
+     * is always kept.
+     */
+    void dropBefore(long lsn) throws IOException {
+        long current = end / segmentSize;
+        for (long index : segmentIndexes()) {
+            if ((index + 1) * segmentSize <= lsn && index < current) {
+                if (!segmentFile(index).delete()) {
+                    throw new IOException("could not delete log segment " + segmentFile(index));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the LSN of the last checkpoint record, or
+     *   {@link LogFile#NO_CHECKPOINT_ID} if there is none
+     */
+    long readCheckpoint() throws IOException {
+        if (control.length() < Long.BYTES) {
+            return LogFile.NO_CHECKPOINT_ID;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(control, "r")) {
+            return raf.readLong();
+        }
+    }
+
+    /**
+     * Durably record the LSN of the last checkpoint record.
+     */
+    void writeCheckpoint(long lsn) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(control, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(lsn);
+            raf.getChannel().force(true);
+        }
+    }
+
+    /**
+     * Open a reader at the given LSN that stops at the end of the log. The
+     * buffer is written out first so the reader sees every record.
+     */
+    LogInput read(long lsn) throws IOException {
+        flush();
+        return new LogInput(new SegmentStream(lsn, end));
+    }
+
+    /**
+     * Open a reader at the start of the oldest segment that reads to the end
+     * of the last segment file; used to find the end of an existing log.
+     */
+    LogInput scan() {
+        return new LogInput(new SegmentStream(first(), extent()));
+    }
+
+    void close() throws IOException {
+        flush();
+        closeChannel();
+    }
+
+    private void rollOver() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.force(false);
+        }
+        long next = (end / segmentSize + 1) * segmentSize;
+        setEnd(next);
+        closeChannel();
+        openSegment(next / segmentSize);
+    }
+
+    private long offsetInSegment(long lsn) {
+        return lsn % segmentSize;
+    }
+
+    private FileChannel channel() throws IOException {
+        long index = bufferStart / segmentSize;
+        if (channel == null || channelIndex != index) {
+            closeChannel();
+            openSegment(index);
+        }
+        return channel;
+    }
+
+    /**
+     * Open the segment for appending, creating and zero-filling it if needed.
+     */
+    private void openSegment(long index) throws IOException {
+        FileChannel ch = FileChannel.open(segmentFile(index).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = ch.size();
+        if (size < segmentSize) {
+            ByteBuffer zeros = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            for (long pos = size; pos < segmentSize; ) {
+                zeros.clear();
+                zeros.limit((int) Math.min(BUFFER_SIZE, segmentSize - pos));
+                pos += ch.write(zeros, pos);
+            }
+            ch.force(true);
+        }
+        channel = ch;
+        channelIndex = index;
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            channelIndex = -1;
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(control.getPath() + String.format(".%08d", index));
+    }
+
+    /**
+     * @return the indexes of the existing segment files, in ascending order
+     */
+    private List<Long> segmentIndexes() {
+        File dir = control.getAbsoluteFile().getParentFile();
+        String prefix = control.getName() + ".";
+        List<Long> indexes = new ArrayList<>();
+        String[] names = dir == null ? null : dir.list();
+        if (names == null) {
+            return indexes;
+        }
+        for (String name : names) {
+            String suffix = name.startsWith(prefix) ? name.substring(prefix.length()) : "";
+            if (suffix.length() == 8 && suffix.chars().allMatch(Character::isDigit)) {
+                indexes.add(Long.parseLong(suffix));
+            }
+        }
+        Collections.sort(indexes);
+        return indexes;
+    }
+
+    /**
+     * Sequential reader over the log. Use {@link #readRecordType} at the
+     * start of every record; it skips the padding at the end of segments.
+     */
+    class LogInput extends DataInputStream {
+        private final SegmentStream stream;
+
+        private LogInput(SegmentStream stream) {
+            super(stream);
+            this.stream = stream;
+        }
+
+        /**
+         * @return the LSN of the next byte to be read
+         */
+        long position() {
+            return stream.position();
+        }
+
+        /**
+         * Move to the given LSN.
+         */
+        void seek(long lsn) {
+            stream.seek(lsn);
+        }
+
+        /**
+         * Read the type of the next record, skipping to the next segment if
+         * the rest of the current one is padding.
+         *
+         * @throws EOFException at the end of the log
+         */
+        int readRecordType() throws IOException {
+            for (;;) {
+                long pos = position();
+                if (segmentSize - offsetInSegment(pos) < MIN_RECORD_SIZE) {
+                    seek((pos / segmentSize + 1) * segmentSize);
+                    continue;
+                }
+                int type = readInt();
+                if (type != 0) {
+                    return type;
+                }
+                seek((pos / segmentSize + 1) * segmentSize);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    /** Reads the LSNs [position, limit) from the segment files */
+    private class SegmentStream extends InputStream {
+        private final long limit;
+        private final ByteBuffer buf = ByteBuffer.allocate(8192);
+        /** LSN of the byte after the last one in buf */
+        private long bufEnd;
+        private FileChannel ch;
+        private long chIndex = -1;
+
+        SegmentStream(long position, long limit) {
+            this.limit = limit;
+            seek(position);
+        }
+
+        long position() {
+            return bufEnd - buf.remaining();
+        }
+
+        void seek(long lsn) {
+            buf.clear().flip();
+            bufEnd = lsn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buf.hasRemaining() && !fill()) {
+                return -1;
+            }
+            return buf.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining() && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        /** Read the next bytes of the current segment into buf */
+        private boolean fill() throws IOException {
+            long pos = bufEnd;
+            if (pos >= limit) {
+                return false;
+            }
+            long index = pos / segmentSize;
+            if (ch == null || chIndex != index) {
+                close();
+                File f = segmentFile(index);
+                if (!f.exists()) {
+                    return false;
+                }
+                ch = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                chIndex = index;
+            }
+            long segmentEnd = (index + 1) * segmentSize;
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), Math.min(limit, segmentEnd) - pos));
+            int n = ch.read(buf, offsetInSegment(pos));
+            buf.flip();
+            if (n <= 0) {
+                return false;
+            }
+            bufEnd = pos + n;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (ch != null) {
+                ch.close();
+                ch = null;
+                chIndex = -1;
+            }
+        }
+    }
+}
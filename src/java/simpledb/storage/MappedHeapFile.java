@@ -0,0 +1,124 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MappedHeapFile is a read-only HeapFile whose pages are served straight out
+ * of memory-mapped regions of the underlying file. It is meant for tables
+ * that are written once, e.g. by {@link HeapFileEncoder#convert}, and are
+ * only scanned afterwards.
+ * <p>
+ * readPage does not copy the page into a fresh array; the HeapPage decodes
+ * its tuples directly from a slice of the mapping, so the page bytes live in
+ * the OS page cache rather than on the Java heap. The file is mapped lazily
+ * in segments of at most {@link #SEGMENT_SIZE} bytes, since a single mapping
+ * is limited to 2GB.
+ * <p>
+ * Tuples cannot be inserted into or deleted from a MappedHeapFile, and its
+ * pages are never written back.
+ *
+ * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+ */
+public class MappedHeapFile extends HeapFile {
+
+    /** Upper bound on the number of bytes covered by one mapping. */
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    private final int pageSize;
+    private final int pagesPerSegment;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /**
+     * Constructs a read-only, memory-mapped heap file backed by the
+     * specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     */
+    public MappedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.pageSize = BufferPool.getPageSize();
+        this.pagesPerSegment = SEGMENT_SIZE / pageSize;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid instanceof OverflowPageId) {
+            return super.readPage(pid);
+        }
+        int pgNo = pid.getPageNumber();
+        if (pgNo < 0 || pgNo >= numPages()) {
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in " + getFile());
+        }
+        try {
+            ByteBuffer segment = segment(pgNo / pagesPerSegment).duplicate();
+            int offset = (pgNo % pagesPerSegment) * pageSize;
+            segment.position(offset);
+            segment.limit(offset + pageSize);
+            return new HeapPage((HeapPageId) pid, segment.slice());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the mapping of the specified segment, mapping it (or mapping it
+     * again, if the file has grown past the end of the old mapping) if needed.
+     */
+    private MappedByteBuffer segment(int segNo) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        long segStart = (long) segNo * pagesPerSegment * pageSize;
+        long segLen = Math.min((long) pagesPerSegment * pageSize, (long) numPages() * pageSize - segStart);
+        if (segNo < segs.length && segs[segNo] != null && segs[segNo].capacity() >= segLen) {
+            return segs[segNo];
+        }
+        synchronized (this) {
+            segs = segments;
+            if (segNo >= segs.length) {
+                MappedByteBuffer[] grown = new MappedByteBuffer[segNo + 1];
+                System.arraycopy(segs, 0, grown, 0, segs.length);
+                segs = grown;
+            }
+            if (segs[segNo] == null || segs[segNo].capacity() < segLen) {
+                segs[segNo] = getChannel().map(segStart, segLen);
+            }
+            segments = segs;
+            return segs[segNo];
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        throw new IOException("MappedHeapFile " + getFile() + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        throw new DbException("MappedHeapFile " + getFile() + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        throw new DbException("MappedHeapFile " + getFile() + " is read-only");
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        synchronized (this) {
+            // mappings are released once they become unreachable
+            segments = new MappedByteBuffer[0];
+        }
+        super.close();
+    }
+}
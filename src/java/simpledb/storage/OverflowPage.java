@@ -0,0 +1,102 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.nio.ByteBuffer;
+
+/**
+ * OverflowPage holds part of a value of a {@link simpledb.common.Type#TEXT_TYPE}
+ * column that is stored out of line. The page starts with the number of the
+ * next overflow page of the value (-1 on its last page) and the number of
+ * bytes of the value on this page, followed by those bytes.
+ * <p>
+ * The pages of a value are written once, by the transaction that inserts a
+ * tuple holding it, and never change afterwards: updating the column stores
+ * the new value in new pages. Until that transaction commits they only exist
+ * in the buffer pool, and the only pointer to them is in a tuple it holds an
+ * exclusive lock on; if it aborts they are dropped and their numbers reused.
+ * They are therefore read without page locks, under the protection of the
+ * lock on the tuple that points to them.
+ *
+ * @see TextField
+ * @see HeapFile
+ */
+public class OverflowPage implements Page {
+
+    /** The bytes before the part of the value on each page */
+    static final int HEADER_SIZE = 8;
+
+    private final OverflowPageId pid;
+    private final byte[] data;
+    private volatile TransactionId dirtier;
+    private byte[] oldData;
+
+    /**
+     * Create an OverflowPage from the bytes of the page read from disk.
+     */
+    public OverflowPage(OverflowPageId id, byte[] data) {
+        this.pid = id;
+        this.data = data;
+        this.oldData = data.clone();
+    }
+
+    /**
+     * Create an OverflowPage holding length bytes of value from offset.
+     *
+     * @param next the number of the next overflow page of the value, or -1
+     */
+    OverflowPage(OverflowPageId id, int next, byte[] value, int offset, int length) {
+        this(id, new byte[BufferPool.getPageSize()]);
+        ByteBuffer.wrap(data).putInt(next).putInt(length).put(value, offset, length);
+    }
+
+    /**
+     * @return the number of bytes of a value each page holds
+     */
+    static int capacity() {
+        return BufferPool.getPageSize() - HEADER_SIZE;
+    }
+
+    public OverflowPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of the next overflow page of the value, or -1 if
+     *   this is its last page
+     */
+    public int getNext() {
+        return ByteBuffer.wrap(data).getInt(0);
+    }
+
+    /**
+     * Copy the part of the value on this page into dst.
+     *
+     * @return the number of bytes copied
+     */
+    int read(byte[] dst, int pos) {
+        int length = Math.min(ByteBuffer.wrap(data).getInt(4), dst.length - pos);
+        System.arraycopy(data, HEADER_SIZE, dst, pos, length);
+        return length;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    public synchronized OverflowPage getBeforeImage() {
+        return new OverflowPage(pid, oldData.clone());
+    }
+
+    public synchronized void setBeforeImage() {
+        oldData = data.clone();
+    }
+}
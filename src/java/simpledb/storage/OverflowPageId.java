@@ -0,0 +1,58 @@
+package simpledb.storage;
+
+/**
+ * Unique identifier for OverflowPage objects. Overflow pages are numbered
+ * separately from the HeapPages of the same table, so an OverflowPageId is
+ * never equal to a HeapPageId.
+ */
+public class OverflowPageId implements PageId {
+
+    private final int tableId;
+
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific overflow page
+     * of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The number of the overflow page in that table.
+     */
+    public OverflowPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the number of the overflow page in the table getTableId()
+     *   associated with this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return ~(31 * pgNo + tableId);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof OverflowPageId)) {
+            return false;
+        }
+        OverflowPageId other = (OverflowPageId) o;
+        return pgNo == other.pgNo && tableId == other.tableId;
+    }
+
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+
+    public String toString() {
+        return "OverflowPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,208 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * PageChannel is a long-lived, positional view of the file backing a DbFile.
+ * <p>
+ * Page reads and writes go through {@link FileChannel#read(ByteBuffer, long)}
+ * and {@link FileChannel#write(ByteBuffer, long)}, which never move a shared
+ * file pointer, so each page access is a single pread/pwrite and many threads
+ * may issue I/O against the same file concurrently.
+ * <p>
+ * The underlying channel is opened lazily on first use and stays open until
+ * {@link #close()} is called, which the {@link simpledb.common.Catalog} does
+ * when the owning table is replaced or the catalog is cleared. A closed
+ * PageChannel transparently reopens itself on the next access.
+ *
+ * @Threadsafe
+ */
+public class PageChannel {
+
+    private final File file;
+
+    private volatile FileChannel channel;
+
+    /**
+     * Creates a PageChannel for the specified file. The file is not opened
+     * until the first read or write.
+     *
+     * @param f the file this channel reads and writes
+     */
+    public PageChannel(File f) {
+        this.file = f;
+    }
+
+    /**
+     * @return the file this channel reads and writes
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads bytes from the file starting at the given position until dst is
+     * full or the end of the file is reached.
+     *
+     * @param dst the buffer to fill
+     * @param position the file offset of the first byte to read
+     * @return the number of bytes read, or -1 if position is at or past the
+     *   end of the file
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        int start = dst.position();
+        try {
+            return readFully(channel(), dst, position);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            // closed underneath us by the catalog; reopen and retry once
+            dst.position(start);
+            return readFully(channel(), dst, position);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of src to the file starting at the given
+     * position, extending the file if necessary.
+     *
+     * @param src the bytes to write
+     * @param position the file offset of the first byte to write
+     */
+    public void write(ByteBuffer src, long position) throws IOException {
+        int start = src.position();
+        try {
+            writeFully(channel(), src, position);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            src.position(start);
+            writeFully(channel(), src, position);
+        }
+    }
+
+    /**
+     * Appends all remaining bytes of src to the end of the file.
+     *
+     * @param src the bytes to append
+     * @return the file offset at which the bytes were written
+     */
+    public synchronized long append(ByteBuffer src) throws IOException {
+        long position = size();
+        write(src, position);
+        return position;
+    }
+
+    /**
+     * @return the current size of the file in bytes
+     */
+    public long size() throws IOException {
+        try {
+            return channel().size();
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            return channel().size();
+        }
+    }
+
+    /**
+     * Cuts the file down to the given size, if it is longer.
+     *
+     * @param size the new size of the file in bytes
+     */
+    public void truncate(long size) throws IOException {
+        try {
+            channel().truncate(size);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            channel().truncate(size);
+        }
+    }
+
+    /**
+     * @return the size of the file in bytes, without opening it, or 0 if the
+     *   file does not exist
+     */
+    public long length() {
+        return file.length();
+    }
+
+    /**
+     * Maps a region of the file into memory, read-only. The mapping stays
+     * valid after this channel is closed.
+     *
+     * @param position the file offset at which the mapped region starts
+     * @param size the size of the mapped region in bytes
+     * @return the mapped region
+     */
+    public MappedByteBuffer map(long position, long size) throws IOException {
+        try {
+            return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+        } catch (ClosedByInterruptException e) {
+            throw e;
+        } catch (ClosedChannelException e) {
+            return channel().map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+
+    /**
+     * Forces any updates to this file to be written to the storage device.
+     */
+    public void force() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            fc.force(false);
+    }
+
+    /**
+     * Closes the underlying channel, if it is open. Subsequent reads and
+     * writes reopen it.
+     */
+    public synchronized void close() throws IOException {
+        FileChannel fc = channel;
+        channel = null;
+        if (fc != null)
+            fc.close();
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel fc = channel;
+        if (fc != null && fc.isOpen())
+            return fc;
+        synchronized (this) {
+            fc = channel;
+            if (fc == null || !fc.isOpen()) {
+                fc = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                channel = fc;
+            }
+            return fc;
+        }
+    }
+
+    private static int readFully(FileChannel fc, ByteBuffer dst, long position) throws IOException {
+        int total = 0;
+        while (dst.hasRemaining()) {
+            int n = fc.read(dst, position + total);
+            if (n < 0)
+                return total == 0 ? -1 : total;
+            total += n;
+        }
+        return total;
+    }
+
+    private static void writeFully(FileChannel fc, ByteBuffer src, long position) throws IOException {
+        long offset = position;
+        while (src.hasRemaining())
+            offset += fc.write(src, offset);
+    }
+}
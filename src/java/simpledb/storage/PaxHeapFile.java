@@ -0,0 +1,29 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * PaxHeapFile is a HeapFile whose pages are {@link PaxHeapPage}s, which
+ * store their tuples column by column. It suits wide tables whose queries
+ * only use a few of the columns.
+ *
+ * @see HeapFileEncoder#convertPax
+ */
+public class PaxHeapFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     */
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+}
@@ -0,0 +1,82 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxHeapPage is a HeapPage that stores its tuples column by column, in the
+ * PAX (Partition Attributes Across) layout. The page has the same header
+ * and the same number of slots as a HeapPage of the table, but the header is
+ * followed by one minipage per column instead of one tuple per slot: the
+ * minipage of column j holds field j of slot 0, slot 1, ... back to back.
+ * <p>
+ * Scans that only use a few columns of a wide table then only touch the
+ * bytes of those columns, which sit next to each other, and since the
+ * tuples of a HeapPage only decode the fields asked for, the other columns
+ * are never decoded. An all-zero page is an empty page, so
+ * {@link HeapPage#createEmptyPageData()} works for PAX pages too.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk, in
+     * the format described above. As for
+     * {@link HeapPage#HeapPage(HeapPageId, byte[])}, the array must not be
+     * modified afterwards.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, ByteBuffer.wrap(data), true);
+    }
+
+    /**
+     * Create a PaxHeapPage that decodes its contents directly from the
+     * specified buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data, true);
+    }
+
+    @Override
+    public HeapPage getBeforeImage() {
+        try {
+            return new PaxHeapPage(getId(), getBeforeImageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Rearrange the bytes of a HeapPage into a PaxHeapPage holding the same
+     * tuples in the same slots.
+     *
+     * @param rowPage the bytes of the HeapPage
+     * @param fieldLens the length of each field of the tuples
+     * @return the bytes of the PaxHeapPage
+     */
+    static byte[] fromRows(byte[] rowPage, int[] fieldLens) {
+        int tupleSize = 0;
+        for (int len : fieldLens) {
+            tupleSize += len;
+        }
+        int numSlots = (rowPage.length * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+
+        byte[] page = new byte[rowPage.length];
+        System.arraycopy(rowPage, 0, page, 0, headerSize);
+        int rowOffset = 0;
+        int column = headerSize;
+        for (int len : fieldLens) {
+            for (int i = 0; i < numSlots; i++) {
+                System.arraycopy(rowPage, headerSize + i * tupleSize + rowOffset, page, column + i * len, len);
+            }
+            rowOffset += len;
+            column += len * numSlots;
+        }
+        return page;
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RecordLog tracks the uncommitted record-level changes of every running
+ * transaction while the BufferPool is in record locking mode.
+ * <p>
+ * In that mode several transactions may change the same page, so the page
+ * itself cannot be discarded on abort or written out wholesale on commit.
+ * Instead inserts go to the page right away and are undone by slot on
+ * abort, while deletes are only recorded and applied to the page when the
+ * deleting transaction commits; other transactions keep seeing the deleted
+ * tuple (and block on its record lock) until then. A page therefore always
+ * holds the committed records plus the uncommitted inserts listed here,
+ * which is what lets the BufferPool build the committed image of a page
+ * that other transactions are still changing.
+ * <p>
+ * Changes to a page are recorded while holding the page's monitor.
+ *
+ * @Threadsafe
+ */
+class RecordLog {
+
+    /** The changes of one transaction */
+    static class Changes {
+        final List<Tuple> inserted = new ArrayList<>();
+        final List<Tuple> deleted = new ArrayList<>();
+
+        synchronized Set<PageId> pages() {
+            Set<PageId> pages = new LinkedHashSet<>();
+            for (Tuple t : inserted) {
+                pages.add(t.getRecordId().getPageId());
+            }
+            for (Tuple t : deleted) {
+                pages.add(t.getRecordId().getPageId());
+            }
+            return pages;
+        }
+
+        synchronized List<Tuple> inserted() {
+            return new ArrayList<>(inserted);
+        }
+
+        synchronized List<Tuple> inserted(PageId pid) {
+            return onPage(inserted, pid);
+        }
+
+        synchronized List<Tuple> deleted(PageId pid) {
+            return onPage(deleted, pid);
+        }
+
+        private static List<Tuple> onPage(List<Tuple> tuples, PageId pid) {
+            List<Tuple> result = new ArrayList<>();
+            for (Tuple t : tuples) {
+                if (t.getRecordId().getPageId().equals(pid)) {
+                    result.add(t);
+                }
+            }
+            return result;
+        }
+    }
+
+    private final Map<TransactionId, Changes> changes = new ConcurrentHashMap<>();
+
+    private Changes changes(TransactionId tid) {
+        return changes.computeIfAbsent(tid, k -> new Changes());
+    }
+
+    /** Record that tid inserted t, which already carries its record id */
+    void inserted(TransactionId tid, Tuple t) {
+        Changes c = changes(tid);
+        synchronized (c) {
+            c.inserted.add(t);
+        }
+    }
+
+    /** Record that tid deleted t; the page is changed when tid commits */
+    void deleted(TransactionId tid, Tuple t) {
+        Changes c = changes(tid);
+        synchronized (c) {
+            c.deleted.add(t);
+        }
+    }
+
+    /**
+     * @return true if tid has deleted the record but not committed yet
+     */
+    boolean isDeletedBy(TransactionId tid, RecordId rid) {
+        Changes c = changes.get(tid);
+        if (c == null) {
+            return false;
+        }
+        synchronized (c) {
+            for (Tuple t : c.deleted) {
+                if (t.getRecordId().equals(rid)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the changes of the transaction, or null if it changed nothing
+     */
+    Changes get(TransactionId tid) {
+        return changes.get(tid);
+    }
+
+    /**
+     * Forget the changes of a completing transaction.
+     *
+     * @return the changes, or null if tid changed nothing
+     */
+    Changes remove(TransactionId tid) {
+        return changes.remove(tid);
+    }
+
+    /**
+     * @return the tuples inserted on the page by running transactions
+     */
+    List<Tuple> uncommittedInserts(PageId pid) {
+        List<Tuple> result = new ArrayList<>();
+        for (Changes c : changes.values()) {
+            result.addAll(c.inserted(pid));
+        }
+        return result;
+    }
+
+    /**
+     * @return the records of the page holding uncommitted inserts, mapped to
+     *   the transactions that inserted them
+     */
+    Map<RecordId, TransactionId> uncommittedInsertsByRecord(PageId pid) {
+        Map<RecordId, TransactionId> result = new HashMap<>();
+        for (Map.Entry<TransactionId, Changes> e : changes.entrySet()) {
+            for (Tuple t : e.getValue().inserted(pid)) {
+                result.put(t.getRecordId(), e.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return some running transaction with uncommitted changes on the page,
+     *   or null if there is none
+     */
+    TransactionId modifierOf(PageId pid) {
+        for (Map.Entry<TransactionId, Changes> e : changes.entrySet()) {
+            Changes c = e.getValue();
+            synchronized (c) {
+                if (!Changes.onPage(c.inserted, pid).isEmpty() || !Changes.onPage(c.deleted, pid).isEmpty()) {
+                    return e.getKey();
+                }
+            }
+        }
+        return null;
+    }
+}
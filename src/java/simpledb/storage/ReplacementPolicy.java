@@ -0,0 +1,72 @@
+package simpledb.storage;
+
+import java.util.function.IntPredicate;
+
+/**
+ * A ReplacementPolicy decides which frame of the {@link BufferPool} gives up
+ * its page when a new page has to be brought in and no frame is free.
+ * <p>
+ * Frames are identified by their index in the buffer pool's frame table,
+ * 0 to {@link #getCapacity()} - 1. The buffer pool reports every page it
+ * places into, finds in, or drops from a frame, and asks the policy for a
+ * victim when it needs room. Policies also count buffer pool hits and
+ * misses, so different policies can be compared on the same workload.
+ * <p>
+ * Implementations must be thread-safe.
+ *
+ * @see BufferPool#BufferPool(ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * @return the number of frames managed by this policy
+     */
+    int getCapacity();
+
+    /**
+     * A page that was not resident has been placed into a frame (a miss).
+     *
+     * @param frame the frame now holding the page
+     * @param pid the id of the page
+     */
+    void pageAdded(int frame, PageId pid);
+
+    /**
+     * A resident page was requested again (a hit).
+     *
+     * @param frame the frame holding the page
+     * @param pid the id of the page
+     */
+    void pageAccessed(int frame, PageId pid);
+
+    /**
+     * A page was dropped from its frame by the buffer pool (e.g. discarded),
+     * rather than evicted through {@link #evict}.
+     *
+     * @param frame the frame that held the page
+     * @param pid the id of the page
+     */
+    void pageRemoved(int frame, PageId pid);
+
+    /**
+     * Choose a frame to evict. Candidates are offered, in the policy's order
+     * of preference, to claim, which returns true if it took the frame for
+     * eviction and false if the frame cannot be evicted right now (because
+     * it is pinned or dirty). The claimed frame no longer holds a page as far
+     * as the policy is concerned.
+     *
+     * @param claim attempts to take a frame for eviction
+     * @return the claimed frame, or -1 if no frame could be claimed
+     */
+    int evict(IntPredicate claim);
+
+    /**
+     * @return the number of requests for pages that were resident
+     */
+    long getHitCount();
+
+    /**
+     * @return the number of requests for pages that had to be brought in
+     */
+    long getMissCount();
+}
@@ -0,0 +1,135 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * SidecarFile stores metadata about the pages of a table file next to it,
+ * such as its {@link FreeSpaceMap} and {@link ZoneMap}.
+ * <p>
+ * The metadata only describes the table file it was written for. A header
+ * records the generation of the table file (see {@link TableGeneration})
+ * when the metadata was last known to describe it; {@link #stamp} updates it
+ * after pages of the table file were written. When the table file is opened
+ * with another generation, because it was replaced, regenerated or written
+ * after the last stamp, the metadata is dropped and rebuilt from scratch
+ * instead of describing pages that are no longer there. Checking the header
+ * reads the trailer of the table file, not its pages.
+ *
+ * @Threadsafe
+ */
+class SidecarFile {
+
+    /** Marks a file in this format; files written before it are dropped */
+    private static final int MAGIC = 0x53494344;
+
+    private static final int HEADER_SIZE = 4 + 8;
+
+    private final TableGeneration table;
+    private final PageChannel channel;
+
+    /** True once the file was checked against the table file; guarded by this */
+    private boolean checked;
+
+    /** True once metadata was written since the file was opened; guarded by this */
+    private boolean written;
+
+    /**
+     * @param tableFile the table file the metadata describes
+     * @param table the generation of the table file
+     * @param suffix appended to the name of the table file to name this file
+     */
+    SidecarFile(File tableFile, TableGeneration table, String suffix) {
+        this.table = table;
+        this.channel = new PageChannel(new File(tableFile.getPath() + suffix));
+    }
+
+    /**
+     * Drop the metadata if it was written for another table file, before
+     * it is first read, written or stamped.
+     */
+    private void check() throws IOException {
+        if (checked) {
+            return;
+        }
+        checked = true;
+        long length = channel.length();
+        if (length == 0) {
+            return;
+        }
+        if (length >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            long generation = header.getLong(4);
+            if (header.getInt(0) == MAGIC && generation != TableGeneration.NONE
+                    && generation == table.initial()) {
+                return;
+            }
+        }
+        channel.truncate(0);
+    }
+
+    /**
+     * @return the metadata, or no bytes if there is none for the table file
+     */
+    synchronized byte[] read() throws IOException {
+        check();
+        long length = channel.length();
+        if (length <= HEADER_SIZE) {
+            return new byte[0];
+        }
+        byte[] bytes = new byte[(int) (length - HEADER_SIZE)];
+        channel.read(ByteBuffer.wrap(bytes), HEADER_SIZE);
+        return bytes;
+    }
+
+    /**
+     * Write metadata at the given offset from the start of the metadata.
+     */
+    synchronized void write(ByteBuffer src, long position) throws IOException {
+        check();
+        channel.write(src, HEADER_SIZE + position);
+        written = true;
+    }
+
+    /**
+     * Record that the metadata describes the table file as it is now. Call
+     * after writing pages of the table file, once the metadata they need is
+     * written. A table without metadata gets no file, and the metadata of a
+     * table file without a generation is left unstamped.
+     */
+    synchronized void stamp() throws IOException {
+        check();
+        long generation = table.current();
+        if (channel.length() == 0 || generation == TableGeneration.NONE) {
+            return;
+        }
+        channel.write(header(generation), 0);
+    }
+
+    /**
+     * @return the header of a file describing the table file with the given
+     *   generation, for writers that write the file themselves
+     */
+    static ByteBuffer header(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putLong(generation);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Close the file. If metadata was written, or pages of the table file
+     * were, since the file was opened, the metadata (written back by the
+     * caller first) describes the table file as it is now and is stamped,
+     * so what was learned from reading the table is kept. A file that was
+     * only read is left as it is.
+     */
+    synchronized void close() throws IOException {
+        if (written || table.changed()) {
+            stamp();
+        }
+        channel.close();
+    }
+}
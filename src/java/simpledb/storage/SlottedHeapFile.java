@@ -0,0 +1,30 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedHeapFile is a HeapFile whose pages are {@link SlottedHeapPage}s,
+ * which store tuples at their actual size instead of in fixed-size slots.
+ * Tables with {@link simpledb.common.Type#VARCHAR_TYPE} columns holding
+ * short values need far fewer pages in this format.
+ *
+ * @see HeapFileEncoder#convertSlotted
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param td the schema of the tuples in the file
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+}
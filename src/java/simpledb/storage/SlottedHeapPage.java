@@ -0,0 +1,317 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SlottedHeapPage is a HeapPage that stores every tuple at its actual size,
+ * so that {@link Type#VARCHAR_TYPE} fields only take the bytes in use.
+ * <p>
+ * The page starts with the number of entries in the slot directory (an
+ * int), followed by the directory itself: for each slot, the offset and the
+ * length of its tuple as unsigned shorts, or two zeros if the slot is empty.
+ * The tuples are stored at the end of the page, growing towards the
+ * directory; each is the compact form of its fields (see
+ * {@link Type#writeCompact}). An all-zero page is an empty page, so
+ * {@link HeapPage#createEmptyPageData()} works for slotted pages too.
+ * <p>
+ * Deleting a tuple leaves a hole in the tuple area; when an insert does not
+ * fit in the space between the directory and the tuples but the page has
+ * enough free bytes in total, the page is compacted first. Slot numbers
+ * never change, so record ids stay valid across compactions.
+ * <p>
+ * Pages are limited to 64KB, since offsets are stored as unsigned shorts.
+ *
+ * @see SlottedHeapFile
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** Bytes before the slot directory: the number of directory entries */
+    static final int HEADER_SIZE = 4;
+    /** Bytes per directory entry: the offset and length of a tuple */
+    static final int SLOT_SIZE = 4;
+
+    private final int pageSize;
+    /** The page image, kept up to date as tuples are inserted and deleted */
+    private final byte[] data;
+    private final int[] offsets;
+    private final int[] lengths;
+    /** Number of entries in the slot directory */
+    private int slotCount;
+    /** Offset of the lowest tuple byte, or pageSize if the page is empty */
+    private int dataStart;
+    /** Total length of the stored tuples */
+    private int usedBytes;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, maxSlots(Database.getCatalog().getTupleDesc(id.getTableId())));
+        this.pageSize = BufferPool.getPageSize();
+        if (data.length != pageSize) {
+            throw new IOException("page " + id + " holds " + data.length + " bytes, not " + pageSize);
+        }
+        this.data = data.clone();
+        this.offsets = new int[getNumSlots()];
+        this.lengths = new int[getNumSlots()];
+
+        ByteBuffer buf = ByteBuffer.wrap(this.data);
+        slotCount = buf.getInt(0);
+        if (slotCount < 0 || slotCount > getNumSlots()) {
+            throw new IOException("page " + id + " has a directory of " + slotCount + " slots");
+        }
+        for (int i = 0; i < slotCount; i++) {
+            int len = buf.getShort(HEADER_SIZE + i * SLOT_SIZE + 2) & 0xffff;
+            if (len == 0) {
+                continue;
+            }
+            offsets[i] = buf.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xffff;
+            lengths[i] = len;
+            usedBytes += len;
+            markSlotUsed(i, true);
+            tuples[i] = decode(i);
+        }
+        updateDataStart();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the most tuples of the given schema a page can hold, i.e. the
+     *   number of slots of each page
+     */
+    static int maxSlots(TupleDesc td) {
+        return maxSlots(td, BufferPool.getPageSize());
+    }
+
+    static int maxSlots(TupleDesc td, int pageSize) {
+        if (pageSize > 1 << 16) {
+            throw new IllegalStateException("slotted pages hold at most 64KB, not " + pageSize);
+        }
+        return (pageSize - HEADER_SIZE) / (SLOT_SIZE + minTupleLen(td));
+    }
+
+    /**
+     * @return the length of the shortest tuple of the given schema, with all
+     *   variable-length fields empty
+     */
+    static int minTupleLen(TupleDesc td) {
+        int minLen = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            minLen += type == Type.VARCHAR_TYPE ? 4 : type.getLen();
+        }
+        return Math.max(1, minLen);
+    }
+
+    /**
+     * @return the compact form of the tuple
+     */
+    static byte[] encode(TupleDesc td, Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                td.getFieldType(j).writeCompact(t.getField(j), dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    private Tuple decode(int slotId) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data, offsets[slotId], lengths[slotId]);
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(getId(), slotId));
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parseCompact(buf));
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error in slot " + slotId + " of page " + getId(), e);
+        }
+        return t;
+    }
+
+    private int compactLen(Tuple t) {
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            len += td.getFieldType(j).getCompactLen(t.getField(j));
+        }
+        return len;
+    }
+
+    /**
+     * @return the number of free bytes, not counting holes left by deletes
+     *   as used
+     */
+    private int freeBytes(int directorySlots) {
+        return pageSize - HEADER_SIZE - SLOT_SIZE * directorySlots - usedBytes;
+    }
+
+    /**
+     * @return the first empty slot, or getNumSlots() if there is none
+     */
+    private int firstEmptySlot() {
+        int i = 0;
+        while (i < slotCount && isSlotUsed(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private boolean fits(int len, int slotId) {
+        return slotId < getNumSlots() && len <= freeBytes(Math.max(slotCount, slotId + 1));
+    }
+
+    @Override
+    public HeapPage getBeforeImage() {
+        try {
+            return new SlottedHeapPage(getId(), getBeforeImageData());
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        insertTuple(t, firstEmptySlot());
+    }
+
+    @Override
+    public void insertTuple(Tuple t, int slotId) throws DbException {
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tuple desc does not match table " + getId().getTableId());
+        }
+        if (slotId < getNumSlots() && isSlotUsed(slotId)) {
+            throw new DbException(String.format("slot %d of page %s is in use", slotId, getId()));
+        }
+        byte[] bytes = encode(td, t);
+        if (!fits(bytes.length, slotId)) {
+            throw new DbException(String.format("table %d page %d is full", getId().getTableId(),
+                    getId().getPageNumber()));
+        }
+        int directorySlots = Math.max(slotCount, slotId + 1);
+        if (dataStart - (HEADER_SIZE + SLOT_SIZE * directorySlots) < bytes.length) {
+            compact(directorySlots);
+        }
+        dataStart -= bytes.length;
+        System.arraycopy(bytes, 0, data, dataStart, bytes.length);
+        offsets[slotId] = dataStart;
+        lengths[slotId] = bytes.length;
+        usedBytes += bytes.length;
+        slotCount = directorySlots;
+        writeDirectory(slotCount);
+        super.insertTuple(t, slotId);
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        super.deleteTuple(t);
+        int slotId = t.getRecordId().getTupleNumber();
+        usedBytes -= lengths[slotId];
+        Arrays.fill(data, offsets[slotId], offsets[slotId] + lengths[slotId], (byte) 0);
+        offsets[slotId] = 0;
+        lengths[slotId] = 0;
+        int oldCount = slotCount;
+        while (slotCount > 0 && lengths[slotCount - 1] == 0) {
+            slotCount--;
+        }
+        writeDirectory(oldCount);
+        updateDataStart();
+    }
+
+    /**
+     * Returns the number of empty slots on this page, i.e. the number of
+     * tuples of the average size of those on the page that still fit.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int live = 0;
+        for (int i = 0; i < slotCount; i++) {
+            if (lengths[i] > 0) {
+                live++;
+            }
+        }
+        int avgLen = live == 0 ? minTupleLen(td) : (usedBytes + live - 1) / live;
+        int fit = Math.max(0, freeBytes(slotCount)) / (avgLen + SLOT_SIZE);
+        return Math.min(fit, getNumSlots() - live);
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        return fits(compactLen(t), firstEmptySlot());
+    }
+
+    /**
+     * Move all tuples to the end of the page, so that the free space is one
+     * contiguous range between the directory and the tuples.
+     */
+    public void compact() {
+        compact(slotCount);
+    }
+
+    private void compact(int directorySlots) {
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < slotCount; i++) {
+            if (lengths[i] > 0) {
+                slots.add(i);
+            }
+        }
+        // the tuple with the highest offset moves first, so none is
+        // overwritten before it is moved
+        slots.sort((a, b) -> Integer.compare(offsets[b], offsets[a]));
+        int pos = pageSize;
+        for (int slot : slots) {
+            pos -= lengths[slot];
+            System.arraycopy(data, offsets[slot], data, pos, lengths[slot]);
+            offsets[slot] = pos;
+        }
+        Arrays.fill(data, HEADER_SIZE + SLOT_SIZE * directorySlots, pos, (byte) 0);
+        dataStart = pos;
+        writeDirectory(slotCount);
+    }
+
+    private void updateDataStart() {
+        dataStart = pageSize;
+        for (int i = 0; i < slotCount; i++) {
+            if (lengths[i] > 0) {
+                dataStart = Math.min(dataStart, offsets[i]);
+            }
+        }
+    }
+
+    /**
+     * Write the directory into the page image, clearing the entries up to
+     * oldCount that are no longer part of it.
+     */
+    private void writeDirectory(int oldCount) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(0, slotCount);
+        for (int i = 0; i < Math.max(slotCount, oldCount); i++) {
+            int pos = HEADER_SIZE + i * SLOT_SIZE;
+            buf.putShort(pos, (short) (i < slotCount ? offsets[i] : 0));
+            buf.putShort(pos + 2, (short) (i < slotCount ? lengths[i] : 0));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * StringDictionary gives each distinct value of the
+ * {@link Type#STRING_TYPE} columns of a {@link DictionaryHeapFile} a small
+ * integer code, and is the codec that stores those columns on its pages as
+ * the 4-byte code instead of as the {@link Type#STRING_LEN} + 4 bytes of the
+ * value. Columns with few distinct values then take a fraction of the
+ * space, and reading them creates no Strings: every field decoded from the
+ * same code is the same {@link DictionaryField}, and fields of the same
+ * dictionary compare for equality by their codes.
+ * <p>
+ * Codes are handed out in order from 0 and never change or go away, even
+ * when no tuple holds the value any more. The dictionary is stored in a
+ * sidecar file next to the table file (the table file name with ".dict"
+ * appended) as the length and the bytes of each value in code order. A new
+ * value is appended to the file as soon as it is given a code, and forced
+ * to disk before any page holding the code is written (see {@link #force}).
+ *
+ * @Threadsafe
+ */
+public class StringDictionary extends FieldCodec {
+
+    private final PageChannel channel;
+
+    /**
+     * The field of each code, followed by unused entries. Entries are set
+     * before the array is republished, so readers only lock on a miss.
+     */
+    private volatile DictionaryField[] fields = new DictionaryField[0];
+
+    /** The code of each value, or null until the file is read; guarded by this */
+    private Map<String, Integer> codes;
+
+    /** The number of values; guarded by this for writes */
+    private volatile int size;
+
+    /** Set once the values stored in the file have been read */
+    private volatile boolean loaded;
+
+    /** The length of the part of the file holding the values; guarded by this */
+    private long end;
+
+    /** The length of the part of the file forced to disk; guarded by this */
+    private long forced;
+
+    /**
+     * @param f the file storing the dictionary
+     */
+    StringDictionary(File f) {
+        this.channel = new PageChannel(f);
+    }
+
+    private Map<String, Integer> codes() throws IOException {
+        if (codes == null) {
+            File f = channel.getFile();
+            ByteBuffer buf = ByteBuffer.allocate((int) f.length());
+            if (buf.capacity() > 0) {
+                channel.read(buf, 0);
+                buf.flip();
+            }
+            codes = new HashMap<>();
+            // a value cut short by a crash has no code on any page, and is
+            // overwritten by the next append
+            while (buf.remaining() >= 4 && buf.getInt(buf.position()) >= 0
+                    && buf.getInt(buf.position()) <= buf.remaining() - 4) {
+                byte[] bytes = new byte[buf.getInt()];
+                buf.get(bytes);
+                add(new String(bytes, StandardCharsets.ISO_8859_1));
+            }
+            end = buf.position();
+            forced = end;
+            loaded = true;
+        }
+        return codes;
+    }
+
+    private void add(String value) {
+        int code = size;
+        DictionaryField[] fs = fields;
+        if (code == fs.length) {
+            fs = Arrays.copyOf(fs, Math.max(16, 2 * code));
+        }
+        fs[code] = new DictionaryField(this, code, value);
+        codes.put(fs[code].getValue(), code);
+        size = code + 1;
+        fields = fs;
+    }
+
+    /**
+     * @return the code of the value, giving it a new code if it has none
+     */
+    synchronized int code(String value) throws IOException {
+        if (value.length() > Type.STRING_LEN) {
+            value = value.substring(0, Type.STRING_LEN);
+        }
+        Integer code = codes().get(value);
+        if (code != null) {
+            return code;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer record = ByteBuffer.allocate(4 + bytes.length);
+        record.putInt(bytes.length).put(bytes).flip();
+        channel.write(record, end);
+        end += 4 + bytes.length;
+        add(value);
+        return size - 1;
+    }
+
+    /**
+     * @return the field holding the value with the given code
+     * @throws ParseException if no value has the code
+     */
+    DictionaryField getField(int code) throws ParseException {
+        DictionaryField[] fs = fields;
+        if (code >= 0 && code < fs.length && fs[code] != null) {
+            return fs[code];
+        }
+        synchronized (this) {
+            try {
+                codes();
+            } catch (IOException e) {
+                throw new ParseException("cannot read dictionary " + channel.getFile() + ": " + e, 0);
+            }
+            if (code < 0 || code >= size) {
+                throw new ParseException("no value has dictionary code " + code, 0);
+            }
+            return fields[code];
+        }
+    }
+
+    /**
+     * @return the field holding the given value, or null if no value equal
+     *   to it has a code
+     * @throws UncheckedIOException if the dictionary cannot be read, rather
+     *   than reporting that no value matches
+     */
+    public synchronized DictionaryField lookup(String value) {
+        try {
+            Integer code = codes().get(value);
+            return code == null ? null : fields[code];
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read dictionary " + channel.getFile(), e);
+        }
+    }
+
+    /**
+     * @return the number of values that have a code
+     */
+    public int size() {
+        if (!loaded) {
+            // make sure the values stored in the file are counted
+            lookup("");
+        }
+        return size;
+    }
+
+    @Override
+    int getLen(Type type) {
+        return type == Type.STRING_TYPE ? Type.INT_TYPE.getLen() : type.getLen();
+    }
+
+    @Override
+    Field decode(Type type, ByteBuffer data, int pos) throws ParseException {
+        return type == Type.STRING_TYPE ? getField(data.getInt(pos)) : type.parse(data, pos);
+    }
+
+    @Override
+    void encode(Field f, DataOutputStream dos) throws IOException {
+        if (f.getType() != Type.STRING_TYPE) {
+            f.serialize(dos);
+        } else if (f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == this) {
+            dos.writeInt(((DictionaryField) f).getCode());
+        } else {
+            dos.writeInt(code(((StringField) f).getValue()));
+        }
+    }
+
+    /**
+     * Force the values given a code since the last call to disk. Call before
+     * writing a page that may hold their codes.
+     */
+    synchronized void force() throws IOException {
+        if (forced < end) {
+            channel.force();
+            forced = end;
+        }
+    }
+
+    synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+}
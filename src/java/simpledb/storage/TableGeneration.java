@@ -0,0 +1,161 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * TableGeneration keeps the generation of a table file, so that the metadata
+ * stored next to it in {@link SidecarFile}s is only trusted for the pages it
+ * was written for.
+ * <p>
+ * The generation is a random number stored in a trailer after the last page
+ * of the table file: a magic number followed by the generation. The trailer
+ * is shorter than a page, so it does not change the number of pages. The
+ * first page written after the sidecar files were stamped draws a new
+ * generation, which is written before the page. Sidecar files stamped for
+ * the file as it was then no longer match it, even if a crash cuts the
+ * writes short, until {@link SidecarFile#stamp} records the new generation.
+ * A page appended to the file overwrites the trailer, which is written again
+ * after it.
+ * <p>
+ * Checking a sidecar file thus reads a few bytes of the table file, whatever
+ * its size. A table file without a trailer, e.g. one written by another
+ * program, has no generation; its sidecar files are never trusted, and are
+ * rebuilt by every process that uses them until a page of it is written.
+ *
+ * @Threadsafe
+ */
+class TableGeneration {
+
+    /** Marks the trailer of a table file */
+    private static final int MAGIC = 0x53444247;
+
+    static final int TRAILER_SIZE = 4 + 8;
+
+    /** The generation of a table file without a trailer */
+    static final long NONE = 0;
+
+    private final PageChannel channel;
+
+    /** True once the trailer was read; guarded by this */
+    private boolean read;
+
+    /** The generation of the file when it was opened and now; guarded by this */
+    private long initial;
+    private long current;
+
+    /** True if pages were written since the sidecar files were last stamped; guarded by this */
+    private boolean writing;
+
+    /**
+     * @param channel the channel over the pages of the table file
+     */
+    TableGeneration(PageChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * @return the generation of the table file when it was opened, or NONE
+     */
+    synchronized long initial() throws IOException {
+        read();
+        return initial;
+    }
+
+    /**
+     * @return the generation of the table file now, or NONE
+     */
+    synchronized long current() throws IOException {
+        read();
+        return current;
+    }
+
+    /**
+     * @return true if pages were written since the file was opened
+     */
+    synchronized boolean changed() {
+        return read && current != initial;
+    }
+
+    /**
+     * Write a page of the table file, drawing a new generation first if it
+     * is the first page written since the sidecar files were stamped.
+     */
+    void write(int pgNo, ByteBuffer page) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long pos = (long) pgNo * pageSize;
+        synchronized (this) {
+            read();
+            if (!writing) {
+                current = next(current);
+                writeTrailer();
+                writing = true;
+            }
+            if (pos + pageSize > end()) {
+                // the page overwrites the trailer, which goes after it
+                channel.write(page, pos);
+                writeTrailer();
+                return;
+            }
+        }
+        channel.write(page, pos);
+    }
+
+    /**
+     * Record that the sidecar files were stamped with the current
+     * generation; the next page written draws a new one.
+     */
+    synchronized void stamped() {
+        writing = false;
+    }
+
+    /**
+     * @return the position of the trailer, after the last whole page
+     */
+    private long end() {
+        int pageSize = BufferPool.getPageSize();
+        return channel.length() / pageSize * pageSize;
+    }
+
+    private void read() throws IOException {
+        if (read) {
+            return;
+        }
+        long end = end();
+        if (channel.length() - end >= TRAILER_SIZE) {
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+            channel.read(trailer, end);
+            if (trailer.getInt(0) == MAGIC) {
+                initial = trailer.getLong(4);
+            }
+        }
+        current = initial;
+        read = true;
+    }
+
+    private void writeTrailer() throws IOException {
+        channel.write(trailer(current), end());
+    }
+
+    /**
+     * @return the trailer of a table file of the specified generation
+     */
+    static ByteBuffer trailer(long generation) {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        trailer.putInt(MAGIC).putLong(generation);
+        trailer.flip();
+        return trailer;
+    }
+
+    /**
+     * @return a new generation, other than NONE and the specified one
+     */
+    static long next(long generation) {
+        long next;
+        do {
+            next = ThreadLocalRandom.current().nextLong();
+        } while (next == NONE || next == generation);
+        return next;
+    }
+}
@@ -0,0 +1,215 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Instance of Field that stores a String of any length, of type
+ * {@link Type#TEXT_TYPE}. A tuple only holds a pointer to the value: the
+ * number of the first of the {@link OverflowPage}s of its table holding the
+ * value as UTF-8, and its length in bytes. The pages are read through the
+ * BufferPool the first time the value is asked for, so operators that never
+ * look at the field never read them.
+ * <p>
+ * A TextField created from a String is not stored anywhere yet; inserting
+ * a tuple holding it into a {@link HeapFile} writes the value to overflow
+ * pages of the file and replaces the field with one pointing to them.
+ */
+public class TextField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The table whose overflow pages hold the value, if known */
+    private final int tableId;
+    private final boolean inTable;
+    /** The first overflow page of the value, or -1 if it is not stored */
+    private final int firstPage;
+    /** The length of the value in bytes */
+    private final int length;
+
+    private volatile String value;
+
+    /**
+     * Constructor for a value that is not stored yet.
+     *
+     * @param s the value of this field
+     */
+    public TextField(String s) {
+        this(0, false, -1, s.getBytes(StandardCharsets.UTF_8).length, s);
+    }
+
+    /**
+     * Constructor for the pointer to a stored value, as read from a tuple,
+     * before the table holding it is known.
+     *
+     * @param firstPage the first overflow page of the value
+     * @param length the length of the value in bytes
+     * @see #inTable
+     */
+    public TextField(int firstPage, int length) {
+        this(0, false, firstPage, length, null);
+    }
+
+    private TextField(int tableId, boolean inTable, int firstPage, int length, String value) {
+        this.tableId = tableId;
+        this.inTable = inTable;
+        this.firstPage = firstPage;
+        this.length = length;
+        this.value = value;
+    }
+
+    /**
+     * @return the field for this pointer into the overflow pages of the
+     *   given table
+     */
+    public TextField inTable(int tableId) {
+        return new TextField(tableId, true, firstPage, length, value);
+    }
+
+    /**
+     * @return true if the value is stored in the overflow pages of the
+     *   given table
+     */
+    boolean isStoredIn(int tableId) {
+        return inTable && this.tableId == tableId && (firstPage >= 0 || length == 0);
+    }
+
+    /**
+     * @return the field pointing to the value stored from the given page
+     *   of the given table
+     */
+    TextField storedAt(int tableId, int firstPage) {
+        return new TextField(tableId, true, firstPage, length, value);
+    }
+
+    /**
+     * @return the value as UTF-8
+     */
+    byte[] getBytes() {
+        return getValue().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the value of this field, read from its overflow pages on the
+     *   first call
+     */
+    public String getValue() {
+        String v = value;
+        if (v == null) {
+            v = read();
+            value = v;
+        }
+        return v;
+    }
+
+    private String read() {
+        if (length == 0) {
+            return "";
+        }
+        if (!inTable) {
+            throw new IllegalStateException("the table holding the value is not known");
+        }
+        byte[] bytes = new byte[length];
+        int pos = 0;
+        try {
+            for (int pgNo = firstPage; pos < length && pgNo >= 0; ) {
+                // the lock on the tuple covers its value: other transactions only
+                // reach committed pages, and those never change
+                OverflowPage page = (OverflowPage) Database.getBufferPool().getPage(null,
+                        new OverflowPageId(tableId, pgNo), Permissions.READ_ONLY);
+                pos += page.read(bytes, pos);
+                pgNo = page.getNext();
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        }
+        if (pos < length) {
+            throw new IllegalStateException("value of " + length + " bytes at overflow page " + firstPage
+                    + " is cut short after " + pos + " bytes");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write the pointer to the value.
+     *
+     * @throws IOException if the value is not stored in a table
+     */
+    public void serialize(DataOutputStream dos) throws IOException {
+        if (firstPage < 0 && length > 0) {
+            throw new IOException("TEXT value must be inserted into a table before it is written");
+        }
+        dos.writeInt(firstPage);
+        dos.writeInt(length);
+    }
+
+    /**
+     * Compare the value to the value of a TextField or a StringField, as
+     * StringField compares.
+     *
+     * @see Field#compare
+     */
+    public boolean compare(Predicate.Op op, Field val) {
+        String other = val instanceof TextField ? ((TextField) val).getValue() : ((StringField) val).getValue();
+        int cmpVal = getValue().compareTo(other);
+
+        switch (op) {
+        case EQUALS:
+            return cmpVal == 0;
+        case NOT_EQUALS:
+            return cmpVal != 0;
+        case GREATER_THAN:
+            return cmpVal > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmpVal >= 0;
+        case LESS_THAN:
+            return cmpVal < 0;
+        case LESS_THAN_OR_EQ:
+            return cmpVal <= 0;
+        case LIKE:
+            return getValue().contains(other);
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    public Type getType() {
+        return Type.TEXT_TYPE;
+    }
+
+    public int hashCode() {
+        return getValue().hashCode();
+    }
+
+    public boolean equals(Object field) {
+        if (!(field instanceof TextField)) return false;
+        TextField other = (TextField) field;
+        if (other.length != length) return false;
+        if (inTable && other.inTable && tableId == other.tableId && firstPage == other.firstPage
+                && firstPage >= 0) return true;
+        return other.getValue().equals(getValue());
+    }
+
+    public String toString() {
+        return getValue();
+    }
+
+    /**
+     * Serialize the value itself, as the overflow pages are not shipped
+     * with the field.
+     */
+    private Object writeReplace() {
+        return new TextField(getValue());
+    }
+}
@@ -10,6 +10,10 @@ import java.util.List;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Integer fields may also be set and read as ints with {@link #setInt} and
+ * {@link #getInt}, which keeps them in an int array and creates no IntField
+ * unless {@link #getField} asks for one.
  */
 public class Tuple implements Serializable {
 
@@ -36,6 +40,11 @@ public class Tuple implements Serializable {
     //iterator也需要重新实现
     private int fieldsLength;
 
+    /** The fields set by setInt, or null if there are none */
+    private int[] ints;
+    /** Whether each field is held in ints rather than in fields */
+    private boolean[] isInt;
+
     /**
      * Create a new tuple with the specified schema (type).
      *
@@ -45,10 +54,20 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         this.tupleDesc = td;
-        this.fields = new Field[DEFAULT_CAPACITY];
+        this.fields = new Field[td == null ? DEFAULT_CAPACITY : Math.max(1, td.numFields())];
         this.fieldsLength = 0;
     }
 
+    /**
+     * Create a tuple with the specified schema and number of fields, whose
+     * values a subclass supplies on demand through {@link #getField}.
+     */
+    protected Tuple(TupleDesc td, int numFields) {
+        this.tupleDesc = td;
+        this.fields = new Field[numFields];
+        this.fieldsLength = numFields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,18 +103,45 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        if (i > fields.length) {
+        ensureCapacity(i);
+        fieldsLength = Math.max(i + 1, fieldsLength);
+        fields[i] = f;
+        if (isInt != null && i < isInt.length) {
+            isInt[i] = false;
+        }
+    }
+
+    private void ensureCapacity(int i) {
+        if (i >= fields.length) {
             if (fields.length == MAX_ARRAY_SIZE) {
                 throw new OutOfMemoryError();
             }
-            int newCapacity = fields.length + fields.length >> 1;
+            int newCapacity = Math.max(i + 1, fields.length + (fields.length >> 1));
             if (newCapacity - MAX_ARRAY_SIZE > 0 || newCapacity < 0) {
                 newCapacity = MAX_ARRAY_SIZE;
             }
             fields = Arrays.copyOf(fields, newCapacity);
         }
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be of
+     * type INT_TYPE, without creating an IntField for it.
+     *
+     * @param i index of the field to change. It must be a valid index.
+     * @param value new value for the field.
+     */
+    public void setInt(int i, int value) {
+        ensureCapacity(i);
+        if (ints == null || i >= ints.length) {
+            int length = Math.max(i + 1, fields.length);
+            ints = ints == null ? new int[length] : Arrays.copyOf(ints, length);
+            isInt = isInt == null ? new boolean[length] : Arrays.copyOf(isInt, length);
+        }
         fieldsLength = Math.max(i + 1, fieldsLength);
-        fields[i] = f;
+        fields[i] = null;
+        ints[i] = value;
+        isInt[i] = true;
     }
 
     /**
@@ -104,7 +150,24 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        Field f = fields[i];
+        if (f == null && isInt != null && i < isInt.length && isInt[i]) {
+            f = new IntField(ints[i]);
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    /**
+     * @param i index of a field of type INT_TYPE. Must be a valid index.
+     * @return the value of the ith field
+     * @throws ClassCastException if the field is not an IntField
+     */
+    public int getInt(int i) {
+        if (isInt != null && i < isInt.length && isInt[i]) {
+            return ints[i];
+        }
+        return ((IntField) getField(i)).getValue();
     }
 
     /**
@@ -119,7 +182,7 @@ public class Tuple implements Serializable {
         // some code goes here
         StringBuilder stringBuilder = new StringBuilder();
         for(int i = 0; i < fieldsLength; ++i) {
-            stringBuilder.append(fields[i].toString());
+            stringBuilder.append(getField(i).toString());
             if(i < fieldsLength - 1) {
                 stringBuilder.append(whiteSpace);
             }
@@ -143,7 +206,7 @@ public class Tuple implements Serializable {
 
             @Override
             public Field next() {
-                return fields[cursor++];
+                return getField(cursor++);
             }
         };
     }
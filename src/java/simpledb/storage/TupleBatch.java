@@ -0,0 +1,293 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} tuples of one TupleDesc column
+ * by column, for operators that process many tuples per call through
+ * {@link simpledb.execution.OpIterator#nextBatch}. Integer columns are kept
+ * as int arrays, so a predicate or an aggregate over them is a loop over an
+ * array; the other columns are kept as arrays of Fields.
+ * <p>
+ * Rows are appended from 0 up to {@link #size()}. Which of them are part of
+ * the batch is given by the selection vector: the first
+ * {@link #selectedCount()} entries of {@link #selection()} are the indexes of
+ * the selected rows, in increasing order. A filter drops rows by compacting
+ * the selection vector, without moving any column values.
+ * <p>
+ * A batch may share its columns with the batch it was projected from (see
+ * {@link #project}); {@link #clear()} switches it back to the columns it
+ * allocated itself before it is refilled.
+ */
+public class TupleBatch {
+
+    /** The number of rows of a batch, unless another capacity is asked for */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    /** The values of each INT_TYPE column, or null for the other columns */
+    private final int[][] ints;
+    /** The values of each column that is not an INT_TYPE column, or null */
+    private final Field[][] fields;
+    private RecordId[] recordIds;
+    /** The columns of the batch itself, used again when it is cleared */
+    private final int[][] ownInts;
+    private final Field[][] ownFields;
+    private final RecordId[] ownRecordIds;
+    private final int[] sel;
+    private int size;
+    private int selected;
+    /** True if the columns belong to the batch they were projected from */
+    private boolean shared;
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param td the schema of the tuples of the batch
+     * @param capacity the maximum number of rows of the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        ownInts = new int[n][];
+        ownFields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                ownInts[i] = new int[capacity];
+            } else {
+                ownFields[i] = new Field[capacity];
+            }
+        }
+        ownRecordIds = new RecordId[capacity];
+        ints = ownInts.clone();
+        fields = ownFields.clone();
+        recordIds = ownRecordIds;
+        sel = new int[capacity];
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows of the batch
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows appended since the batch was last cleared,
+     *   selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int selectedCount() {
+        return selected;
+    }
+
+    /**
+     * @return the selection vector: its first {@link #selectedCount()}
+     *   entries are the indexes of the selected rows. Callers may compact
+     *   it in place, and then call {@link #setSelectedCount}.
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Keep only the first n entries of the selection vector.
+     */
+    public void setSelectedCount(int n) {
+        if (n < 0 || n > selected) {
+            throw new IllegalArgumentException("cannot select " + n + " of " + selected + " rows");
+        }
+        selected = n;
+    }
+
+    /**
+     * Remove all rows.
+     */
+    public void clear() {
+        if (shared) {
+            // the own columns were cleared when the batch was projected
+            System.arraycopy(ownInts, 0, ints, 0, ints.length);
+            System.arraycopy(ownFields, 0, fields, 0, fields.length);
+            recordIds = ownRecordIds;
+            shared = false;
+        } else {
+            // drop the references, so that the tuples can be collected
+            for (Field[] column : fields) {
+                if (column != null) {
+                    Arrays.fill(column, 0, size, null);
+                }
+            }
+            Arrays.fill(recordIds, 0, size, null);
+        }
+        size = 0;
+        selected = 0;
+    }
+
+    /**
+     * Append an empty row, and select it.
+     *
+     * @return the index of the row
+     * @throws IllegalStateException if the batch is full
+     */
+    public int addRow() {
+        if (size == capacity) {
+            throw new IllegalStateException("batch is full");
+        }
+        if (shared) {
+            throw new IllegalStateException("a projected batch must be cleared before rows are added");
+        }
+        sel[selected++] = size;
+        return size++;
+    }
+
+    /**
+     * Append the values and the RecordId of a tuple, and select the row.
+     * Integer fields are copied with {@link Tuple#getInt}, so no IntField is
+     * created for them.
+     *
+     * @return the index of the row
+     */
+    public int add(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                ints[i][row] = t.getInt(i);
+            } else {
+                fields[i][row] = t.getField(i);
+            }
+        }
+        recordIds[row] = t.getRecordId();
+        return row;
+    }
+
+    /**
+     * Copy the fields of a tuple into the columns of a row from column
+     * first on.
+     */
+    public void copy(Tuple t, int row, int first) {
+        int n = t.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++) {
+            if (ints[first + i] != null) {
+                ints[first + i][row] = t.getInt(i);
+            } else {
+                fields[first + i][row] = t.getField(i);
+            }
+        }
+    }
+
+    /**
+     * Copy the fields of a row of another batch into the columns of a row
+     * from column first on.
+     */
+    public void copy(TupleBatch from, int fromRow, int row, int first) {
+        for (int i = 0; i < from.ints.length; i++) {
+            if (ints[first + i] != null) {
+                ints[first + i][row] = from.ints[i][fromRow];
+            } else {
+                fields[first + i][row] = from.fields[i][fromRow];
+            }
+        }
+    }
+
+    /**
+     * Make this batch hold the given columns of the rows of another batch,
+     * with the same selection. The column values are not copied, so the
+     * other batch must not be refilled while this one is in use.
+     *
+     * @param from the batch to project
+     * @param columns the column of from for each column of this batch
+     */
+    public void project(TupleBatch from, int[] columns) {
+        if (from.capacity > capacity) {
+            throw new IllegalArgumentException("cannot project " + from.capacity + " rows into " + capacity);
+        }
+        clear();
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = from.ints[columns[i]];
+            fields[i] = from.fields[columns[i]];
+        }
+        recordIds = from.recordIds;
+        System.arraycopy(from.sel, 0, sel, 0, from.selected);
+        size = from.size;
+        selected = from.selected;
+        shared = true;
+    }
+
+    /**
+     * @return the values of an INT_TYPE column, indexed by row
+     */
+    public int[] getIntColumn(int i) {
+        return ints[i];
+    }
+
+    public int getInt(int row, int i) {
+        return ints[i][row];
+    }
+
+    public void setInt(int row, int i, int value) {
+        ints[i][row] = value;
+    }
+
+    /**
+     * @return the value of a column of a row; an IntField is created for
+     *   INT_TYPE columns
+     */
+    public Field getField(int row, int i) {
+        return ints[i] != null ? new IntField(ints[i][row]) : fields[i][row];
+    }
+
+    public void setField(int row, int i, Field f) {
+        if (ints[i] != null) {
+            ints[i][row] = ((IntField) f).getValue();
+        } else {
+            fields[i][row] = f;
+        }
+    }
+
+    public RecordId getRecordId(int row) {
+        return recordIds[row];
+    }
+
+    public void setRecordId(int row, RecordId rid) {
+        recordIds[row] = rid;
+    }
+
+    /**
+     * @return a new Tuple holding the values and the RecordId of a row
+     */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                t.setInt(i, ints[i][row]);
+            } else {
+                t.setField(i, fields[i][row]);
+            }
+        }
+        t.setRecordId(recordIds[row]);
+        return t;
+    }
+}
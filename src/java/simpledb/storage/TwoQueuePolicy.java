@@ -0,0 +1,150 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.IntPredicate;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha, VLDB 1994).
+ * <p>
+ * A page brought in for the first time enters A1in, a FIFO queue holding at
+ * most a quarter of the frames. Pages evicted from A1in are remembered (by
+ * id only) in the ghost queue A1out. A page that is requested again while
+ * its id is in A1out has proven to be reused and is placed in Am, the queue
+ * of the hot set. Victims are taken from A1in while it is over its share and
+ * from Am otherwise.
+ * <p>
+ * Am approximates LRU with second chances, as {@link ClockPolicy} does: a
+ * hit only sets the reference bit of its frame, without taking the lock of
+ * the policy, and eviction moves frames whose bit is set to the back of Am
+ * instead of evicting them.
+ * <p>
+ * A sequential scan therefore only ever cycles through A1in: pages touched
+ * once are evicted before frequently used ones such as B+ tree root pointer
+ * and internal pages, which live in Am.
+ */
+public class TwoQueuePolicy extends AbstractReplacementPolicy {
+
+    /** Frames whose page has been seen once, oldest first */
+    private final LinkedHashMap<Integer, PageId> a1in = new LinkedHashMap<>();
+
+    /** Ids of pages recently evicted from A1in, oldest first */
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+
+    /** Frames holding reused pages, least recently moved to the back first */
+    private final LinkedHashMap<Integer, PageId> am = new LinkedHashMap<>();
+
+    /** The reference bit of each frame, set by hits on pages in Am */
+    private final AtomicIntegerArray referenced;
+
+    private final int kin;
+    private final int kout;
+
+    /**
+     * Creates a 2Q policy using the tuning suggested by the paper: A1in
+     * takes 25% of the frames and A1out remembers 50% as many page ids as
+     * there are frames.
+     *
+     * @param capacity the number of frames in the buffer pool
+     */
+    public TwoQueuePolicy(int capacity) {
+        this(capacity, Math.max(1, capacity / 4), Math.max(1, capacity / 2));
+    }
+
+    /**
+     * @param capacity the number of frames in the buffer pool
+     * @param kin the target size of the A1in queue, in frames
+     * @param kout the maximum number of page ids remembered in A1out
+     */
+    public TwoQueuePolicy(int capacity, int kin, int kout) {
+        super(capacity);
+        this.kin = kin;
+        this.kout = kout;
+        this.referenced = new AtomicIntegerArray(capacity);
+    }
+
+    protected synchronized void onAdd(int frame, PageId pid) {
+        referenced.set(frame, 0);
+        if (a1out.remove(pid)) {
+            am.put(frame, pid);
+        } else {
+            a1in.put(frame, pid);
+        }
+    }
+
+    protected void onAccess(int frame, PageId pid) {
+        // hits in A1in are deliberately ignored, since they are most likely
+        // correlated references from the same scan: eviction from A1in never
+        // looks at the bit, and onAdd clears it
+        if (referenced.get(frame) == 0) {
+            referenced.lazySet(frame, 1);
+        }
+    }
+
+    public synchronized void pageRemoved(int frame, PageId pid) {
+        referenced.set(frame, 0);
+        if (a1in.remove(frame) == null) {
+            am.remove(frame);
+        }
+    }
+
+    public synchronized int evict(IntPredicate claim) {
+        int frame;
+        if (a1in.size() > kin || am.isEmpty()) {
+            frame = evictFromA1in(claim);
+            if (frame < 0) {
+                frame = evictFromAm(claim);
+            }
+        } else {
+            frame = evictFromAm(claim);
+            if (frame < 0) {
+                frame = evictFromA1in(claim);
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Evict the first claimable frame of Am whose reference bit is clear,
+     * going at most twice around the queue: the first time round may only
+     * clear bits, the second then finds every claimable frame.
+     */
+    private int evictFromAm(IntPredicate claim) {
+        for (int n = 2 * am.size(); n > 0; n--) {
+            Iterator<Map.Entry<Integer, PageId>> it = am.entrySet().iterator();
+            Map.Entry<Integer, PageId> e = it.next();
+            int frame = e.getKey();
+            it.remove();
+            if (referenced.getAndSet(frame, 0) == 0 && claim.test(frame)) {
+                return frame;
+            }
+            // referenced since it was last looked at, or not claimable now
+            am.put(frame, e.getValue());
+        }
+        return -1;
+    }
+
+    /**
+     * Evict the first claimable frame of A1in, remembering its page in A1out.
+     */
+    private int evictFromA1in(IntPredicate claim) {
+        Iterator<Map.Entry<Integer, PageId>> it = a1in.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, PageId> e = it.next();
+            if (claim.test(e.getKey())) {
+                it.remove();
+                a1out.add(e.getValue());
+                if (a1out.size() > kout) {
+                    Iterator<PageId> oldest = a1out.iterator();
+                    oldest.next();
+                    oldest.remove();
+                }
+                return e.getKey();
+            }
+        }
+        return -1;
+    }
+}
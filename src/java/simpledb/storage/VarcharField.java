@@ -0,0 +1,34 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+/**
+ * Instance of Field that stores a single String of at most
+ * {@link Type#STRING_LEN} characters, of type {@link Type#VARCHAR_TYPE}.
+ * <p>
+ * The field serializes to the same fixed-length form as a StringField, so it
+ * can be stored in any page; pages that store tuples at their actual size
+ * use the compact form written by {@link Type#writeCompact} instead, which
+ * takes only the length and the characters in use.
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field; longer values are truncated
+	 */
+	public VarcharField(String s) {
+		super(s, Type.STRING_LEN);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+		return Type.VARCHAR_TYPE;
+	}
+}
@@ -0,0 +1,248 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * VersionStore keeps what snapshot readers need in multi-version mode on
+ * top of the current contents of the pages.
+ * <p>
+ * Every commit gets a timestamp from a counter, and every transaction reads
+ * the snapshot of the last commit that was complete when it started (or, if
+ * it was never started through {@link simpledb.transaction.Transaction}, when
+ * it first read). A record version is visible to snapshot s if it was
+ * committed at or before s and not deleted at or before s. The pages hold
+ * the newest committed version of every record, so only two kinds of
+ * history are kept here, both in memory:
+ * <ul>
+ * <li>the commit timestamp of records inserted recently, which hides them
+ * from older snapshots, and</li>
+ * <li>dead versions: tuples whose delete has committed, with the timestamps
+ * of their insert and delete, which older snapshots still see.</li>
+ * </ul>
+ * Once no running snapshot is older than a timestamp, the history up to it
+ * is obsolete; a background vacuum thread drops it while there is any.
+ * <p>
+ * The on-disk format is unchanged: pages on disk hold the committed records,
+ * and after a restart all of them are visible to everyone.
+ *
+ * @Threadsafe
+ */
+public class VersionStore {
+
+    /** Milliseconds between two vacuum passes */
+    public static final long VACUUM_INTERVAL = 200;
+
+    /** A deleted tuple and the timestamps of its insert and delete */
+    static class Version {
+        final Tuple tuple;
+        final long begin;
+        final long end;
+
+        Version(Tuple tuple, long begin, long end) {
+            this.tuple = tuple;
+            this.begin = begin;
+            this.end = end;
+        }
+
+        boolean isVisibleTo(long snapshot) {
+            return begin <= snapshot && snapshot < end;
+        }
+    }
+
+    /** Timestamp of the last commit whose changes are all applied */
+    private volatile long visible;
+
+    /** Snapshot read by each running transaction */
+    private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+
+    /** Commit timestamp of records inserted after some running snapshot */
+    private final Map<RecordId, Long> begins = new ConcurrentHashMap<>();
+
+    /** Dead versions by page; the lists are replaced, never modified */
+    private final Map<PageId, List<Version>> dead = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean vacuuming = new AtomicBoolean();
+
+    /**
+     * Take the snapshot the transaction reads, unless it has one already.
+     */
+    public long snapshot(TransactionId tid) {
+        return snapshots.computeIfAbsent(tid, k -> visible);
+    }
+
+    /**
+     * Forget the snapshot of a completed transaction.
+     */
+    void release(TransactionId tid) {
+        snapshots.remove(tid);
+    }
+
+    /**
+     * @return the commit timestamp of the current version of the record, or
+     *   0 if it is visible to every running snapshot
+     */
+    long begin(RecordId rid) {
+        return begins.getOrDefault(rid, 0L);
+    }
+
+    /**
+     * Commit a transaction: gives it the next timestamp, runs apply to stamp
+     * and apply its changes, then makes the timestamp visible to new
+     * snapshots. Commits are serialized so that a snapshot never sees part
+     * of a transaction.
+     */
+    synchronized <E extends Exception> void commit(CommitAction<E> apply) throws E {
+        long ts = visible + 1;
+        apply.run(ts);
+        visible = ts;
+        startVacuum();
+    }
+
+    /** The part of a commit that runs under {@link #commit} */
+    interface CommitAction<E extends Exception> {
+        void run(long ts) throws E;
+    }
+
+    /** Stamp a record inserted by a transaction committing at ts */
+    void inserted(RecordId rid, long ts) {
+        begins.put(rid, ts);
+    }
+
+    /**
+     * Keep the tuple a transaction committing at ts deletes for older
+     * snapshots. Must be called before the tuple leaves its page, while
+     * holding the page's monitor.
+     */
+    void deleted(Tuple t, long ts) {
+        RecordId rid = t.getRecordId();
+        Version v = new Version(t, begin(rid), ts);
+        dead.compute(rid.getPageId(), (k, versions) -> {
+            List<Version> l = versions == null ? new ArrayList<>() : new ArrayList<>(versions);
+            l.add(v);
+            return l;
+        });
+        begins.remove(rid);
+    }
+
+    /**
+     * @return the tuples of the page visible to the transaction: committed
+     *   tuples in its snapshot plus its own uncommitted inserts, minus its
+     *   own uncommitted deletes. Must be called while holding the page's
+     *   monitor.
+     */
+    List<Tuple> read(TransactionId tid, HeapPage page, RecordLog log) {
+        long snapshot = snapshot(tid);
+        Map<RecordId, TransactionId> uncommitted = log.uncommittedInsertsByRecord(page.getId());
+        List<Tuple> tuples = new ArrayList<>();
+        for (int slot = 0; slot < page.getNumSlots(); slot++) {
+            Tuple t = page.getTuple(slot);
+            if (t == null) {
+                continue;
+            }
+            RecordId rid = t.getRecordId();
+            TransactionId inserter = uncommitted.get(rid);
+            if (inserter != null ? !inserter.equals(tid) : begin(rid) > snapshot) {
+                continue;
+            }
+            if (!log.isDeletedBy(tid, rid)) {
+                tuples.add(t);
+            }
+        }
+        for (Version v : dead.getOrDefault(page.getId(), Collections.emptyList())) {
+            if (v.isVisibleTo(snapshot)) {
+                tuples.add(v.tuple);
+            }
+        }
+        return tuples;
+    }
+
+    /**
+     * @return true if the record was (re)inserted by a commit the
+     *   transaction's snapshot does not see
+     */
+    boolean isNewerThanSnapshot(TransactionId tid, RecordId rid) {
+        return begin(rid) > snapshot(tid);
+    }
+
+    /**
+     * Drop the history no running snapshot can see any more.
+     *
+     * @return the number of timestamps and dead versions dropped
+     */
+    public int vacuum() {
+        long oldest = visible;
+        for (long s : snapshots.values()) {
+            oldest = Math.min(oldest, s);
+        }
+        final long horizon = oldest;
+        int dropped = 0;
+        for (Map.Entry<RecordId, Long> e : begins.entrySet()) {
+            if (e.getValue() <= horizon && begins.remove(e.getKey(), e.getValue())) {
+                dropped++;
+            }
+        }
+        for (PageId pid : dead.keySet()) {
+            int[] removed = new int[1];
+            dead.computeIfPresent(pid, (k, versions) -> {
+                List<Version> l = new ArrayList<>();
+                for (Version v : versions) {
+                    if (v.end > horizon) {
+                        l.add(v);
+                    }
+                }
+                removed[0] = versions.size() - l.size();
+                return l.isEmpty() ? null : l;
+            });
+            dropped += removed[0];
+        }
+        return dropped;
+    }
+
+    /**
+     * @return the number of record timestamps and dead versions kept
+     */
+    public int size() {
+        int n = begins.size();
+        for (List<Version> versions : dead.values()) {
+            n += versions.size();
+        }
+        return n;
+    }
+
+    private void startVacuum() {
+        if (vacuuming.compareAndSet(false, true)) {
+            Thread t = new Thread(this::runVacuum, "vacuum");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Body of the vacuum thread; runs while there is history to drop.
+     */
+    private void runVacuum() {
+        for (;;) {
+            try {
+                Thread.sleep(VACUUM_INTERVAL);
+            } catch (InterruptedException e) {
+                vacuuming.set(false);
+                return;
+            }
+            vacuum();
+            if (size() == 0) {
+                vacuuming.set(false);
+                // a commit may have added history after the check above
+                if (size() == 0 || !vacuuming.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+    }
+}
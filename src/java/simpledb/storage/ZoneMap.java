@@ -0,0 +1,627 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ZoneMap keeps the smallest and the largest value of the columns of the
+ * pages of a {@link HeapFile}, so that scans with a range or equality
+ * predicate can skip pages that cannot hold a matching tuple without reading
+ * them through the BufferPool.
+ * <p>
+ * The bounds of a page only ever widen: inserts widen them to cover the new
+ * tuple, while deletes leave them as they are. They are therefore always a
+ * superset of the values of every version of the page a transaction may see,
+ * including uncommitted inserts and rolled back deletes. The bounds of every
+ * page are computed when the table file is written by {@link BulkLoader} or
+ * {@link HeapFileEncoder} (see {@link Builder}), and a page appended to the
+ * file starts out empty. Bounds that are still unknown, because the map was
+ * lost or dropped, are learned from the tuples of a page when a transaction
+ * that changed it commits, and by filtered scans, from the values of the
+ * filtered columns they decode anyway, provided the page was not changed
+ * since it was last written; until then the page always has to be read.
+ * Reading a page from disk never touches the map. SimpleDB has no NULL
+ * values, so there is no null count to keep.
+ * <p>
+ * The map is stored in a sidecar file next to the table file (the table file
+ * name with ".zm" appended), holding one fixed-size entry per page: a state
+ * byte followed, for each column, by a byte telling whether its bounds are
+ * known and its minimum and maximum in the format of {@link Field#serialize}.
+ * Changed entries are written by {@link #flush}, which the BufferPool calls
+ * once before it writes the pages of a committing transaction, so the bounds
+ * on disk always cover the pages on disk. The sidecar is only trusted for the
+ * table file it was stamped for; see {@link SidecarFile}.
+ * <p>
+ * Every page has its own lock; only the lazy load of the map and flushes
+ * lock the whole map.
+ *
+ * @Threadsafe
+ */
+class ZoneMap {
+
+    /** The bounds of the page are not known */
+    private static final byte UNKNOWN = 0;
+    /** The page holds no tuples */
+    private static final byte EMPTY = 1;
+    /** The page holds tuples within the bounds of the columns that are known */
+    private static final byte BOUNDED = 2;
+
+    /** The bounds of one page; guarded by itself */
+    private static final class Zone {
+        boolean empty;
+        /** The bounds of each column, or null where they are not known */
+        final Field[] min;
+        final Field[] max;
+        /** Counts the inserts into the page, so learn can tell if a scan raced one */
+        int version;
+
+        Zone(int numFields) {
+            min = new Field[numFields];
+            max = new Field[numFields];
+        }
+
+        void clear() {
+            Arrays.fill(min, null);
+            Arrays.fill(max, null);
+        }
+    }
+
+    private final SidecarFile file;
+    private final TupleDesc td;
+    private final int entrySize;
+    /** Offset of each column from the start of an entry, then the entry size */
+    private final int[] fieldOffsets;
+
+    /** The zones of the pages, read from the file on first use */
+    private volatile Map<Integer, Zone> zones;
+
+    /** The pages whose entries changed since they were last written */
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    /** Serializes flushes */
+    private final Object flushLock = new Object();
+
+    /**
+     * @param tableFile the table file the map describes
+     * @param generation the generation of the table file
+     * @param td the schema of the table
+     */
+    ZoneMap(File tableFile, TableGeneration generation, TupleDesc td) {
+        this.file = new SidecarFile(tableFile, generation, ".zm");
+        this.td = td;
+        this.fieldOffsets = fieldOffsets(td);
+        this.entrySize = fieldOffsets[td.numFields()];
+    }
+
+    /**
+     * @return the offset of each column from the start of an entry, followed
+     *   by the size of an entry
+     */
+    private static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields() + 1];
+        int pos = 1;
+        for (int i = 0; i < td.numFields(); i++) {
+            offsets[i] = pos;
+            pos += 1 + 2 * td.getFieldType(i).getLen();
+        }
+        offsets[td.numFields()] = pos;
+        return offsets;
+    }
+
+    private Map<Integer, Zone> zones() {
+        Map<Integer, Zone> z = zones;
+        if (z == null) {
+            synchronized (this) {
+                z = zones;
+                if (z == null) {
+                    z = new ConcurrentHashMap<>();
+                    try {
+                        load(z);
+                    } catch (IOException | ParseException e) {
+                        // without the file every bound is unknown
+                        z.clear();
+                    }
+                    zones = z;
+                }
+            }
+        }
+        return z;
+    }
+
+    private void load(Map<Integer, Zone> z) throws IOException, ParseException {
+        ByteBuffer buf = ByteBuffer.wrap(file.read());
+        for (int pgNo = 0; (pgNo + 1) * entrySize <= buf.capacity(); pgNo++) {
+            int pos = pgNo * entrySize;
+            byte state = buf.get(pos);
+            if (state == UNKNOWN) {
+                continue;
+            }
+            Zone zone = new Zone(td.numFields());
+            zone.empty = state == EMPTY;
+            for (int i = 0; i < td.numFields() && !zone.empty; i++) {
+                int fieldPos = pos + fieldOffsets[i];
+                if (buf.get(fieldPos) != 0) {
+                    Type type = td.getFieldType(i);
+                    zone.min[i] = type.parse(buf, fieldPos + 1);
+                    zone.max[i] = type.parse(buf, fieldPos + 1 + type.getLen());
+                }
+            }
+            z.put(pgNo, zone);
+        }
+    }
+
+    private Zone zone(int pgNo) {
+        return zones().computeIfAbsent(pgNo, no -> new Zone(td.numFields()));
+    }
+
+    /**
+     * @return true if the bounds of a column of this type are kept
+     */
+    private static boolean bounded(Type type) {
+        // bounding TEXT values would read them from their overflow pages
+        return type != Type.TEXT_TYPE;
+    }
+
+    /**
+     * Widen the bounds of the page to cover the tuple.
+     */
+    void add(int pgNo, Tuple t) {
+        Zone zone = zone(pgNo);
+        boolean changed = false;
+        synchronized (zone) {
+            zone.version++;
+            for (int i = 0; i < td.numFields(); i++) {
+                if (!bounded(td.getFieldType(i)) || (!zone.empty && zone.min[i] == null)) {
+                    continue;
+                }
+                Field f = t.getField(i);
+                if (zone.empty || f.compare(Predicate.Op.LESS_THAN, zone.min[i])) {
+                    zone.min[i] = f;
+                    changed = true;
+                }
+                if (zone.empty || f.compare(Predicate.Op.GREATER_THAN, zone.max[i])) {
+                    zone.max[i] = f;
+                    changed = true;
+                }
+            }
+            if (zone.empty) {
+                zone.empty = false;
+                changed = true;
+            }
+        }
+        if (changed) {
+            dirty.add(pgNo);
+        }
+    }
+
+    /**
+     * Record that the page was just created without any tuples.
+     */
+    void setEmpty(int pgNo) {
+        Zone zone = zone(pgNo);
+        synchronized (zone) {
+            zone.version++;
+            zone.empty = true;
+            zone.clear();
+        }
+        dirty.add(pgNo);
+    }
+
+    /**
+     * Start learning the bounds of the columns of the predicates from a scan
+     * of the page. Only call this for a page that is the same as on disk and
+     * that no transaction can change while it is scanned.
+     *
+     * @return the bounds to collect the values of the page in, or null if
+     *   the bounds of all these columns are known
+     */
+    Learner learn(int pgNo, List<Predicate> predicates) {
+        List<Integer> fields = new ArrayList<>();
+        for (Predicate p : predicates) {
+            fields.add(p.getField());
+        }
+        return learner(pgNo, fields);
+    }
+
+    /**
+     * Learn the bounds the map does not know yet of a page that is about to
+     * be written, from all of its tuples. Only call this for a page that
+     * holds no uncommitted changes and that no transaction can change until
+     * it is written.
+     */
+    void learnAll(int pgNo, Iterator<Tuple> tuples) {
+        List<Integer> fields = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++) {
+            fields.add(i);
+        }
+        Learner learner = learner(pgNo, fields);
+        if (learner == null) {
+            return;
+        }
+        while (tuples.hasNext()) {
+            learner.add(tuples.next());
+        }
+        learner.finish();
+    }
+
+    /**
+     * @return the bounds to collect the values of the fields whose bounds
+     *   are not known in, or null if they all are
+     */
+    private Learner learner(int pgNo, List<Integer> candidates) {
+        Zone zone = zone(pgNo);
+        List<Integer> fields = new ArrayList<>();
+        int version;
+        synchronized (zone) {
+            if (zone.empty) {
+                return null;
+            }
+            for (int i : candidates) {
+                if (bounded(td.getFieldType(i)) && zone.min[i] == null && !fields.contains(i)) {
+                    fields.add(i);
+                }
+            }
+            version = zone.version;
+        }
+        return fields.isEmpty() ? null : new Learner(pgNo, version, fields);
+    }
+
+    /**
+     * Collects the bounds of some columns of one page while a scan reads all
+     * of its tuples.
+     */
+    final class Learner {
+        private final int pgNo;
+        private final int version;
+        private final int[] fields;
+        private final Field[] min;
+        private final Field[] max;
+        private int tuples;
+
+        private Learner(int pgNo, int version, List<Integer> fields) {
+            this.pgNo = pgNo;
+            this.version = version;
+            this.fields = new int[fields.size()];
+            for (int k = 0; k < this.fields.length; k++) {
+                this.fields[k] = fields.get(k);
+            }
+            this.min = new Field[this.fields.length];
+            this.max = new Field[this.fields.length];
+        }
+
+        void add(Tuple t) {
+            tuples++;
+            for (int k = 0; k < fields.length; k++) {
+                add(k, t.getField(fields[k]));
+            }
+        }
+
+        /**
+         * Add the rows of the batch from the first on.
+         */
+        void add(TupleBatch batch, int first) {
+            if (first == batch.size()) {
+                return;
+            }
+            tuples += batch.size() - first;
+            for (int k = 0; k < fields.length; k++) {
+                int i = fields[k];
+                if (td.getFieldType(i) != Type.INT_TYPE) {
+                    for (int row = first; row < batch.size(); row++) {
+                        add(k, batch.getField(row, i));
+                    }
+                    continue;
+                }
+                // bound the int column first, to create two IntFields only
+                int[] values = batch.getIntColumn(i);
+                int lo = values[first];
+                int hi = values[first];
+                for (int row = first + 1; row < batch.size(); row++) {
+                    lo = Math.min(lo, values[row]);
+                    hi = Math.max(hi, values[row]);
+                }
+                add(k, new IntField(lo));
+                add(k, new IntField(hi));
+            }
+        }
+
+        private void add(int k, Field f) {
+            if (min[k] == null || f.compare(Predicate.Op.LESS_THAN, min[k])) {
+                min[k] = f;
+            }
+            if (max[k] == null || f.compare(Predicate.Op.GREATER_THAN, max[k])) {
+                max[k] = f;
+            }
+        }
+
+        /**
+         * Record the bounds once every tuple of the page was added, unless
+         * a tuple was inserted into the page since the scan started.
+         */
+        void finish() {
+            Zone zone = zone(pgNo);
+            synchronized (zone) {
+                if (zone.version != version || zone.empty) {
+                    return;
+                }
+                if (tuples == 0) {
+                    zone.empty = true;
+                    zone.clear();
+                } else {
+                    for (int k = 0; k < fields.length; k++) {
+                        if (zone.min[fields[k]] == null) {
+                            zone.min[fields[k]] = min[k];
+                            zone.max[fields[k]] = max[k];
+                        }
+                    }
+                }
+            }
+            dirty.add(pgNo);
+        }
+    }
+
+    /**
+     * @return false if no tuple on the page can satisfy all of the predicates,
+     *   which are on the fields of the table
+     */
+    boolean mayMatch(int pgNo, List<Predicate> predicates) {
+        Zone zone = zones().get(pgNo);
+        if (zone == null) {
+            return true;
+        }
+        synchronized (zone) {
+            if (zone.empty) {
+                return false;
+            }
+            for (Predicate p : predicates) {
+                int i = p.getField();
+                if (zone.min[i] != null && !mayMatch(p.getOp(), p.getOperand(), zone.min[i], zone.max[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean mayMatch(Predicate.Op op, Field v, Field min, Field max) {
+        if (v.getType().isString() != min.getType().isString()) {
+            // let the predicate itself report the mismatch
+            return true;
+        }
+        switch (op) {
+            case LIKE:
+                if (v.getType().isString()) {
+                    return true;
+                }
+                // on integers LIKE is equality
+                return min.compare(Predicate.Op.LESS_THAN_OR_EQ, v) && max.compare(Predicate.Op.GREATER_THAN_OR_EQ, v);
+            case EQUALS:
+                return min.compare(Predicate.Op.LESS_THAN_OR_EQ, v) && max.compare(Predicate.Op.GREATER_THAN_OR_EQ, v);
+            case NOT_EQUALS:
+                return !(min.equals(v) && max.equals(v));
+            case GREATER_THAN:
+                return max.compare(Predicate.Op.GREATER_THAN, v);
+            case GREATER_THAN_OR_EQ:
+                return max.compare(Predicate.Op.GREATER_THAN_OR_EQ, v);
+            case LESS_THAN:
+                return min.compare(Predicate.Op.LESS_THAN, v);
+            case LESS_THAN_OR_EQ:
+                return min.compare(Predicate.Op.LESS_THAN_OR_EQ, v);
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Write the map if the bounds on disk may not cover the page, for pages
+     * written without a {@link #flush} first.
+     */
+    void flushFor(int pgNo) throws IOException {
+        synchronized (flushLock) {
+            if (!dirty.contains(pgNo)) {
+                return;
+            }
+            Zone zone = zones().get(pgNo);
+            synchronized (zone) {
+                if (zone.empty) {
+                    // any bounds cover an empty page
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+
+    /**
+     * Write the entries of the map changed since the last call, each run of
+     * consecutive pages with one write.
+     */
+    void flush() throws IOException {
+        synchronized (flushLock) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            List<Integer> pages = new ArrayList<>(dirty);
+            Collections.sort(pages);
+            int start = 0;
+            for (int end = 1; end <= pages.size(); end++) {
+                if (end < pages.size() && pages.get(end) == pages.get(end - 1) + 1) {
+                    continue;
+                }
+                ByteBuffer buf = ByteBuffer.allocate((end - start) * entrySize);
+                for (int k = start; k < end; k++) {
+                    int pgNo = pages.get(k);
+                    // an entry changed after this is marked dirty again
+                    dirty.remove(pgNo);
+                    serialize(td, fieldOffsets, zones().get(pgNo), buf, (k - start) * entrySize);
+                }
+                file.write(buf, (long) pages.get(start) * entrySize);
+                start = end;
+            }
+        }
+    }
+
+    private static void serialize(TupleDesc td, int[] fieldOffsets, Zone zone, ByteBuffer buf, int pos)
+            throws IOException {
+        synchronized (zone) {
+            buf.put(pos, zone.empty ? EMPTY : BOUNDED);
+            for (int i = 0; i < td.numFields() && !zone.empty; i++) {
+                int fieldPos = pos + fieldOffsets[i];
+                if (zone.min[i] != null) {
+                    buf.put(fieldPos, (byte) 1);
+                    write(buf, fieldPos + 1, zone.min[i]);
+                    write(buf, fieldPos + 1 + td.getFieldType(i).getLen(), zone.max[i]);
+                }
+            }
+        }
+    }
+
+    private static void write(ByteBuffer buf, int pos, Field f) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Type.STRING_LEN + 4);
+        DataOutputStream dos = new DataOutputStream(baos);
+        f.serialize(dos);
+        dos.flush();
+        ByteBuffer dst = buf.duplicate();
+        dst.position(pos);
+        dst.put(baos.toByteArray());
+    }
+
+    /**
+     * Record that the map on disk covers the table file as it is now.
+     */
+    void stamp() throws IOException {
+        synchronized (flushLock) {
+            file.stamp();
+        }
+    }
+
+    void close() throws IOException {
+        flush();
+        file.close();
+    }
+
+    /**
+     * Builder writes the map of a table file that is written page by page
+     * rather than through a {@link HeapFile}, such as by {@link BulkLoader}
+     * and {@link HeapFileEncoder}, with the bounds of every page. The map is
+     * stamped with a new generation, which the writer puts in the trailer of
+     * the table file once the map is closed (see {@link TableGeneration}), so
+     * a table file written only in part never has a map it matches.
+     */
+    static final class Builder implements Closeable {
+        private final TupleDesc td;
+        private final int[] fieldOffsets;
+        private final long generation;
+        private final OutputStream out;
+        /** The bounds of the page being written; those of INT columns are in intMin and intMax */
+        private final Zone zone;
+        private final int[] intMin;
+        private final int[] intMax;
+        /** Whether a value of each column of the page was added */
+        private final boolean[] seen;
+
+        /**
+         * @param tableFile the table file the map describes, whose earlier
+         *   map is replaced
+         * @param td the schema of the table
+         */
+        Builder(File tableFile, TupleDesc td) throws IOException {
+            this.td = td;
+            this.fieldOffsets = fieldOffsets(td);
+            this.generation = TableGeneration.next(TableGeneration.NONE);
+            this.zone = new Zone(td.numFields());
+            this.zone.empty = true;
+            this.intMin = new int[td.numFields()];
+            this.intMax = new int[td.numFields()];
+            this.seen = new boolean[td.numFields()];
+            this.out = new BufferedOutputStream(new FileOutputStream(tableFile.getPath() + ".zm"));
+            out.write(SidecarFile.header(generation).array());
+        }
+
+        /**
+         * @return the generation to write in the trailer of the table file
+         */
+        long generation() {
+            return generation;
+        }
+
+        /**
+         * Widen the bounds of the page being written to cover an INT value of
+         * a tuple on it. Every field of every tuple on the page is added.
+         */
+        void add(int i, int value) {
+            if (!seen[i] || value < intMin[i]) {
+                intMin[i] = value;
+            }
+            if (!seen[i] || value > intMax[i]) {
+                intMax[i] = value;
+            }
+            seen[i] = true;
+            zone.empty = false;
+        }
+
+        /**
+         * Widen the bounds of the page being written to cover a value of a
+         * tuple on it. Every field of every tuple on the page is added.
+         */
+        void add(int i, Field f) {
+            if (f.getType() == Type.INT_TYPE) {
+                add(i, ((IntField) f).getValue());
+                return;
+            }
+            zone.empty = false;
+            if (!bounded(f.getType())) {
+                return;
+            }
+            if (!seen[i] || f.compare(Predicate.Op.LESS_THAN, zone.min[i])) {
+                zone.min[i] = f;
+            }
+            if (!seen[i] || f.compare(Predicate.Op.GREATER_THAN, zone.max[i])) {
+                zone.max[i] = f;
+            }
+            seen[i] = true;
+        }
+
+        /**
+         * Write the bounds of the page being written, and start the next page.
+         */
+        void endPage() throws IOException {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (seen[i] && td.getFieldType(i) == Type.INT_TYPE) {
+                    zone.min[i] = new IntField(intMin[i]);
+                    zone.max[i] = new IntField(intMax[i]);
+                }
+            }
+            byte[] entry = new byte[fieldOffsets[td.numFields()]];
+            serialize(td, fieldOffsets, zone, ByteBuffer.wrap(entry), 0);
+            out.write(entry);
+            zone.empty = true;
+            zone.clear();
+            Arrays.fill(seen, false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -20,6 +20,7 @@ public class Transaction {
     /** Start the transaction running */
     public void start() {
         started = true;
+        Database.getBufferPool().transactionStarted(tid);
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -18,6 +18,7 @@ import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class BTreeDeadlockTest extends SimpleDbTestBase {
@@ -123,6 +124,10 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 			if(writer1.succeeded() || writer2.succeeded()) break;
 
 			if (writer1.getError() != null) {
+				// only deadlocks are resolved by retrying the writer
+				if (!(writer1.getError() instanceof TransactionAbortedException)) {
+					throw writer1.getError();
+				}
 				writer1 = null;
 				bp.transactionComplete(tid1);
 				Thread.sleep(rand.nextInt(WAIT_INTERVAL));
@@ -132,6 +137,10 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 			}
 
 			if (writer2.getError() != null) {
+				// only deadlocks are resolved by retrying the writer
+				if (!(writer2.getError() instanceof TransactionAbortedException)) {
+					throw writer2.getError();
+				}
 				writer2 = null;
 				bp.transactionComplete(tid2);
 				Thread.sleep(rand.nextInt(WAIT_INTERVAL));
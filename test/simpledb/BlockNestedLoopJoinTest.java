@@ -0,0 +1,108 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  /**
+   * The inner child is scanned once per block of outer tuples, and the
+   * result does not depend on the block size
+   */
+  @Test public void innerScannedOncePerBlock() throws Exception {
+    Random rand = new Random(31);
+    List<Tuple> left = TestUtil.randomTuples(2, 100, 50, rand);
+    List<Tuple> right = TestUtil.randomTuples(2, 80, 50, rand);
+    for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.LESS_THAN, Predicate.Op.EQUALS}) {
+      List<String> expected = TestUtil.expectedJoin(left, right, op);
+      for (int blockSize : new int[]{1, 7, 100, 1000}) {
+        TestUtil.CountingIterator scan2 = new TestUtil.CountingIterator(Utility.getTupleDesc(2), right);
+        Join join = new Join(new JoinPredicate(0, op, 0),
+            new TupleIterator(Utility.getTupleDesc(2), left), scan2);
+        join.setBlockSize(blockSize);
+        join.open();
+        assertEquals(op + " in blocks of " + blockSize, expected, TestUtil.readAll(join));
+        int blocks = (left.size() + blockSize - 1) / blockSize;
+        assertEquals(blocks - 1, scan2.rewinds);
+        join.close();
+      }
+    }
+  }
+
+  /**
+   * By default a block fills the free frames of the buffer pool but one
+   */
+  @Test public void blockSizeFromFreeFrames() throws Exception {
+    Database.resetBufferPool(10);
+    TupleDesc td = Utility.getTupleDesc(2);
+    assertEquals(10, Database.getBufferPool().getNumFreeFrames());
+    assertEquals(9 * (BufferPool.getPageSize() / td.getSize()), Join.defaultBlockSize(td));
+
+    Random rand = new Random(32);
+    List<Tuple> left = TestUtil.randomTuples(2, 4000, 1000, rand);
+    List<Tuple> right = TestUtil.randomTuples(2, 50, 1000, rand);
+    TestUtil.CountingIterator scan2 = new TestUtil.CountingIterator(td, right);
+    Join join = new Join(new JoinPredicate(0, Predicate.Op.GREATER_THAN_OR_EQ, 0),
+        new TupleIterator(td, left), scan2);
+    join.open();
+    assertEquals(TestUtil.expectedJoin(left, right, Predicate.Op.GREATER_THAN_OR_EQ), TestUtil.readAll(join));
+    // all of the outer tuples fit in one block
+    assertEquals(0, scan2.rewinds);
+    join.close();
+  }
+
+  /**
+   * The optimizer sizes blocks from all frames of the buffer pool, so its
+   * estimate does not change with the pages that happen to be pinned
+   */
+  @Test public void estimateIgnoresPinnedPages() throws Exception {
+    Database.resetBufferPool(10);
+    HeapFile a = SystemTestUtil.createRandomHeapFile(2, 6000, 1000, null, null, "c");
+    Database.getCatalog().addTable(a, "a");
+    HeapFile b = SystemTestUtil.createRandomHeapFile(2, 6000, 1000, null, null, "c");
+    Database.getCatalog().addTable(b, "b");
+    TransactionId tid = new TransactionId();
+    JoinOptimizer jo = new JoinOptimizer(new Parser().generateLogicalPlan(tid,
+        "SELECT * FROM a, b WHERE a.c0 < b.c0;"), new ArrayList<>());
+    LogicalJoinNode j = new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.LESS_THAN);
+    double cost = jo.estimateJoinCost(j, 3000, 3000, 100, 100);
+
+    for (int i = 0; i < 8; i++) {
+      Database.getBufferPool().pinPage(tid, new HeapPageId(a.getId(), i), Permissions.READ_ONLY);
+    }
+    assertEquals(2, Database.getBufferPool().getNumFreeFrames());
+    assertEquals(cost, jo.estimateJoinCost(j, 3000, 3000, 100, 100), 0);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolEvictionTest extends SimpleDbTestBase {
+    private static final int PAGES = 10;
+
+    /** Counts the number of readPage operations. */
+    static class InstrumentedHeapFile extends HeapFile {
+        int readCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+    }
+
+    private InstrumentedHeapFile hf;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, null);
+        hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        bp = Database.resetBufferPool(3);
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private HeapPageId pid(int pgNo) {
+        return new HeapPageId(hf.getId(), pgNo);
+    }
+
+    /**
+     * The pool never holds more than numPages pages.
+     */
+    @Test
+    public void respectsCapacity() throws Exception {
+        for (int i = 0; i < PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        assertEquals(PAGES, hf.readCount);
+
+        // the most recent pages are still resident
+        bp.getPage(tid, pid(PAGES - 1), Permissions.READ_ONLY);
+        assertEquals(PAGES, hf.readCount);
+
+        // the oldest page was evicted and must be read again
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(PAGES + 1, hf.readCount);
+    }
+
+    /**
+     * A pinned page stays resident until it is unpinned.
+     */
+    @Test
+    public void pinnedPagesAreNotEvicted() throws Exception {
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        hf.readCount = 0;
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(0, hf.readCount);
+
+        bp.unpinPage(tid, pid(0));
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        hf.readCount = 0;
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, hf.readCount);
+    }
+
+    /**
+     * A page discarded while another transaction pins it keeps its frame
+     * until that pin is released, and the release does not unpin the frame
+     * the page is read into again.
+     */
+    @Test
+    public void discardedPinnedPageKeepsFrameUntilUnpinned() throws Exception {
+        TransactionId other = new TransactionId();
+        bp.pinPage(other, pid(0), Permissions.READ_ONLY);
+        bp.discardPage(pid(0));
+        assertEquals(2, bp.getNumFreeFrames());
+
+        hf.readCount = 0;
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, hf.readCount);
+        assertEquals(1, bp.getNumFreeFrames());
+
+        bp.transactionComplete(other);
+        assertEquals(2, bp.getNumFreeFrames());
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        hf.readCount = 0;
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(0, hf.readCount);
+    }
+
+    /**
+     * Without a transaction a page is fetched but not pinned, since nothing
+     * could release the pin.
+     */
+    @Test
+    public void pinWithoutTransaction() throws Exception {
+        bp.pinPage(null, pid(0), Permissions.READ_ONLY);
+        bp.unpinPage(null, pid(0));
+        assertEquals(3, bp.getNumFreeFrames());
+        for (int i = 1; i < PAGES; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_ONLY);
+        }
+        hf.readCount = 0;
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, hf.readCount);
+    }
+
+    /**
+     * Dirty pages are never evicted; once every frame is dirty the pool
+     * refuses to bring in more pages.
+     */
+    @Test
+    public void dirtyPagesAreNotEvicted() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            bp.getPage(tid, pid(i), Permissions.READ_WRITE).markDirty(true, tid);
+        }
+        try {
+            bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+
+        // committing cleans the pages, which makes them evictable again
+        bp.transactionComplete(tid, true);
+        bp.getPage(tid, pid(3), Permissions.READ_ONLY);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolEvictionTest.class);
+    }
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    @After
+    public void tearDown() {
+        BufferPool.resetPageSize();
+        Database.reset();
+    }
+
+    private static File tempFile(String prefix, String suffix) throws Exception {
+        File f = File.createTempFile(prefix, suffix);
+        HeapFile.deleteOnExit(f);
+        return f;
+    }
+
+    /**
+     * Loading on several threads keeps the tuples in input order, and fills
+     * every page but the last
+     */
+    @Test public void loadHeapInOrder() throws Exception {
+        File text = tempFile("bulk", ".txt");
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                if (i % 1000 == 500) {
+                    bw.write("\n");
+                }
+                bw.write(i + ", name" + (i % 7) + " ," + (-i) + (i % 2 == 0 ? "\r\n" : "\n"));
+            }
+            // the last line has no line break
+            bw.write("-1,last,x");
+        }
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        File dat = tempFile("bulk", ".dat");
+        BulkLoader loader = new BulkLoader(types, ',', 4);
+        loader.setChunkSize(2000);
+        assertEquals(ROWS + 1, loader.loadHeap(text, dat, BufferPool.getPageSize()));
+
+        HeapFile table = new HeapFile(dat, new TupleDesc(types));
+        Database.getCatalog().addTable(table, "bulk");
+        int perPage = (BufferPool.getPageSize() * 8) / (loader.getRecordSize() * 8 + 1);
+        assertEquals((ROWS + 1 + perPage - 1) / perPage, table.numPages());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(it.hasNext());
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new StringField("name" + (i % 7), Type.STRING_LEN), t.getField(1));
+            assertEquals(new IntField(-i), t.getField(2));
+        }
+        Tuple last = it.next();
+        assertEquals(new IntField(-1), last.getField(0));
+        // a malformed integer is stored as 0
+        assertEquals(new IntField(0), last.getField(2));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Sorting in several runs gives a valid tree holding every tuple, with
+     * the leaves filled to the fill factor and linked in key order
+     */
+    @Test public void loadBTreeBottomUp() throws Exception {
+        BufferPool.setPageSize(1024);
+        Random rand = new Random(42);
+        List<Integer> keys = new ArrayList<>();
+        File text = tempFile("bulk_btree", ".txt");
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < 20000; i++) {
+                // plenty of duplicate keys
+                int key = rand.nextInt(5000) - 2500;
+                keys.add(key);
+                bw.write(key + "," + i + "\n");
+            }
+        }
+        Collections.sort(keys);
+
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        File dat = tempFile("bulk_btree", ".dat");
+        BTreeBulkLoader loader = new BTreeBulkLoader(types, ',', 0, 3);
+        loader.setChunkSize(4096);
+        loader.setRunSize(8 * 1500);
+        loader.setFillFactor(0.7);
+        assertEquals(keys.size(), loader.load(text, dat, BufferPool.getPageSize()));
+
+        BTreeFile tree = new BTreeFile(dat, 0, new TupleDesc(types));
+        Database.getCatalog().addTable(tree, "bulk_btree");
+        TransactionId tid = new TransactionId();
+        BTreeChecker.checkRep(tree, tid, new HashMap<>(), true);
+
+        // descend to the leftmost leaf, then follow the right siblings
+        BTreePageId pid = ((BTreeRootPtrPage) tree.readPage(BTreeRootPtrPage.getId(tree.getId()))).getRootId();
+        assertEquals(BTreePageId.INTERNAL, pid.pgcateg());
+        int depth = 0;
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            pid = ((BTreeInternalPage) tree.readPage(pid)).iterator().next().getLeftChild();
+            depth++;
+        }
+        assertEquals(2, depth);
+
+        List<Integer> scanned = new ArrayList<>();
+        Set<Integer> values = new HashSet<>();
+        BTreePageId prev = null;
+        while (pid != null) {
+            BTreeLeafPage leaf = (BTreeLeafPage) tree.readPage(pid);
+            assertEquals(prev, leaf.getLeftSiblingId());
+            int fill = (int) (leaf.getMaxTuples() * 0.7);
+            assertTrue(leaf.getNumTuples() <= fill && leaf.getNumTuples() >= fill - 1);
+            Iterator<Tuple> it = leaf.iterator();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                scanned.add(((IntField) t.getField(0)).getValue());
+                values.add(((IntField) t.getField(1)).getValue());
+            }
+            prev = pid;
+            pid = leaf.getRightSiblingId();
+        }
+        assertEquals(keys, scanned);
+        assertEquals(keys.size(), values.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An empty input gives a tree with a single empty leaf
+     */
+    @Test public void loadEmptyBTree() throws Exception {
+        File text = tempFile("bulk_empty", ".txt");
+        File dat = tempFile("bulk_empty", ".dat");
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        assertEquals(0, new BTreeBulkLoader(types, ',', 1, 2).load(text, dat, BufferPool.getPageSize()));
+        BTreeFile tree = new BTreeFile(dat, 1, new TupleDesc(types));
+        Database.getCatalog().addTable(tree, "bulk_empty");
+        assertEquals(1, tree.numPages());
+        BTreePageId root = ((BTreeRootPtrPage) tree.readPage(BTreeRootPtrPage.getId(tree.getId()))).getRootId();
+        assertEquals(BTreePageId.LEAF, root.pgcateg());
+        assertEquals(0, ((BTreeLeafPage) tree.readPage(root)).getNumTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -2,6 +2,9 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -14,7 +17,13 @@ import org.junit.Test;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.storage.CompressedHeapFile;
 import simpledb.storage.DbFile;
+import simpledb.storage.DictionaryHeapFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.MappedHeapFile;
+import simpledb.storage.PaxHeapFile;
+import simpledb.storage.SlottedHeapFile;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +106,33 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that the page format after the field list picks the HeapFile
+     */
+    @Test public void loadSchemaFormats() throws IOException {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("plain (a int, b int)\n");
+            w.write("slotted (a int, b int) slotted\n");
+            w.write("pax (a int, b int) pax\n");
+            w.write("dict (a int, b int) dict\n");
+            w.write("compressed (a int, b int) compressed\n");
+            w.write("mapped (a int, b int) mapped\n");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        assertEquals(HeapFile.class, table("plain").getClass());
+        assertEquals(SlottedHeapFile.class, table("slotted").getClass());
+        assertEquals(PaxHeapFile.class, table("pax").getClass());
+        assertEquals(DictionaryHeapFile.class, table("dict").getClass());
+        assertEquals(CompressedHeapFile.class, table("compressed").getClass());
+        assertEquals(MappedHeapFile.class, table("mapped").getClass());
+    }
+
+    private static DbFile table(String name) {
+        return Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+    }
+
     /**
      * JUnit suite target
      */
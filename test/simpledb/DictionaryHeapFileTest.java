@@ -0,0 +1,183 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class DictionaryHeapFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+    private static final String[] STATUS = {"open", "closed", "pending"};
+
+    private TupleDesc td;
+    private File dat;
+    private HeapFile rowFile;
+    private DictionaryHeapFile dictFile;
+
+    /**
+     * Writes the same (id, status) table as heap pages and as
+     * dictionary-encoded pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE};
+        td = new TupleDesc(types, new String[]{"id", "status"});
+        File text = File.createTempFile("dict", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                bw.write(i + "," + STATUS[i % STATUS.length] + "\n");
+            }
+        }
+        File rows = File.createTempFile("rows", ".dat");
+        HeapFile.deleteOnExit(rows);
+        dat = File.createTempFile("dict", ".dat");
+        HeapFile.deleteOnExit(dat);
+        HeapFileEncoder.convert(text, rows, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convertDictionary(text, dat, BufferPool.getPageSize(), 2, types, ',');
+        rowFile = new HeapFile(rows, td);
+        Database.getCatalog().addTable(rowFile, "rows");
+        reopen();
+    }
+
+    /** Register a new DictionaryHeapFile for the table with an empty buffer pool */
+    private void reopen() {
+        dictFile = new DictionaryHeapFile(dat, td);
+        Database.getCatalog().addTable(dictFile, "dict");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private static List<String> run(OpIterator it) throws Exception {
+        List<String> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next().toString());
+        }
+        it.close();
+        return tuples;
+    }
+
+    private List<String> filter(DbFile file, Predicate.Op op, String value) throws Exception {
+        TransactionId tid = new TransactionId();
+        List<String> tuples = run(new Filter(new Predicate(1, op, new StringField(value, Type.STRING_LEN)),
+                new SeqScan(tid, file.getId())));
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * The pages hold the codes of the strings, so the table takes far fewer
+     * pages, and its strings are read as fields that compare by code
+     */
+    @Test public void sameTuplesInFewerPages() throws Exception {
+        assertTrue(dictFile.numPages() * 10 < rowFile.numPages());
+        assertEquals(STATUS.length, dictFile.getDictionary().size());
+
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                Predicate.Op.GREATER_THAN}) {
+            for (String value : new String[]{"closed", "missing"}) {
+                assertEquals(filter(rowFile, op, value), filter(dictFile, op, value));
+            }
+        }
+        assertEquals(ROWS / STATUS.length, filter(dictFile, Predicate.Op.EQUALS, "closed").size());
+
+        HeapPage page = (HeapPage) dictFile.readPage(new HeapPageId(dictFile.getId(), 0));
+        Field closed = page.getTuple(1).getField(1);
+        assertTrue(closed instanceof DictionaryField);
+        assertSame(closed, page.getTuple(1 + STATUS.length).getField(1));
+        assertEquals(new StringField("closed", Type.STRING_LEN), closed);
+        assertEquals(closed.hashCode(), "closed".hashCode());
+    }
+
+    /**
+     * Joins and grouping on an encoded column match on codes and give the
+     * same results as on plain strings
+     */
+    @Test public void joinAndGroupByCode() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<Tuple> statuses = new ArrayList<>();
+        TupleDesc statusTd = new TupleDesc(new Type[]{Type.STRING_TYPE});
+        for (String s : new String[]{"open", "pending"}) {
+            Tuple t = new Tuple(statusTd);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            statuses.add(t);
+        }
+        int joined = run(new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, dictFile.getId()), new TupleIterator(statusTd, statuses))).size();
+        assertEquals(ROWS - ROWS / STATUS.length, joined);
+
+        Map<String, String> counts = new HashMap<>();
+        for (String row : run(new Aggregate(new SeqScan(tid, dictFile.getId()), 1, 1, Aggregator.Op.COUNT))) {
+            String[] cols = row.split("\t");
+            counts.put(cols[0], cols[1]);
+        }
+        assertEquals(STATUS.length, counts.size());
+        assertEquals(String.valueOf(ROWS / STATUS.length), counts.get("closed"));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * New values inserted into the table get new codes, which are still
+     * known after a restart
+     */
+    @Test public void insertNewValue() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("archived", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, dictFile.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(STATUS.length + 1, dictFile.getDictionary().size());
+        assertEquals(1, filter(dictFile, Predicate.Op.EQUALS, "archived").size());
+
+        Database.getBufferPool().flushAllPages();
+        dictFile.close();
+        reopen();
+        assertEquals(STATUS.length + 1, dictFile.getDictionary().size());
+        assertEquals(1, filter(dictFile, Predicate.Op.EQUALS, "archived").size());
+        assertEquals(ROWS / STATUS.length, filter(dictFile, Predicate.Op.EQUALS, "closed").size());
+    }
+
+    /**
+     * A dictionary that cannot be read fails the lookup, rather than
+     * reporting that no value matches
+     */
+    @Test public void unreadableDictionaryFailsLookups() throws Exception {
+        dictFile.close();
+        File dict = new File(dat.getPath() + ".dict");
+        assertTrue(dict.delete());
+        assertTrue(dict.mkdir());
+        reopen();
+        try {
+            dictFile.getDictionary().lookup(STATUS[0]);
+            fail("expected UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryHeapFileTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+
+    /** A HeapFile counting the pages it reads from disk, and all reads of its file */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final TestUtil.CountingChannel channel;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            this(f, td, new TestUtil.CountingChannel(f));
+        }
+
+        private CountingHeapFile(File f, TupleDesc td, TestUtil.CountingChannel channel) {
+            super(f, td, channel);
+            this.channel = channel;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private HeapFile table;
+    private int tuplesPerPage;
+
+    /**
+     * Creates a table of three full pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        tuplesPerPage = new HeapPage(new HeapPageId(empty.getId(), 0), HeapPage.createEmptyPageData())
+                .getNumEmptySlots();
+        table = SystemTestUtil.createRandomHeapFile(2, 3 * tuplesPerPage, null, null);
+        HeapFile.deleteOnExit(table.getFile());
+        assertEquals(3, table.numPages());
+    }
+
+    private RecordId insert(BufferPool bp, int tableId) throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{-1, -1});
+        bp.insertTuple(tid, tableId, t);
+        bp.transactionComplete(tid);
+        return t.getRecordId();
+    }
+
+    /** Delete the first tuple of the page */
+    private void deleteFrom(BufferPool bp, HeapFile file, int pgNo) throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(file.getId(), pgNo), Permissions.READ_ONLY);
+        bp.deleteTuple(tid, page.iterator().next());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Slots freed by a delete are reused instead of appending pages, and
+     * after a restart inserts go straight to the page with room
+     */
+    @Test public void reusesFreedSlotsAcrossRestart() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        // no map yet: every page is read once and found full
+        assertEquals(3, insert(bp, table.getId()).getPageId().getPageNumber());
+        deleteFrom(bp, table, 1);
+        assertEquals(1, insert(bp, table.getId()).getPageId().getPageNumber());
+        deleteFrom(bp, table, 2);
+
+        // restart with an empty buffer pool and a new catalog entry
+        File f = table.getFile();
+        TupleDesc td = table.getTupleDesc();
+        Database.getCatalog().clear();
+        CountingHeapFile reopened = new CountingHeapFile(f, td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        assertEquals(2, insert(bp, reopened.getId()).getPageId().getPageNumber());
+        assertEquals("only the page with room is read", 1, reopened.reads.get());
+        // checking the map against the table file reads its trailer only
+        assertEquals(2, reopened.channel.reads.get());
+        assertEquals(4, reopened.numPages());
+    }
+
+    /**
+     * Pages with room that the map thinks are full are picked up again once
+     * they are read from disk, e.g. after an insert that filled them aborts
+     */
+    @Test public void abortedInsertDoesNotLoseSpace() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        deleteFrom(bp, table, 0);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[]{-1, -1});
+        bp.insertTuple(tid, table.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        bp.transactionComplete(tid, false);
+
+        assertEquals(0, insert(bp, table.getId()).getPageId().getPageNumber());
+        assertEquals(3, table.numPages());
+    }
+
+    /**
+     * Scanning a table writes no free-space map, and leaves the zone map the
+     * encoder wrote as it is
+     */
+    @Test public void scanWritesNoMap() throws Exception {
+        File zoneMap = new File(table.getFile().getPath() + ".zm");
+        byte[] bounds = Files.readAllBytes(zoneMap.toPath());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+        }
+        scan.close();
+        bp.transactionComplete(tid);
+        Database.getCatalog().clear();
+
+        assertFalse(new File(table.getFile().getPath() + ".fsm").exists());
+        assertArrayEquals(bounds, Files.readAllBytes(zoneMap.toPath()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  /**
+   * A build side larger than the memory budget is partitioned, the result
+   * is the same, and each child is read exactly once
+   */
+  @Test public void spilledJoin() throws Exception {
+    Random rand = new Random(7);
+    List<Tuple> left = TestUtil.randomTuples(2, 3000, 1000, rand);
+    List<Tuple> right = TestUtil.randomTuples(3, 4000, 1000, rand);
+    TestUtil.CountingIterator scan1 = new TestUtil.CountingIterator(Utility.getTupleDesc(2), left);
+    TestUtil.CountingIterator scan2 = new TestUtil.CountingIterator(Utility.getTupleDesc(3), right);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    join.setMemoryBudget(500);
+    join.open();
+    assertTrue(join.isSpilled());
+    assertEquals(TestUtil.expectedJoin(left, right, Predicate.Op.EQUALS), TestUtil.readAll(join));
+    assertEquals(left.size(), scan1.reads);
+    assertEquals(right.size(), scan2.reads);
+
+    // rewinding reads both children once more
+    join.rewind();
+    assertEquals(TestUtil.expectedJoin(left, right, Predicate.Op.EQUALS), TestUtil.readAll(join));
+    assertEquals(2 * right.size(), scan2.reads);
+    join.close();
+  }
+
+  /**
+   * A partition that is larger than the budget on its own is joined a
+   * budget at a time
+   */
+  @Test public void skewedPartition() throws Exception {
+    Random rand = new Random(8);
+    // most of the build side has one key
+    List<Tuple> left = TestUtil.randomTuples(2, 2000, 3, rand);
+    left.addAll(TestUtil.randomTuples(2, 500, 1000, rand));
+    List<Tuple> right = TestUtil.randomTuples(2, 300, 50, rand);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+    join.setMemoryBudget(100);
+    join.open();
+    assertEquals(TestUtil.expectedJoin(left, right, Predicate.Op.EQUALS), TestUtil.readAll(join));
+    join.close();
+  }
+
+  /**
+   * Batches of a spilled join hold the same tuples
+   */
+  @Test public void spilledJoinInBatches() throws Exception {
+    Random rand = new Random(9);
+    List<Tuple> left = TestUtil.randomTuples(2, 2000, 500, rand);
+    List<Tuple> right = TestUtil.randomTuples(2, 2000, 500, rand);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+    join.setMemoryBudget(300);
+    join.open();
+    List<String> result = new ArrayList<>();
+    TupleBatch batch = new TupleBatch(join.getTupleDesc(), 64);
+    while (join.nextBatch(batch)) {
+      int[] sel = batch.selection();
+      for (int k = 0; k < batch.selectedCount(); k++) {
+        result.add(batch.getTuple(sel[k]).toString());
+      }
+    }
+    join.close();
+    Collections.sort(result);
+    assertEquals(TestUtil.expectedJoin(left, right, Predicate.Op.EQUALS), result);
+  }
+
+  /**
+   * A build side within the budget is never partitioned
+   */
+  @Test public void inMemoryJoin() throws Exception {
+    Random rand = new Random(10);
+    List<Tuple> left = TestUtil.randomTuples(2, 200, 100, rand);
+    List<Tuple> right = TestUtil.randomTuples(2, 200, 100, rand);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+    join.open();
+    assertFalse(join.isSpilled());
+    assertEquals(TestUtil.expectedJoin(left, right, Predicate.Op.EQUALS), TestUtil.readAll(join));
+    join.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
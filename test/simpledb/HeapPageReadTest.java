@@ -61,7 +61,8 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             File temp = File.createTempFile("table", ".dat");
             temp.deleteOnExit();
             HeapFileEncoder.convert(table, temp, BufferPool.getPageSize(), 2);
-            EXAMPLE_DATA = TestUtil.readFileBytes(temp.getAbsolutePath());
+            // the page, without the trailer of the file
+            EXAMPLE_DATA = Arrays.copyOf(TestUtil.readFileBytes(temp.getAbsolutePath()), BufferPool.getPageSize());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,30 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from the page bytes are written back unchanged, or with
+     * the fields set on them, and stay valid after the page changes
+     */
+    @Test public void pageDataOfDecodedTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA.clone());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getPageData());
+
+        Iterator<Tuple> it = page.iterator();
+        Tuple first = it.next();
+        Tuple second = it.next();
+        String secondValue = second.toString();
+        second.setField(1, new IntField(-7));
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+
+        HeapPage read = new HeapPage(pid, page.getPageData());
+        assertEquals(new IntField(-7), read.getTuple(second.getRecordId().getTupleNumber()).getField(1));
+        assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(42, 2),
+                read.getTuple(first.getRecordId().getTupleNumber())));
+        assertEquals(secondValue.split("\\s+")[0], second.getField(0).toString());
+        assertNotNull(first.getField(0));
+    }
+
     /**
      * JUnit suite target
      */
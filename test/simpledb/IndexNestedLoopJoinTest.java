@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  /** The tuples of the inner table that pass the filter, if any */
+  private static List<Tuple> innerTuples(List<List<Integer>> inner, Predicate filter) {
+    List<Tuple> tuples = new ArrayList<>();
+    for (List<Integer> values : inner) {
+      Tuple t = Utility.getHeapTuple(new int[]{values.get(0), values.get(1)});
+      if (filter == null || filter.filter(t)) {
+        tuples.add(t);
+      }
+    }
+    return tuples;
+  }
+
+  private static List<String> readAll(OpIterator join) throws Exception {
+    join.open();
+    List<String> result = TestUtil.readAll(join);
+    join.close();
+    return result;
+  }
+
+  /**
+   * Looking up each outer key in the B+ tree gives the nested loops result
+   * for equality and range predicates, whatever the batch size
+   */
+  @Test public void joinMatchesNestedLoops() throws Exception {
+    Random rand = new Random(21);
+    List<List<Integer>> inner = new ArrayList<>();
+    BTreeFile file = BTreeUtility.createRandomBTreeFile(2, 5000, 2000, null, inner, 0);
+    List<Tuple> outer = TestUtil.randomTuples(2, 100, 2000, rand);
+    // duplicate outer keys share one lookup
+    outer.addAll(outer.subList(0, 20));
+
+    TransactionId tid = new TransactionId();
+    Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN_OR_EQ};
+    for (Predicate.Op op : ops) {
+      List<String> expected = TestUtil.expectedJoin(outer, innerTuples(inner, null), op);
+      assertFalse(expected.isEmpty());
+      for (int batchSize : new int[]{1, 7, IndexNestedLoopJoin.DEFAULT_BATCH_SIZE}) {
+        IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, op, 0),
+            new TupleIterator(Utility.getTupleDesc(2), outer), new SeqScan(tid, file.getId()));
+        join.setBatchSize(batchSize);
+        assertEquals(op + " in batches of " + batchSize, expected, readAll(join));
+      }
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The predicates of filters over the inner scan, and those pushed into
+   * it, apply to the tuples looked up
+   */
+  @Test public void innerFilters() throws Exception {
+    Random rand = new Random(22);
+    List<List<Integer>> inner = new ArrayList<>();
+    BTreeFile file = BTreeUtility.createRandomBTreeFile(2, 3000, 500, null, inner, 0);
+    List<Tuple> outer = TestUtil.randomTuples(2, 200, 500, rand);
+
+    TransactionId tid = new TransactionId();
+    Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(BTreeUtility.MAX_RAND_VALUE / 2));
+    SeqScan scan = new SeqScan(tid, file.getId());
+    scan.addPredicate(filter);
+    IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(2), outer), new Filter(filter, scan));
+    assertEquals(TestUtil.expectedJoin(outer, innerTuples(inner, filter), Predicate.Op.EQUALS), readAll(join));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Replacing the inner child looks up the tuples in the table of the new
+   * child, with its predicates
+   */
+  @Test public void setChildrenProbesNewInner() throws Exception {
+    Random rand = new Random(23);
+    BTreeFile first = BTreeUtility.createRandomBTreeFile(2, 1000, 500, null, null, 0);
+    List<List<Integer>> inner = new ArrayList<>();
+    BTreeFile second = BTreeUtility.createRandomBTreeFile(2, 2000, 500, null, inner, 0);
+    List<Tuple> outer = TestUtil.randomTuples(2, 200, 500, rand);
+
+    TransactionId tid = new TransactionId();
+    TupleIterator outerScan = new TupleIterator(Utility.getTupleDesc(2), outer);
+    IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        outerScan, new SeqScan(tid, first.getId()));
+    Predicate filter = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(BTreeUtility.MAX_RAND_VALUE / 2));
+    join.setChildren(new OpIterator[]{outerScan, new Filter(filter, new SeqScan(tid, second.getId()))});
+    assertEquals(TestUtil.expectedJoin(outer, innerTuples(inner, filter), Predicate.Op.EQUALS), readAll(join));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  @Test public void onlyKeyFieldsCanBeProbed() throws Exception {
+    BTreeFile file = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+    HeapFile heap = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    TransactionId tid = new TransactionId();
+    assertTrue(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, file.getId())));
+    assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new SeqScan(tid, file.getId())));
+    assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        new SeqScan(tid, file.getId())));
+    assertFalse(IndexNestedLoopJoin.canProbe(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new SeqScan(tid, heap.getId())));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static boolean containsIndexJoin(OpIterator plan) {
+    if (plan instanceof IndexNestedLoopJoin) {
+      return true;
+    }
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (containsIndexJoin(child)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The optimizer probes the B+ tree of a large table for the tuples of a
+   * small one, rather than scanning the large table for each of them
+   */
+  @Test public void optimizerProbesIndex() throws Exception {
+    List<List<Integer>> bigTuples = new ArrayList<>();
+    BTreeFile file = BTreeUtility.createRandomBTreeFile(2, 20000, 1000, null, bigTuples, 0);
+    BTreeFile big = new BTreeFile(file.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(big, "big");
+    List<List<Integer>> smallTuples = new ArrayList<>();
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20, 1000, null, smallTuples, "c");
+    Database.getCatalog().addTable(small, "small");
+
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("big", new TableStats(big.getId(), 1000));
+    stats.put("small", new TableStats(small.getId(), 1000));
+
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+    LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM small, big WHERE small.c1 = big.c0;");
+    OpIterator plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(containsIndexJoin(plan));
+    plan.open();
+    int rows = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      rows++;
+    }
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    int matches = 0;
+    for (List<Integer> s : smallTuples) {
+      for (List<Integer> b : bigTuples) {
+        if (s.get(1).equals(b.get(0))) {
+          matches++;
+        }
+      }
+    }
+    assertTrue(matches > 0);
+    assertEquals(matches, rows);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
@@ -6,6 +6,7 @@ import simpledb.common.Utility;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.Predicate;
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -59,6 +60,23 @@ public class JoinPredicateTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Integer fields are compared as ints, without creating an IntField for
+   * either tuple, with the same result
+   */
+  @Test public void filterInts() {
+    int[] vals = new int[] { -1, 0, 1 };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 1);
+      for (int i : vals) {
+        for (int j : vals) {
+          assertEquals(op + " " + i + " " + j, TestUtil.getField(i).compare(op, TestUtil.getField(j)),
+              p.filter(TestUtil.intTuple(i), TestUtil.intTuple(0, j)));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
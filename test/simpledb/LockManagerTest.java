@@ -0,0 +1,111 @@
+package simpledb;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager;
+import simpledb.storage.PageId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private final PageId p0 = new HeapPageId(1, 0);
+    private final PageId p1 = new HeapPageId(1, 1);
+    private LockManager lm;
+
+    @Before public void setUpLockManager() {
+        lm = new LockManager(5);
+    }
+
+    /**
+     * Acquire a lock in a new thread; the returned latch is released once the
+     * request returns, successfully or not.
+     */
+    private CountDownLatch acquireAsync(TransactionId tid, PageId pid, boolean exclusive,
+                                        AtomicReference<Throwable> error) {
+        CountDownLatch done = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, exclusive);
+            } catch (Throwable e) {
+                error.set(e);
+            }
+            done.countDown();
+        });
+        t.setDaemon(true);
+        t.start();
+        return done;
+    }
+
+    /**
+     * The sole shared holder can upgrade; releasing gives the page up
+     */
+    @Test public void upgradeAndRelease() throws Exception {
+        TransactionId tid = new TransactionId();
+        lm.acquire(tid, p0, false);
+        lm.acquire(tid, p0, true);
+        assertTrue(lm.holdsExclusiveLock(tid, p0));
+        lm.releaseAll(tid);
+        assertFalse(lm.holdsLock(tid, p0));
+    }
+
+    /**
+     * A writer waits for readers and gets the lock once they complete
+     */
+    @Test public void writerWaitsForReaders() throws Exception {
+        TransactionId reader = new TransactionId();
+        TransactionId writer = new TransactionId();
+        lm.acquire(reader, p0, false);
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch done = acquireAsync(writer, p0, true, error);
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(reader);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertTrue(lm.holdsExclusiveLock(writer, p0));
+    }
+
+    /**
+     * In a two-transaction deadlock the younger transaction is aborted and
+     * the older one proceeds
+     */
+    @Test public void youngestTransactionIsAborted() throws Exception {
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, true);
+        lm.acquire(younger, p1, true);
+
+        AtomicReference<Throwable> olderError = new AtomicReference<>();
+        AtomicReference<Throwable> youngerError = new AtomicReference<>();
+        CountDownLatch olderDone = acquireAsync(older, p1, true, olderError);
+        CountDownLatch youngerDone = acquireAsync(younger, p0, true, youngerError);
+
+        assertTrue(youngerDone.await(5, TimeUnit.SECONDS));
+        assertTrue(youngerError.get() instanceof TransactionAbortedException);
+        assertFalse(olderDone.await(50, TimeUnit.MILLISECONDS));
+
+        lm.releaseAll(younger);
+        assertTrue(olderDone.await(1, TimeUnit.SECONDS));
+        assertNull(olderError.get());
+        assertTrue(lm.holdsExclusiveLock(older, p1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
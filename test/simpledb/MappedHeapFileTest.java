@@ -0,0 +1,92 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class MappedHeapFileTest extends SimpleDbTestBase {
+    private MappedHeapFile mhf;
+    private List<List<Integer>> tuples;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1200, 1 << 16, null, tuples);
+        mhf = new MappedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(mhf, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    @After
+    public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for MappedHeapFile.readPage()
+     */
+    @Test
+    public void readPage() {
+        assertEquals(3, mhf.numPages());
+        HeapPage page = (HeapPage) mhf.readPage(new HeapPageId(mhf.getId(), 0));
+        assertEquals(0, page.getNumEmptySlots());
+
+        HeapPage last = (HeapPage) mhf.readPage(new HeapPageId(mhf.getId(), 2));
+        assertEquals(3 * 504 - 1200, last.getNumEmptySlots());
+
+        // the before image is decoded from the same mapping
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void readPagePastEnd() {
+        mhf.readPage(new HeapPageId(mhf.getId(), 3));
+    }
+
+    /**
+     * Scanning a MappedHeapFile returns exactly the tuples that were encoded.
+     */
+    @Test
+    public void scan() throws Exception {
+        SystemTestUtil.matchTuples(mhf, tid, tuples);
+    }
+
+    @Test
+    public void readOnly() throws Exception {
+        try {
+            mhf.insertTuple(tid, Utility.getHeapTuple(1, 2));
+            fail("expected exception");
+        } catch (DbException ignored) {
+        }
+        try {
+            mhf.writePage(mhf.readPage(new HeapPageId(mhf.getId(), 0)));
+            fail("expected exception");
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedHeapFileTest.class);
+    }
+}
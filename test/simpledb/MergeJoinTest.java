@@ -0,0 +1,250 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.MergeJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class MergeJoinTest extends SimpleDbTestBase {
+
+  private static TupleDesc tupleDesc(String alias) {
+    return new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+        new String[]{alias + ".k", alias + ".v"});
+  }
+
+  /** Tuples of (key, row number) in order of key, with many duplicate keys */
+  private static List<Tuple> sortedTuples(TupleDesc td, int rows, int maxKey, Random rand) {
+    List<Integer> keys = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      keys.add(rand.nextInt(maxKey));
+    }
+    Collections.sort(keys);
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < rows; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(keys.get(i)));
+      t.setField(1, new IntField(i));
+      tuples.add(t);
+    }
+    return tuples;
+  }
+
+  /**
+   * Equal keys give the nested loops result, in the same order, reading
+   * each child once
+   */
+  @Test public void mergesEqualKeys() throws Exception {
+    Random rand = new Random(11);
+    List<Tuple> left = sortedTuples(tupleDesc("a"), 300, 60, rand);
+    List<Tuple> right = sortedTuples(tupleDesc("b"), 400, 60, rand);
+    TestUtil.CountingIterator scan1 = new TestUtil.CountingIterator(tupleDesc("a"), left);
+    TestUtil.CountingIterator scan2 = new TestUtil.CountingIterator(tupleDesc("b"), right);
+    MergeJoin join = new MergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2);
+    join.open();
+    List<String> expected = TestUtil.nestedLoopsJoin(left, right, Predicate.Op.EQUALS);
+    assertFalse(expected.isEmpty());
+    assertEquals(expected, TestUtil.readTuples(join));
+    assertTrue(scan1.reads <= left.size());
+    assertTrue(scan2.reads <= right.size());
+
+    join.rewind();
+    assertEquals(expected, TestUtil.readTuples(join));
+    join.close();
+  }
+
+  /**
+   * Keys on one side only, and an inner side that ends before the outer
+   * one, give no extra or missing tuples
+   */
+  @Test public void unmatchedKeys() throws Exception {
+    Random rand = new Random(12);
+    List<Tuple> left = sortedTuples(tupleDesc("a"), 200, 100, rand);
+    List<Tuple> right = sortedTuples(tupleDesc("b"), 50, 40, rand);
+    TestUtil.CountingIterator scan1 = new TestUtil.CountingIterator(tupleDesc("a"), left);
+    MergeJoin join = new MergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1,
+        new TupleIterator(tupleDesc("b"), right));
+    join.open();
+    assertEquals(TestUtil.nestedLoopsJoin(left, right, Predicate.Op.EQUALS), TestUtil.readTuples(join));
+    // the outer tuples with keys past the end of the inner side are not read
+    assertTrue(scan1.reads < left.size());
+    join.close();
+  }
+
+  /**
+   * Only EQUALS is merged: the run of a range predicate may hold most of
+   * the inner side
+   */
+  @Test public void otherPredicatesAreRejected() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      assertEquals(op == Predicate.Op.EQUALS, MergeJoin.supports(op));
+      if (op == Predicate.Op.EQUALS) {
+        continue;
+      }
+      try {
+        new MergeJoin(new JoinPredicate(0, op, 0),
+            new TupleIterator(tupleDesc("a"), new ArrayList<>()),
+            new TupleIterator(tupleDesc("b"), new ArrayList<>()));
+        fail("merged on " + op);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  /**
+   * A join is only merged if the optimizer chose to and both inputs are
+   * ordered on the join key; otherwise it is a hash or nested loops join
+   */
+  @Test public void instantiateJoinPicksMergeJoin() throws Exception {
+    Random rand = new Random(13);
+    List<Tuple> left = sortedTuples(tupleDesc("a"), 10, 5, rand);
+    List<Tuple> right = sortedTuples(tupleDesc("b"), 10, 5, rand);
+    LogicalJoinNode equi = new LogicalJoinNode("a", "b", "a.k", "b.k", Predicate.Op.EQUALS);
+    LogicalJoinNode merging = equi.mergingInputs();
+    LogicalJoinNode range = new LogicalJoinNode("a", "b", "a.k", "b.k", Predicate.Op.LESS_THAN).mergingInputs();
+    LogicalJoinNode onValue = new LogicalJoinNode("a", "b", "a.v", "b.k", Predicate.Op.EQUALS).mergingInputs();
+
+    OpIterator sorted1 = new OrderBy(0, true, new TupleIterator(tupleDesc("a"), left));
+    OpIterator sorted2 = new OrderBy(0, true, new TupleIterator(tupleDesc("b"), right));
+    OpIterator unsorted2 = new TupleIterator(tupleDesc("b"), right);
+    assertTrue(JoinOptimizer.instantiateJoin(merging, sorted1, sorted2) instanceof MergeJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(equi, sorted1, sorted2) instanceof HashEquiJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(range, sorted1, sorted2) instanceof Join);
+    assertTrue(JoinOptimizer.instantiateJoin(merging, sorted1, unsorted2) instanceof HashEquiJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(onValue, sorted1, sorted2) instanceof HashEquiJoin);
+
+    // the result of a merge join is ordered on the outer key
+    OpIterator merged = JoinOptimizer.instantiateJoin(merging, sorted1, sorted2);
+    List<Tuple> third = sortedTuples(tupleDesc("c"), 10, 5, rand);
+    OpIterator sorted3 = new OrderBy(0, true, new TupleIterator(tupleDesc("c"), third));
+    LogicalJoinNode next = new LogicalJoinNode("a", "c", "a.k", "c.k", Predicate.Op.EQUALS).mergingInputs();
+    assertTrue(JoinOptimizer.instantiateJoin(next, merged, sorted3) instanceof MergeJoin);
+  }
+
+  private static boolean containsMergeJoin(OpIterator plan) {
+    if (plan instanceof MergeJoin) {
+      return true;
+    }
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (containsMergeJoin(child)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Register a random B+ tree file keyed on its first field as the named table */
+  private static BTreeFile addBTreeTable(String name, int rows, List<List<Integer>> tuples)
+      throws Exception {
+    BTreeFile file = BTreeUtility.createRandomBTreeFile(2, rows, 500, null, tuples, 0);
+    BTreeFile table = new BTreeFile(file.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(table, name);
+    return table;
+  }
+
+  /**
+   * A query joining two B+ tree files on their keys merges their scans,
+   * since each file is scanned in order of its key
+   */
+  @Test public void optimizerMergesBTreeScans() throws Exception {
+    List<List<Integer>> leftTuples = new ArrayList<>();
+    BTreeFile left = addBTreeTable("l", 2000, leftTuples);
+    List<List<Integer>> rightTuples = new ArrayList<>();
+    BTreeFile right = addBTreeTable("r", 3000, rightTuples);
+
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("l", new TableStats(left.getId(), 1000));
+    stats.put("r", new TableStats(right.getId(), 1000));
+
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+    LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM l, r WHERE l.c0 = r.c0;");
+    OpIterator plan = lp.physicalPlan(tid, stats, false);
+    assertTrue(containsMergeJoin(plan));
+    plan.open();
+    int rows = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      rows++;
+    }
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+    int matches = 0;
+    for (List<Integer> l : leftTuples) {
+      for (List<Integer> r : rightTuples) {
+        if (l.get(0).equals(r.get(0))) {
+          matches++;
+        }
+      }
+    }
+    assertTrue(matches > 0);
+    assertEquals(matches, rows);
+
+    // joined on a field that is not the key of either file, the scans are
+    // in no useful order
+    lp = p.generateLogicalPlan(tid, "SELECT * FROM l, r WHERE l.c1 = r.c1;");
+    assertFalse(containsMergeJoin(lp.physicalPlan(tid, stats, false)));
+  }
+
+  /**
+   * Merging is costed against the other joins: a few keys are looked up in
+   * the B+ tree of a large table rather than scanning all of it
+   */
+  @Test public void optimizerProbesForFewKeys() throws Exception {
+    BTreeFile small = addBTreeTable("s", 5, null);
+    BTreeFile big = addBTreeTable("b", 20000, null);
+
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("s", new TableStats(small.getId(), 1000));
+    stats.put("b", new TableStats(big.getId(), 1000));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM s, b WHERE s.c0 = b.c0;");
+    OpIterator plan = lp.physicalPlan(tid, stats, false);
+    assertFalse(containsMergeJoin(plan));
+    assertTrue(plan instanceof Operator
+        && ((Operator) plan).getChildren()[0] instanceof IndexNestedLoopJoin);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MergeJoinTest.class);
+  }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MultiVersionTest extends SimpleDbTestBase {
+
+    private BufferPool bp;
+    private HeapFile table;
+
+    /**
+     * Creates a table with the rows 0 and 1 in multi-version mode.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setMultiVersion(true);
+
+        TransactionId tid = new TransactionId();
+        insert(tid, 0);
+        insert(tid, 1);
+        bp.transactionComplete(tid);
+    }
+
+    private void insert(TransactionId tid, int value) throws Exception {
+        bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{value, value}));
+    }
+
+    private List<Tuple> scan(TransactionId tid) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    private static List<Integer> values(List<Tuple> tuples) {
+        List<Integer> values = new ArrayList<>();
+        for (Tuple t : tuples) {
+            values.add(((IntField) t.getField(0)).getValue());
+        }
+        values.sort(null);
+        return values;
+    }
+
+    /**
+     * A reader neither waits for an uncommitted delete nor sees it, and keeps
+     * seeing its snapshot after the delete and a new insert commit
+     */
+    @Test public void readerSeesItsSnapshot() throws Exception {
+        TransactionId reader = new TransactionId();
+        bp.transactionStarted(reader);
+
+        TransactionId writer = new TransactionId();
+        Tuple row0 = scan(writer).get(0);
+        bp.deleteTuple(writer, row0);
+        insert(writer, 2);
+
+        // would block on the record lock without snapshots
+        assertEquals(Arrays.asList(0, 1), values(scan(reader)));
+        assertEquals(Arrays.asList(1, 2), values(scan(writer)));
+
+        bp.transactionComplete(writer);
+        assertEquals(Arrays.asList(0, 1), values(scan(reader)));
+        bp.transactionComplete(reader);
+
+        TransactionId later = new TransactionId();
+        assertEquals(Arrays.asList(1, 2), values(scan(later)));
+        bp.transactionComplete(later);
+    }
+
+    /**
+     * Deleting a row another transaction deleted after our snapshot was taken
+     * aborts: the first committer wins
+     */
+    @Test public void firstCommitterWins() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        Tuple row1 = scan(tid1).get(0);
+        Tuple row2 = scan(tid2).get(0);
+
+        bp.deleteTuple(tid1, row1);
+        bp.transactionComplete(tid1);
+        try {
+            bp.deleteTuple(tid2, row2);
+            fail("expected TransactionAbortedException");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        bp.transactionComplete(tid2, false);
+    }
+
+    /**
+     * History is kept while an older snapshot runs, and vacuumed afterwards
+     */
+    @Test public void vacuumDropsObsoleteVersions() throws Exception {
+        VersionStore versions = bp.getVersionStore();
+        versions.vacuum();
+        assertEquals(0, versions.size());
+
+        TransactionId reader = new TransactionId();
+        bp.transactionStarted(reader);
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, scan(writer).get(0));
+        insert(writer, 2);
+        bp.transactionComplete(writer);
+
+        versions.vacuum();
+        assertEquals(2, versions.size());
+        bp.transactionComplete(reader);
+        assertEquals(2, versions.vacuum());
+        assertEquals(0, versions.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MultiVersionTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+
+    private TupleDesc td;
+    private HeapFile rowFile;
+    private PaxHeapFile paxFile;
+
+    /**
+     * Writes the same (INT, STRING, INT) table as heap pages and as PAX
+     * pages.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Type[] types = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+        td = new TupleDesc(types, new String[]{"id", "name", "value"});
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                bw.write(i + ",name" + i + "," + (i * 7) + "\n");
+            }
+        }
+        File rows = File.createTempFile("rows", ".dat");
+        HeapFile.deleteOnExit(rows);
+        File pax = File.createTempFile("pax", ".dat");
+        HeapFile.deleteOnExit(pax);
+        HeapFileEncoder.convert(text, rows, BufferPool.getPageSize(), 3, types, ',');
+        HeapFileEncoder.convertPax(text, pax, BufferPool.getPageSize(), 3, types, ',');
+        rowFile = new HeapFile(rows, td);
+        paxFile = new PaxHeapFile(pax, td);
+        Database.getCatalog().addTable(rowFile, "rows");
+        Database.getCatalog().addTable(paxFile, "pax");
+    }
+
+    private static List<String> scan(DbFile file) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        List<String> tuples = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            tuples.add(t.getRecordId().getPageId().getPageNumber() + "/"
+                    + t.getRecordId().getTupleNumber() + ":" + t);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /**
+     * The PAX file holds the same tuples in the same slots, with the values
+     * of each column next to each other
+     */
+    @Test public void sameTuplesByColumn() throws Exception {
+        assertEquals(rowFile.numPages(), paxFile.numPages());
+        List<String> expected = scan(rowFile);
+        assertEquals(ROWS, expected.size());
+        assertEquals(expected, scan(paxFile));
+
+        HeapPage page = (HeapPage) paxFile.readPage(new HeapPageId(paxFile.getId(), 0));
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (page.getNumSlots() + 7) / 8;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, data.getInt(header + 4 * i));
+        }
+        assertTrue(page instanceof PaxHeapPage);
+    }
+
+    /**
+     * Inserts and deletes through the buffer pool are written back in the
+     * PAX layout
+     */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(paxFile.getId(), 0), Permissions.READ_WRITE);
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple second = it.next();
+        Database.getBufferPool().deleteTuple(tid, second);
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new IntField(-2));
+        Database.getBufferPool().insertTuple(tid, paxFile.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(second.getRecordId(), t.getRecordId());
+
+        HeapPage read = (HeapPage) paxFile.readPage(new HeapPageId(paxFile.getId(), 0));
+        assertEquals("-1\tnew\t-2", read.getTuple(1).toString());
+        assertEquals("2\tname2\t14", read.getTuple(2).toString());
+        assertEquals(ROWS, scan(paxFile).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 import simpledb.common.Utility;
 import simpledb.execution.Predicate;
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -57,6 +58,22 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Integer fields are compared to an IntField as ints, without creating
+   * an IntField for each tuple, with the same result
+   */
+  @Test public void filterInts() {
+    int[] vals = new int[] { -1, 0, 1 };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i : vals) {
+        Predicate p = new Predicate(0, op, TestUtil.getField(i));
+        for (int j : vals) {
+          assertEquals(op + " " + j, p.filter(Utility.getHeapTuple(j)), p.filter(TestUtil.intTuple(j)));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,146 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecordLockingTest extends SimpleDbTestBase {
+
+    private BufferPool bp;
+    private HeapFile table;
+    private Tuple row0;
+    private Tuple row1;
+
+    /**
+     * Creates a one-page table with two rows, (0, 0) and (1, 1), and switches
+     * the buffer pool to record locking.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        List<List<Integer>> rows = new ArrayList<>();
+        rows.add(Arrays.asList(0, 0));
+        rows.add(Arrays.asList(1, 1));
+        table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setRecordLocking(true);
+
+        TransactionId tid = new TransactionId();
+        for (List<Integer> row : rows) {
+            bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{row.get(0), row.get(1)}));
+        }
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        List<Tuple> tuples = scan(tid);
+        bp.transactionComplete(tid);
+        row0 = tuples.get(0);
+        row1 = tuples.get(1);
+    }
+
+    private List<Tuple> scan(TransactionId tid) throws Exception {
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /** Reads the table's first page from disk, bypassing the buffer pool */
+    private int tuplesOnDisk() {
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+        return page.getNumSlots() - page.getNumEmptySlots();
+    }
+
+    /**
+     * Transactions deleting different records of a page do not block each
+     * other, and each delete is applied when its transaction commits
+     */
+    @Test public void deletesOfDifferentRecordsOnOnePage() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.deleteTuple(tid1, row0);
+        bp.deleteTuple(tid2, row1);
+        assertEquals(2, tuplesOnDisk());
+
+        bp.transactionComplete(tid1);
+        assertEquals(1, tuplesOnDisk());
+        bp.transactionComplete(tid2);
+        assertEquals(0, tuplesOnDisk());
+    }
+
+    /**
+     * A commit writes the page without the inserts of transactions that are
+     * still running, and an abort removes the transaction's inserts
+     */
+    @Test public void commitDoesNotWriteOthersInserts() throws Exception {
+        TransactionId tid1 = new TransactionId();
+        TransactionId tid2 = new TransactionId();
+        bp.insertTuple(tid1, table.getId(), Utility.getHeapTuple(new int[]{2, 2}));
+        bp.insertTuple(tid2, table.getId(), Utility.getHeapTuple(new int[]{3, 3}));
+
+        bp.transactionComplete(tid1);
+        assertEquals(3, tuplesOnDisk());
+        bp.transactionComplete(tid2, false);
+        assertEquals(3, tuplesOnDisk());
+
+        TransactionId tid = new TransactionId();
+        assertEquals(3, scan(tid).size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A reader blocks on a record another transaction deleted, and no longer
+     * sees it once the delete commits
+     */
+    @Test public void readerWaitsForUncommittedDelete() throws Exception {
+        TransactionId writer = new TransactionId();
+        bp.deleteTuple(writer, row0);
+
+        TransactionId reader = new TransactionId();
+        AtomicReference<List<Tuple>> seen = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread t = new Thread(() -> {
+            try {
+                seen.set(scan(reader));
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            done.countDown();
+        });
+        t.setDaemon(true);
+        t.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+
+        bp.transactionComplete(writer);
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(1, seen.get().size());
+        assertEquals(row1.getField(0), seen.get().get(0).getField(0));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int TABLE = 1;
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(TABLE, pgNo);
+    }
+
+    /**
+     * Runs a scan of scanPages distinct pages through a 4-frame policy whose
+     * frame 0 holds a page that has been used twice, and returns true if
+     * frame 0 survived the scan.
+     */
+    private static boolean hotPageSurvivesScan(ReplacementPolicy policy, int scanPages) {
+        // bring in the hot page, let it be evicted, and bring it in again
+        policy.pageAdded(0, pid(0));
+        assertEquals(0, policy.evict(f -> f == 0));
+        policy.pageAdded(0, pid(0));
+        policy.pageAccessed(0, pid(0));
+
+        for (int f = 1; f < 4; f++) {
+            policy.pageAdded(f, pid(100 + f));
+        }
+        for (int i = 0; i < scanPages; i++) {
+            int victim = policy.evict(f -> true);
+            if (victim == 0) {
+                return false;
+            }
+            policy.pageAdded(victim, pid(200 + i));
+        }
+        return true;
+    }
+
+    /**
+     * Unit test for TwoQueuePolicy: a reused page is not evicted by a scan
+     */
+    @Test public void twoQueueIsScanResistant() {
+        assertTrue(hotPageSurvivesScan(new TwoQueuePolicy(4, 1, 2), 100));
+    }
+
+    /**
+     * CLOCK eventually evicts the same page during a long scan
+     */
+    @Test public void clockIsNotScanResistant() {
+        assertFalse(hotPageSurvivesScan(new ClockPolicy(4), 100));
+    }
+
+    /**
+     * A hit on a page in Am gives its frame a second chance, so the pages
+     * of Am that were not hit are evicted first
+     */
+    @Test public void twoQueueHitsGiveSecondChance() {
+        TwoQueuePolicy policy = new TwoQueuePolicy(4, 1, 4);
+        // pages 0 to 2 are seen twice, so they live in Am
+        for (int f = 0; f < 3; f++) {
+            policy.pageAdded(f, pid(f));
+            assertEquals(f, policy.evict(v -> true));
+        }
+        for (int f = 0; f < 3; f++) {
+            policy.pageAdded(f, pid(f));
+        }
+        policy.pageAccessed(0, pid(0));
+        policy.pageAccessed(2, pid(2));
+        assertEquals(1, policy.evict(f -> true));
+        assertEquals(0, policy.evict(f -> true));
+        assertEquals(2, policy.evict(f -> true));
+        assertEquals(-1, policy.evict(f -> true));
+    }
+
+    /**
+     * Frames that cannot be claimed are skipped
+     */
+    @Test public void skipsUnclaimableFrames() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[] {new ClockPolicy(3), new TwoQueuePolicy(3)}) {
+            for (int f = 0; f < 3; f++) {
+                policy.pageAdded(f, pid(f));
+            }
+            assertEquals(2, policy.evict(f -> f == 2));
+            assertEquals(-1, policy.evict(f -> false));
+        }
+    }
+
+    /**
+     * The buffer pool reports hits and misses to its policy
+     */
+    @Test public void hitAndMissCounts() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 504 * 6, null, null);
+        BufferPool bp = Database.resetBufferPool(new TwoQueuePolicy(4));
+        TransactionId tid = new TransactionId();
+
+        for (int i = 0; i < 6; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.getPage(tid, new HeapPageId(hf.getId(), 5), Permissions.READ_ONLY);
+
+        ReplacementPolicy policy = bp.getReplacementPolicy();
+        assertEquals(6, policy.getMissCount());
+        assertEquals(1, policy.getHitCount());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
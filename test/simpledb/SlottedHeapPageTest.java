@@ -0,0 +1,187 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    /**
+     * Registers an empty slotted table of (INT, VARCHAR) tuples.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE}, new String[]{"id", "name"});
+        File f = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(f);
+        SlottedHeapFile table = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(table, "slotted");
+        pid = new HeapPageId(table.getId(), 0);
+    }
+
+    private Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(id));
+        t.setField(1, new VarcharField(name));
+        return t;
+    }
+
+    private static String name(int i, int len) {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < len) {
+            sb.append((char) ('a' + (i + sb.length()) % 26));
+        }
+        return sb.toString();
+    }
+
+    private static Map<Integer, String> contents(HeapPage page) {
+        Map<Integer, String> contents = new HashMap<>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            contents.put(t.getRecordId().getTupleNumber(),
+                    ((IntField) t.getField(0)).getValue() + ":" + ((StringField) t.getField(1)).getValue());
+        }
+        return contents;
+    }
+
+    /**
+     * Tuples of different sizes survive a round trip through the page bytes
+     */
+    @Test public void roundTrip() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 20; i++) {
+            page.insertTuple(tuple(i, name(i, i * 5)));
+        }
+        Map<Integer, String> expected = contents(page);
+        assertEquals(20, expected.size());
+
+        SlottedHeapPage read = new SlottedHeapPage(pid, page.getPageData());
+        assertEquals(expected, contents(read));
+        assertEquals("", ((StringField) read.getTuple(0).getField(1)).getValue());
+        assertEquals(Type.VARCHAR_TYPE, read.getTuple(3).getField(1).getType());
+    }
+
+    /**
+     * Short strings take only the space they need
+     */
+    @Test public void storesTuplesAtTheirSize() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "abc"))) {
+            page.insertTuple(tuple(n, "abc"));
+            n++;
+        }
+        // 4 + 4 + 3 bytes per tuple plus a 4 byte directory entry
+        assertEquals((BufferPool.getPageSize() - 4) / 15, n);
+        assertEquals(0, page.getNumEmptySlots());
+        try {
+            page.insertTuple(tuple(n, "abc"));
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * An insert larger than any hole left by deletes compacts the page;
+     * record ids do not change
+     */
+    @Test public void compactsOnInsert() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> inserted = new ArrayList<>();
+        for (int i = 0; page.hasRoomFor(tuple(i, name(i, 60))); i++) {
+            Tuple t = tuple(i, name(i, 60));
+            page.insertTuple(t);
+            inserted.add(t);
+        }
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        Map<Integer, String> expected = contents(page);
+
+        Tuple big = tuple(-1, name(0, 120));
+        assertTrue(page.hasRoomFor(big));
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().getTupleNumber());
+        expected.put(0, "-1:" + name(0, 120));
+        assertEquals(expected, contents(page));
+        assertEquals(expected, contents(new SlottedHeapPage(pid, page.getPageData())));
+    }
+
+    /**
+     * The encoder writes slotted files that need far fewer pages than fixed
+     * slots, and inserts through the buffer pool go to slotted pages
+     */
+    @Test public void encoderAndHeapFile() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < 1000; i++) {
+                bw.write(i + "," + name(i, i % 10) + "\n");
+            }
+        }
+        File fixed = File.createTempFile("fixed", ".dat");
+        HeapFile.deleteOnExit(fixed);
+        File slotted = File.createTempFile("slotted", ".dat");
+        HeapFile.deleteOnExit(slotted);
+        Type[] types = {Type.INT_TYPE, Type.VARCHAR_TYPE};
+        HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), 2, types, ',');
+        HeapFileEncoder.convertSlotted(text, slotted, BufferPool.getPageSize(), 2, types, ',');
+
+        HeapFile fixedFile = new HeapFile(fixed, td);
+        SlottedHeapFile slottedFile = new SlottedHeapFile(slotted, td);
+        Database.getCatalog().addTable(fixedFile, "fixed");
+        Database.getCatalog().addTable(slottedFile, "slotted2");
+        assertTrue(fixedFile.numPages() >= 5 * slottedFile.numPages());
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, slottedFile.getId(), tuple(1000, "new"));
+        Database.getBufferPool().transactionComplete(tid);
+
+        for (HeapFile file : new HeapFile[]{fixedFile, slottedFile}) {
+            tid = new TransactionId();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            int count = 0;
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                int id = ((IntField) t.getField(0)).getValue();
+                String expected = id == 1000 ? "new" : name(id, id % 10);
+                assertEquals(expected, ((StringField) t.getField(1)).getValue());
+                count++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(file == slottedFile ? 1001 : 1000, count);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
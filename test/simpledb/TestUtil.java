@@ -1,13 +1,17 @@
 package simpledb;
 
 import simpledb.common.*;
+import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
@@ -168,6 +172,92 @@ public class TestUtil {
         }
     }
 
+    /**
+     * @return rows tuples of width INT_TYPE fields: a random key below
+     *   maxKey, then the number of the row in the other fields
+     */
+    public static List<Tuple> randomTuples(int width, int rows, int maxKey, Random rand) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(Utility.getTupleDesc(width));
+            t.setField(0, new IntField(rand.nextInt(maxKey)));
+            for (int j = 1; j < width; j++) {
+                t.setField(j, new IntField(i));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /**
+     * @return the join of the tuples on their first fields computed by
+     *   nested loops, as strings in the order of the outer tuples
+     */
+    public static List<String> nestedLoopsJoin(List<Tuple> left, List<Tuple> right, Predicate.Op op) {
+        JoinPredicate p = new JoinPredicate(0, op, 0);
+        List<String> result = new ArrayList<>();
+        for (Tuple l : left) {
+            for (Tuple r : right) {
+                if (p.filter(l, r)) {
+                    result.add(l + "\t" + r);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the join of the tuples on their first fields computed by
+     *   nested loops, as sorted strings to compare with {@link #readAll}
+     */
+    public static List<String> expectedJoin(List<Tuple> left, List<Tuple> right, Predicate.Op op) {
+        List<String> result = nestedLoopsJoin(left, right, op);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return the remaining tuples of an open iterator, as strings in the
+     *   order they are returned
+     */
+    public static List<String> readTuples(OpIterator it)
+        throws DbException, TransactionAbortedException {
+        List<String> result = new ArrayList<>();
+        while (it.hasNext()) {
+            result.add(it.next().toString());
+        }
+        return result;
+    }
+
+    /**
+     * @return the remaining tuples of an open iterator, as sorted strings
+     */
+    public static List<String> readAll(OpIterator it)
+        throws DbException, TransactionAbortedException {
+        List<String> result = readTuples(it);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * @return a tuple of INT_TYPE fields holding the values as ints, which
+     *   fails the test if a field is read as an IntField rather than an int
+     */
+    public static Tuple intTuple(int... values) {
+        Tuple t = new Tuple(Utility.getTupleDesc(values.length)) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Field getField(int i) {
+                throw new AssertionError("field " + i + " was read as an IntField");
+            }
+        };
+        for (int i = 0; i < values.length; i++) {
+            t.setInt(i, values[i]);
+        }
+        return t;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
@@ -241,6 +331,50 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * PageChannel counting the reads of its file, to check how much of a
+     * table file is read.
+     */
+    public static class CountingChannel extends PageChannel {
+        public final AtomicInteger reads = new AtomicInteger();
+
+        public CountingChannel(File f) {
+            super(f);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            reads.incrementAndGet();
+            return super.read(dst, position);
+        }
+    }
+
+    /**
+     * TupleIterator counting the tuples read from it and how often it is
+     * rewound, to check how many times an operator reads its child.
+     */
+    public static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        public int reads;
+        public int rewinds;
+
+        public CountingIterator(TupleDesc td, List<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        @Override
+        public Tuple next() {
+            reads++;
+            return super.next();
+        }
+
+        @Override
+        public void rewind() {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
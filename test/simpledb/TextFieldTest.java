@@ -0,0 +1,200 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class TextFieldTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 40;
+
+    /** Counts the overflow pages read from disk */
+    private static class CountingHeapFile extends HeapFile {
+        int overflowReads;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid instanceof OverflowPageId) {
+                overflowReads++;
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private File file;
+    private TupleDesc td;
+    private CountingHeapFile table;
+    private List<String> values;
+
+    private static String value(int i) {
+        // from empty up to several pages long
+        char[] chars = new char[i * 700];
+        Arrays.fill(chars, (char) ('a' + i % 26));
+        return i + ":" + new String(chars);
+    }
+
+    @Before public void setUp() throws Exception {
+        file = File.createTempFile("text", ".dat");
+        HeapFile.deleteOnExit(file);
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.TEXT_TYPE}, new String[]{"id", "body"});
+        table = new CountingHeapFile(file, td);
+        Database.getCatalog().addTable(table, "text");
+
+        values = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++) {
+            values.add(value(i));
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new TextField(value(i)));
+            // the overflow pages stay in the buffer pool until the commit
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        Database.getBufferPool().flushAllPages();
+    }
+
+    private void reopen() throws Exception {
+        table.close();
+        table = new CountingHeapFile(file, td);
+        Database.getCatalog().addTable(table, "text");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * The values are stored out of line, and read back from their overflow
+     * pages after a restart
+     */
+    @Test public void storeAndRead() throws Exception {
+        // one page of tuples, the rest in the overflow file
+        assertEquals(1, table.numPages());
+        assertTrue(new File(file.getPath() + ".ovf").length() >= 700L * ROWS * (ROWS - 1) / 2);
+
+        reopen();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        List<String> read = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(Type.TEXT_TYPE, t.getField(1).getType());
+            read.add(((TextField) t.getField(1)).getValue());
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(values, read);
+    }
+
+    /**
+     * A scan that never looks at the TEXT column never reads its overflow
+     * pages
+     */
+    @Test public void scanSkipsOverflowPages() throws Exception {
+        reopen();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        int sum = 0;
+        while (scan.hasNext()) {
+            sum += scan.next().getInt(0);
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS * (ROWS - 1) / 2, sum);
+        assertEquals(0, table.overflowReads);
+    }
+
+    /**
+     * Predicates on the TEXT column compare the values, and only read the
+     * overflow pages of the tuples they look at
+     */
+    @Test public void filterOnText() throws Exception {
+        reopen();
+        TransactionId tid = new TransactionId();
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LIKE, new StringField("7:", Type.STRING_LEN)),
+                new SeqScan(tid, table.getId(), "t"));
+        filter.open();
+        List<Integer> ids = new ArrayList<>();
+        while (filter.hasNext()) {
+            Tuple t = filter.next();
+            ids.add(t.getInt(0));
+            assertEquals(values.get(t.getInt(0)), t.getField(1).toString());
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(Arrays.asList(7, 17, 27, 37), ids);
+        assertTrue(table.overflowReads > 0);
+    }
+
+    /**
+     * The overflow pages of an aborted insert are never written, and the
+     * next insert reuses them
+     */
+    @Test public void abortedInsertReusesPages() throws Exception {
+        File ovf = new File(file.getPath() + ".ovf");
+        long length = ovf.length();
+        String big = value(ROWS);
+
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new TextField(big));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid, false);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(length, ovf.length());
+
+        t = new Tuple(td);
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new TextField(big));
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        // each page holds the next page number and a length before the value
+        int capacity = BufferPool.getPageSize() - 8;
+        int pages = (big.length() + capacity - 1) / capacity;
+        assertEquals(length + (long) pages * BufferPool.getPageSize(), ovf.length());
+
+        reopen();
+        tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        String read = null;
+        while (scan.hasNext()) {
+            Tuple next = scan.next();
+            if (next.getInt(0) == ROWS) {
+                read = ((TextField) next.getField(1)).getValue();
+            }
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(big, read);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TextFieldTest.class);
+    }
+}
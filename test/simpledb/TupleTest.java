@@ -31,6 +31,26 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple.getInt() and Tuple.setInt()
+     */
+    @Test public void modifyInts() {
+        Tuple tup = new Tuple(Utility.getTupleDesc(3));
+        tup.setInt(0, -1);
+        tup.setField(1, new IntField(7));
+        tup.setInt(2, 37);
+
+        assertEquals(-1, tup.getInt(0));
+        assertEquals(7, tup.getInt(1));
+        assertEquals(new IntField(37), tup.getField(2));
+        assertEquals("-1\t7\t37", tup.toString());
+
+        tup.setField(0, new IntField(5));
+        tup.setInt(1, 8);
+        assertEquals(5, tup.getInt(0));
+        assertEquals(new IntField(8), tup.getField(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -0,0 +1,377 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    /** A HeapFile counting the pages it reads from disk, and all reads of its file */
+    private static class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+        final TestUtil.CountingChannel channel;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            this(f, td, new TestUtil.CountingChannel(f));
+        }
+
+        private CountingHeapFile(File f, TupleDesc td, TestUtil.CountingChannel channel) {
+            super(f, td, channel);
+            this.channel = channel;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private static final int ROWS = 5000;
+
+    private File file;
+    private CountingHeapFile table;
+
+    /**
+     * Creates a table of (ts, value) tuples appended in ts order.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("zones", ".dat");
+        HeapFile.deleteOnExit(file);
+        encode(file, ROWS, 0, 1);
+        reopen();
+    }
+
+    /**
+     * Writes rows (ts, value) tuples to the file, with ts going from first
+     * in steps of step.
+     */
+    private static void encode(File file, int rows, int first, int step) throws Exception {
+        File text = File.createTempFile("zones", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                bw.write((first + i * step) + "," + (i % 17) + "\n");
+            }
+        }
+        HeapFileEncoder.convert(text, file, BufferPool.getPageSize(), 2,
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',');
+    }
+
+    /** Register a new HeapFile for the table with an empty buffer pool */
+    private void reopen() {
+        Database.getCatalog().clear();
+        table = new CountingHeapFile(file, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "zones");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Lose the zone map of the table, as if it was never written */
+    private void dropMap() throws Exception {
+        table.close();
+        assertTrue(new File(file.getPath() + ".zm").delete());
+        reopen();
+    }
+
+    private List<Integer> scan(Predicate... predicates) throws Exception {
+        return scan(table, predicates);
+    }
+
+    private static List<Integer> scan(HeapFile table, Predicate... predicates) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId());
+        for (Predicate p : predicates) {
+            scan.addPredicate(p);
+        }
+        List<Integer> ts = new ArrayList<>();
+        scan.open();
+        while (scan.hasNext()) {
+            ts.add(((IntField) scan.next().getField(0)).getValue());
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return ts;
+    }
+
+    private Tuple tuple(int ts, int value) {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(ts));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private static Predicate ts(Predicate.Op op, int value) {
+        return new Predicate(0, op, new IntField(value));
+    }
+
+    /**
+     * The bounds of the pages are written when the table is loaded, so even
+     * the first range scan only reads the pages that can hold a match
+     */
+    @Test public void skipsPagesOutOfRange() throws Exception {
+        assertTrue(table.numPages() > 5);
+        assertEquals(10, scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10)).size());
+        assertEquals(1, table.reads.get());
+        assertEquals("only the trailer and the last page are read", 2, table.channel.reads.get());
+
+        table.reads.set(0);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, scan(ts(Predicate.Op.EQUALS, 100), new Predicate(1, Predicate.Op.EQUALS,
+                new IntField(100 % 17))).size());
+        assertEquals(1, table.reads.get());
+        assertTrue(scan(ts(Predicate.Op.LESS_THAN, 0)).isEmpty());
+    }
+
+    /**
+     * Without a map, scans learn the bounds of the columns they filter on;
+     * reading a page without a filter on a column teaches nothing about it
+     */
+    @Test public void learnsFilteredColumnsOnly() throws Exception {
+        dropMap();
+        int numPages = table.numPages();
+        Predicate noValue = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100));
+        scan();
+        assertTrue(scan(noValue).isEmpty());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.reads.set(0);
+        assertEquals(10, scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10)).size());
+        assertEquals(numPages, table.reads.get());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.reads.set(0);
+        assertTrue(scan(noValue).isEmpty());
+        assertEquals(0, table.reads.get());
+    }
+
+    /**
+     * Inserted tuples widen the bounds of their page, and the bounds survive
+     * a restart
+     */
+    @Test public void insertsWidenBounds() throws Exception {
+        int lastPage = table.numPages() - 1;
+
+        TransactionId tid = new TransactionId();
+        Tuple t = tuple(-5, 0);
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(lastPage, t.getRecordId().getPageId().getPageNumber());
+
+        List<Integer> found = scan(ts(Predicate.Op.LESS_THAN, 1));
+        assertEquals(2, found.size());
+        assertTrue(found.contains(-5));
+
+        reopen();
+        found = scan(ts(Predicate.Op.LESS_THAN, 1));
+        assertEquals(2, found.size());
+        assertEquals("only the first and the last page are read", 2, table.reads.get());
+    }
+
+    /**
+     * Without a map, the bounds of a page are learned from its tuples when a
+     * transaction that changed it commits
+     */
+    @Test public void learnsBoundsOfCommittedPages() throws Exception {
+        dropMap();
+        int lastPage = table.numPages() - 1;
+
+        TransactionId tid = new TransactionId();
+        Tuple t = tuple(-5, 0);
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(lastPage, t.getRecordId().getPageId().getPageNumber());
+
+        reopen();
+        assertTrue(scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS)).isEmpty());
+        assertEquals("every page but the last is read", lastPage, table.reads.get());
+    }
+
+    /**
+     * The planner pushes the predicates of the WHERE clause into the scan,
+     * which evaluates them once, rather than also filtering above it
+     */
+    @Test public void plannerPushesFiltersIntoScans() throws Exception {
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("zones", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM zones z1, zones z2 WHERE z1.c0 = z2.c0 AND z1.c0 >= " + (ROWS - 10) + ";");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        List<SeqScan> scans = new ArrayList<>();
+        collectScans(plan, scans);
+        assertEquals(2, scans.size());
+        assertEquals(1, scans.get(0).getPredicates().size() + scans.get(1).getPredicates().size());
+
+        int rows = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            rows++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(10, rows);
+    }
+
+    /** Add the scans of the plan to scans, failing if it has a Filter */
+    private static void collectScans(OpIterator plan, List<SeqScan> scans) {
+        assertFalse(plan instanceof Filter);
+        if (plan instanceof SeqScan) {
+            scans.add((SeqScan) plan);
+        } else if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                collectScans(child, scans);
+            }
+        }
+    }
+
+    /**
+     * The other encoders write the bounds of their pages as well
+     */
+    @Test public void encodersWriteBounds() throws Exception {
+        File text = File.createTempFile("zones", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                bw.write(i + "," + (i % 17) + "\n");
+            }
+        }
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE};
+        TupleDesc td = Utility.getTupleDesc(2);
+        AtomicInteger reads = new AtomicInteger();
+        for (String format : new String[]{"pax", "compressed", "slotted", "dictionary"}) {
+            File f = File.createTempFile("zones", ".dat");
+            HeapFile.deleteOnExit(f);
+            HeapFile encoded;
+            switch (format) {
+                case "pax":
+                    HeapFileEncoder.convertPax(text, f, BufferPool.getPageSize(), 2, types, ',');
+                    encoded = new PaxHeapFile(f, td) {
+                        @Override
+                        public Page readPage(PageId pid) {
+                            reads.incrementAndGet();
+                            return super.readPage(pid);
+                        }
+                    };
+                    break;
+                case "compressed":
+                    HeapFileEncoder.convertCompressed(text, f, BufferPool.getPageSize(), 2, types, ',');
+                    encoded = new CompressedHeapFile(f, td) {
+                        @Override
+                        public Page readPage(PageId pid) {
+                            reads.incrementAndGet();
+                            return super.readPage(pid);
+                        }
+                    };
+                    break;
+                case "slotted":
+                    HeapFileEncoder.convertSlotted(text, f, BufferPool.getPageSize(), 2, types, ',');
+                    encoded = new SlottedHeapFile(f, td) {
+                        @Override
+                        public Page readPage(PageId pid) {
+                            reads.incrementAndGet();
+                            return super.readPage(pid);
+                        }
+                    };
+                    break;
+                default:
+                    HeapFileEncoder.convertDictionary(text, f, BufferPool.getPageSize(), 2, types, ',');
+                    encoded = new DictionaryHeapFile(f, td) {
+                        @Override
+                        public Page readPage(PageId pid) {
+                            reads.incrementAndGet();
+                            return super.readPage(pid);
+                        }
+                    };
+                    break;
+            }
+            Database.getCatalog().addTable(encoded, format);
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            reads.set(0);
+            assertTrue(format, encoded.numPages() > 5);
+            assertEquals(format, 10, scan(encoded, ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10)).size());
+            assertEquals(format, 1, reads.get());
+            encoded.close();
+        }
+    }
+
+    /**
+     * A map written for an earlier version of the table file is dropped
+     * rather than used to skip pages of the new one
+     */
+    @Test public void replacedTableDropsMap() throws Exception {
+        scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10));
+        table.close();
+        assertTrue(new File(file.getPath() + ".zm").length() > 0);
+
+        // the same table regenerated elsewhere, in descending order
+        File other = File.createTempFile("zones", ".dat");
+        HeapFile.deleteOnExit(other);
+        encode(other, 2 * ROWS, 2 * ROWS - 1, -1);
+        Files.copy(other.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        reopen();
+        assertEquals(10, scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, 2 * ROWS - 10)).size());
+        assertEquals(table.numPages(), table.reads.get());
+    }
+
+    /**
+     * A map written for the table file is dropped once the file is
+     * rewritten in place, even if its length and modification time did not
+     * change
+     */
+    @Test public void rewrittenTableDropsMap() throws Exception {
+        scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10));
+        table.close();
+        long length = file.length();
+        long modified = file.lastModified();
+
+        // the same rows in descending order, so the highest ts move from the
+        // last page to the first
+        File other = File.createTempFile("zones", ".dat");
+        HeapFile.deleteOnExit(other);
+        encode(other, ROWS, ROWS - 1, -1);
+        Files.copy(other.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTrue(file.setLastModified(modified));
+        assertEquals(length, file.length());
+
+        reopen();
+        assertEquals(10, scan(ts(Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10)).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs the same plans tuple at a time and batch at a time, and checks that
+ * both give the same tuples. {@link Benchmark} compares the throughput of
+ * both on the scan-filter-project-aggregate plan.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+
+    static List<List<Integer>> readTuples(OpIterator it) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    static List<List<Integer>> readBatches(OpIterator it, int capacity)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        TupleBatch batch = new TupleBatch(it.getTupleDesc(), capacity);
+        it.open();
+        while (it.nextBatch(batch)) {
+            assertTrue(batch.selectedCount() > 0);
+            int[] sel = batch.selection();
+            for (int k = 0; k < batch.selectedCount(); k++) {
+                result.add(SystemTestUtil.tupleToList(batch.getTuple(sel[k])));
+            }
+        }
+        assertFalse(it.nextBatch(batch));
+        it.close();
+        return result;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> tuples) {
+        List<List<Integer>> copy = new ArrayList<>(tuples);
+        copy.sort(Comparator.comparing(Object::toString));
+        return copy;
+    }
+
+    /** select c0, sum(c2) from t where c1 < 500 group by c0 */
+    static OpIterator plan(TransactionId tid, HeapFile table) {
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)), scan);
+        Project project = new Project(Arrays.asList(0, 2), new Type[]{Type.INT_TYPE, Type.INT_TYPE}, filter);
+        return new Aggregate(project, 1, 0, Aggregator.Op.SUM);
+    }
+
+    @Test public void scanFilterProjectAggregate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples);
+        Map<Integer, Integer> sums = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500) {
+                sums.merge(t.get(0), t.get(2), Integer::sum);
+            }
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+        }
+
+        TransactionId tid = new TransactionId();
+        assertEquals(sorted(expected), sorted(readTuples(plan(tid, table))));
+        assertEquals(sorted(expected), sorted(readBatches(plan(tid, table), TupleBatch.DEFAULT_CAPACITY)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A pushed down predicate and a projection in batches; batches smaller
+     * than a page and projected batches that are refilled must not mix up
+     * rows
+     */
+    @Test public void scanWithPushedDownPredicate() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(2) >= 90) {
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.addPredicate(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(90)));
+        OpIterator project = new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE}, scan);
+        assertEquals(expected, readBatches(project, 7));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void hashEquiJoin() throws Exception {
+        List<List<Integer>> left = new ArrayList<>();
+        List<List<Integer>> right = new ArrayList<>();
+        HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, left);
+        HeapFile t2 = SystemTestUtil.createRandomHeapFile(3, 2000, 200, null, right);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        List<List<Integer>> viaTuples = readTuples(new HashEquiJoin(p,
+                new SeqScan(tid, t1.getId(), "a"), new SeqScan(tid, t2.getId(), "b")));
+        List<List<Integer>> viaBatches = readBatches(new HashEquiJoin(p,
+                new SeqScan(tid, t1.getId(), "a"), new SeqScan(tid, t2.getId(), "b")), 100);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int matches = 0;
+        for (List<Integer> l : left) {
+            for (List<Integer> r : right) {
+                if (l.get(0).equals(r.get(1))) {
+                    matches++;
+                }
+            }
+        }
+        assertTrue(matches > 0);
+        assertEquals(matches, viaBatches.size());
+        assertEquals(sorted(viaTuples), sorted(viaBatches));
+    }
+
+    /**
+     * Tuples inserted by the transaction, not yet written to disk, are read
+     * into batches too
+     */
+    @Test public void scanSeesInsertedTuples() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 5; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{-i, i}));
+            tuples.add(Arrays.asList(-i, i));
+        }
+        List<List<Integer>> read = readBatches(new SeqScan(tid, table.getId(), "t"), TupleBatch.DEFAULT_CAPACITY);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(sorted(tuples), sorted(read));
+    }
+
+    /**
+     * A projected batch goes back to its own columns when it is cleared,
+     * without allocating new ones
+     */
+    @Test public void clearedProjectionReusesItsColumns() {
+        TupleDesc td = Utility.getTupleDesc(3);
+        TupleBatch from = new TupleBatch(td, 4);
+        from.add(Utility.getHeapTuple(new int[]{1, 2, 3}));
+        TupleBatch batch = new TupleBatch(Utility.getTupleDesc(2), 4);
+        int[] own = batch.getIntColumn(0);
+
+        batch.project(from, new int[]{2, 0});
+        assertSame(from.getIntColumn(2), batch.getIntColumn(0));
+        assertEquals(1, batch.getInt(0, 1));
+
+        batch.clear();
+        assertSame(own, batch.getIntColumn(0));
+        batch.add(Utility.getHeapTuple(new int[]{7, 8}));
+        assertEquals(3, from.getInt(0, 2));
+        assertEquals(8, batch.getInt(0, 1));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(BatchExecutionTest.class);
+    }
+}
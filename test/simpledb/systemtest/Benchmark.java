@@ -0,0 +1,136 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import simpledb.common.Database;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Compares the throughput of the paths the system tests check against each
+ * other, outside of JUnit so that the tests stay quiet and quick:
+ * <ul>
+ * <li>batch: a scan-filter-project-aggregate plan tuple at a time and batch
+ * at a time (see {@link BatchExecutionTest})</li>
+ * <li>scan: SeqScans from one thread and from many threads over a buffer
+ * pool too small for the tables (see {@link ConcurrentScanTest})</li>
+ * <li>compressed: scans of a plain and of a compressed table from an empty
+ * buffer pool, and the size of both (see {@link CompressedScanTest})</li>
+ * <li>commit: forced and group commits from a growing number of threads
+ * (see {@link GroupCommitTest})</li>
+ * </ul>
+ * Run with "ant benchmark", optionally naming the benchmarks to run with
+ * -Dbenchmark=batch,scan; by default all are run.
+ */
+public class Benchmark {
+    private static final int BATCH_ROWS = 200000;
+    private static final int RUNS = 5;
+
+    private static double rate(long count, long begin) {
+        return count / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static void batch() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, BATCH_ROWS, 1000, null, null);
+        TransactionId tid = new TransactionId();
+        // warm up the JIT before measuring
+        BatchExecutionTest.readTuples(BatchExecutionTest.plan(tid, table));
+        BatchExecutionTest.readBatches(BatchExecutionTest.plan(tid, table), TupleBatch.DEFAULT_CAPACITY);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            BatchExecutionTest.readTuples(BatchExecutionTest.plan(tid, table));
+        }
+        double tupleRate = rate((long) RUNS * BATCH_ROWS, begin);
+        begin = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            BatchExecutionTest.readBatches(BatchExecutionTest.plan(tid, table), TupleBatch.DEFAULT_CAPACITY);
+        }
+        double batchRate = rate((long) RUNS * BATCH_ROWS, begin);
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.printf("batch: tuple at a time %.0f tuples/s, batch at a time %.0f tuples/s%n",
+                tupleRate, batchRate);
+    }
+
+    private static void scan() throws Exception {
+        HeapFile[] tables = ConcurrentScanTest.createTables();
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Math.max(4, 2 * cores);
+        // warm up the JIT before measuring
+        ConcurrentScanTest.runScans(threads, tables);
+
+        double single = ConcurrentScanTest.runScans(1, tables);
+        double many = ConcurrentScanTest.runScans(threads, tables);
+        System.out.printf("scan: 1 thread %.0f tuples/s, %d threads %.0f tuples/s (%.2fx, %d cores)%n",
+                single, threads, many, many / single, cores);
+    }
+
+    private static void compressed() throws Exception {
+        HeapFile[] tables = CompressedScanTest.createTables();
+        HeapFile plain = tables[0];
+        HeapFile compressed = tables[1];
+        // warm up the JIT before measuring
+        CompressedScanTest.scan(plain, RUNS, new ArrayList<>());
+        CompressedScanTest.scan(compressed, RUNS, new ArrayList<>());
+
+        double plainRate = CompressedScanTest.scan(plain, RUNS, new ArrayList<>());
+        double compressedRate = CompressedScanTest.scan(compressed, RUNS, new ArrayList<>());
+        long plainSize = CompressedScanTest.size(plain);
+        long compressedSize = CompressedScanTest.size(compressed);
+        System.out.printf("compressed: plain %d bytes, %.0f tuples/s; compressed %d bytes (%.1f%%), %.0f tuples/s%n",
+                plainSize, plainRate, compressedSize, 100.0 * compressedSize / plainSize, compressedRate);
+    }
+
+    private static void commit() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (boolean group : new boolean[]{false, true}) {
+            log.setGroupCommit(group);
+            for (int threads : GroupCommitTest.THREADS) {
+                double rate = GroupCommitTest.runCommits(log, threads);
+                System.out.printf("commit: %s, %2d threads: %.0f commits/s%n",
+                        group ? "group " : "forced", threads, rate);
+            }
+        }
+        log.setGroupCommit(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> names = Arrays.asList("batch", "scan", "compressed", "commit");
+        List<String> run = new ArrayList<>();
+        for (String arg : args) {
+            for (String name : arg.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    run.add(name.trim());
+                }
+            }
+        }
+        if (run.isEmpty()) {
+            run = names;
+        }
+        for (String name : run) {
+            Database.reset();
+            switch (name) {
+            case "batch":
+                batch();
+                break;
+            case "scan":
+                scan();
+                break;
+            case "compressed":
+                compressed();
+                break;
+            case "commit":
+                commit();
+                break;
+            default:
+                System.err.println("Unknown benchmark " + name + "; expected one of " + names);
+                System.exit(1);
+            }
+        }
+        System.exit(0);
+    }
+}
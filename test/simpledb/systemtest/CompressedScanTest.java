@@ -0,0 +1,188 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.index.CompressedBTreeFile;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests for compressed tables: the same table of historical readings is
+ * stored as plain and as compressed HeapPages, and both are scanned from an
+ * empty buffer pool. The compressed table must hold the same tuples in much
+ * less space.
+ */
+public class CompressedScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 504 * 40;
+
+    private static File readings() throws Exception {
+        File text = File.createTempFile("readings", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                bw.write(i + "," + (i / 60) + "," + (i % 100) + "\n");
+            }
+        }
+        return text;
+    }
+
+    private static File tempFile(String prefix) throws Exception {
+        File f = File.createTempFile(prefix, ".dat");
+        HeapFile.deleteOnExit(f);
+        return f;
+    }
+
+    /**
+     * Store the readings as plain and as compressed HeapPages, and add both
+     * tables to the catalog.
+     *
+     * @return the plain and the compressed table
+     */
+    static HeapFile[] createTables() throws Exception {
+        Type[] types = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+        File text = readings();
+        File plain = tempFile("plain");
+        File compressed = tempFile("compressed");
+        HeapFileEncoder.convert(text, plain, BufferPool.getPageSize(), 3, types, ',');
+        HeapFileEncoder.convertCompressed(text, compressed, BufferPool.getPageSize(), 3, types, ',');
+
+        HeapFile plainTable = new HeapFile(plain, Utility.getTupleDesc(3));
+        HeapFile compressedTable = new CompressedHeapFile(compressed, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(plainTable, "plain");
+        Database.getCatalog().addTable(compressedTable, "compressed");
+        return new HeapFile[]{plainTable, compressedTable};
+    }
+
+    /**
+     * Scan the table the given number of times, each from an empty buffer
+     * pool, and return the number of tuples read per second.
+     *
+     * @param tuples receives the tuples of the first scan
+     */
+    static double scan(HeapFile table, int scans, List<String> tuples) throws Exception {
+        long begin = System.nanoTime();
+        for (int s = 0; s < scans; s++) {
+            Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            TransactionId tid = new TransactionId();
+            SeqScan scan = new SeqScan(tid, table.getId(), "");
+            scan.open();
+            int count = 0;
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                if (s == 0) {
+                    tuples.add(t.toString());
+                }
+                count++;
+            }
+            scan.close();
+            Database.getBufferPool().transactionComplete(tid);
+            assertEquals(ROWS, count);
+        }
+        return (double) scans * ROWS / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * @return the bytes the table takes on disk, including its page index
+     */
+    static long size(HeapFile table) {
+        File f = table.getFile();
+        return f.length() + new File(f.getPath() + ".idx").length();
+    }
+
+    @Test public void scanAndSize() throws Exception {
+        HeapFile[] tables = createTables();
+        HeapFile plainTable = tables[0];
+        HeapFile compressedTable = tables[1];
+        assertEquals(plainTable.numPages(), compressedTable.numPages());
+
+        List<String> expected = new ArrayList<>();
+        List<String> actual = new ArrayList<>();
+        scan(plainTable, 1, expected);
+        scan(compressedTable, 1, actual);
+        assertEquals(expected, actual);
+        assertTrue(size(compressedTable) * 2 < size(plainTable));
+    }
+
+    /**
+     * Pages written back to a compressed table replace the old ones, also
+     * after a restart
+     */
+    @Test public void insertIntoCompressed() throws Exception {
+        File text = readings();
+        File compressed = tempFile("compressed");
+        HeapFileEncoder.convertCompressed(text, compressed, BufferPool.getPageSize(), 3,
+                new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}, ',');
+        HeapFile table = new CompressedHeapFile(compressed, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(table, "compressed");
+        int numPages = table.numPages();
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 600; i++) {
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{-i, 0, 0}));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(table.numPages() > numPages);
+
+        table.close();
+        table = new CompressedHeapFile(compressed, Utility.getTupleDesc(3));
+        Database.getCatalog().addTable(table, "compressed");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        int count = 0;
+        int inserted = 0;
+        DbFileIterator it = table.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            if (((IntField) it.next().getField(0)).getValue() <= 0) {
+                inserted++;
+            }
+            count++;
+        }
+        it.close();
+        assertEquals(ROWS + 600, count);
+        assertEquals(600 + 1, inserted);
+    }
+
+    /**
+     * A compressed copy of a B+ tree file holds the same pages
+     */
+    @Test public void compressedBTreePages() throws Exception {
+        BTreeFile tree = BTreeUtility.createRandomBTreeFile(2, 5000, null, null, 0);
+        File compressed = tempFile("compressed_index");
+        CompressedBTreeFile.compress(tree.getFile(), compressed);
+        BTreeFile copy = new CompressedBTreeFile(compressed, 0, tree.getTupleDesc());
+        Database.getCatalog().addTable(copy, "compressed_index");
+        assertEquals(tree.numPages(), copy.numPages());
+
+        BTreePageId rootPtr = BTreeRootPtrPage.getId(tree.getId());
+        assertArrayEquals(tree.readPage(rootPtr).getPageData(),
+                copy.readPage(BTreeRootPtrPage.getId(copy.getId())).getPageData());
+        // the bytes of a page are the same whichever category it is read as
+        for (int pgNo = 1; pgNo <= tree.numPages(); pgNo++) {
+            assertArrayEquals(tree.readPage(new BTreePageId(tree.getId(), pgNo, BTreePageId.HEADER)).getPageData(),
+                    copy.readPage(new BTreePageId(copy.getId(), pgNo, BTreePageId.HEADER)).getPageData());
+        }
+        assertTrue(compressed.length() < tree.getFile().length());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedScanTest.class);
+    }
+}
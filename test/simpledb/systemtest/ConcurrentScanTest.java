@@ -0,0 +1,185 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Stress test for the buffer pool's page table: many threads run SeqScans
+ * over the same tables at once through a buffer pool that is too small to
+ * hold them, so hits, misses and evictions all race with each other. Every
+ * scan must still see every tuple exactly once. A page read that takes long
+ * must not hold up requests for other pages.
+ */
+public class ConcurrentScanTest extends SimpleDbTestBase {
+    private static final int ROWS = 504 * 40;
+    private static final int BUFFER_PAGES = 32;
+    private static final int SCANS_PER_THREAD = 20;
+
+    /** A HeapFile whose first page is only read once the test lets it */
+    private static class GatedHeapFile extends HeapFile {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        GatedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            if (pid.getPageNumber() == 0) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Create the tables to scan, and a buffer pool too small to hold them.
+     */
+    static HeapFile[] createTables() throws IOException {
+        HeapFile[] tables = new HeapFile[3];
+        for (int i = 0; i < tables.length; i++) {
+            tables[i] = SystemTestUtil.createRandomHeapFile(2, ROWS, null, null);
+        }
+        Database.resetBufferPool(BUFFER_PAGES);
+        return tables;
+    }
+
+    /**
+     * Run threads threads, each doing SCANS_PER_THREAD scans alternating
+     * between the tables, and return the number of tuples read per second.
+     */
+    static double runScans(int threads, HeapFile[] tables) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int offset = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int s = 0; s < SCANS_PER_THREAD; s++) {
+                        HeapFile table = tables[(offset + s) % tables.length];
+                        TransactionId tid = new TransactionId();
+                        SeqScan scan = new SeqScan(tid, table.getId(), "");
+                        scan.open();
+                        int count = 0;
+                        while (scan.hasNext()) {
+                            scan.next();
+                            count++;
+                        }
+                        scan.close();
+                        Database.getBufferPool().transactionComplete(tid);
+                        assertEquals(ROWS, count);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (failure.get() != null) {
+            throw new AssertionError("scan thread failed", failure.get());
+        }
+        return (double) threads * SCANS_PER_THREAD * ROWS / (elapsed / 1e9);
+    }
+
+    @Test public void testConcurrentSeqScans() throws Exception {
+        HeapFile[] tables = createTables();
+        runScans(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), tables);
+    }
+
+    /**
+     * While one thread waits for a page to be read from disk, hits on
+     * resident pages and misses on pages in other stripes of the page table
+     * go ahead; a pool-wide lock would hold them all up.
+     */
+    @Test public void slowMissBlocksNoOtherPages() throws Exception {
+        HeapFile[] tables = createTables();
+        HeapFile slowTable = SystemTestUtil.createRandomHeapFile(2, 504, null, null);
+        GatedHeapFile gated = new GatedHeapFile(slowTable.getFile(), slowTable.getTupleDesc());
+        Database.getCatalog().addTable(gated, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(BUFFER_PAGES);
+        PageId hot = new HeapPageId(tables[0].getId(), 0);
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            Future<Page> slow = pool.submit(() ->
+                    bp.getPage(tid, new HeapPageId(gated.getId(), 0), Permissions.READ_ONLY));
+            assertTrue(gated.entered.await(10, TimeUnit.SECONDS));
+
+            pool.submit(() -> bp.getPage(tid, hot, Permissions.READ_ONLY)).get(10, TimeUnit.SECONDS);
+            List<Future<Page>> misses = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                PageId pid = new HeapPageId(tables[1].getId(), i);
+                misses.add(pool.submit(() -> bp.getPage(tid, pid, Permissions.READ_ONLY)));
+            }
+            // only a miss that happens to share the stripe of the slow page
+            // waits for it
+            int done = 0;
+            for (Future<Page> miss : misses) {
+                try {
+                    miss.get(done == 0 ? 10 : 1, TimeUnit.SECONDS);
+                    done++;
+                } catch (TimeoutException e) {
+                    // blocked behind the slow page
+                }
+            }
+            assertFalse(slow.isDone());
+            assertTrue(done + " of " + misses.size() + " misses went ahead", done >= misses.size() / 2);
+
+            gated.release.countDown();
+            slow.get(10, TimeUnit.SECONDS);
+            for (Future<Page> miss : misses) {
+                miss.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            gated.release.countDown();
+            pool.shutdownNow();
+            bp.transactionComplete(tid);
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ConcurrentScanTest.class);
+    }
+}
@@ -0,0 +1,97 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests for group commit: threads commit empty transactions as fast as they
+ * can, with every commit forcing the log and with commits sharing forces.
+ * Every commit must return, and the log must hold a begin and a commit
+ * record for each transaction.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int COMMITS_PER_THREAD = 100;
+    static final int[] THREADS = {1, 4, 16};
+
+    /**
+     * Run threads threads that each commit COMMITS_PER_THREAD transactions,
+     * and return the number of commits per second.
+     */
+    static double runCommits(LogFile log, int threads) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int j = 0; j < COMMITS_PER_THREAD; j++) {
+                        TransactionId tid = new TransactionId();
+                        log.logXactionBegin(tid);
+                        log.logCommit(tid);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        int before = log.getTotalRecords();
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        if (failure.get() != null) {
+            throw new RuntimeException(failure.get());
+        }
+        assertEquals(2 * threads * COMMITS_PER_THREAD, log.getTotalRecords() - before);
+        return threads * COMMITS_PER_THREAD / seconds;
+    }
+
+    @Test public void forcedAndGroupCommit() throws Exception {
+        LogFile log = Database.getLogFile();
+        for (boolean group : new boolean[]{false, true}) {
+            log.setGroupCommit(group);
+            for (int threads : THREADS) {
+                runCommits(log, threads);
+            }
+        }
+        log.setGroupCommit(true);
+    }
+
+    /**
+     * A batch size of one and a long delay still commits everything, and a
+     * long delay with a large batch returns once the delay expires
+     */
+    @Test public void batchAndDelayLimits() throws Exception {
+        LogFile log = Database.getLogFile();
+        log.setGroupCommitMaxBatch(1);
+        log.setGroupCommitMaxDelay(1000000);
+        runCommits(log, 4);
+
+        log.setGroupCommitMaxBatch(Integer.MAX_VALUE);
+        log.setGroupCommitMaxDelay(1000);
+        runCommits(log, 4);
+
+        log.setGroupCommitMaxBatch(LogFile.DEFAULT_GROUP_COMMIT_BATCH);
+        log.setGroupCommitMaxDelay(LogFile.DEFAULT_GROUP_COMMIT_DELAY_MICROS);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
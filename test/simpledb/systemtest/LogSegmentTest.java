@@ -0,0 +1,105 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that the log rolls over to new preallocated segments as it grows,
+ * that truncation drops whole segments, and that a reopened log finds the
+ * end of the existing records.
+ */
+public class LogSegmentTest extends SimpleDbTestBase {
+    private static final int SEGMENT_SIZE = 1 << 16;
+
+    private File logFile;
+    private HeapPage page;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("segmentlog", "");
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        page = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    @After public void tearDown() {
+        for (File f : segmentFiles()) {
+            f.delete();
+        }
+        logFile.delete();
+    }
+
+    private File[] segmentFiles() {
+        String prefix = logFile.getName() + ".";
+        File[] files = logFile.getParentFile().listFiles((dir, name) -> name.startsWith(prefix));
+        return files == null ? new File[0] : files;
+    }
+
+    /** Log transactions that each write one page and commit */
+    private void logUpdates(LogFile log, int transactions) throws IOException {
+        for (int i = 0; i < transactions; i++) {
+            TransactionId tid = new TransactionId();
+            log.logXactionBegin(tid);
+            log.logWrite(tid, page, page);
+            log.logCommit(tid);
+        }
+    }
+
+    @Test public void rollOverAndTruncate() throws Exception {
+        LogFile log = new LogFile(logFile, SEGMENT_SIZE);
+        logUpdates(log, 30);
+        assertEquals(90, log.getTotalRecords());
+
+        // every update holds two page images, so 30 of them need several segments
+        int segments = segmentFiles().length;
+        assertTrue("expected several segments, found " + segments, segments > 3);
+        for (File f : segmentFiles()) {
+            assertEquals(SEGMENT_SIZE, f.length());
+        }
+
+        // no transaction is running, so everything before the checkpoint goes
+        log.logCheckpoint();
+        assertEquals(1, segmentFiles().length);
+
+        logUpdates(log, 10);
+        assertTrue(segmentFiles().length > 1);
+        log.shutdown();
+    }
+
+    @Test public void reopenFindsEnd() throws Exception {
+        LogFile log = new LogFile(logFile, SEGMENT_SIZE);
+        logUpdates(log, 12);
+        log.logCheckpoint();
+        logUpdates(log, 12);
+        log.force();
+        int segments = segmentFiles().length;
+
+        LogFile reopened = new LogFile(logFile, SEGMENT_SIZE);
+        reopened.recover();
+        // reads the checkpoint record, which lies before the end found
+        reopened.logTruncate();
+        assertEquals(segments, segmentFiles().length);
+
+        // appends go after the existing records
+        logUpdates(reopened, 12);
+        reopened.logTruncate();
+        assertTrue(segmentFiles().length > segments);
+        reopened.shutdown();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogSegmentTest.class);
+    }
+}